@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Base of the benchmarks run over synthetic documents. The parameters are public fields, as required by JMH, and named as on the command line.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public abstract class AbstractDocumentBenchmark
+{
+    @Param( {
+            "100", "1000"
+    } )
+    public int paragraphCount;
+
+    @Param( {
+            "1", "8"
+    } )
+    public int runsPerParagraph;
+
+    @Param( {
+            "0", "200"
+    } )
+    public int tableRows;
+
+    @Param( {
+            "0.1", "0.5"
+    } )
+    public double placeholderDensity;
+
+    private byte [ ] _template;
+    private Map<String, Object> _model;
+
+    /**
+     * Create the template of the configuration
+     *
+     * @throws IOException
+     */
+    @Setup( Level.Trial )
+    public void createTemplate( ) throws IOException
+    {
+        _template = BenchmarkDocuments.createTemplate( paragraphCount, runsPerParagraph, tableRows, placeholderDensity );
+        _model = BenchmarkDocuments.createModel( );
+    }
+
+    /**
+     *
+     * @return the template
+     */
+    protected byte [ ] getTemplate( )
+    {
+        return _template;
+    }
+
+    /**
+     *
+     * @return the model
+     */
+    protected Map<String, Object> getModel( )
+    {
+        return _model;
+    }
+
+    /**
+     *
+     * @return a new document loaded from the template
+     * @throws IOException
+     */
+    protected XWPFDocument loadTemplate( ) throws IOException
+    {
+        return new XWPFDocument( new ByteArrayInputStream( _template ) );
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.benchmark;
+
+import fr.paris.lutece.plugins.wordtemplate.service.SyntheticDocumentGenerator;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+
+/**
+ * Synthetic documents of the benchmarks, made by the {@link SyntheticDocumentGenerator} of the tests. The documents of a given configuration are always the
+ * same.
+ */
+public final class BenchmarkDocuments
+{
+    private static final long SEED = 42L;
+    private static final int TABLE_COLUMNS = 4;
+
+    /**
+     * Private constructor
+     */
+    private BenchmarkDocuments( )
+    {
+    }
+
+    /**
+     * Create a template
+     *
+     * @param nParagraphCount
+     *            the number of paragraphs
+     * @param nRunsPerParagraph
+     *            the number of runs of each paragraph. The text of a paragraph is split at arbitrary positions, so that placeholders are split across runs.
+     * @param nTableRows
+     *            the number of rows of the table following the paragraphs, or 0 for no table
+     * @param dPlaceholderDensity
+     *            the probability for each word of a paragraph to be a placeholder
+     * @return the template
+     * @throws IOException
+     */
+    public static byte [ ] createTemplate( int nParagraphCount, int nRunsPerParagraph, int nTableRows, double dPlaceholderDensity ) throws IOException
+    {
+        SyntheticDocumentGenerator generator = new SyntheticDocumentGenerator( );
+        generator.setSeed( SEED );
+        generator.setPages( 1 );
+        generator.setParagraphsPerPage( nParagraphCount );
+        generator.setTablesPerPage( nTableRows > 0 ? 1 : 0 );
+        generator.setTableSize( nTableRows, TABLE_COLUMNS );
+        generator.setRunsPerParagraph( nRunsPerParagraph );
+        generator.setPlaceholderDensity( dPlaceholderDensity );
+        return generator.generate( );
+    }
+
+    /**
+     *
+     * @return the model of the placeholders of the templates
+     */
+    public static Map<String, Object> createModel( )
+    {
+        return SyntheticDocumentGenerator.createModel( );
+    }
+
+    /**
+     *
+     * @param nIndex
+     * @return the placeholder of a key of the model
+     */
+    public static String getPlaceholder( int nIndex )
+    {
+        return SyntheticDocumentGenerator.getPlaceholder( nIndex );
+    }
+
+    /**
+     * Fill a paragraph with words and placeholders
+     *
+     * @param paragraph
+     * @param nRuns
+     * @param dPlaceholderDensity
+     * @param random
+     */
+    public static void fillParagraph( XWPFParagraph paragraph, int nRuns, double dPlaceholderDensity, Random random )
+    {
+        SyntheticDocumentGenerator.fillParagraph( paragraph, nRuns, dPlaceholderDensity, random );
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.benchmark;
+
+import fr.paris.lutece.plugins.wordtemplate.service.WordService;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the clone and split operations of the {@link WordService}
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class WordServiceBenchmark
+{
+    private static final int PARAGRAPH_COUNT = 100;
+
+    @Param( {
+            "1", "8", "32"
+    } )
+    public int runsPerParagraph;
+
+    private XWPFDocument _document;
+
+    /**
+     * Create a fresh document : the operations change the document
+     */
+    @Setup( Level.Invocation )
+    public void createDocument( )
+    {
+        Random random = new Random( 42L );
+        _document = new XWPFDocument( );
+        for ( int i = 0; i < PARAGRAPH_COUNT; i++ )
+        {
+            BenchmarkDocuments.fillParagraph( _document.createParagraph( ), runsPerParagraph, 0.3, random );
+        }
+    }
+
+    /**
+     * Close the document
+     *
+     * @throws IOException
+     */
+    @TearDown( Level.Invocation )
+    public void closeDocument( ) throws IOException
+    {
+        _document.close( );
+    }
+
+    /**
+     * Clone each paragraph at the end of the document
+     */
+    @Benchmark
+    public void cloneParagraphs( )
+    {
+        List<XWPFParagraph> listParagraphs = _document.getParagraphs( );
+        for ( int i = 0; i < PARAGRAPH_COUNT; i++ )
+        {
+            WordService.cloneParagraph( _document.createParagraph( ), listParagraphs.get( i ), false );
+        }
+    }
+
+    /**
+     * Split each run of each paragraph in its middle
+     */
+    @Benchmark
+    public void splitRuns( )
+    {
+        for ( XWPFParagraph paragraph : _document.getParagraphs( ) )
+        {
+            List<XWPFRun> listRuns = paragraph.getRuns( );
+            // From the last run, so that the indexes of the runs still to split do not change
+            for ( int nRun = listRuns.size( ) - 1; nRun >= 0; nRun-- )
+            {
+                String strText = listRuns.get( nRun ).getText( 0 );
+                if ( strText != null && strText.length( ) > 1 )
+                {
+                    WordService.splitRun( paragraph, nRun, strText.length( ) / 2 );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.benchmark;
+
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateParser;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateProcessor;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark of the writing of a processed document
+ */
+public class WriteBenchmark extends AbstractDocumentBenchmark
+{
+    private XWPFDocument _document;
+
+    /**
+     * Produce a processed document
+     *
+     * @throws Exception
+     */
+    @Setup( Level.Invocation )
+    public void processDocument( ) throws Exception
+    {
+        _document = loadTemplate( );
+        new WordTemplateProcessor( ).process( new WordTemplateParser( ).parse( _document, null ), getModel( ) );
+    }
+
+    /**
+     * Close the document
+     *
+     * @throws IOException
+     */
+    @TearDown( Level.Invocation )
+    public void closeDocument( ) throws IOException
+    {
+        _document.close( );
+    }
+
+    /**
+     *
+     * @return the written document
+     * @throws IOException
+     */
+    @Benchmark
+    public ByteArrayOutputStream write( ) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( getTemplate( ).length );
+        _document.write( bos );
+        return bos;
+    }
+}
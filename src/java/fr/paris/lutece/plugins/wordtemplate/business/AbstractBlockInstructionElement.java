@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+
+/**
+ * Instruction opening a block closed by a {@link ClosingInstructionElement}, like <code>&lt;#list&gt;</code>. The instructions found between the opening and
+ * the closing instructions are the children of the block.
+ */
+public abstract class AbstractBlockInstructionElement extends AbstractInstructionElement
+{
+    private final List<IWordTemplateElement> _listChildren = new ArrayList<>( );
+    private ClosingInstructionElement _closing;
+
+    /**
+     *
+     * @param strExpression
+     * @param run
+     */
+    public AbstractBlockInstructionElement( String strExpression, XWPFRun run )
+    {
+        super( strExpression, run );
+    }
+
+    /**
+     *
+     * @return the name of the directive, as written after <code>&lt;#</code>
+     */
+    public abstract String getDirectiveName( );
+
+    /**
+     *
+     * @return the instructions of the block, in document order
+     */
+    public List<IWordTemplateElement> getChildren( )
+    {
+        return _listChildren;
+    }
+
+    /**
+     *
+     * @return the instruction closing the block
+     */
+    public ClosingInstructionElement getClosing( )
+    {
+        return _closing;
+    }
+
+    /**
+     *
+     * @param closing
+     *            the instruction closing the block
+     */
+    public void setClosing( ClosingInstructionElement closing )
+    {
+        _closing = closing;
+    }
+}
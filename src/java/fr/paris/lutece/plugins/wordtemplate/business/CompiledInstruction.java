@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.business;
+
+/**
+ * A position independent instruction of a compiled word template. It locates the run of the instruction by the name of its package part, the index of its
+ * paragraph in the paragraphs of the part, in the order of the {@link fr.paris.lutece.plugins.wordtemplate.service.visitor.DocumentWalker}, and the index of
+ * the run in the paragraph. It never keeps a reference on the objects of a loaded document.
+ */
+public class CompiledInstruction
+{
+    private final String _strPartName;
+    private final int _nParagraphIndex;
+    private final int _nRunIndex;
+    private final String _strType;
+    private final String _strExpression;
+
+    /**
+     * Constructor
+     *
+     * @param strPartName
+     *            the name of the package part containing the instruction
+     * @param nParagraphIndex
+     *            the index of the paragraph in the paragraphs of the part
+     * @param nRunIndex
+     *            the index of the run in the paragraph
+     * @param strType
+     *            the type of the instruction
+     * @param strExpression
+     *            the expression of the instruction
+     */
+    public CompiledInstruction( String strPartName, int nParagraphIndex, int nRunIndex, String strType, String strExpression )
+    {
+        _strPartName = strPartName;
+        _nParagraphIndex = nParagraphIndex;
+        _nRunIndex = nRunIndex;
+        _strType = strType;
+        _strExpression = strExpression;
+    }
+
+    /**
+     *
+     * @return the name of the package part containing the instruction
+     */
+    public String getPartName( )
+    {
+        return _strPartName;
+    }
+
+    /**
+     *
+     * @return the index of the paragraph containing the instruction in the paragraphs of the part
+     */
+    public int getParagraphIndex( )
+    {
+        return _nParagraphIndex;
+    }
+
+    /**
+     *
+     * @return the index of the run in the paragraph
+     */
+    public int getRunIndex( )
+    {
+        return _nRunIndex;
+    }
+
+    /**
+     *
+     * @return the type of the instruction
+     */
+    public String getType( )
+    {
+        return _strType;
+    }
+
+    /**
+     *
+     * @return the expression of the instruction
+     */
+    public String getExpression( )
+    {
+        return _strExpression;
+    }
+}
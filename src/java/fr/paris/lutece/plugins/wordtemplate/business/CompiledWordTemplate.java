@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.business;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A compiled word template : the package of the template, normalized once so that each instruction is held by a single run, and the program of instructions
+ * to replay on a fresh copy of this package at each render. A compiled template is immutable and can be shared between threads.
+ */
+public class CompiledWordTemplate
+{
+    private final ByteBuffer _packageContent;
+    private final List<CompiledInstruction> _listInstructions;
+    private final Set<String> _setInstructionPartNames;
+    private final String _strTemplateId;
+
+    /**
+     * Constructor
+     *
+     * @param packageContent
+     *            the content of the normalized package
+     * @param listInstructions
+     *            the instructions, in document order
+     */
+    public CompiledWordTemplate( byte [ ] packageContent, List<CompiledInstruction> listInstructions )
+    {
+        this( ByteBuffer.wrap( packageContent ), listInstructions );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param packageContent
+     *            the content of the normalized package, from its position to its limit. The buffer may be a memory-mapped file : it must not be modified.
+     * @param listInstructions
+     *            the instructions, in document order
+     */
+    public CompiledWordTemplate( ByteBuffer packageContent, List<CompiledInstruction> listInstructions )
+    {
+        _packageContent = packageContent.slice( ).asReadOnlyBuffer( );
+        _listInstructions = Collections.unmodifiableList( listInstructions );
+
+        Set<String> setInstructionPartNames = new LinkedHashSet<>( );
+        for ( CompiledInstruction instruction : listInstructions )
+        {
+            setInstructionPartNames.add( instruction.getPartName( ) );
+        }
+        _setInstructionPartNames = Collections.unmodifiableSet( setInstructionPartNames );
+        _strTemplateId = null;
+    }
+
+    /**
+     * Constructor of a copy of a compiled template with another id
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param strTemplateId
+     *            the id
+     */
+    private CompiledWordTemplate( CompiledWordTemplate compiledTemplate, String strTemplateId )
+    {
+        _packageContent = compiledTemplate._packageContent;
+        _listInstructions = compiledTemplate._listInstructions;
+        _setInstructionPartNames = compiledTemplate._setInstructionPartNames;
+        _strTemplateId = strTemplateId;
+    }
+
+    /**
+     * Get a copy of this compiled template with an id. The copy shares the package and the instructions of this compiled template.
+     *
+     * @param strTemplateId
+     *            the id of the template, which tags the metrics of its renders
+     * @return the copy
+     */
+    public CompiledWordTemplate withTemplateId( String strTemplateId )
+    {
+        return new CompiledWordTemplate( this, strTemplateId );
+    }
+
+    /**
+     *
+     * @return the id of the template, or null if it has none
+     */
+    public String getTemplateId( )
+    {
+        return _strTemplateId;
+    }
+
+    /**
+     *
+     * @return a new stream on the content of the normalized package
+     */
+    public InputStream getPackageInputStream( )
+    {
+        return new ByteBufferInputStream( getPackageBuffer( ) );
+    }
+
+    /**
+     *
+     * @return a read-only buffer on the content of the normalized package
+     */
+    public ByteBuffer getPackageBuffer( )
+    {
+        return _packageContent.duplicate( );
+    }
+
+    /**
+     *
+     * @return the size of the normalized package
+     */
+    public int getPackageSize( )
+    {
+        return _packageContent.remaining( );
+    }
+
+    /**
+     *
+     * @return the instructions, in document order
+     */
+    public List<CompiledInstruction> getInstructions( )
+    {
+        return _listInstructions;
+    }
+
+    /**
+     *
+     * @return the names of the parts holding instructions. The other parts are never modified by a render.
+     */
+    public Set<String> getInstructionPartNames( )
+    {
+        return _setInstructionPartNames;
+    }
+
+    /**
+     * Input stream reading a byte buffer
+     */
+    private static final class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer _buffer;
+
+        /**
+         * Constructor
+         *
+         * @param buffer
+         *            the buffer, read from its position to its limit
+         */
+        ByteBufferInputStream( ByteBuffer buffer )
+        {
+            _buffer = buffer;
+        }
+
+        @Override
+        public int read( )
+        {
+            return _buffer.hasRemaining( ) ? ( _buffer.get( ) & 0xFF ) : -1;
+        }
+
+        @Override
+        public int read( byte [ ] buffer, int nOffset, int nLength )
+        {
+            if ( nLength == 0 )
+            {
+                return 0;
+            }
+            if ( !_buffer.hasRemaining( ) )
+            {
+                return -1;
+            }
+            int nRead = Math.min( nLength, _buffer.remaining( ) );
+            _buffer.get( buffer, nOffset, nRead );
+            return nRead;
+        }
+
+        @Override
+        public long skip( long lCount )
+        {
+            int nSkipped = (int) Math.max( 0, Math.min( lCount, _buffer.remaining( ) ) );
+            _buffer.position( _buffer.position( ) + nSkipped );
+            return nSkipped;
+        }
+
+        @Override
+        public int available( )
+        {
+            return _buffer.remaining( );
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.business;
+
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+
+/**
+ * <code>&lt;#image source width=120 height=40&gt;</code> instruction : the run is replaced by the image of the source, sized in points. Without a size, the
+ * image keeps its own size ; with a single one, it keeps its ratio.
+ */
+public class ImageInstructionElement extends AbstractInstructionElement
+{
+    /**
+     *
+     */
+    public static final String IMAGE_TYPE = "image";
+
+    private final String _strSource;
+    private final int _nWidth;
+    private final int _nHeight;
+
+    /**
+     *
+     * @param strExpression
+     * @param run
+     * @param strSource
+     *            the property path of the source of the image in the model
+     * @param nWidth
+     *            the width in points, or 0
+     * @param nHeight
+     *            the height in points, or 0
+     */
+    public ImageInstructionElement( String strExpression, XWPFRun run, String strSource, int nWidth, int nHeight )
+    {
+        super( strExpression, run );
+        _strSource = strSource;
+        _nWidth = nWidth;
+        _nHeight = nHeight;
+    }
+
+    @Override
+    public String getType( )
+    {
+        return IMAGE_TYPE;
+    }
+
+    /**
+     *
+     * @return the property path of the source of the image in the model
+     */
+    public String getSource( )
+    {
+        return _strSource;
+    }
+
+    /**
+     *
+     * @return the width in points, or 0
+     */
+    public int getWidth( )
+    {
+        return _nWidth;
+    }
+
+    /**
+     *
+     * @return the height in points, or 0
+     */
+    public int getHeight( )
+    {
+        return _nHeight;
+    }
+}
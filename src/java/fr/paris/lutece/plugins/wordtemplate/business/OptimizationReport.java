@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.business;
+
+/**
+ * Report of the optimization of a template
+ */
+public class OptimizationReport
+{
+    private final int _nRunCountBefore;
+    private final int _nRunCountAfter;
+    private final int _nRemovedElementCount;
+    private final int _nRemovedAttributeCount;
+
+    /**
+     * Constructor
+     *
+     * @param nRunCountBefore
+     *            the number of runs before the optimization
+     * @param nRunCountAfter
+     *            the number of runs after the optimization
+     * @param nRemovedElementCount
+     *            the number of revision elements removed
+     * @param nRemovedAttributeCount
+     *            the number of revision attributes removed
+     */
+    public OptimizationReport( int nRunCountBefore, int nRunCountAfter, int nRemovedElementCount, int nRemovedAttributeCount )
+    {
+        _nRunCountBefore = nRunCountBefore;
+        _nRunCountAfter = nRunCountAfter;
+        _nRemovedElementCount = nRemovedElementCount;
+        _nRemovedAttributeCount = nRemovedAttributeCount;
+    }
+
+    /**
+     *
+     * @return the number of runs before the optimization
+     */
+    public int getRunCountBefore( )
+    {
+        return _nRunCountBefore;
+    }
+
+    /**
+     *
+     * @return the number of runs after the optimization
+     */
+    public int getRunCountAfter( )
+    {
+        return _nRunCountAfter;
+    }
+
+    /**
+     *
+     * @return the number of revision elements removed
+     */
+    public int getRemovedElementCount( )
+    {
+        return _nRemovedElementCount;
+    }
+
+    /**
+     *
+     * @return the number of revision attributes removed
+     */
+    public int getRemovedAttributeCount( )
+    {
+        return _nRemovedAttributeCount;
+    }
+
+    @Override
+    public String toString( )
+    {
+        return "runs " + _nRunCountBefore + " -> " + _nRunCountAfter + ", removed elements " + _nRemovedElementCount + ", removed attributes "
+                + _nRemovedAttributeCount;
+    }
+}
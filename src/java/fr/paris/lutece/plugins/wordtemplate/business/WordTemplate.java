@@ -33,6 +33,7 @@
  */
 package fr.paris.lutece.plugins.wordtemplate.business;
 
+import fr.paris.lutece.plugins.wordtemplate.service.visitor.DocumentIndex;
 import java.util.List;
 
 /**
@@ -41,6 +42,7 @@ import java.util.List;
 public class WordTemplate
 {
     private List<IWordTemplateElement> _listTemplateElements;
+    private DocumentIndex _documentIndex;
 
     /**
      *
@@ -59,4 +61,23 @@ public class WordTemplate
     {
         _listTemplateElements = listInstructions;
     }
+
+    /**
+     *
+     * @return the index of the document of the template
+     */
+    public DocumentIndex getDocumentIndex( )
+    {
+        return _documentIndex;
+    }
+
+    /**
+     * Set the index of the document of the template. The template keeps the index while the document is processed.
+     *
+     * @param documentIndex
+     */
+    public void setDocumentIndex( DocumentIndex documentIndex )
+    {
+        _documentIndex = documentIndex;
+    }
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded executor of asynchronous renders. At most a given number of renders run at the same time and at most a given number wait for their turn : beyond
+ * that, a submission is rejected immediately instead of queuing more work.
+ * <p>
+ * On a runtime providing virtual threads, each admitted render gets its own virtual thread and waits for a permit of the concurrency cap. Otherwise a
+ * fixed pool of platform threads with a bounded queue is used.
+ * </p>
+ */
+public class AsyncRenderExecutor
+{
+    private static final String THREAD_NAME_PREFIX = "wordtemplate-async-";
+    private static final String METHOD_VIRTUAL_THREAD_EXECUTOR = "newVirtualThreadPerTaskExecutor";
+    private static final AtomicInteger _nThreadCount = new AtomicInteger( );
+
+    private final ExecutorService _executor;
+    private final Semaphore _semaphoreRunning;
+    private final Semaphore _semaphoreAdmitted;
+    private final boolean _bVirtualThreads;
+    private final int _nMaxConcurrency;
+    private final int _nMaxQueued;
+
+    /**
+     * Constructor
+     *
+     * @param nMaxConcurrency
+     *            the maximum number of renders running at the same time
+     * @param nMaxQueued
+     *            the maximum number of renders waiting for their turn
+     */
+    public AsyncRenderExecutor( int nMaxConcurrency, int nMaxQueued )
+    {
+        if ( nMaxConcurrency < 1 || nMaxQueued < 0 )
+        {
+            throw new IllegalArgumentException( "Invalid limits : concurrency " + nMaxConcurrency + ", queue " + nMaxQueued );
+        }
+
+        _nMaxConcurrency = nMaxConcurrency;
+        _nMaxQueued = nMaxQueued;
+
+        ExecutorService virtualThreadExecutor = createVirtualThreadExecutor( );
+        if ( virtualThreadExecutor != null )
+        {
+            _bVirtualThreads = true;
+            _executor = virtualThreadExecutor;
+            _semaphoreRunning = new Semaphore( nMaxConcurrency );
+            _semaphoreAdmitted = new Semaphore( nMaxConcurrency + nMaxQueued );
+        }
+        else
+        {
+            _bVirtualThreads = false;
+            _executor = new ThreadPoolExecutor( nMaxConcurrency, nMaxConcurrency, 0L, TimeUnit.MILLISECONDS,
+                    nMaxQueued > 0 ? new ArrayBlockingQueue<Runnable>( nMaxQueued ) : new SynchronousQueue<Runnable>( ), runnable -> {
+                        Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + _nThreadCount.incrementAndGet( ) );
+                        thread.setDaemon( true );
+                        return thread;
+                    }, new ThreadPoolExecutor.AbortPolicy( ) );
+            _semaphoreRunning = null;
+            _semaphoreAdmitted = null;
+        }
+    }
+
+    /**
+     * Submit a render
+     *
+     * @param <T>
+     *            the type of the result
+     * @param supplier
+     *            the render
+     * @return the future result. It is completed exceptionally with a {@link RejectedExecutionException} if the executor is saturated.
+     */
+    public <T> CompletableFuture<T> submit( Supplier<T> supplier )
+    {
+        CompletableFuture<T> future = new CompletableFuture<>( );
+
+        if ( _bVirtualThreads && !_semaphoreAdmitted.tryAcquire( ) )
+        {
+            future.completeExceptionally( new RejectedExecutionException( "Too many pending renders" ) );
+            return future;
+        }
+
+        try
+        {
+            _executor.execute( ( ) -> run( supplier, future ) );
+        }
+        catch( RejectedExecutionException e )
+        {
+            if ( _bVirtualThreads )
+            {
+                _semaphoreAdmitted.release( );
+            }
+            future.completeExceptionally( e );
+        }
+
+        return future;
+    }
+
+    /**
+     * Run a render and complete its future
+     *
+     * @param <T>
+     *            the type of the result
+     * @param supplier
+     *            the render
+     * @param future
+     *            the future result
+     */
+    private <T> void run( Supplier<T> supplier, CompletableFuture<T> future )
+    {
+        try
+        {
+            if ( _bVirtualThreads )
+            {
+                _semaphoreRunning.acquire( );
+            }
+            try
+            {
+                future.complete( supplier.get( ) );
+            }
+            finally
+            {
+                if ( _bVirtualThreads )
+                {
+                    _semaphoreRunning.release( );
+                }
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            future.completeExceptionally( e );
+        }
+        catch( RuntimeException | Error e )
+        {
+            future.completeExceptionally( e );
+        }
+        finally
+        {
+            if ( _bVirtualThreads )
+            {
+                _semaphoreAdmitted.release( );
+            }
+        }
+    }
+
+    /**
+     *
+     * @return true if the renders run on virtual threads
+     */
+    public boolean isVirtualThreads( )
+    {
+        return _bVirtualThreads;
+    }
+
+    /**
+     *
+     * @return the maximum number of renders running at the same time
+     */
+    public int getMaxConcurrency( )
+    {
+        return _nMaxConcurrency;
+    }
+
+    /**
+     *
+     * @return the maximum number of renders waiting for their turn
+     */
+    public int getMaxQueued( )
+    {
+        return _nMaxQueued;
+    }
+
+    /**
+     * Stop accepting renders. The submitted renders are completed.
+     */
+    public void shutdown( )
+    {
+        _executor.shutdown( );
+    }
+
+    /**
+     * Create an executor starting a virtual thread per task, if the runtime provides it. It is looked up by reflection so that the library still runs on
+     * older runtimes.
+     *
+     * @return the executor, or null
+     */
+    private static ExecutorService createVirtualThreadExecutor( )
+    {
+        try
+        {
+            Method method = Executors.class.getMethod( METHOD_VIRTUAL_THREAD_EXECUTOR );
+            return (ExecutorService) method.invoke( null );
+        }
+        catch( ReflectiveOperationException | RuntimeException e )
+        {
+            return null;
+        }
+    }
+}
@@ -35,24 +35,22 @@ package fr.paris.lutece.plugins.wordtemplate.service;
 
 import fr.paris.lutece.plugins.wordtemplate.business.IWordTemplateElement;
 import fr.paris.lutece.plugins.wordtemplate.service.instruction.IInstructionManager;
-import fr.paris.lutece.plugins.wordtemplate.service.instruction.InterpolationInstructionManager;
+import fr.paris.lutece.plugins.wordtemplate.service.instruction.InstructionManagerRegistry;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import org.apache.poi.xwpf.usermodel.XWPFRun;
 
 /**
- * Service for instruction management
+ * Service for instruction management. The managers are provided by the {@link InstructionManagerRegistry}.
  */
 public class InstructionService
 {
-    private static InstructionService _instructionService;
-    private List<IInstructionManager> _listInstructionManager;
+    private static final InstructionService _instructionService = new InstructionService( );
 
     private InstructionService( )
     {
-        _listInstructionManager = new ArrayList<>( );
-        _listInstructionManager.add( new InterpolationInstructionManager( ) );
     }
 
     /**
@@ -61,11 +59,6 @@ public class InstructionService
      */
     public static InstructionService init( )
     {
-        if ( _instructionService == null )
-        {
-            _instructionService = new InstructionService( );
-        }
-
         return _instructionService;
     }
 
@@ -77,13 +70,10 @@ public class InstructionService
      */
     public IWordTemplateElement createInstruction( String expression, XWPFRun run )
     {
-        for ( IInstructionManager instructionManager : _listInstructionManager )
+        IInstructionManager instructionManager = InstructionManagerRegistry.getSnapshot( ).findManager( expression );
+        if ( instructionManager != null )
         {
-            if ( instructionManager.isOfType( expression ) )
-            {
-                IWordTemplateElement element = instructionManager.createInstruction( expression, run );
-                return element;
-            }
+            return instructionManager.createInstruction( expression, run );
         }
         return null;
     }
@@ -95,9 +85,56 @@ public class InstructionService
      */
     public void processInstruction( IWordTemplateElement instruction, Map<String, Object> model )
     {
-        for ( IInstructionManager instructionManager : _listInstructionManager )
+        if ( instruction == null )
+        {
+            // Text looking like an instruction without manager is left as is
+            return;
+        }
+
+        InstructionManagerRegistry.Snapshot snapshot = InstructionManagerRegistry.getSnapshot( );
+        for ( IInstructionManager instructionManager : snapshot.getManagersByType( instruction.getType( ) ) )
         {
             instructionManager.processInstruction( instruction, model );
         }
+        for ( IInstructionManager instructionManager : snapshot.getUntypedManagers( ) )
+        {
+            instructionManager.processInstruction( instruction, model );
+        }
+    }
+
+    /**
+     * Process the instructions of a document, letting each manager process its instructions at once
+     *
+     * @param listInstructions
+     * @param model
+     */
+    public void processInstructions( List<IWordTemplateElement> listInstructions, Map<String, Object> model )
+    {
+        InstructionManagerRegistry.Snapshot snapshot = InstructionManagerRegistry.getSnapshot( );
+
+        Map<String, List<IWordTemplateElement>> mapInstructionsByType = new LinkedHashMap<>( );
+        List<IWordTemplateElement> listManagedInstructions = new ArrayList<>( listInstructions.size( ) );
+        for ( IWordTemplateElement instruction : listInstructions )
+        {
+            if ( instruction == null )
+            {
+                // Text looking like an instruction without manager is left as is
+                continue;
+            }
+            listManagedInstructions.add( instruction );
+            mapInstructionsByType.computeIfAbsent( instruction.getType( ), k -> new ArrayList<>( ) ).add( instruction );
+        }
+
+        for ( Map.Entry<String, List<IWordTemplateElement>> entry : mapInstructionsByType.entrySet( ) )
+        {
+            for ( IInstructionManager instructionManager : snapshot.getManagersByType( entry.getKey( ) ) )
+            {
+                instructionManager.processInstructions( entry.getValue( ), model );
+            }
+        }
+        for ( IInstructionManager instructionManager : snapshot.getUntypedManagers( ) )
+        {
+            instructionManager.processInstructions( listManagedInstructions, model );
+        }
     }
 }
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service;
+
+import fr.paris.lutece.plugins.wordtemplate.business.AbstractBlockInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledWordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.business.IWordInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.business.IWordTemplateElement;
+import fr.paris.lutece.plugins.wordtemplate.business.InterpolationInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.business.WordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.output.NonClosingOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+/**
+ * Render session of a compiled template, for live previews. The session keeps the rendered document and maps each key of the model to the interpolations
+ * depending on it. When a part of the model changes, only these interpolations are evaluated again and written into their runs : a change of a key used
+ * by a block (<code>&lt;#list&gt;</code>, <code>&lt;#if&gt;</code>) renders the whole document again, since the blocks have already changed its
+ * structure.
+ * <p>
+ * The dependencies are the top level names of the expressions : a model object modified in place must be given again to {@link #update(Map)}. A session
+ * is not shared between threads.
+ * </p>
+ */
+public class RenderSession implements AutoCloseable
+{
+    // Names not following a dot (properties), a question mark (built-ins) or a hash (directives)
+    private static final Pattern PATTERN_ROOT_NAME = Pattern.compile( "(?<![.?#\\w$])([A-Za-z_$][\\w$]*)" );
+    // Expressions reaching the model dynamically depend on all its keys
+    private static final Pattern PATTERN_DYNAMIC_ACCESS = Pattern.compile( "\\.(vars|data_model|globals|main|namespace)\\b|\\?(eval|interpret)\\b" );
+
+    private final CompiledWordTemplate _compiledTemplate;
+    private final Map<String, Object> _model;
+    private XWPFDocument _document;
+    private WordTemplateCompiler _compiler;
+    private Map<String, List<InterpolationInstructionElement>> _mapDependencies;
+    private List<InterpolationInstructionElement> _listDynamicInterpolations;
+    private Set<String> _setBlockKeys;
+    private boolean _bDynamicBlocks;
+    private int _nFullRenderCount;
+
+    /**
+     * Constructor. The document is rendered once with the model.
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param model
+     *            the model. The session keeps its own copy.
+     */
+    public RenderSession( CompiledWordTemplate compiledTemplate, Map<String, Object> model ) throws WordTemplateException
+    {
+        _compiledTemplate = compiledTemplate;
+        _model = new HashMap<>( model );
+        renderFully( );
+    }
+
+    /**
+     * Apply changes to the model. The interpolations depending on the changed keys are evaluated again ; the whole document is rendered again if a block
+     * depends on them.
+     *
+     * @param mapChanges
+     *            the changed keys and their new values. A null value removes the key.
+     * @return the number of interpolations evaluated again, or -1 if the whole document has been rendered again
+     */
+    public int update( Map<String, Object> mapChanges ) throws WordTemplateException
+    {
+        for ( Map.Entry<String, Object> change : mapChanges.entrySet( ) )
+        {
+            if ( change.getValue( ) == null )
+            {
+                _model.remove( change.getKey( ) );
+            }
+            else
+            {
+                _model.put( change.getKey( ), change.getValue( ) );
+            }
+        }
+
+        if ( mapChanges.isEmpty( ) )
+        {
+            return 0;
+        }
+        if ( _bDynamicBlocks || !Collections.disjoint( mapChanges.keySet( ), _setBlockKeys ) )
+        {
+            renderFully( );
+            return -1;
+        }
+
+        Set<InterpolationInstructionElement> setAffected = new LinkedHashSet<>( _listDynamicInterpolations );
+        for ( String strKey : mapChanges.keySet( ) )
+        {
+            List<InterpolationInstructionElement> listDependents = _mapDependencies.get( strKey );
+            if ( listDependents != null )
+            {
+                setAffected.addAll( listDependents );
+            }
+        }
+
+        if ( !setAffected.isEmpty( ) )
+        {
+            InstructionService.init( ).processInstructions( new ArrayList<IWordTemplateElement>( setAffected ), _model );
+        }
+        return setAffected.size( );
+    }
+
+    /**
+     * Write the current state of the document
+     *
+     * @param outputStream
+     *            the stream of the document. It is not closed.
+     */
+    public void write( OutputStream outputStream ) throws WordTemplateException
+    {
+        try
+        {
+            WordTemplateService.writeDocument( _compiledTemplate, _document, _compiler, new NonClosingOutputStream( outputStream ) );
+        }
+        catch( IOException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+
+    /**
+     *
+     * @return the number of times the whole document has been rendered
+     */
+    public int getFullRenderCount( )
+    {
+        return _nFullRenderCount;
+    }
+
+    /**
+     * Release the document of the session
+     */
+    @Override
+    public void close( )
+    {
+        closeDocument( );
+    }
+
+    /**
+     * Render the whole document from the compiled template, and map the keys of the model to the instructions
+     */
+    private void renderFully( )
+    {
+        closeDocument( );
+
+        try
+        {
+            _compiler = new WordTemplateCompiler( );
+            _document = _compiler.load( _compiledTemplate );
+            WordTemplate wordTemplate = _compiler.bind( _compiledTemplate, _document );
+            mapDependencies( wordTemplate.getListInstructions( ) );
+            new WordTemplateProcessor( ).process( wordTemplate, _model );
+            _nFullRenderCount++;
+        }
+        catch( IOException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+
+    /**
+     * Map the keys of the model to the top level interpolations, and collect the keys used by the blocks
+     *
+     * @param listInstructions
+     *            the top level instructions
+     */
+    private void mapDependencies( List<IWordTemplateElement> listInstructions )
+    {
+        _mapDependencies = new HashMap<>( );
+        _listDynamicInterpolations = new ArrayList<>( );
+        _setBlockKeys = new HashSet<>( );
+        _bDynamicBlocks = false;
+
+        for ( IWordTemplateElement instruction : listInstructions )
+        {
+            if ( instruction instanceof InterpolationInstructionElement )
+            {
+                InterpolationInstructionElement interpolation = (InterpolationInstructionElement) instruction;
+                if ( PATTERN_DYNAMIC_ACCESS.matcher( interpolation.getExpression( ) ).find( ) )
+                {
+                    _listDynamicInterpolations.add( interpolation );
+                    continue;
+                }
+                for ( String strKey : getRootNames( interpolation.getExpression( ) ) )
+                {
+                    _mapDependencies.computeIfAbsent( strKey, k -> new ArrayList<>( ) ).add( interpolation );
+                }
+                continue;
+            }
+            collectBlockKeys( instruction );
+        }
+    }
+
+    /**
+     * Collect the keys used by a block, its children and its closing instruction. An instruction of an unknown kind is considered as a block.
+     *
+     * @param instruction
+     *            the instruction
+     */
+    private void collectBlockKeys( IWordTemplateElement instruction )
+    {
+        if ( !( instruction instanceof IWordInstructionElement ) )
+        {
+            _bDynamicBlocks = true;
+            return;
+        }
+
+        String strExpression = ( (IWordInstructionElement) instruction ).getExpression( );
+        if ( PATTERN_DYNAMIC_ACCESS.matcher( strExpression ).find( ) )
+        {
+            _bDynamicBlocks = true;
+        }
+        _setBlockKeys.addAll( getRootNames( strExpression ) );
+
+        if ( instruction instanceof AbstractBlockInstructionElement )
+        {
+            AbstractBlockInstructionElement block = (AbstractBlockInstructionElement) instruction;
+            for ( IWordTemplateElement child : block.getChildren( ) )
+            {
+                collectBlockKeys( child );
+            }
+            if ( block.getClosing( ) != null )
+            {
+                collectBlockKeys( block.getClosing( ) );
+            }
+        }
+    }
+
+    /**
+     * Get the names an expression may look up in the model. Every name which is not a property, a built-in or a directive is kept : names which are not
+     * keys of the model only cost a useless evaluation.
+     *
+     * @param strExpression
+     *            the expression
+     * @return the names
+     */
+    private static Set<String> getRootNames( String strExpression )
+    {
+        Set<String> setNames = new HashSet<>( );
+        Matcher matcher = PATTERN_ROOT_NAME.matcher( strExpression );
+        while ( matcher.find( ) )
+        {
+            setNames.add( matcher.group( 1 ) );
+        }
+        return setNames;
+    }
+
+    /**
+     * Close the current document
+     */
+    private void closeDocument( )
+    {
+        if ( _document == null )
+        {
+            return;
+        }
+        try
+        {
+            _document.close( );
+        }
+        catch( IOException e )
+        {
+            // The package is in memory : nothing is left open
+        }
+        _document = null;
+    }
+}
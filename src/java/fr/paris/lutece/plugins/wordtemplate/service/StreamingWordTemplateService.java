@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service;
+
+import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.output.NonClosingOutputStream;
+import fr.paris.lutece.plugins.wordtemplate.service.stream.NonClosingInputStream;
+import fr.paris.lutece.plugins.wordtemplate.service.stream.StreamingPartProcessor;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Streaming alternative to {@link WordTemplateService} for large templates. Each XML part of the package which may hold text is read as a StAX event stream
+ * and written straight to the output zip, without loading the document in memory. Only interpolations are processed : directives such as
+ * <code>&lt;#list&gt;</code> or <code>&lt;#if&gt;</code> are left in the document as they are written in the template.
+ */
+public class StreamingWordTemplateService
+{
+    private static final Pattern PATTERN_TEXT_PARTS = Pattern.compile( "word/(document|header\\d*|footer\\d*|footnotes|endnotes)\\.xml" );
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Produce a document from template document
+     *
+     * @param templateStream
+     *            the stream of the template document
+     * @param model
+     * @return the produced document
+     */
+    public static ByteArrayOutputStream produceDocument( InputStream templateStream, Map<String, Object> model ) throws WordTemplateException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        produceDocument( templateStream, model, bos );
+        return bos;
+    }
+
+    /**
+     * Produce a document from template document into an output stream
+     *
+     * @param templateStream
+     *            the stream of the template document
+     * @param model
+     * @param outputStream
+     *            the stream of the produced document. It is not closed.
+     */
+    public static void produceDocument( InputStream templateStream, Map<String, Object> model, OutputStream outputStream ) throws WordTemplateException
+    {
+        try
+        {
+            ZipInputStream zis = new ZipInputStream( templateStream );
+            ZipOutputStream zos = new ZipOutputStream( new NonClosingOutputStream( outputStream ) );
+            byte [ ] buffer = new byte [ BUFFER_SIZE];
+
+            for ( ZipEntry entry = zis.getNextEntry( ); entry != null; entry = zis.getNextEntry( ) )
+            {
+                zos.putNextEntry( new ZipEntry( entry.getName( ) ) );
+
+                if ( PATTERN_TEXT_PARTS.matcher( entry.getName( ) ).matches( ) )
+                {
+                    Writer writer = new BufferedWriter( new OutputStreamWriter( new NonClosingOutputStream( zos ), StandardCharsets.UTF_8 ), BUFFER_SIZE );
+                    StreamingPartProcessor processor = new StreamingPartProcessor( writer, model );
+                    processor.process( new NonClosingInputStream( zis ) );
+                    writer.flush( );
+                }
+                else
+                {
+                    for ( int nRead = zis.read( buffer ); nRead >= 0; nRead = zis.read( buffer ) )
+                    {
+                        zos.write( buffer, 0, nRead );
+                    }
+                }
+
+                zos.closeEntry( );
+            }
+
+            zos.close( );
+        }
+        catch( IOException | XMLStreamException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+}
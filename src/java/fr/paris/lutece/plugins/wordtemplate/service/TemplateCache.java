@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service;
+
+import freemarker.template.Template;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of compiled FreeMarker templates, keyed by the text of the template. Hits, misses and evictions are counted so that the cache can be
+ * sized.
+ */
+public class TemplateCache
+{
+    private final Map<String, Template> _mapTemplates;
+    private final AtomicLong _lHits = new AtomicLong( );
+    private final AtomicLong _lMisses = new AtomicLong( );
+    private final AtomicLong _lEvictions = new AtomicLong( );
+    private volatile int _nMaxSize;
+
+    /**
+     * Constructor
+     *
+     * @param nMaxSize
+     *            the maximum number of templates kept in the cache
+     */
+    public TemplateCache( int nMaxSize )
+    {
+        _nMaxSize = nMaxSize;
+        _mapTemplates = new LinkedHashMap<String, Template>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, Template> eldest )
+            {
+                if ( size( ) > _nMaxSize )
+                {
+                    _lEvictions.incrementAndGet( );
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a template from the cache
+     *
+     * @param strTemplate
+     *            the text of the template
+     * @return the compiled template, or null if it is not in the cache
+     */
+    public Template get( String strTemplate )
+    {
+        Template template;
+        synchronized( _mapTemplates )
+        {
+            template = _mapTemplates.get( strTemplate );
+        }
+
+        if ( template == null )
+        {
+            _lMisses.incrementAndGet( );
+        }
+        else
+        {
+            _lHits.incrementAndGet( );
+        }
+
+        return template;
+    }
+
+    /**
+     * Put a template in the cache. If another thread has already cached the same text, the cached template is kept and returned.
+     *
+     * @param strTemplate
+     *            the text of the template
+     * @param template
+     *            the compiled template
+     * @return the template to use
+     */
+    public Template put( String strTemplate, Template template )
+    {
+        synchronized( _mapTemplates )
+        {
+            Template cachedTemplate = _mapTemplates.get( strTemplate );
+            if ( cachedTemplate != null )
+            {
+                return cachedTemplate;
+            }
+            _mapTemplates.put( strTemplate, template );
+        }
+
+        return template;
+    }
+
+    /**
+     * Remove all the templates from the cache
+     */
+    public void clear( )
+    {
+        synchronized( _mapTemplates )
+        {
+            _mapTemplates.clear( );
+        }
+    }
+
+    /**
+     *
+     * @return the number of templates in the cache
+     */
+    public int getSize( )
+    {
+        synchronized( _mapTemplates )
+        {
+            return _mapTemplates.size( );
+        }
+    }
+
+    /**
+     *
+     * @return the maximum number of templates kept in the cache
+     */
+    public int getMaxSize( )
+    {
+        return _nMaxSize;
+    }
+
+    /**
+     * Set the maximum number of templates kept in the cache. Exceeding templates are evicted on the next insertion.
+     *
+     * @param nMaxSize
+     *            the maximum number of templates
+     */
+    public void setMaxSize( int nMaxSize )
+    {
+        _nMaxSize = nMaxSize;
+    }
+
+    /**
+     *
+     * @return the number of lookups that found a cached template
+     */
+    public long getHitCount( )
+    {
+        return _lHits.get( );
+    }
+
+    /**
+     *
+     * @return the number of lookups that did not find a cached template
+     */
+    public long getMissCount( )
+    {
+        return _lMisses.get( );
+    }
+
+    /**
+     *
+     * @return the number of templates evicted from the cache
+     */
+    public long getEvictionCount( )
+    {
+        return _lEvictions.get( );
+    }
+}
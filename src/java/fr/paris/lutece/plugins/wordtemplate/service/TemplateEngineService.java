@@ -34,21 +34,38 @@
 package fr.paris.lutece.plugins.wordtemplate.service;
 
 import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.expression.SimpleExpression;
+import fr.paris.lutece.plugins.wordtemplate.service.metrics.RenderRecorder;
 import freemarker.core.Environment;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
+import freemarker.template.TemplateExceptionHandler;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Template service based on the Freemarker template engine
  */
 public class TemplateEngineService
 {
+    private static final String TEMPLATE_NAME = "WordElementTemplate";
+    private static final String DEFAULT_ENCODING = "UTF-8";
+    private static final int DEFAULT_CACHE_SIZE = 2000;
+
+    // Separator of the values in a batch. It can not appear in the text of a word document, which is XML.
+    private static final char BATCH_SEPARATOR = '\u0000';
+
+    // The configuration is shared by all the templates and is never modified once created, so it is thread-safe : it is not exposed, so that it can not be
+    // modified by the callers
+    private static final Configuration _configuration = createConfiguration( );
+    private static final TemplateCache _templateCache = new TemplateCache( DEFAULT_CACHE_SIZE );
 
     /**
-     * Process the template transformation and return the {@link HtmlTemplate}
+     * Get the compiled template of an expression, from the cache when the same expression has already been compiled
      *
      * @param strTemplate
      *            The template name to call
@@ -56,17 +73,56 @@ public class TemplateEngineService
      */
     public static Template createTemplate( String strTemplate )
     {
-        Template ftl;
+        Template ftl = _templateCache.get( strTemplate );
+        if ( ftl != null )
+        {
+            return ftl;
+        }
+
         try
         {
-            Configuration cfg = new Configuration( Configuration.VERSION_2_3_28 );
-            ftl = new Template( "WordElementTemplate", strTemplate, cfg );
+            ftl = new Template( TEMPLATE_NAME, strTemplate, _configuration );
         }
         catch( IOException e )
         {
             throw new WordTemplateException( e.getMessage( ), e );
         }
-        return ftl;
+        return _templateCache.put( strTemplate, ftl );
+    }
+
+    /**
+     *
+     * @return the cache of compiled templates
+     */
+    public static TemplateCache getTemplateCache( )
+    {
+        return _templateCache;
+    }
+
+    /**
+     * Tell whether a name is a shared variable of the configuration, which the templates find when the model has no such key
+     *
+     * @param strName
+     *            the name
+     * @return true if the name is a shared variable
+     */
+    public static boolean isSharedVariable( String strName )
+    {
+        return _configuration.getSharedVariableNames( ).contains( strName );
+    }
+
+    /**
+     * Create the shared configuration
+     *
+     * @return the configuration
+     */
+    private static Configuration createConfiguration( )
+    {
+        Configuration configuration = new Configuration( Configuration.VERSION_2_3_28 );
+        configuration.setDefaultEncoding( DEFAULT_ENCODING );
+        configuration.setTemplateExceptionHandler( TemplateExceptionHandler.RETHROW_HANDLER );
+        configuration.setLogTemplateExceptions( false );
+        return configuration;
     }
 
     /**
@@ -81,6 +137,7 @@ public class TemplateEngineService
     public static String processTemplate( String strTemplate, Object rootMap )
     {
         StringWriter writer = new StringWriter( 1024 );
+        long lStart = System.nanoTime( );
 
         try
         {
@@ -91,9 +148,158 @@ public class TemplateEngineService
         {
             throw new WordTemplateException( e.getMessage( ), e );
         }
+        finally
+        {
+            recordEvaluation( lStart );
+        }
         return writer.toString( );
     }
 
+    /**
+     * Compile and process a template without putting it in the cache
+     *
+     * @param strTemplate
+     *            The template
+     * @param rootMap
+     *            The HashMap model
+     * @return The value
+     */
+    private static String processUncachedTemplate( String strTemplate, Object rootMap )
+    {
+        StringWriter writer = new StringWriter( 1024 );
+        long lStart = System.nanoTime( );
+
+        try
+        {
+            Template template = new Template( TEMPLATE_NAME, strTemplate, _configuration );
+            template.process( rootMap, writer );
+        }
+        catch( IOException | TemplateException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+        finally
+        {
+            recordEvaluation( lStart );
+        }
+        return writer.toString( );
+    }
+
+    /**
+     * Process several templates in a single pass. The templates are joined with a separator into one template, evaluated once against the model, and the
+     * result is split back into one value per template. If the joined template fails, or a value contains the separator, each template is processed on its
+     * own so that the result and the error are the same as with {@link #processTemplate(String, Object)}. The joined template depends on the whole set of
+     * templates of a document : it is compiled for each call and is not put in the cache, where it would evict the templates of the single expressions.
+     *
+     * @param listTemplates
+     *            The templates to process
+     * @param rootMap
+     *            The HashMap model
+     * @return The values, in the order of the templates
+     */
+    public static List<String> processTemplates( List<String> listTemplates, Object rootMap )
+    {
+        List<String> listValues = new ArrayList<>( listTemplates.size( ) );
+
+        if ( listTemplates.size( ) > 1 )
+        {
+            StringBuilder sbBatch = new StringBuilder( );
+            for ( String strTemplate : listTemplates )
+            {
+                if ( sbBatch.length( ) > 0 )
+                {
+                    sbBatch.append( BATCH_SEPARATOR );
+                }
+                sbBatch.append( strTemplate );
+            }
+
+            try
+            {
+                String strBatchValue = processUncachedTemplate( sbBatch.toString( ), rootMap );
+                int nStart = 0;
+                for ( int nEnd = strBatchValue.indexOf( BATCH_SEPARATOR ); nEnd >= 0; nEnd = strBatchValue.indexOf( BATCH_SEPARATOR, nStart ) )
+                {
+                    listValues.add( strBatchValue.substring( nStart, nEnd ) );
+                    nStart = nEnd + 1;
+                }
+                listValues.add( strBatchValue.substring( nStart ) );
+
+                if ( listValues.size( ) == listTemplates.size( ) )
+                {
+                    return listValues;
+                }
+            }
+            catch( WordTemplateException e )
+            {
+                // The failing template is found below
+            }
+            listValues.clear( );
+        }
+
+        for ( String strTemplate : listTemplates )
+        {
+            listValues.add( processTemplate( strTemplate, rootMap ) );
+        }
+
+        return listValues;
+    }
+
+    /**
+     * Process an interpolation. A plain property path is resolved by the {@link SimpleExpression} fast path ; any other expression, or a value the fast path
+     * can not render exactly as FreeMarker, is processed by FreeMarker.
+     *
+     * @param strExpression
+     *            The interpolation
+     * @param rootMap
+     *            The HashMap model
+     * @return The value
+     */
+    public static String processInterpolation( String strExpression, Object rootMap )
+    {
+        String strValue = processSimpleExpression( strExpression, rootMap );
+        return strValue != null ? strValue : processTemplate( strExpression, rootMap );
+    }
+
+    /**
+     * Process several interpolations. The plain property paths are resolved by the {@link SimpleExpression} fast path, and the other expressions are
+     * processed by FreeMarker in a single pass.
+     *
+     * @param listExpressions
+     *            The interpolations
+     * @param rootMap
+     *            The HashMap model
+     * @return The values, in the order of the interpolations
+     */
+    public static List<String> processInterpolations( List<String> listExpressions, Object rootMap )
+    {
+        List<String> listValues = new ArrayList<>( listExpressions.size( ) );
+        List<String> listTemplates = new ArrayList<>( );
+
+        for ( String strExpression : listExpressions )
+        {
+            String strValue = processSimpleExpression( strExpression, rootMap );
+            listValues.add( strValue );
+            if ( strValue == null )
+            {
+                listTemplates.add( strExpression );
+            }
+        }
+
+        if ( !listTemplates.isEmpty( ) )
+        {
+            Iterator<String> iterator = processTemplates( listTemplates, rootMap ).iterator( );
+            for ( int i = 0; i < listValues.size( ); i++ )
+            {
+                if ( listValues.get( i ) == null )
+                {
+                    listValues.set( i, iterator.next( ) );
+                }
+            }
+        }
+
+        return listValues;
+    }
+
     /**
      * Process the template transformation and return the {@link HtmlTemplate}
      *
@@ -108,6 +314,7 @@ public class TemplateEngineService
         StringWriter writer = new StringWriter( 1024 );
 
         Environment environment;
+        long lStart = System.nanoTime( );
         try
         {
             Template template = createTemplate( strTemplate );
@@ -118,7 +325,49 @@ public class TemplateEngineService
         {
             throw new WordTemplateException( e.getMessage( ), e );
         }
+        finally
+        {
+            recordEvaluation( lStart );
+        }
         return environment;
     }
 
+    /**
+     * Resolve an interpolation by the {@link SimpleExpression} fast path
+     *
+     * @param strExpression
+     *            The interpolation
+     * @param rootMap
+     *            The HashMap model
+     * @return The value, or null if the interpolation must be processed by FreeMarker
+     */
+    private static String processSimpleExpression( String strExpression, Object rootMap )
+    {
+        SimpleExpression expression = SimpleExpression.compile( strExpression );
+        if ( expression == null )
+        {
+            return null;
+        }
+
+        long lStart = System.nanoTime( );
+        String strValue = expression.evaluate( rootMap );
+        recordEvaluation( lStart );
+        return strValue;
+    }
+
+    /**
+     * Report the time of an evaluation to the render running on the current thread, if any
+     *
+     * @param lStart
+     *            the {@link System#nanoTime()} of the start of the evaluation
+     */
+    private static void recordEvaluation( long lStart )
+    {
+        RenderRecorder recorder = RenderRecorder.current( );
+        if ( recorder != null )
+        {
+            recorder.addEvaluation( System.nanoTime( ) - lStart );
+        }
+    }
+
 }
@@ -34,12 +34,15 @@
 package fr.paris.lutece.plugins.wordtemplate.service;
 
 import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.visitor.DocumentIndex;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import org.apache.poi.xwpf.usermodel.BodyElementType;
 import org.apache.poi.xwpf.usermodel.IBody;
 import org.apache.poi.xwpf.usermodel.IBodyElement;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFHeaderFooter;
 import org.apache.poi.xwpf.usermodel.XWPFParagraph;
 import org.apache.poi.xwpf.usermodel.XWPFRun;
 import org.apache.poi.xwpf.usermodel.XWPFTable;
@@ -47,10 +50,13 @@ import org.apache.poi.xwpf.usermodel.XWPFTableCell;
 import org.apache.poi.xwpf.usermodel.XWPFTableRow;
 import org.apache.xmlbeans.XmlCursor;
 import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTP;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPPr;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTR;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTRPr;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTRow;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTbl;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTblPr;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTc;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTcPr;
@@ -61,9 +67,9 @@ import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTrPr;
  */
 public class WordService
 {
-
     /***
-     * Get the content of body
+     * Get the content of body. The text of a whole document is extracted without loading it by the
+     * {@link fr.paris.lutece.plugins.wordtemplate.service.stream.StreamingTextExtractor}.
      * 
      * @param body
      * @return the content of the body
@@ -72,16 +78,23 @@ public class WordService
     public String getContent( IBody body ) throws XmlException
     {
         StringBuilder stringBuilder = new StringBuilder( );
+        appendContent( body, stringBuilder );
+        return stringBuilder.toString( );
+    }
 
+    /**
+     * Append the content of a body, including the content of its tables
+     *
+     * @param body
+     * @param stringBuilder
+     */
+    private static void appendContent( IBody body, StringBuilder stringBuilder )
+    {
         for ( IBodyElement bodyElement : body.getBodyElements( ) )
         {
             if ( bodyElement.getElementType( ).equals( BodyElementType.PARAGRAPH ) )
             {
-                for ( XWPFRun run : ( (XWPFParagraph) bodyElement ).getRuns( ) )
-                {
-                    String text = run.getText( 0 );
-                    stringBuilder.append( text );
-                }
+                stringBuilder.append( ( (XWPFParagraph) bodyElement ).getText( ) );
             }
             if ( bodyElement.getElementType( ).equals( BodyElementType.TABLE ) )
             {
@@ -89,13 +102,11 @@ public class WordService
                 {
                     for ( XWPFTableCell cell : row.getTableCells( ) )
                     {
-                        getContent( cell );
+                        appendContent( cell, stringBuilder );
                     }
                 }
             }
         }
-
-        return stringBuilder.toString( );
     }
 
     /**
@@ -552,14 +563,30 @@ public class WordService
         {
             return;
         }
-        String beforeText = run.toString( ).substring( 0, pos );
-        String afterText = run.toString( ).substring( pos );
         XWPFParagraph paragraph = (XWPFParagraph) run.getParent( );
-        int numRun = paragraph.getRuns( ).indexOf( run );
+        splitRun( paragraph, paragraph.getRuns( ).indexOf( run ), pos );
+    }
+
+    /**
+     * Split the run at a given index of a paragraph. The text before the position is moved to a new run inserted before it.
+     *
+     * @param paragraph
+     * @param numRun
+     *            the index of the run in the paragraph
+     * @param pos
+     */
+    public static void splitRun( XWPFParagraph paragraph, int numRun, int pos )
+    {
+        XWPFRun run = paragraph.getRuns( ).get( numRun );
+        String text = run.toString( );
+        if ( !( pos > 0 && pos < text.length( ) ) )
+        {
+            return;
+        }
         XWPFRun beforeRun = paragraph.insertNewRun( numRun );
         WordService.cloneRun( beforeRun, run, true );
-        beforeRun.setText( beforeText, 0 );
-        run.setText( afterText, 0 );
+        beforeRun.setText( text.substring( 0, pos ), 0 );
+        run.setText( text.substring( pos ), 0 );
     }
 
     /**
@@ -675,6 +702,125 @@ public class WordService
         removeElement( cursor );
     }
 
+    /**
+     * Remove several ranges of elements of a body at once. The XML of the ranges is removed in a single sweep of a cursor over each range, then the element
+     * objects of the body are updated through the API of POI : the elements of a document are removed one by one from the last one, and the elements of a
+     * header, a footer or a cell are read again from its XML.
+     *
+     * @param body
+     *            the body : a document, a header, a footer or a table cell
+     * @param listRanges
+     *            the ranges to remove : the indexes of the first and the last element of each range, in the elements of the body. The first and the last
+     *            element of a range must be paragraphs or tables.
+     */
+    public static void removeBodyElements( IBody body, List<int [ ]> listRanges )
+    {
+        if ( listRanges.isEmpty( ) )
+        {
+            return;
+        }
+        if ( !( body instanceof XWPFDocument ) && !( body instanceof XWPFHeaderFooter ) && !( body instanceof XWPFTableCell ) )
+        {
+            throw new WordTemplateException( "The elements of a " + body.getPartType( ) + " can not be removed" );
+        }
+
+        List<IBodyElement> listBodyElements = body.getBodyElements( );
+        BitSet removedElements = new BitSet( listBodyElements.size( ) );
+        for ( int [ ] range : listRanges )
+        {
+            if ( !isParagraphOrTable( listBodyElements.get( range [0] ) ) || !isParagraphOrTable( listBodyElements.get( range [1] ) ) )
+            {
+                throw new WordTemplateException( "A range of elements to remove must start and end with a paragraph or a table" );
+            }
+            // Overlapping ranges are removed once
+            removedElements.set( range [0], range [1] + 1 );
+        }
+
+        // The paragraphs and the tables of a document are removed with their objects below
+        boolean bDocument = body instanceof XWPFDocument;
+        for ( int nFirst = removedElements.nextSetBit( 0 ); nFirst >= 0; )
+        {
+            int nLast = removedElements.nextClearBit( nFirst ) - 1;
+            removeXml( listBodyElements.get( nFirst ), listBodyElements.get( nLast ), bDocument );
+            nFirst = removedElements.nextSetBit( nLast + 1 );
+        }
+
+        if ( bDocument )
+        {
+            XWPFDocument document = (XWPFDocument) body;
+            for ( int i = removedElements.length( ) - 1; i >= 0; i = removedElements.previousSetBit( i - 1 ) )
+            {
+                document.removeBodyElement( i );
+            }
+        }
+        else
+            if ( body instanceof XWPFHeaderFooter )
+            {
+                XWPFHeaderFooter headerFooter = (XWPFHeaderFooter) body;
+                headerFooter.setHeaderFooter( headerFooter._getHdrFtr( ) );
+            }
+            else
+            {
+                XWPFTableCell cell = (XWPFTableCell) body;
+                List<XWPFTableCell> listCells = cell.getTableRow( ).getTableCells( );
+                int nCell = listCells.indexOf( cell );
+                if ( nCell < 0 )
+                {
+                    throw new WordTemplateException( "The cell is not in its row" );
+                }
+                listCells.set( nCell, new XWPFTableCell( cell.getCTTc( ), cell.getTableRow( ), cell.getTableRow( ).getTable( ).getBody( ) ) );
+            }
+        DocumentIndex.invalidate( body.getXWPFDocument( ) );
+    }
+
+    /**
+     * Remove the XML of a body from an element to another, including the elements which are not paragraphs or tables
+     *
+     * @param first
+     *            the first element
+     * @param last
+     *            the last element
+     * @param bKeepParagraphsAndTables
+     *            true to keep the paragraphs and the tables of the range
+     */
+    private static void removeXml( IBodyElement first, IBodyElement last, boolean bKeepParagraphsAndTables )
+    {
+        XmlCursor cursorLast = getCursor( last );
+        XmlObject lastObject = cursorLast.getObject( );
+        cursorLast.dispose( );
+
+        XmlCursor cursor = getCursor( first );
+        boolean bLast = false;
+        while ( !bLast )
+        {
+            if ( cursor.isEnd( ) || cursor.isEnddoc( ) )
+            {
+                throw new WordTemplateException( "The elements to remove are not in the body" );
+            }
+            bLast = cursor.isStart( ) && cursor.getObject( ) == lastObject;
+            if ( bKeepParagraphsAndTables && cursor.isStart( ) && ( cursor.getObject( ) instanceof CTP || cursor.getObject( ) instanceof CTTbl ) )
+            {
+                cursor.toEndToken( );
+                cursor.toNextToken( );
+            }
+            else
+            {
+                cursor.removeXml( );
+            }
+        }
+        cursor.dispose( );
+    }
+
+    /**
+     *
+     * @param bodyElement
+     * @return true if the element is a paragraph or a table
+     */
+    private static boolean isParagraphOrTable( IBodyElement bodyElement )
+    {
+        return bodyElement.getElementType( ) == BodyElementType.PARAGRAPH || bodyElement.getElementType( ) == BodyElementType.TABLE;
+    }
+
     /**
      * Remove an element
      * 
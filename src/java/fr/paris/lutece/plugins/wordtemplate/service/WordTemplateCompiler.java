@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service;
+
+import fr.paris.lutece.plugins.wordtemplate.business.AbstractBlockInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledInstruction;
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledWordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.business.IWordInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.business.IWordTemplateElement;
+import fr.paris.lutece.plugins.wordtemplate.business.WordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.instruction.IInstructionManager;
+import fr.paris.lutece.plugins.wordtemplate.service.instruction.InstructionManagerRegistry;
+import fr.paris.lutece.plugins.wordtemplate.service.output.CompressionPolicy;
+import fr.paris.lutece.plugins.wordtemplate.service.output.ZipPassThroughWriter;
+import fr.paris.lutece.plugins.wordtemplate.service.visitor.DocumentIndex;
+import fr.paris.lutece.plugins.wordtemplate.service.visitor.DocumentWalker;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.poi.xwpf.usermodel.IBody;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFFooter;
+import org.apache.poi.xwpf.usermodel.XWPFHeader;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+
+/**
+ * Compiler of word templates. The template is parsed and normalized once, then each render replays the compiled instructions against a fresh copy of the
+ * normalized package, without scanning the text again.
+ */
+public class WordTemplateCompiler
+{
+    private final boolean _bOptimize;
+    private final CompressionPolicy _compressionPolicy;
+
+    /**
+     * Constructor of a compiler keeping the runs of the template as they are
+     */
+    public WordTemplateCompiler( )
+    {
+        this( false );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param bOptimize
+     *            true to run the {@link WordTemplateOptimizer} on the template before parsing it
+     */
+    public WordTemplateCompiler( boolean bOptimize )
+    {
+        this( bOptimize, CompressionPolicy.DEFAULT );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param bOptimize
+     *            true to run the {@link WordTemplateOptimizer} on the template before parsing it
+     * @param compressionPolicy
+     *            the compression of the compiled package. The entries which are never rendered, like the media, keep it in every produced document.
+     */
+    public WordTemplateCompiler( boolean bOptimize, CompressionPolicy compressionPolicy )
+    {
+        _bOptimize = bOptimize;
+        _compressionPolicy = compressionPolicy;
+    }
+
+    /**
+     * Get the description of everything changing the output of the compiler besides the template : its options and the registered instruction managers
+     *
+     * @return the description of the settings
+     */
+    public String getSettings( )
+    {
+        StringBuilder sbSettings = new StringBuilder( );
+        sbSettings.append( "optimize " ).append( _bOptimize ).append( ", compression " ).append( _compressionPolicy ).append( ", managers" );
+        for ( IInstructionManager manager : InstructionManagerRegistry.getSnapshot( ).getManagers( ) )
+        {
+            sbSettings.append( ' ' ).append( manager.getClass( ).getName( ) );
+        }
+        return sbSettings.toString( );
+    }
+
+    /**
+     * Compile a template document
+     *
+     * @param templateStream
+     *            the stream of the template document
+     * @return the compiled template
+     * @throws WordTemplateException
+     */
+    public CompiledWordTemplate compile( InputStream templateStream ) throws WordTemplateException
+    {
+        XWPFDocument document = null;
+
+        try
+        {
+            document = new XWPFDocument( templateStream );
+            if ( _bOptimize )
+            {
+                new WordTemplateOptimizer( ).optimize( document );
+            }
+            WordTemplateParser parser = new WordTemplateParser( );
+            WordTemplate wordTemplate = parser.parse( document, null );
+
+            Map<XWPFRun, IWordInstructionElement> mapInstructionRuns = new IdentityHashMap<>( );
+            collectInstructionRuns( wordTemplate.getListInstructions( ), mapInstructionRuns );
+
+            // The paragraphs of the index are in the order of the parser
+            DocumentIndex documentIndex = wordTemplate.getDocumentIndex( );
+            List<CompiledInstruction> listInstructions = new ArrayList<>( mapInstructionRuns.size( ) );
+            for ( String strPartName : documentIndex.getPartNames( ) )
+            {
+                List<XWPFParagraph> listParagraphs = documentIndex.getParagraphs( strPartName );
+                for ( int nParagraph = 0; nParagraph < listParagraphs.size( ); nParagraph++ )
+                {
+                    List<XWPFRun> listRuns = listParagraphs.get( nParagraph ).getRuns( );
+                    for ( int nRun = 0; nRun < listRuns.size( ); nRun++ )
+                    {
+                        IWordInstructionElement instruction = mapInstructionRuns.get( listRuns.get( nRun ) );
+                        if ( instruction != null )
+                        {
+                            listInstructions.add( new CompiledInstruction( strPartName, nParagraph, nRun, instruction.getType( ), instruction.getExpression( ) ) );
+                        }
+                    }
+                }
+            }
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+            document.write( bos );
+            byte [ ] packageBytes = bos.toByteArray( );
+
+            if ( !_compressionPolicy.isDefault( ) )
+            {
+                bos.reset( );
+                new ZipPassThroughWriter( ByteBuffer.wrap( packageBytes ) ).recompress( _compressionPolicy, bos );
+                packageBytes = bos.toByteArray( );
+            }
+
+            return new CompiledWordTemplate( packageBytes, listInstructions );
+        }
+        catch( Exception e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+        finally
+        {
+            close( document );
+        }
+    }
+
+    /**
+     * Load a fresh copy of the normalized package of a compiled template
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @return the loaded document
+     * @throws IOException
+     */
+    public XWPFDocument load( CompiledWordTemplate compiledTemplate ) throws IOException
+    {
+        return new XWPFDocument( compiledTemplate.getPackageInputStream( ) );
+    }
+
+    /**
+     * Bind the instructions of a compiled template to the runs of a document loaded from its package
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param document
+     *            the document loaded by {@link #load(CompiledWordTemplate)}
+     * @return the word template of this document
+     */
+    public WordTemplate bind( CompiledWordTemplate compiledTemplate, XWPFDocument document )
+    {
+        DocumentIndex documentIndex = DocumentIndex.of( document );
+        InstructionService instructionService = InstructionService.init( );
+        List<IWordTemplateElement> listTemplateElements = new ArrayList<>( compiledTemplate.getInstructions( ).size( ) );
+        List<IWordTemplateElement> listPartElements = new ArrayList<>( );
+        String strPartName = null;
+
+        // The instructions of a part are consecutive : the blocks are built part by part, as the parser does
+        for ( CompiledInstruction instruction : compiledTemplate.getInstructions( ) )
+        {
+            if ( !instruction.getPartName( ).equals( strPartName ) )
+            {
+                listTemplateElements.addAll( WordTemplateParser.structure( listPartElements ) );
+                listPartElements.clear( );
+                strPartName = instruction.getPartName( );
+            }
+
+            XWPFRun run = resolveRun( documentIndex, instruction );
+            IWordTemplateElement element = instructionService.createInstruction( instruction.getExpression( ), run );
+            if ( element != null )
+            {
+                listPartElements.add( element );
+            }
+        }
+        listTemplateElements.addAll( WordTemplateParser.structure( listPartElements ) );
+
+        WordTemplate wordTemplate = new WordTemplate( );
+        wordTemplate.setListInstructions( listTemplateElements );
+        wordTemplate.setDocumentIndex( documentIndex );
+
+        return wordTemplate;
+    }
+
+    /**
+     * Collect the runs of the instructions, including those of the blocks and their closing instructions
+     *
+     * @param listElements
+     * @param mapInstructionRuns
+     */
+    private void collectInstructionRuns( List<IWordTemplateElement> listElements, Map<XWPFRun, IWordInstructionElement> mapInstructionRuns )
+    {
+        for ( IWordTemplateElement element : listElements )
+        {
+            if ( element instanceof IWordInstructionElement )
+            {
+                IWordInstructionElement instruction = (IWordInstructionElement) element;
+                mapInstructionRuns.put( instruction.getRun( ), instruction );
+            }
+            if ( element instanceof AbstractBlockInstructionElement )
+            {
+                AbstractBlockInstructionElement block = (AbstractBlockInstructionElement) element;
+                collectInstructionRuns( block.getChildren( ), mapInstructionRuns );
+                mapInstructionRuns.put( block.getClosing( ).getRun( ), block.getClosing( ) );
+            }
+        }
+    }
+
+    /**
+     * Find the run of a compiled instruction
+     *
+     * @param documentIndex
+     *            the index of the document
+     * @param instruction
+     *            the compiled instruction
+     * @return the run
+     */
+    private XWPFRun resolveRun( DocumentIndex documentIndex, CompiledInstruction instruction )
+    {
+        List<XWPFParagraph> listParagraphs = documentIndex.getParagraphs( instruction.getPartName( ) );
+        if ( listParagraphs.isEmpty( ) )
+        {
+            throw new WordTemplateException( "The compiled template refers to an unknown part : " + instruction.getPartName( ) );
+        }
+        if ( instruction.getParagraphIndex( ) < listParagraphs.size( ) )
+        {
+            List<XWPFRun> listRuns = listParagraphs.get( instruction.getParagraphIndex( ) ).getRuns( );
+            if ( instruction.getRunIndex( ) < listRuns.size( ) )
+            {
+                return listRuns.get( instruction.getRunIndex( ) );
+            }
+        }
+
+        throw new WordTemplateException( "The compiled template does not match the document for the instruction " + instruction.getExpression( ) );
+    }
+
+    /**
+     * Get the bodies of the parts which may hold instructions
+     *
+     * @param document
+     * @return the bodies, by part name
+     */
+    public Map<String, IBody> getPartBodies( XWPFDocument document )
+    {
+        Map<String, IBody> mapBodies = new HashMap<>( );
+        for ( XWPFHeader header : document.getHeaderList( ) )
+        {
+            mapBodies.put( getPartName( header ), header );
+        }
+        for ( XWPFFooter footer : document.getFooterList( ) )
+        {
+            mapBodies.put( getPartName( footer ), footer );
+        }
+        mapBodies.put( getPartName( document ), document );
+        return mapBodies;
+    }
+
+    /**
+     *
+     * @param body
+     * @return the name of the package part of the body
+     */
+    static String getPartName( IBody body )
+    {
+        return DocumentWalker.getPartName( body );
+    }
+
+    /**
+     * Close a document
+     *
+     * @param document
+     */
+    private static void close( XWPFDocument document )
+    {
+        if ( document == null )
+        {
+            return;
+        }
+        try
+        {
+            document.close( );
+        }
+        catch( IOException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+
+/**
+ * Lexer of the instructions of a paragraph. Word splits the text of a paragraph in runs at arbitrary positions, so an instruction may span several runs. The
+ * lexer finds the instructions in the text of the paragraph, then splits and merges the runs so that each instruction is held by a run of its own.
+ * <p>
+ * The runs are read once to build the table of their offsets in the text. The instructions are then isolated from the last to the first, so that the offsets
+ * of the runs before the current instruction are never invalidated by the edits.
+ * </p>
+ * <p>
+ * The edits are still made per instruction : each split or removal of a run shifts the lists of runs of the paragraph and its XML, so isolating k
+ * instructions in a paragraph of n runs costs O(k.n). A paragraph holds few runs in practice ; the {@link WordTemplateOptimizer} merges the runs split by
+ * Word to keep n low.
+ * </p>
+ */
+public final class WordTemplateLexer
+{
+    private static final Pattern INSTRUCTION_PATTERN = Pattern.compile( "\\$\\{.*?\\}|</?#.*?>" );
+
+    /**
+     * Private constructor
+     */
+    private WordTemplateLexer( )
+    {
+    }
+
+    /**
+     * Isolate the instructions of a paragraph in runs of their own
+     *
+     * @param paragraph
+     *            the paragraph
+     * @return the runs holding the instructions, in document order
+     */
+    public static List<XWPFRun> isolateInstructions( XWPFParagraph paragraph )
+    {
+        List<XWPFRun> listRuns = paragraph.getRuns( );
+        int nRunCount = listRuns.size( );
+        if ( nRunCount == 0 )
+        {
+            return Collections.emptyList( );
+        }
+
+        // Offset of each run in the text of the paragraph, the last one being the length of the text
+        int [ ] offsets = new int [ nRunCount + 1];
+        StringBuilder sbText = new StringBuilder( );
+        for ( int i = 0; i < nRunCount; i++ )
+        {
+            offsets [i] = sbText.length( );
+            sbText.append( listRuns.get( i ).toString( ) );
+        }
+        offsets [nRunCount] = sbText.length( );
+
+        List<int [ ]> listInstructions = new ArrayList<>( );
+        Matcher matcher = INSTRUCTION_PATTERN.matcher( sbText );
+        while ( matcher.find( ) )
+        {
+            listInstructions.add( new int [ ] {
+                    matcher.start( ), matcher.end( )
+            } );
+        }
+        if ( listInstructions.isEmpty( ) )
+        {
+            return Collections.emptyList( );
+        }
+
+        XWPFRun [ ] instructionRuns = new XWPFRun [ listInstructions.size( )];
+        for ( int i = listInstructions.size( ) - 1; i >= 0; i-- )
+        {
+            int [ ] instruction = listInstructions.get( i );
+            instructionRuns [i] = isolateInstruction( paragraph, offsets, instruction [0], instruction [1] );
+        }
+
+        return Arrays.asList( instructionRuns );
+    }
+
+    /**
+     * Isolate an instruction in a run of its own. The runs are edited as the former parser did : the text before the instruction is moved to a new run, the
+     * runs covered by the instruction are merged into the run where it starts, and the text after it stays in the run where it ends.
+     *
+     * @param paragraph
+     *            the paragraph
+     * @param offsets
+     *            the offsets of the runs, valid up to the run where the instruction ends
+     * @param nStart
+     *            the offset of the first character of the instruction
+     * @param nEnd
+     *            the offset following the last character of the instruction
+     * @return the run holding the instruction
+     */
+    private static XWPFRun isolateInstruction( XWPFParagraph paragraph, int [ ] offsets, int nStart, int nEnd )
+    {
+        List<XWPFRun> listRuns = paragraph.getRuns( );
+        int nFirst = findRun( offsets, nStart );
+        int nLast = findRun( offsets, nEnd - 1 );
+
+        int nInstructionIndex = nFirst;
+        if ( nStart > offsets [nFirst] )
+        {
+            WordService.splitRun( paragraph, nFirst, nStart - offsets [nFirst] );
+            nInstructionIndex++;
+        }
+
+        if ( nFirst == nLast )
+        {
+            // The text after the instruction stays in the run, the instruction moves to a new run before it
+            WordService.splitRun( paragraph, nInstructionIndex, nEnd - nStart );
+            return listRuns.get( nInstructionIndex );
+        }
+
+        XWPFRun instructionRun = listRuns.get( nInstructionIndex );
+        int nNextIndex = nInstructionIndex + 1;
+
+        for ( int i = nFirst + 1; i < nLast; i++ )
+        {
+            mergeRun( paragraph, instructionRun, nNextIndex );
+        }
+
+        WordService.splitRun( paragraph, nNextIndex, nEnd - offsets [nLast] );
+        mergeRun( paragraph, instructionRun, nNextIndex );
+
+        return instructionRun;
+    }
+
+    /**
+     * Append the text of a run to another one and remove it
+     *
+     * @param paragraph
+     *            the paragraph
+     * @param run
+     *            the run receiving the text
+     * @param nMergedIndex
+     *            the index of the merged run
+     */
+    private static void mergeRun( XWPFParagraph paragraph, XWPFRun run, int nMergedIndex )
+    {
+        XWPFRun mergedRun = paragraph.getRuns( ).get( nMergedIndex );
+        run.setText( run.toString( ) + mergedRun.toString( ), 0 );
+        paragraph.removeRun( nMergedIndex );
+    }
+
+    /**
+     * Find the run holding a character of the text
+     *
+     * @param offsets
+     *            the offsets of the runs
+     * @param nOffset
+     *            the offset of the character
+     * @return the index of the last run starting at or before the character, which is the non-empty run holding it
+     */
+    private static int findRun( int [ ] offsets, int nOffset )
+    {
+        int nLow = 0;
+        int nHigh = offsets.length - 2;
+
+        while ( nLow < nHigh )
+        {
+            int nMiddle = ( nLow + nHigh + 1 ) >>> 1;
+            if ( offsets [nMiddle] <= nOffset )
+            {
+                nLow = nMiddle;
+            }
+            else
+            {
+                nHigh = nMiddle - 1;
+            }
+        }
+        return nLow;
+    }
+}
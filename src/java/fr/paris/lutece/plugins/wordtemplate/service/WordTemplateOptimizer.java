@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service;
+
+import fr.paris.lutece.plugins.wordtemplate.business.OptimizationReport;
+import java.util.List;
+import javax.xml.namespace.QName;
+import org.apache.poi.xwpf.usermodel.BodyElementType;
+import org.apache.poi.xwpf.usermodel.IBody;
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFFooter;
+import org.apache.poi.xwpf.usermodel.XWPFHeader;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlCursor.TokenType;
+import org.apache.xmlbeans.XmlObject;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTR;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTRPr;
+
+/**
+ * Optimizer of word templates. Word saves the editing history of a document along with its content : proofing marks, revision identifiers and rendering
+ * hints, and runs split wherever the text was edited. The optimizer removes this noise and merges the adjacent runs having the same formatting, so that there
+ * are fewer runs to parse, split and clone at each render.
+ */
+public class WordTemplateOptimizer
+{
+    private static final String NAMESPACE_WORD = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final QName ELEMENT_PROOF_ERR = new QName( NAMESPACE_WORD, "proofErr" );
+    private static final QName ELEMENT_LAST_RENDERED_PAGE_BREAK = new QName( NAMESPACE_WORD, "lastRenderedPageBreak" );
+    private static final QName ELEMENT_RPR = new QName( NAMESPACE_WORD, "rPr" );
+    private static final QName ELEMENT_TEXT = new QName( NAMESPACE_WORD, "t" );
+    private static final String ATTRIBUTE_RSID_PREFIX = "rsid";
+
+    private int _nRunCountBefore;
+    private int _nRunCountAfter;
+    private int _nRemovedElementCount;
+    private int _nRemovedAttributeCount;
+
+    /**
+     * Optimize a document
+     *
+     * @param document
+     *            the document
+     * @return the report of the optimization
+     */
+    public OptimizationReport optimize( XWPFDocument document )
+    {
+        _nRunCountBefore = 0;
+        _nRunCountAfter = 0;
+        _nRemovedElementCount = 0;
+        _nRemovedAttributeCount = 0;
+
+        for ( XWPFHeader header : document.getHeaderList( ) )
+        {
+            removeNoise( header._getHdrFtr( ) );
+            mergeRuns( header );
+        }
+        for ( XWPFFooter footer : document.getFooterList( ) )
+        {
+            removeNoise( footer._getHdrFtr( ) );
+            mergeRuns( footer );
+        }
+        removeNoise( document.getDocument( ) );
+        mergeRuns( document );
+
+        return new OptimizationReport( _nRunCountBefore, _nRunCountAfter, _nRemovedElementCount, _nRemovedAttributeCount );
+    }
+
+    /**
+     * Remove the proofing marks, the rendering hints and the revision identifiers of a part. None of them is bound to a POI object, so the XML can be edited
+     * directly.
+     *
+     * @param xmlObject
+     *            the root of the part
+     */
+    private void removeNoise( XmlObject xmlObject )
+    {
+        XmlCursor cursor = xmlObject.newCursor( );
+
+        try
+        {
+            TokenType token = cursor.toNextToken( );
+            while ( !token.isNone( ) && !token.isEnddoc( ) )
+            {
+                // Once an element or an attribute is removed, the cursor is on the token which followed it
+                if ( token.isStart( ) && isNoiseElement( cursor.getName( ) ) )
+                {
+                    cursor.removeXml( );
+                    _nRemovedElementCount++;
+                    token = cursor.currentTokenType( );
+                    continue;
+                }
+                if ( token.isAttr( ) && isNoiseAttribute( cursor.getName( ) ) )
+                {
+                    cursor.removeXml( );
+                    _nRemovedAttributeCount++;
+                    token = cursor.currentTokenType( );
+                    continue;
+                }
+                token = cursor.toNextToken( );
+            }
+        }
+        finally
+        {
+            cursor.dispose( );
+        }
+    }
+
+    /**
+     * Merge the adjacent runs of the paragraphs of a body
+     *
+     * @param body
+     *            the body
+     */
+    private void mergeRuns( IBody body )
+    {
+        for ( IBodyElement bodyElement : body.getBodyElements( ) )
+        {
+            if ( bodyElement.getElementType( ).equals( BodyElementType.PARAGRAPH ) )
+            {
+                mergeRuns( (XWPFParagraph) bodyElement );
+            }
+            if ( bodyElement.getElementType( ).equals( BodyElementType.TABLE ) )
+            {
+                for ( XWPFTableRow row : ( (XWPFTable) bodyElement ).getRows( ) )
+                {
+                    for ( XWPFTableCell cell : row.getTableCells( ) )
+                    {
+                        mergeRuns( cell );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Merge the adjacent runs of a paragraph which hold only text and have the same formatting
+     *
+     * @param paragraph
+     *            the paragraph
+     */
+    private void mergeRuns( XWPFParagraph paragraph )
+    {
+        List<XWPFRun> listRuns = paragraph.getRuns( );
+        _nRunCountBefore += listRuns.size( );
+
+        // Runs nested in hyperlinks or fields cannot be removed through the paragraph
+        if ( isMergeable( paragraph ) )
+        {
+            int i = 0;
+            while ( i < listRuns.size( ) - 1 )
+            {
+                CTR ctr = listRuns.get( i ).getCTR( );
+                CTR nextCtr = listRuns.get( i + 1 ).getCTR( );
+
+                if ( isTextRun( ctr ) && isTextRun( nextCtr ) && isNextSibling( ctr, nextCtr ) && isSameFormat( ctr.getRPr( ), nextCtr.getRPr( ) ) )
+                {
+                    listRuns.get( i ).setText( ctr.getTArray( 0 ).getStringValue( ) + nextCtr.getTArray( 0 ).getStringValue( ), 0 );
+                    paragraph.removeRun( i + 1 );
+                }
+                else
+                {
+                    i++;
+                }
+            }
+        }
+
+        _nRunCountAfter += listRuns.size( );
+    }
+
+    /**
+     *
+     * @param paragraph
+     * @return true if every run of the paragraph is a direct child of it
+     */
+    private static boolean isMergeable( XWPFParagraph paragraph )
+    {
+        List<XWPFRun> listRuns = paragraph.getRuns( );
+        if ( paragraph.getCTP( ).sizeOfRArray( ) != listRuns.size( ) )
+        {
+            return false;
+        }
+        for ( XWPFRun run : listRuns )
+        {
+            if ( run.getClass( ) != XWPFRun.class )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @param ctr
+     * @return true if the run holds a single text and possibly its properties
+     */
+    private static boolean isTextRun( CTR ctr )
+    {
+        XmlCursor cursor = ctr.newCursor( );
+
+        try
+        {
+            int nTextCount = 0;
+            boolean bHasChild = cursor.toFirstChild( );
+            while ( bHasChild )
+            {
+                QName name = cursor.getName( );
+                if ( !ELEMENT_TEXT.equals( name ) && !ELEMENT_RPR.equals( name ) )
+                {
+                    return false;
+                }
+                if ( ELEMENT_TEXT.equals( name ) )
+                {
+                    nTextCount++;
+                }
+                bHasChild = cursor.toNextSibling( );
+            }
+            return nTextCount == 1;
+        }
+        finally
+        {
+            cursor.dispose( );
+        }
+    }
+
+    /**
+     *
+     * @param ctr
+     * @param nextCtr
+     * @return true if no element stands between the two runs
+     */
+    private static boolean isNextSibling( CTR ctr, CTR nextCtr )
+    {
+        XmlCursor cursor = ctr.newCursor( );
+
+        try
+        {
+            return cursor.toNextSibling( ) && cursor.getObject( ) == nextCtr;
+        }
+        finally
+        {
+            cursor.dispose( );
+        }
+    }
+
+    /**
+     *
+     * @param rPr
+     * @param nextRPr
+     * @return true if the two run properties are equal
+     */
+    private static boolean isSameFormat( CTRPr rPr, CTRPr nextRPr )
+    {
+        if ( rPr == null || nextRPr == null )
+        {
+            return rPr == nextRPr;
+        }
+        return rPr.xmlText( ).equals( nextRPr.xmlText( ) );
+    }
+
+    /**
+     *
+     * @param name
+     * @return true if the element only records editing history
+     */
+    private static boolean isNoiseElement( QName name )
+    {
+        return ELEMENT_PROOF_ERR.equals( name ) || ELEMENT_LAST_RENDERED_PAGE_BREAK.equals( name );
+    }
+
+    /**
+     *
+     * @param name
+     * @return true if the attribute is a revision identifier
+     */
+    private static boolean isNoiseAttribute( QName name )
+    {
+        return NAMESPACE_WORD.equals( name.getNamespaceURI( ) ) && name.getLocalPart( ).startsWith( ATTRIBUTE_RSID_PREFIX );
+    }
+}
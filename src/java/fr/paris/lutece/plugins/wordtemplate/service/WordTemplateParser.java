@@ -33,32 +33,29 @@
  */
 package fr.paris.lutece.plugins.wordtemplate.service;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import org.apache.poi.xwpf.usermodel.BodyElementType;
 import org.apache.poi.xwpf.usermodel.IBody;
-import org.apache.poi.xwpf.usermodel.IBodyElement;
 import org.apache.poi.xwpf.usermodel.XWPFParagraph;
 import org.apache.poi.xwpf.usermodel.XWPFRun;
-import org.apache.poi.xwpf.usermodel.XWPFTable;
-import org.apache.poi.xwpf.usermodel.XWPFTableCell;
-import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import fr.paris.lutece.plugins.wordtemplate.business.AbstractBlockInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.business.ClosingInstructionElement;
 import fr.paris.lutece.plugins.wordtemplate.business.IWordTemplateElement;
 import fr.paris.lutece.plugins.wordtemplate.business.WordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.visitor.DocumentIndex;
+import fr.paris.lutece.plugins.wordtemplate.service.visitor.DocumentWalker;
+import fr.paris.lutece.plugins.wordtemplate.service.visitor.IDocumentVisitor;
 import java.util.Map;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
-import org.apache.poi.xwpf.usermodel.XWPFFooter;
-import org.apache.poi.xwpf.usermodel.XWPFHeader;
 
 /**
  * Parser of word templates
  */
 public class WordTemplateParser
 {
-    private static final String INSTRUCTION_PATTERN = "\\$\\{.*?\\}|</?#.*?>";
-
     /**
      * Replace properties by their value
      *
@@ -69,175 +66,127 @@ public class WordTemplateParser
      */
     public WordTemplate parse( XWPFDocument document, Map<String, Object> model ) throws Exception
     {
-        WordTemplate wordTemplate = new WordTemplate( );
-        List<IWordTemplateElement> listTemplateElements = new ArrayList<>( );
-
-        // Parse headers
-        for ( XWPFHeader header : document.getHeaderList( ) )
-        {
-            listTemplateElements.addAll( findInstr( header ) );
-        }
-        // Parse footers
-        for ( XWPFFooter footer : document.getFooterList( ) )
-        {
-            listTemplateElements.addAll( findInstr( footer ) );
-        }
+        // The instructions are found and the document is indexed in a single walk of all the parts
+        InstructionCollector collector = new InstructionCollector( );
+        DocumentIndex documentIndex = DocumentIndex.build( document, collector );
 
-        // Parse the document
-        listTemplateElements.addAll( findInstr( document ) );
-
-        wordTemplate.setListInstructions( listTemplateElements );
+        WordTemplate wordTemplate = new WordTemplate( );
+        wordTemplate.setListInstructions( collector.getInstructions( ) );
+        wordTemplate.setDocumentIndex( documentIndex );
 
         return wordTemplate;
     }
 
     /**
+     * Visit a body. This method does nothing : the elements of a document are visited by the {@link DocumentWalker}.
      *
      * @param body
+     * @deprecated use {@link DocumentWalker#walk(XWPFDocument, IDocumentVisitor...)}
      */
+    @Deprecated
     public static void visitBody( IBody body )
     {
-        for ( IBodyElement bodyElement : body.getBodyElements( ) )
-        {
-            if ( bodyElement.getElementType( ).equals( BodyElementType.PARAGRAPH ) )
-            {
-                for ( XWPFRun run : ( (XWPFParagraph) bodyElement ).getRuns( ) )
-                {
-                    //action
-                }
-            }
-            if ( bodyElement.getElementType( ).equals( BodyElementType.TABLE ) )
-            {
-                for ( XWPFTableRow row : ( (XWPFTable) bodyElement ).getRows( ) )
-                {
-                    for ( XWPFTableCell cell : row.getTableCells( ) )
-                    {
-                        visitBody( cell );
-                    }
-                }
-            }
-        }
     }
 
     /**
+     * Build the blocks of the instructions of a part : the instructions found between an opening instruction and its closing instruction become the children
+     * of the block
      *
-     * @param body
-     * @return
+     * @param listInstructions
+     *            the instructions of a part, in document order
+     * @return the top level instructions
      */
-    private List<IWordTemplateElement> findInstr( IBody body )
+    public static List<IWordTemplateElement> structure( List<IWordTemplateElement> listInstructions )
     {
-        List<IWordTemplateElement> listInstruction = new ArrayList<>( );
+        List<IWordTemplateElement> listTopLevel = new ArrayList<>( );
+        Deque<AbstractBlockInstructionElement> stackBlocks = new ArrayDeque<>( );
 
-        for ( IBodyElement bodyElement : body.getBodyElements( ) )
+        for ( IWordTemplateElement element : listInstructions )
         {
-            if ( bodyElement.getElementType( ).equals( BodyElementType.PARAGRAPH ) )
+            if ( element instanceof ClosingInstructionElement )
             {
-                listInstruction.addAll( findInstr( (XWPFParagraph) bodyElement ) );
+                ClosingInstructionElement closing = (ClosingInstructionElement) element;
+                if ( stackBlocks.isEmpty( ) || !stackBlocks.peek( ).getDirectiveName( ).equals( closing.getDirectiveName( ) ) )
+                {
+                    throw new WordTemplateException( "Unexpected closing instruction " + closing.getExpression( ) );
+                }
+                stackBlocks.pop( ).setClosing( closing );
+                continue;
             }
 
-            if ( bodyElement.getElementType( ).equals( BodyElementType.TABLE ) )
+            if ( stackBlocks.isEmpty( ) )
             {
-                for ( XWPFTableRow row : ( (XWPFTable) bodyElement ).getRows( ) )
-                {
-                    for ( XWPFTableCell cell : row.getTableCells( ) )
-                    {
-                        findInstr( cell );
-                    }
-                }
+                listTopLevel.add( element );
+            }
+            else
+            {
+                stackBlocks.peek( ).getChildren( ).add( element );
+            }
+            if ( element instanceof AbstractBlockInstructionElement )
+            {
+                stackBlocks.push( (AbstractBlockInstructionElement) element );
             }
         }
 
-        return listInstruction;
+        if ( !stackBlocks.isEmpty( ) )
+        {
+            throw new WordTemplateException( "The instruction " + stackBlocks.peek( ).getExpression( ) + " is not closed" );
+        }
+
+        return listTopLevel;
     }
 
     /**
-     *
-     * @param paragraph
-     * @return
+     * Visitor finding the instructions of the paragraphs, then building the blocks of each part
      */
-    private List<IWordTemplateElement> findInstr( XWPFParagraph paragraph )
+    private static final class InstructionCollector implements IDocumentVisitor
     {
-        List<IWordTemplateElement> listInstruction = new ArrayList<>( );
-        String text = paragraph.getParagraphText( );
-        Pattern pattern = Pattern.compile( INSTRUCTION_PATTERN );
-        Matcher matcher = pattern.matcher( text );
+        private final InstructionService _instructionService = InstructionService.init( );
+        private final List<IWordTemplateElement> _listInstructions = new ArrayList<>( );
+        private final List<IWordTemplateElement> _listPartInstructions = new ArrayList<>( );
+        private String _strPartName;
 
-        while ( matcher.find( ) )
+        @Override
+        public void startPart( IBody part, String strPartName )
         {
-            int start = matcher.start( );
-            int end = matcher.end( ) - 1;
-            formatInstr( paragraph, start, end );
-            for ( XWPFRun run : paragraph.getRuns( ) )
+            // The footnotes of a document share the same part
+            if ( !strPartName.equals( _strPartName ) )
             {
-                if ( run.toString( ).equals( matcher.group( ) ) )
-                {
-                    InstructionService instructionService = InstructionService.init( );
-                    IWordTemplateElement element = instructionService.createInstruction( run.toString( ), run );
-                    listInstruction.add( element );
-                    break;
-                }
+                endPart( );
+                _strPartName = strPartName;
             }
         }
 
-        return listInstruction;
-    }
-
-    /**
-     *
-     * @param paragraph
-     * @param start
-     * @param end
-     */
-    private void formatInstr( XWPFParagraph paragraph, int start, int end )
-    {
-        boolean startFound = false;
-        boolean endFound = false;
-
-        while ( !endFound )
+        @Override
+        public void visitParagraph( XWPFParagraph paragraph, int nPosition )
         {
-            int pos = 0, numRun = -1, nextPos;
-
-            for ( XWPFRun run : paragraph.getRuns( ) )
+            for ( XWPFRun run : WordTemplateLexer.isolateInstructions( paragraph ) )
             {
-                numRun++;
-                nextPos = pos + run.toString( ).length( );
-
-                if ( start < pos && end >= nextPos )
-                {
-                    XWPFRun prevRun = paragraph.getRuns( ).get( numRun - 1 );
-                    prevRun.setText( prevRun.toString( ) + run.toString( ), 0 );
-                    paragraph.removeRun( numRun );
-                    break;
-                }
-                if ( start >= pos && start < nextPos && !startFound )
+                IWordTemplateElement element = _instructionService.createInstruction( run.toString( ), run );
+                if ( element != null )
                 {
-                    int startPosInRun = start - pos;
-                    startFound = true;
-                    if ( start > pos )
-                    {
-                        WordService.splitRun( run, startPosInRun );
-                        break;
-                    }
+                    _listPartInstructions.add( element );
                 }
-                if ( end >= pos && end < nextPos )
-                {
-                    int endPosInRun = end - pos;
-                    endFound = true;
-
-                    WordService.splitRun( run, endPosInRun + 1 );
+            }
+        }
 
-                    if ( start < pos )
-                    {
-                        XWPFRun prevRun = paragraph.getRuns( ).get( numRun - 1 );
-                        run = paragraph.getRuns( ).get( numRun );
-                        prevRun.setText( prevRun.toString( ) + run.toString( ), 0 );
-                        paragraph.removeRun( numRun );
-                    }
-                    break;
-                }
+        /**
+         * Build the blocks of the current part
+         */
+        private void endPart( )
+        {
+            _listInstructions.addAll( structure( _listPartInstructions ) );
+            _listPartInstructions.clear( );
+        }
 
-                pos = nextPos;
-            }
+        /**
+         *
+         * @return the top level instructions of the document
+         */
+        List<IWordTemplateElement> getInstructions( )
+        {
+            endPart( );
+            return _listInstructions;
         }
     }
 }
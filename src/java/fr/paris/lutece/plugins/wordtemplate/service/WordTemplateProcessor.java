@@ -42,6 +42,26 @@ import java.util.Map;
  */
 public class WordTemplateProcessor
 {
+    private final boolean _bBatchEvaluation;
+
+    /**
+     * Constructor of a processor evaluating the expressions of a document in a single pass
+     */
+    public WordTemplateProcessor( )
+    {
+        this( true );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param bBatchEvaluation
+     *            true to evaluate the expressions of a document in a single pass, false to evaluate each instruction on its own
+     */
+    public WordTemplateProcessor( boolean bBatchEvaluation )
+    {
+        _bBatchEvaluation = bBatchEvaluation;
+    }
 
     /**
      *
@@ -51,6 +71,13 @@ public class WordTemplateProcessor
     public void process( WordTemplate wordTemplate, Map<String, Object> model )
     {
         InstructionService instructionService = InstructionService.init( );
+
+        if ( _bBatchEvaluation )
+        {
+            instructionService.processInstructions( wordTemplate.getListInstructions( ), model );
+            return;
+        }
+
         for ( IWordTemplateElement instruction : wordTemplate.getListInstructions( ) )
         {
             instructionService.processInstruction( instruction, model );
@@ -33,19 +33,56 @@
  */
 package fr.paris.lutece.plugins.wordtemplate.service;
 
+import fr.paris.lutece.plugins.wordtemplate.business.AbstractBlockInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledInstruction;
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledWordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.business.IWordTemplateElement;
+import fr.paris.lutece.plugins.wordtemplate.business.ImageInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.business.OptimizationReport;
 import fr.paris.lutece.plugins.wordtemplate.business.WordTemplate;
 import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.metrics.RenderPhase;
+import fr.paris.lutece.plugins.wordtemplate.service.metrics.RenderRecorder;
+import fr.paris.lutece.plugins.wordtemplate.service.output.CompressionPolicy;
+import fr.paris.lutece.plugins.wordtemplate.service.output.CountingOutputStream;
+import fr.paris.lutece.plugins.wordtemplate.service.output.DocumentPartSerializer;
+import fr.paris.lutece.plugins.wordtemplate.service.output.NonClosingOutputStream;
+import fr.paris.lutece.plugins.wordtemplate.service.output.ZipPassThroughWriter;
+import fr.paris.lutece.plugins.wordtemplate.service.pool.DocumentPool;
+import fr.paris.lutece.plugins.wordtemplate.service.pool.PooledDocument;
+import fr.paris.lutece.plugins.wordtemplate.service.reactive.DocumentPublisher;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.ZipException;
+import org.apache.poi.xwpf.usermodel.IBody;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
 
 /**
- * Primary service of the library. It retrieve the template and deliver the result
+ * Primary service of the library. It retrieve the template and deliver the result. Each render is measured and published to the
+ * {@link fr.paris.lutece.plugins.wordtemplate.service.metrics.RenderMetricsService}.
  */
 public class WordTemplateService
 {
+    public static final String DEFAULT_TEMPLATE_ID = "default";
+    public static final String COMPILED_TEMPLATE_ID = "compiled";
+
+    private static final int DEFAULT_ASYNC_QUEUE_SIZE = 64;
+    private static final int BUFFER_SIZE = 65536;
+    private static volatile AsyncRenderExecutor _asyncExecutor;
+    private static volatile CompressionPolicy _compressionPolicy = CompressionPolicy.DEFAULT;
+
     /**
      * Produce a document from template document
      *
@@ -56,34 +93,652 @@ public class WordTemplateService
     public static ByteArrayOutputStream produceDocument( FileInputStream fis, Map<String, Object> model ) throws WordTemplateException
     {
         ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        produceDocument( fis, model, bos );
+        return bos;
+    }
+
+    /**
+     * Produce a document from template document into an output stream
+     *
+     * @param templateStream
+     *            the stream of the template document
+     * @param model
+     * @param outputStream
+     *            the stream of the produced document. It is not closed.
+     */
+    public static void produceDocument( InputStream templateStream, Map<String, Object> model, OutputStream outputStream ) throws WordTemplateException
+    {
+        produceDocument( DEFAULT_TEMPLATE_ID, templateStream, model, outputStream );
+    }
 
+    /**
+     * Produce a document from template document into an output stream, tagging the metrics of the render with the id of the template
+     *
+     * @param strTemplateId
+     *            the id of the template. Each id has its own MBean : the ids must come from a bounded set, see
+     *            {@link fr.paris.lutece.plugins.wordtemplate.service.metrics.JmxRenderMetricsListener}
+     * @param templateStream
+     *            the stream of the template document
+     * @param model
+     * @param outputStream
+     *            the stream of the produced document. It is not closed.
+     */
+    public static void produceDocument( String strTemplateId, InputStream templateStream, Map<String, Object> model, OutputStream outputStream )
+            throws WordTemplateException
+    {
         XWPFDocument document = null;
+        RenderRecorder recorder = RenderRecorder.start( strTemplateId );
+        CountingOutputStream countingStream = new CountingOutputStream( outputStream );
 
         try
         {
-            document = new XWPFDocument( fis );
+            long lStart = System.nanoTime( );
+            document = new XWPFDocument( templateStream );
+            lStart = recorder.endPhase( RenderPhase.LOAD, lStart );
             WordTemplateParser parser = new WordTemplateParser( );
             WordTemplate wordTemplate = parser.parse( document, model );
+            recorder.setInstructionCount( countInstructions( wordTemplate.getListInstructions( ) ) );
+            lStart = recorder.endPhase( RenderPhase.PARSE, lStart );
             WordTemplateProcessor processor = new WordTemplateProcessor( );
             processor.process( wordTemplate, model );
-            document.write( bos );
+            lStart = recorder.endProcessing( lStart );
+            document.write( new NonClosingOutputStream( countingStream ) );
+            recorder.endPhase( RenderPhase.WRITE, lStart );
         }
         catch( Exception e )
         {
+            recorder.setFailure( e );
             throw new WordTemplateException( e.getMessage( ), e );
         }
         finally
         {
-            try
+            recorder.setOutputBytes( countingStream.getCount( ) );
+            recorder.finish( );
+            close( document );
+        }
+    }
+
+    /**
+     * Produce a document from template document into a channel
+     *
+     * @param templateStream
+     *            the stream of the template document
+     * @param model
+     * @param channel
+     *            the channel of the produced document. It is not closed.
+     */
+    public static void produceDocument( InputStream templateStream, Map<String, Object> model, WritableByteChannel channel ) throws WordTemplateException
+    {
+        OutputStream outputStream = new BufferedOutputStream( Channels.newOutputStream( channel ), BUFFER_SIZE );
+        produceDocument( templateStream, model, outputStream );
+        flush( outputStream );
+    }
+
+    /**
+     * Produce a document from template document into a file
+     *
+     * @param templateStream
+     *            the stream of the template document
+     * @param model
+     * @param target
+     *            the path of the produced document. An existing file is replaced.
+     */
+    public static void produceDocument( InputStream templateStream, Map<String, Object> model, Path target ) throws WordTemplateException
+    {
+        try ( OutputStream outputStream = new BufferedOutputStream( Files.newOutputStream( target ), BUFFER_SIZE ) )
+        {
+            produceDocument( templateStream, model, outputStream );
+        }
+        catch( IOException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+
+    /**
+     * Produce a document from template file into an output stream
+     *
+     * @param template
+     *            the path of the template document
+     * @param model
+     * @param outputStream
+     *            the stream of the produced document. It is not closed.
+     */
+    public static void produceDocument( Path template, Map<String, Object> model, OutputStream outputStream ) throws WordTemplateException
+    {
+        try ( InputStream templateStream = Files.newInputStream( template ) )
+        {
+            produceDocument( templateStream, model, outputStream );
+        }
+        catch( IOException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+
+    /**
+     * Produce a document from template file into a channel
+     *
+     * @param template
+     *            the path of the template document
+     * @param model
+     * @param channel
+     *            the channel of the produced document. It is not closed.
+     */
+    public static void produceDocument( Path template, Map<String, Object> model, WritableByteChannel channel ) throws WordTemplateException
+    {
+        try ( InputStream templateStream = Files.newInputStream( template ) )
+        {
+            produceDocument( templateStream, model, channel );
+        }
+        catch( IOException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+
+    /**
+     * Produce a document from template file into a file
+     *
+     * @param template
+     *            the path of the template document
+     * @param model
+     * @param target
+     *            the path of the produced document. An existing file is replaced.
+     */
+    public static void produceDocument( Path template, Map<String, Object> model, Path target ) throws WordTemplateException
+    {
+        try ( InputStream templateStream = Files.newInputStream( template ) )
+        {
+            produceDocument( templateStream, model, target );
+        }
+        catch( IOException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+
+    /**
+     * Compile a template document. The compiled template can be rendered many times by {@link #produceDocument(CompiledWordTemplate, Map)}
+     *
+     * @param templateStream
+     *            the stream of the template document
+     * @return the compiled template
+     */
+    public static CompiledWordTemplate compileTemplate( InputStream templateStream ) throws WordTemplateException
+    {
+        return compileTemplate( templateStream, false );
+    }
+
+    /**
+     * Compile a template document, optionally optimizing it first
+     *
+     * @param templateStream
+     *            the stream of the template document
+     * @param bOptimize
+     *            true to remove the editing noise of the template and merge its runs before compiling it
+     * @return the compiled template
+     */
+    public static CompiledWordTemplate compileTemplate( InputStream templateStream, boolean bOptimize ) throws WordTemplateException
+    {
+        return new WordTemplateCompiler( bOptimize, _compressionPolicy ).compile( templateStream );
+    }
+
+    /**
+     * Get the compression policy of the documents written by the service from compiled templates
+     *
+     * @return the compression policy
+     */
+    public static CompressionPolicy getCompressionPolicy( )
+    {
+        return _compressionPolicy;
+    }
+
+    /**
+     * Set the compression policy of the documents written by the service from compiled templates. The entries which are never rendered keep the policy
+     * of the time their template was compiled.
+     *
+     * @param compressionPolicy
+     *            the compression policy
+     */
+    public static void setCompressionPolicy( CompressionPolicy compressionPolicy )
+    {
+        _compressionPolicy = compressionPolicy;
+    }
+
+    /**
+     * Optimize a template document, for example when it is uploaded : the editing noise saved by Word is removed and the runs having the same formatting are
+     * merged
+     *
+     * @param templateStream
+     *            the stream of the template document
+     * @param outputStream
+     *            the stream of the optimized template document. It is not closed.
+     * @return the report of the optimization
+     */
+    public static OptimizationReport optimizeTemplate( InputStream templateStream, OutputStream outputStream ) throws WordTemplateException
+    {
+        XWPFDocument document = null;
+
+        try
+        {
+            document = new XWPFDocument( templateStream );
+            OptimizationReport report = new WordTemplateOptimizer( ).optimize( document );
+            document.write( new NonClosingOutputStream( outputStream ) );
+            return report;
+        }
+        catch( IOException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+        finally
+        {
+            close( document );
+        }
+    }
+
+    /**
+     * Produce a document from a compiled template
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param model
+     * @return the produced document
+     */
+    public static ByteArrayOutputStream produceDocument( CompiledWordTemplate compiledTemplate, Map<String, Object> model ) throws WordTemplateException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        produceDocument( compiledTemplate, model, bos );
+        return bos;
+    }
+
+    /**
+     * Produce a document from a compiled template into an output stream
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param model
+     * @param outputStream
+     *            the stream of the produced document. It is not closed.
+     */
+    public static void produceDocument( CompiledWordTemplate compiledTemplate, Map<String, Object> model, OutputStream outputStream )
+            throws WordTemplateException
+    {
+        XWPFDocument document = null;
+        String strTemplateId = compiledTemplate.getTemplateId( ) != null ? compiledTemplate.getTemplateId( ) : COMPILED_TEMPLATE_ID;
+        RenderRecorder recorder = RenderRecorder.start( strTemplateId );
+        CountingOutputStream countingStream = new CountingOutputStream( outputStream );
+
+        try
+        {
+            long lStart = System.nanoTime( );
+            WordTemplateCompiler compiler = new WordTemplateCompiler( );
+            document = compiler.load( compiledTemplate );
+            lStart = recorder.endPhase( RenderPhase.LOAD, lStart );
+            WordTemplate wordTemplate = compiler.bind( compiledTemplate, document );
+            recorder.setInstructionCount( compiledTemplate.getInstructions( ).size( ) );
+            lStart = recorder.endPhase( RenderPhase.PARSE, lStart );
+            WordTemplateProcessor processor = new WordTemplateProcessor( );
+            processor.process( wordTemplate, model );
+            lStart = recorder.endProcessing( lStart );
+            writeDocument( compiledTemplate, document, compiler, countingStream );
+            recorder.endPhase( RenderPhase.WRITE, lStart );
+        }
+        catch( Exception e )
+        {
+            recorder.setFailure( e );
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+        finally
+        {
+            recorder.setOutputBytes( countingStream.getCount( ) );
+            recorder.finish( );
+            close( document );
+        }
+    }
+
+    /**
+     * Produce a document from a compiled template into a channel
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param model
+     * @param channel
+     *            the channel of the produced document. It is not closed.
+     */
+    public static void produceDocument( CompiledWordTemplate compiledTemplate, Map<String, Object> model, WritableByteChannel channel )
+            throws WordTemplateException
+    {
+        OutputStream outputStream = new BufferedOutputStream( Channels.newOutputStream( channel ), BUFFER_SIZE );
+        produceDocument( compiledTemplate, model, outputStream );
+        flush( outputStream );
+    }
+
+    /**
+     * Produce a document from a compiled template into a file
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param model
+     * @param target
+     *            the path of the produced document. An existing file is replaced.
+     */
+    public static void produceDocument( CompiledWordTemplate compiledTemplate, Map<String, Object> model, Path target ) throws WordTemplateException
+    {
+        try ( OutputStream outputStream = new BufferedOutputStream( Files.newOutputStream( target ), BUFFER_SIZE ) )
+        {
+            produceDocument( compiledTemplate, model, outputStream );
+        }
+        catch( IOException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+
+    /**
+     * Produce a document from a pool of instances of a compiled template
+     *
+     * @param pool
+     *            the pool
+     * @param model
+     * @return the produced document
+     */
+    public static ByteArrayOutputStream produceDocument( DocumentPool pool, Map<String, Object> model ) throws WordTemplateException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( pool.getCompiledTemplate( ).getPackageSize( ) );
+        produceDocument( pool, model, bos );
+        return bos;
+    }
+
+    /**
+     * Produce a document from a pool of instances of a compiled template into an output stream. The instance taken from the pool is already loaded and bound
+     * : only the evaluation of the instructions and the writing remain.
+     *
+     * @param pool
+     *            the pool
+     * @param model
+     * @param outputStream
+     *            the stream of the produced document. It is not closed.
+     */
+    public static void produceDocument( DocumentPool pool, Map<String, Object> model, OutputStream outputStream ) throws WordTemplateException
+    {
+        CompiledWordTemplate compiledTemplate = pool.getCompiledTemplate( );
+        PooledDocument instance = null;
+        String strTemplateId = compiledTemplate.getTemplateId( ) != null ? compiledTemplate.getTemplateId( ) : COMPILED_TEMPLATE_ID;
+        RenderRecorder recorder = RenderRecorder.start( strTemplateId );
+        CountingOutputStream countingStream = new CountingOutputStream( outputStream );
+
+        try
+        {
+            long lStart = System.nanoTime( );
+            instance = pool.take( );
+            recorder.setInstructionCount( compiledTemplate.getInstructions( ).size( ) );
+            lStart = recorder.endPhase( RenderPhase.LOAD, lStart );
+            WordTemplateProcessor processor = new WordTemplateProcessor( );
+            processor.process( instance.getWordTemplate( ), model );
+            lStart = recorder.endProcessing( lStart );
+            writeDocument( compiledTemplate, instance.getDocument( ), instance.getCompiler( ), countingStream );
+            recorder.endPhase( RenderPhase.WRITE, lStart );
+        }
+        catch( Exception e )
+        {
+            recorder.setFailure( e );
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+        finally
+        {
+            recorder.setOutputBytes( countingStream.getCount( ) );
+            recorder.finish( );
+            if ( instance != null )
             {
-                document.close( );
+                instance.close( );
+            }
+        }
+    }
+
+    /**
+     * Produce a document from a compiled template without blocking the calling thread. The render runs on the asynchronous executor of the service.
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param model
+     * @return the future produced document. It is completed exceptionally with a {@link java.util.concurrent.RejectedExecutionException} if too many renders
+     *         are pending, or with a {@link WordTemplateException} if the render fails.
+     */
+    public static CompletableFuture<ByteArrayOutputStream> produceDocumentAsync( CompiledWordTemplate compiledTemplate, Map<String, Object> model )
+    {
+        return produceDocumentAsync( compiledTemplate, model, getAsyncExecutor( ) );
+    }
+
+    /**
+     * Produce a document from a compiled template on a given executor
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param model
+     * @param executor
+     *            the executor of the render
+     * @return the future produced document
+     */
+    public static CompletableFuture<ByteArrayOutputStream> produceDocumentAsync( CompiledWordTemplate compiledTemplate, Map<String, Object> model,
+            AsyncRenderExecutor executor )
+    {
+        return executor.submit( ( ) -> produceDocument( compiledTemplate, model ) );
+    }
+
+    /**
+     * Open a render session of a compiled template, for a live preview : the document is rendered once, then only the interpolations depending on the
+     * changed keys of the model are evaluated again
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param model
+     * @return the session, to close once the preview ends
+     */
+    public static RenderSession openRenderSession( CompiledWordTemplate compiledTemplate, Map<String, Object> model ) throws WordTemplateException
+    {
+        return new RenderSession( compiledTemplate, model );
+    }
+
+    /**
+     * Produce a document from a compiled template as a publisher of chunks. The render runs on the asynchronous executor of the service once the publisher
+     * is subscribed to, and waits while the subscriber requests no more chunks. The document is fully rendered in memory before its first chunk : the demand
+     * of the subscriber only paces the writing of the package.
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param model
+     * @return the publisher of the produced document
+     */
+    public static DocumentPublisher produceDocumentPublisher( CompiledWordTemplate compiledTemplate, Map<String, Object> model )
+    {
+        return new DocumentPublisher( outputStream -> produceDocument( compiledTemplate, model, outputStream ), getAsyncExecutor( ) );
+    }
+
+    /**
+     * Produce a document from a pool of instances of a compiled template as a publisher of chunks
+     *
+     * @param pool
+     *            the pool
+     * @param model
+     * @return the publisher of the produced document
+     */
+    public static DocumentPublisher produceDocumentPublisher( DocumentPool pool, Map<String, Object> model )
+    {
+        return new DocumentPublisher( outputStream -> produceDocument( pool, model, outputStream ), getAsyncExecutor( ) );
+    }
+
+    /**
+     * Get the asynchronous executor of the service. By default, it runs one render per available processor and keeps a bounded number of pending renders.
+     *
+     * @return the asynchronous executor
+     */
+    public static AsyncRenderExecutor getAsyncExecutor( )
+    {
+        AsyncRenderExecutor executor = _asyncExecutor;
+        if ( executor == null )
+        {
+            synchronized( WordTemplateService.class )
+            {
+                executor = _asyncExecutor;
+                if ( executor == null )
+                {
+                    executor = new AsyncRenderExecutor( Runtime.getRuntime( ).availableProcessors( ), DEFAULT_ASYNC_QUEUE_SIZE );
+                    _asyncExecutor = executor;
+                }
             }
-            catch( IOException e )
+        }
+        return executor;
+    }
+
+    /**
+     * Replace the asynchronous executor of the service, for example to change its limits. The previous executor is shut down once its pending renders are
+     * completed.
+     *
+     * @param executor
+     *            the new executor
+     */
+    public static void setAsyncExecutor( AsyncRenderExecutor executor )
+    {
+        AsyncRenderExecutor previous;
+        synchronized( WordTemplateService.class )
+        {
+            previous = _asyncExecutor;
+            _asyncExecutor = executor;
+        }
+        if ( previous != null && previous != executor )
+        {
+            previous.shutdown( );
+        }
+    }
+
+    /**
+     * Write a document rendered from a compiled template. Only the parts holding instructions are serialized again : the other parts are copied from the
+     * package of the compiled template as raw compressed entries.
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param document
+     *            the rendered document
+     * @param compiler
+     *            the compiler
+     * @param outputStream
+     *            the output stream
+     * @throws IOException
+     */
+    static void writeDocument( CompiledWordTemplate compiledTemplate, XWPFDocument document, WordTemplateCompiler compiler, OutputStream outputStream )
+            throws IOException
+    {
+        if ( hasImages( compiledTemplate ) )
+        {
+            // The images add media parts and relationships, which only POI writes
+            document.write( new NonClosingOutputStream( outputStream ) );
+            return;
+        }
+
+        ZipPassThroughWriter writer;
+        try
+        {
+            writer = new ZipPassThroughWriter( compiledTemplate.getPackageBuffer( ) );
+        }
+        catch( ZipException e )
+        {
+            document.write( new NonClosingOutputStream( outputStream ) );
+            return;
+        }
+
+        Map<String, IBody> mapBodies = compiler.getPartBodies( document );
+        Map<String, byte [ ]> mapModifiedEntries = new HashMap<>( );
+        for ( String strPartName : compiledTemplate.getInstructionPartNames( ) )
+        {
+            IBody body = mapBodies.get( strPartName );
+            if ( body == null )
             {
-                throw new WordTemplateException( e.getMessage( ), e );
+                // Only the headers, the footers and the main document are serialized on their own
+                document.write( new NonClosingOutputStream( outputStream ) );
+                return;
             }
+            // The entry name of a part is its name without the leading slash
+            mapModifiedEntries.put( strPartName.substring( 1 ), DocumentPartSerializer.serialize( body ) );
         }
 
-        return bos;
+        writer.write( mapModifiedEntries, _compressionPolicy, outputStream );
+    }
+
+    /**
+     * Check whether a compiled template has image instructions
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @return true if the template has image instructions
+     */
+    private static boolean hasImages( CompiledWordTemplate compiledTemplate )
+    {
+        for ( CompiledInstruction instruction : compiledTemplate.getInstructions( ) )
+        {
+            if ( ImageInstructionElement.IMAGE_TYPE.equals( instruction.getType( ) ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count the instructions of a template, including those nested in blocks
+     *
+     * @param listInstructions
+     *            the instructions
+     * @return the number of instructions
+     */
+    private static int countInstructions( List<IWordTemplateElement> listInstructions )
+    {
+        int nCount = listInstructions.size( );
+        for ( IWordTemplateElement instruction : listInstructions )
+        {
+            if ( instruction instanceof AbstractBlockInstructionElement )
+            {
+                nCount += countInstructions( ( (AbstractBlockInstructionElement) instruction ).getChildren( ) );
+            }
+        }
+        return nCount;
+    }
+
+    /**
+     * Flush an output stream
+     *
+     * @param outputStream
+     */
+    private static void flush( OutputStream outputStream )
+    {
+        try
+        {
+            outputStream.flush( );
+        }
+        catch( IOException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+
+    /**
+     * Close a document
+     *
+     * @param document
+     *            the document, possibly null
+     */
+    private static void close( XWPFDocument document )
+    {
+        try
+        {
+            if ( document != null )
+            {
+                document.close( );
+            }
+        }
+        catch( IOException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
     }
 }
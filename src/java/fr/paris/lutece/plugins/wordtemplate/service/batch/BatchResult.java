@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.batch;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a batch : the number of produced documents and the failed items
+ */
+public class BatchResult
+{
+    private final long _lSuccessCount;
+    private final List<BatchItemFailure> _listFailures;
+
+    /**
+     * Constructor
+     *
+     * @param lSuccessCount
+     *            the number of documents produced and accepted by the sink
+     * @param listFailures
+     *            the failed items, by index
+     */
+    public BatchResult( long lSuccessCount, List<BatchItemFailure> listFailures )
+    {
+        _lSuccessCount = lSuccessCount;
+        _listFailures = Collections.unmodifiableList( listFailures );
+    }
+
+    /**
+     *
+     * @return the number of documents produced and accepted by the sink
+     */
+    public long getSuccessCount( )
+    {
+        return _lSuccessCount;
+    }
+
+    /**
+     *
+     * @return the number of failed items
+     */
+    public long getFailureCount( )
+    {
+        return _listFailures.size( );
+    }
+
+    /**
+     *
+     * @return the failed items, by index
+     */
+    public List<BatchItemFailure> getFailures( )
+    {
+        return _listFailures;
+    }
+
+    /**
+     *
+     * @return true if every item was produced
+     */
+    public boolean isSuccessful( )
+    {
+        return _listFailures.isEmpty( );
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.batch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Receiver of the documents produced by a batch. Each document is written by its worker straight into a stream opened by the sink, without being copied in
+ * memory first. The sink is called concurrently by the workers of the batch, so implementations must be thread-safe.
+ */
+public interface IDocumentSink
+{
+    /**
+     * Open the stream of a document. The worker writes the document into it, then closes it : the document is complete once its stream is closed without
+     * error.
+     *
+     * @param lIndex
+     *            the index of the model in the batch
+     * @param model
+     *            the model of the document
+     * @return the stream of the document
+     * @throws IOException
+     *             if the document cannot be stored. The item is reported as failed.
+     */
+    OutputStream open( long lIndex, Map<String, Object> model ) throws IOException;
+
+    /**
+     * Discard a document which failed after its stream was opened. The stream has been closed and holds a partial document.
+     *
+     * @param lIndex
+     *            the index of the model in the batch
+     * @param model
+     *            the model of the document
+     * @param exception
+     *            the cause of the failure, reported in the result of the batch
+     */
+    default void discard( long lIndex, Map<String, Object> model, Exception exception )
+    {
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.batch;
+
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledWordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateService;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Mail-merge service : render one template against many models. The template is compiled once and shared by the workers of the batch. A failed item is
+ * reported in the result and does not abort the batch.
+ */
+public class WordTemplateBatchService
+{
+    private static final String THREAD_NAME_PREFIX = "wordtemplate-batch-";
+    private static final int IN_FLIGHT_ITEMS_PER_THREAD = 2;
+    private static final AtomicInteger _nThreadCount = new AtomicInteger( );
+
+    /**
+     * Private constructor
+     */
+    private WordTemplateBatchService( )
+    {
+    }
+
+    /**
+     * Produce a document for each model, with one thread per available processor
+     *
+     * @param templateStream
+     *            the stream of the template document
+     * @param models
+     *            the models
+     * @param sink
+     *            the receiver of the produced documents
+     * @return the result of the batch
+     */
+    public static BatchResult produceDocuments( InputStream templateStream, Iterable<Map<String, Object>> models, IDocumentSink sink )
+            throws WordTemplateException
+    {
+        return produceDocuments( templateStream, models, sink, Runtime.getRuntime( ).availableProcessors( ) );
+    }
+
+    /**
+     * Produce a document for each model
+     *
+     * @param templateStream
+     *            the stream of the template document
+     * @param models
+     *            the models
+     * @param sink
+     *            the receiver of the produced documents
+     * @param nThreads
+     *            the number of documents rendered in parallel
+     * @return the result of the batch
+     */
+    public static BatchResult produceDocuments( InputStream templateStream, Iterable<Map<String, Object>> models, IDocumentSink sink, int nThreads )
+            throws WordTemplateException
+    {
+        return produceDocuments( WordTemplateService.compileTemplate( templateStream ), models, sink, nThreads );
+    }
+
+    /**
+     * Produce a document for each model of a stream
+     *
+     * @param templateStream
+     *            the stream of the template document
+     * @param models
+     *            the models. The stream is consumed sequentially by the batch.
+     * @param sink
+     *            the receiver of the produced documents
+     * @param nThreads
+     *            the number of documents rendered in parallel
+     * @return the result of the batch
+     */
+    public static BatchResult produceDocuments( InputStream templateStream, Stream<Map<String, Object>> models, IDocumentSink sink, int nThreads )
+            throws WordTemplateException
+    {
+        return produceDocuments( WordTemplateService.compileTemplate( templateStream ), models, sink, nThreads );
+    }
+
+    /**
+     * Produce a document for each model of a stream
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param models
+     *            the models. The stream is consumed sequentially by the batch.
+     * @param sink
+     *            the receiver of the produced documents
+     * @param nThreads
+     *            the number of documents rendered in parallel
+     * @return the result of the batch
+     */
+    public static BatchResult produceDocuments( CompiledWordTemplate compiledTemplate, Stream<Map<String, Object>> models, IDocumentSink sink, int nThreads )
+            throws WordTemplateException
+    {
+        Iterator<Map<String, Object>> iterator = models.iterator( );
+        return produceDocuments( compiledTemplate, ( ) -> iterator, sink, nThreads );
+    }
+
+    /**
+     * Produce a document for each model. The models are read lazily : only a few items per thread are in flight at a time, so a batch can iterate over a large
+     * result set without holding it in memory.
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param models
+     *            the models
+     * @param sink
+     *            the receiver of the produced documents
+     * @param nThreads
+     *            the number of documents rendered in parallel
+     * @return the result of the batch
+     */
+    public static BatchResult produceDocuments( CompiledWordTemplate compiledTemplate, Iterable<Map<String, Object>> models, IDocumentSink sink, int nThreads )
+            throws WordTemplateException
+    {
+        if ( nThreads < 1 )
+        {
+            throw new WordTemplateException( "The number of threads must be positive : " + nThreads );
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( nThreads, createThreadFactory( ) );
+        Semaphore semaphore = new Semaphore( nThreads * IN_FLIGHT_ITEMS_PER_THREAD );
+        AtomicLong lSuccessCount = new AtomicLong( );
+        Queue<BatchItemFailure> queueFailures = new ConcurrentLinkedQueue<>( );
+        long lIndex = 0;
+
+        try
+        {
+            for ( Map<String, Object> model : models )
+            {
+                semaphore.acquire( );
+                long lItemIndex = lIndex++;
+                executor.execute( ( ) -> {
+                    try
+                    {
+                        produceItem( compiledTemplate, lItemIndex, model, sink );
+                        lSuccessCount.incrementAndGet( );
+                    }
+                    catch( Exception e )
+                    {
+                        queueFailures.add( new BatchItemFailure( lItemIndex, e ) );
+                    }
+                    finally
+                    {
+                        semaphore.release( );
+                    }
+                } );
+            }
+
+            executor.shutdown( );
+            executor.awaitTermination( Long.MAX_VALUE, TimeUnit.NANOSECONDS );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new WordTemplateException( "The batch has been interrupted", e );
+        }
+        finally
+        {
+            executor.shutdownNow( );
+        }
+
+        List<BatchItemFailure> listFailures = new ArrayList<>( queueFailures );
+        listFailures.sort( Comparator.comparingLong( BatchItemFailure::getIndex ) );
+
+        return new BatchResult( lSuccessCount.get( ), listFailures );
+    }
+
+    /**
+     * Produce the document of an item into the stream opened by the sink
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param lIndex
+     *            the index of the model in the batch
+     * @param model
+     *            the model
+     * @param sink
+     *            the receiver of the produced documents
+     * @throws IOException
+     */
+    private static void produceItem( CompiledWordTemplate compiledTemplate, long lIndex, Map<String, Object> model, IDocumentSink sink ) throws IOException
+    {
+        OutputStream outputStream = sink.open( lIndex, model );
+        try
+        {
+            WordTemplateService.produceDocument( compiledTemplate, model, outputStream );
+            outputStream.close( );
+        }
+        catch( IOException | RuntimeException e )
+        {
+            closeQuietly( outputStream );
+            sink.discard( lIndex, model, e );
+            throw e;
+        }
+    }
+
+    /**
+     * Close the stream of a failed item
+     *
+     * @param outputStream
+     *            the stream
+     */
+    private static void closeQuietly( OutputStream outputStream )
+    {
+        try
+        {
+            outputStream.close( );
+        }
+        catch( IOException e )
+        {
+            // The item is already reported as failed
+        }
+    }
+
+    /**
+     *
+     * @return a factory of daemon worker threads
+     */
+    private static ThreadFactory createThreadFactory( )
+    {
+        return runnable -> {
+            Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + _nThreadCount.incrementAndGet( ) );
+            thread.setDaemon( true );
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.expression;
+
+import fr.paris.lutece.plugins.wordtemplate.service.TemplateEngineService;
+import freemarker.template.TemplateModel;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Interpolation of a plain property path, such as <code>${user.address.city}</code>, optionally followed by <code>?html</code> or by a default value
+ * (<code>${user.name!}</code>, <code>${user.name!"unknown"}</code>, <code>${(user.name)!"unknown"}</code>). Such an interpolation is resolved through a
+ * chain of map lookups and bean getters, without FreeMarker.
+ * <p>
+ * The fast path only answers when its result is certainly the one FreeMarker would produce : a string value, or a missing value having a default.
+ * Otherwise {@link #evaluate(Object)} returns null and the expression is evaluated by FreeMarker, which formats the numbers, dates and booleans and reports
+ * the errors.
+ * </p>
+ */
+public final class SimpleExpression
+{
+    private static final int MAX_CACHE_SIZE = 10000;
+    private static final String INTERPOLATION_START = "${";
+    private static final String INTERPOLATION_END = "}";
+    private static final String BUILT_IN_HTML = "?html";
+    private static final char DEFAULT_OPERATOR = '!';
+    private static final Pattern PATTERN_PATH = Pattern.compile( "[A-Za-z_$][A-Za-z0-9_$]*(\\.[A-Za-z_$][A-Za-z0-9_$]*)*" );
+    private static final Pattern PATTERN_LITERAL = Pattern.compile( "\"[^\"\\\\$#]*\"|'[^'\\\\$#]*'" );
+    private static final Set<String> KEYWORDS = new HashSet<>( Arrays.asList( "true", "false", "gt", "gte", "lt", "lte", "as", "in", "using" ) );
+
+    // Marks an expression which is not a plain property path, and a value which can not be resolved without FreeMarker
+    private static final SimpleExpression UNSUPPORTED = new SimpleExpression( null, false, false, null, false );
+    private static final Object UNRESOLVED = new Object( );
+    private static final MethodType GETTER_TYPE = MethodType.methodType( Object.class, Object.class );
+    private static final MethodHandle NO_GETTER = MethodHandles.dropArguments( MethodHandles.constant( Object.class, UNRESOLVED ), 0, Object.class );
+
+    private static final Map<String, SimpleExpression> CACHE = new ConcurrentHashMap<>( );
+    private static final ClassValue<Map<String, MethodHandle>> GETTERS = new ClassValue<Map<String, MethodHandle>>( )
+    {
+        @Override
+        protected Map<String, MethodHandle> computeValue( Class<?> type )
+        {
+            return findGetters( type );
+        }
+    };
+
+    private final String [ ] _path;
+    private final boolean _bHtml;
+    private final boolean _bDefault;
+    private final String _strDefault;
+    private final boolean _bParenthesized;
+
+    /**
+     * Constructor
+     *
+     * @param path
+     *            the names of the path
+     * @param bHtml
+     *            true if the value is escaped by <code>?html</code>
+     * @param bDefault
+     *            true if the path has a default value
+     * @param strDefault
+     *            the default value
+     * @param bParenthesized
+     *            true if the default value also applies to the missing parents of the value
+     */
+    private SimpleExpression( String [ ] path, boolean bHtml, boolean bDefault, String strDefault, boolean bParenthesized )
+    {
+        _path = path;
+        _bHtml = bHtml;
+        _bDefault = bDefault;
+        _strDefault = strDefault;
+        _bParenthesized = bParenthesized;
+    }
+
+    /**
+     * Classify an expression. The classification is cached.
+     *
+     * @param strExpression
+     *            the expression, with its <code>${</code> and <code>}</code>
+     * @return the simple expression, or null if the expression must be evaluated by FreeMarker
+     */
+    public static SimpleExpression compile( String strExpression )
+    {
+        SimpleExpression expression = CACHE.get( strExpression );
+        if ( expression == null )
+        {
+            expression = parse( strExpression );
+            if ( CACHE.size( ) < MAX_CACHE_SIZE )
+            {
+                CACHE.put( strExpression, expression );
+            }
+        }
+        return expression == UNSUPPORTED ? null : expression;
+    }
+
+    /**
+     * Evaluate the expression
+     *
+     * @param rootMap
+     *            the model
+     * @return the value, or null if the expression must be evaluated by FreeMarker
+     */
+    public String evaluate( Object rootMap )
+    {
+        if ( !( rootMap instanceof Map ) )
+        {
+            return null;
+        }
+
+        Object value = rootMap;
+        for ( String strName : _path )
+        {
+            if ( value == null )
+            {
+                // FreeMarker reports a missing parent, unless the default value applies to the whole path
+                return _bParenthesized ? _strDefault : null;
+            }
+            value = resolve( value, strName );
+            if ( value == UNRESOLVED )
+            {
+                return null;
+            }
+        }
+
+        if ( value == null )
+        {
+            return _bDefault ? _strDefault : null;
+        }
+        if ( !( value instanceof String ) )
+        {
+            return null;
+        }
+
+        String strValue = (String) value;
+        if ( _bHtml && !isHtmlSafe( strValue ) )
+        {
+            return null;
+        }
+        return strValue;
+    }
+
+    /**
+     * Resolve the object designated by the path, without converting it to a string
+     *
+     * @param rootMap
+     *            the model
+     * @return the object, or null if the path does not resolve
+     */
+    public Object resolveValue( Object rootMap )
+    {
+        Object value = rootMap;
+        for ( String strName : _path )
+        {
+            if ( value == null )
+            {
+                return null;
+            }
+            value = resolve( value, strName );
+            if ( value == UNRESOLVED )
+            {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Parse an expression
+     *
+     * @param strExpression
+     * @return the simple expression, or UNSUPPORTED
+     */
+    private static SimpleExpression parse( String strExpression )
+    {
+        if ( !strExpression.startsWith( INTERPOLATION_START ) || !strExpression.endsWith( INTERPOLATION_END )
+                || strExpression.indexOf( INTERPOLATION_START, INTERPOLATION_START.length( ) ) >= 0 )
+        {
+            return UNSUPPORTED;
+        }
+
+        String strBody = strExpression.substring( INTERPOLATION_START.length( ), strExpression.length( ) - INTERPOLATION_END.length( ) ).trim( );
+
+        if ( strBody.endsWith( BUILT_IN_HTML ) )
+        {
+            return create( strBody.substring( 0, strBody.length( ) - BUILT_IN_HTML.length( ) ), true, false, null, false );
+        }
+
+        int nDefault = strBody.indexOf( DEFAULT_OPERATOR );
+        if ( nDefault < 0 )
+        {
+            return create( strBody, false, false, null, false );
+        }
+
+        String strPath = strBody.substring( 0, nDefault );
+        String strLiteral = strBody.substring( nDefault + 1 );
+        String strDefault = "";
+        if ( !strLiteral.isEmpty( ) )
+        {
+            if ( !PATTERN_LITERAL.matcher( strLiteral ).matches( ) )
+            {
+                return UNSUPPORTED;
+            }
+            strDefault = strLiteral.substring( 1, strLiteral.length( ) - 1 );
+        }
+
+        boolean bParenthesized = strPath.startsWith( "(" ) && strPath.endsWith( ")" );
+        if ( bParenthesized )
+        {
+            strPath = strPath.substring( 1, strPath.length( ) - 1 );
+        }
+        return create( strPath, false, true, strDefault, bParenthesized );
+    }
+
+    /**
+     * Create an expression if its path is a plain property path
+     *
+     * @param strPath
+     * @param bHtml
+     * @param bDefault
+     * @param strDefault
+     * @param bParenthesized
+     * @return the simple expression, or UNSUPPORTED
+     */
+    private static SimpleExpression create( String strPath, boolean bHtml, boolean bDefault, String strDefault, boolean bParenthesized )
+    {
+        if ( !PATTERN_PATH.matcher( strPath ).matches( ) )
+        {
+            return UNSUPPORTED;
+        }
+
+        String [ ] path = strPath.split( "\\." );
+        // A keyword is a literal, and a shared variable of the configuration is found when the model has no such key
+        if ( KEYWORDS.contains( path [0] ) || TemplateEngineService.isSharedVariable( path [0] ) )
+        {
+            return UNSUPPORTED;
+        }
+        return new SimpleExpression( path, bHtml, bDefault, strDefault, bParenthesized );
+    }
+
+    /**
+     * Resolve a name on an object as FreeMarker does : a key of a map, or a property of a bean
+     *
+     * @param target
+     *            the object, not null
+     * @param strName
+     *            the name
+     * @return the value, or UNRESOLVED if the object is not a map or a bean, or has no such property
+     */
+    private static Object resolve( Object target, String strName )
+    {
+        if ( target instanceof Map )
+        {
+            Map<?, ?> map = (Map<?, ?>) target;
+            Object value = map.get( strName );
+            if ( value == null && strName.length( ) == 1 )
+            {
+                // FreeMarker also looks a single character name up as a character key
+                value = map.get( Character.valueOf( strName.charAt( 0 ) ) );
+            }
+            return value;
+        }
+        if ( !isBean( target ) )
+        {
+            return UNRESOLVED;
+        }
+
+        MethodHandle getter = GETTERS.get( target.getClass( ) ).getOrDefault( strName, NO_GETTER );
+        if ( getter == NO_GETTER )
+        {
+            return UNRESOLVED;
+        }
+        try
+        {
+            return (Object) getter.invokeExact( target );
+        }
+        catch( Throwable t )
+        {
+            // FreeMarker reports the error of the getter
+            return UNRESOLVED;
+        }
+    }
+
+    /**
+     * Check that an object is wrapped as a bean by the object wrapper of FreeMarker
+     *
+     * @param target
+     * @return true if the object is a bean
+     */
+    private static boolean isBean( Object target )
+    {
+        return !( target instanceof String || target instanceof Number || target instanceof Boolean || target instanceof Date || target instanceof Collection
+                || target instanceof Iterator || target instanceof Enumeration || target instanceof TemplateModel || target instanceof org.w3c.dom.Node
+                || target instanceof ResourceBundle || target.getClass( ).isArray( ) );
+    }
+
+    /**
+     * Check that a value is not changed by <code>?html</code>
+     *
+     * @param strValue
+     * @return true if the value holds no character escaped by <code>?html</code>
+     */
+    private static boolean isHtmlSafe( String strValue )
+    {
+        for ( int i = 0; i < strValue.length( ); i++ )
+        {
+            char c = strValue.charAt( i );
+            if ( c == '<' || c == '>' || c == '&' || c == '"' || c == '\'' )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the public getters of a class, by property name
+     *
+     * @param type
+     *            the class
+     * @return the getters
+     */
+    private static Map<String, MethodHandle> findGetters( Class<?> type )
+    {
+        Map<String, MethodHandle> mapGetters = new HashMap<>( );
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup( );
+            for ( PropertyDescriptor descriptor : Introspector.getBeanInfo( type ).getPropertyDescriptors( ) )
+            {
+                if ( descriptor.getReadMethod( ) == null )
+                {
+                    continue;
+                }
+                try
+                {
+                    mapGetters.put( descriptor.getName( ), lookup.unreflect( descriptor.getReadMethod( ) ).asType( GETTER_TYPE ) );
+                }
+                catch( IllegalAccessException e )
+                {
+                    // The getter of a class which is not public is left to FreeMarker
+                }
+            }
+        }
+        catch( IntrospectionException e )
+        {
+            return Collections.emptyMap( );
+        }
+        return mapGetters;
+    }
+}
@@ -34,6 +34,7 @@
 package fr.paris.lutece.plugins.wordtemplate.service.instruction;
 
 import fr.paris.lutece.plugins.wordtemplate.business.IWordTemplateElement;
+import java.util.List;
 import java.util.Map;
 import org.apache.poi.xwpf.usermodel.XWPFRun;
 
@@ -64,4 +65,39 @@ public interface IInstructionManager
      * @param model
      */
     public void processInstruction( IWordTemplateElement instruction, Map<String, Object> model );
+
+    /**
+     * Get the prefixes of the expressions handled by the manager, as computed by {@link InstructionManagerRegistry#getPrefixKey(String)}. A manager which
+     * does not declare its prefixes is probed with {@link #isOfType(String)}.
+     *
+     * @return the prefixes
+     */
+    default String [ ] getPrefixes( )
+    {
+        return new String [ 0];
+    }
+
+    /**
+     * Get the types of the elements processed by the manager. A manager which does not declare its types is given every element.
+     *
+     * @return the types
+     */
+    default String [ ] getTypes( )
+    {
+        return new String [ 0];
+    }
+
+    /**
+     * Process the instructions of a document. Managers able to process several instructions at once override this method.
+     *
+     * @param listInstructions
+     * @param model
+     */
+    default void processInstructions( List<IWordTemplateElement> listInstructions, Map<String, Object> model )
+    {
+        for ( IWordTemplateElement instruction : listInstructions )
+        {
+            processInstruction( instruction, model );
+        }
+    }
 }
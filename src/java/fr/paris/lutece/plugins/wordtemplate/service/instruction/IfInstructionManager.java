@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.instruction;
+
+import fr.paris.lutece.plugins.wordtemplate.business.ClosingInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.business.ElseInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.business.IWordInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.business.IWordTemplateElement;
+import fr.paris.lutece.plugins.wordtemplate.business.IfInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.InstructionService;
+import fr.paris.lutece.plugins.wordtemplate.service.TemplateEngineService;
+import fr.paris.lutece.plugins.wordtemplate.service.WordService;
+import fr.paris.lutece.plugins.wordtemplate.service.visitor.DocumentIndex;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.poi.xwpf.usermodel.IBody;
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.xmlbeans.XmlCursor;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTRPr;
+
+/**
+ * Manager of the <code>&lt;#if condition&gt;</code>, <code>&lt;#else&gt;</code> and <code>&lt;/#if&gt;</code> instructions.
+ * <p>
+ * When the instructions of a condition are in the same paragraph, the runs of the discarded branch are emptied. Otherwise the instructions must stand in
+ * paragraphs of the same body : the runs of the instructions and of the discarded branch are emptied, the elements between are removed, and so are the
+ * paragraphs of the instructions once nothing else is written in them.
+ * </p>
+ * <p>
+ * All the conditions of a document are evaluated in a single FreeMarker pass, then the conditions of the kept branches, and so on. The removed elements are
+ * collected for the whole document and removed at the end, in one sweep per body. The instructions of the kept branches are then processed by their own
+ * managers.
+ * </p>
+ */
+public class IfInstructionManager implements IInstructionManager
+{
+    private static final String PREFIX_IF = "<#if";
+    private static final String PREFIX_ELSE = "<#else";
+    private static final String PREFIX_IF_CLOSING = "</#if";
+    private static final String CONDITION_TEMPLATE_SUFFIX = "1<#else>0</#if>";
+    private static final String CONDITION_TRUE = "1";
+
+    /**
+     *
+     * @param strExpression
+     * @return
+     */
+    @Override
+    public boolean isOfType( String strExpression )
+    {
+        return strExpression.startsWith( PREFIX_IF + ' ' ) || strExpression.equals( PREFIX_ELSE + '>' ) || strExpression.startsWith( PREFIX_IF_CLOSING );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String [ ] getPrefixes( )
+    {
+        return new String [ ] {
+                PREFIX_IF, PREFIX_ELSE, PREFIX_IF_CLOSING
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String [ ] getTypes( )
+    {
+        return new String [ ] {
+                IfInstructionElement.IF_TYPE, ElseInstructionElement.ELSE_TYPE
+        };
+    }
+
+    /**
+     *
+     * @param strExpression
+     * @param run
+     * @return
+     */
+    @Override
+    public IWordTemplateElement createInstruction( String strExpression, XWPFRun run )
+    {
+        if ( strExpression.startsWith( PREFIX_IF_CLOSING ) )
+        {
+            return new ClosingInstructionElement( strExpression, run, IfInstructionElement.DIRECTIVE_NAME );
+        }
+        if ( strExpression.startsWith( PREFIX_ELSE ) )
+        {
+            return new ElseInstructionElement( strExpression, run );
+        }
+        return new IfInstructionElement( strExpression, run );
+    }
+
+    /**
+     *
+     * @param element
+     * @param model
+     */
+    @Override
+    public void processInstruction( IWordTemplateElement element, Map<String, Object> model )
+    {
+        processInstructions( Collections.singletonList( element ), model );
+    }
+
+    /**
+     * Process the conditions of a document
+     *
+     * @param listInstructions
+     * @param model
+     */
+    @Override
+    public void processInstructions( List<IWordTemplateElement> listInstructions, Map<String, Object> model )
+    {
+        List<IfInstructionElement> listConditions = new ArrayList<>( );
+        for ( IWordTemplateElement element : listInstructions )
+        {
+            if ( element instanceof ElseInstructionElement )
+            {
+                throw new WordTemplateException( "The instruction " + ( (ElseInstructionElement) element ).getExpression( ) + " is outside of a condition" );
+            }
+            if ( element instanceof IfInstructionElement )
+            {
+                listConditions.add( (IfInstructionElement) element );
+            }
+        }
+        if ( listConditions.isEmpty( ) )
+        {
+            return;
+        }
+
+        Removal removal = new Removal( );
+        List<IWordTemplateElement> listKeptInstructions = new ArrayList<>( );
+
+        while ( !listConditions.isEmpty( ) )
+        {
+            List<String> listTemplates = new ArrayList<>( listConditions.size( ) );
+            for ( IfInstructionElement condition : listConditions )
+            {
+                listTemplates.add( condition.getExpression( ) + CONDITION_TEMPLATE_SUFFIX );
+            }
+            List<String> listValues = TemplateEngineService.processTemplates( listTemplates, model );
+
+            List<IfInstructionElement> listNestedConditions = new ArrayList<>( );
+            for ( int i = 0; i < listConditions.size( ); i++ )
+            {
+                for ( IWordTemplateElement child : applyCondition( listConditions.get( i ), CONDITION_TRUE.equals( listValues.get( i ) ), removal ) )
+                {
+                    if ( child instanceof IfInstructionElement )
+                    {
+                        listNestedConditions.add( (IfInstructionElement) child );
+                    }
+                    else
+                    {
+                        listKeptInstructions.add( child );
+                    }
+                }
+            }
+            listConditions = listNestedConditions;
+        }
+
+        for ( Map.Entry<IBody, List<int [ ]>> entry : removal._mapRanges.entrySet( ) )
+        {
+            WordService.removeBodyElements( entry.getKey( ), entry.getValue( ) );
+        }
+
+        if ( !listKeptInstructions.isEmpty( ) )
+        {
+            InstructionService.init( ).processInstructions( listKeptInstructions, model );
+        }
+    }
+
+    /**
+     * Discard the branch of a condition which is not kept
+     *
+     * @param condition
+     *            the condition
+     * @param bValue
+     *            the value of the condition
+     * @param removal
+     *            the elements to remove
+     * @return the instructions of the kept branch
+     */
+    private List<IWordTemplateElement> applyCondition( IfInstructionElement condition, boolean bValue, Removal removal )
+    {
+        List<IWordTemplateElement> listChildren = condition.getChildren( );
+        ElseInstructionElement elseInstruction = null;
+        int nElse = listChildren.size( );
+        for ( int i = 0; i < listChildren.size( ); i++ )
+        {
+            if ( listChildren.get( i ) instanceof ElseInstructionElement )
+            {
+                if ( elseInstruction != null )
+                {
+                    throw new WordTemplateException( "The condition " + condition.getExpression( ) + " has more than one " + PREFIX_ELSE + '>' );
+                }
+                elseInstruction = (ElseInstructionElement) listChildren.get( i );
+                nElse = i;
+            }
+        }
+
+        List<IWordTemplateElement> listKept;
+        if ( bValue )
+        {
+            listKept = listChildren.subList( 0, nElse );
+        }
+        else
+        {
+            listKept = ( elseInstruction == null ) ? Collections.<IWordTemplateElement> emptyList( ) : listChildren.subList( nElse + 1, listChildren.size( ) );
+        }
+
+        XWPFParagraph paragraphIf = getParagraph( condition );
+        XWPFParagraph paragraphElse = ( elseInstruction == null ) ? paragraphIf : getParagraph( elseInstruction );
+        XWPFParagraph paragraphEnd = getParagraph( condition.getClosing( ) );
+
+        if ( paragraphIf == paragraphElse && paragraphIf == paragraphEnd )
+        {
+            applyInlineCondition( paragraphIf, condition, elseInstruction, bValue );
+            return listKept;
+        }
+
+        IBody body = paragraphIf.getBody( );
+        if ( paragraphElse.getBody( ) != body || paragraphEnd.getBody( ) != body )
+        {
+            throw new WordTemplateException( "The condition " + condition.getExpression( ) + " must open and close in the same part, cell or paragraph" );
+        }
+
+        // The text and the instructions written next to the condition instructions are kept
+        XWPFRun runElse = ( elseInstruction == null ) ? condition.getClosing( ).getRun( ) : elseInstruction.getRun( );
+        if ( bValue )
+        {
+            discard( body, condition.getRun( ), condition.getRun( ), removal );
+            discard( body, runElse, condition.getClosing( ).getRun( ), removal );
+        }
+        else
+        {
+            discard( body, condition.getRun( ), runElse, removal );
+            discard( body, condition.getClosing( ).getRun( ), condition.getClosing( ).getRun( ), removal );
+        }
+
+        return listKept;
+    }
+
+    /**
+     * Discard the content of a body from a run to another : the runs are emptied, the elements between their paragraphs are removed, and so are their
+     * paragraphs if nothing else is written in them
+     *
+     * @param body
+     *            the body
+     * @param runFirst
+     *            the first discarded run
+     * @param runLast
+     *            the last discarded run
+     * @param removal
+     *            the elements to remove
+     */
+    private static void discard( IBody body, XWPFRun runFirst, XWPFRun runLast, Removal removal )
+    {
+        XWPFParagraph paragraphFirst = (XWPFParagraph) runFirst.getParent( );
+        XWPFParagraph paragraphLast = (XWPFParagraph) runLast.getParent( );
+        List<XWPFRun> listFirstRuns = paragraphFirst.getRuns( );
+        int nFirstRun = listFirstRuns.indexOf( runFirst );
+
+        if ( paragraphFirst == paragraphLast )
+        {
+            clearRuns( listFirstRuns, nFirstRun, listFirstRuns.indexOf( runLast ) );
+        }
+        else
+        {
+            List<XWPFRun> listLastRuns = paragraphLast.getRuns( );
+            clearRuns( listFirstRuns, nFirstRun, listFirstRuns.size( ) - 1 );
+            clearRuns( listLastRuns, 0, listLastRuns.indexOf( runLast ) );
+
+            int nFirst = removal.getIndex( body, paragraphFirst );
+            int nLast = removal.getIndex( body, paragraphLast );
+            if ( nLast - nFirst > 1 )
+            {
+                removal.add( body, nFirst + 1, nLast - 1 );
+            }
+            removeIfEmpty( body, paragraphLast, removal );
+        }
+        removeIfEmpty( body, paragraphFirst, removal );
+    }
+
+    /**
+     * Remove a paragraph of a condition instruction if nothing else is written in it
+     *
+     * @param body
+     *            the body
+     * @param paragraph
+     *            the paragraph
+     * @param removal
+     *            the elements to remove
+     */
+    private static void removeIfEmpty( IBody body, XWPFParagraph paragraph, Removal removal )
+    {
+        for ( XWPFRun run : paragraph.getRuns( ) )
+        {
+            if ( !run.toString( ).isEmpty( ) || !run.getEmbeddedPictures( ).isEmpty( ) )
+            {
+                return;
+            }
+        }
+        if ( paragraph.getText( ).isEmpty( ) )
+        {
+            removal.addParagraph( body, paragraph );
+        }
+    }
+
+    /**
+     * Discard the branch of a condition written in a single paragraph
+     *
+     * @param paragraph
+     *            the paragraph
+     * @param condition
+     *            the condition
+     * @param elseInstruction
+     *            the else instruction, or null
+     * @param bValue
+     *            the value of the condition
+     */
+    private static void applyInlineCondition( XWPFParagraph paragraph, IfInstructionElement condition, ElseInstructionElement elseInstruction, boolean bValue )
+    {
+        List<XWPFRun> listRuns = paragraph.getRuns( );
+        int nIf = listRuns.indexOf( condition.getRun( ) );
+        int nEnd = listRuns.indexOf( condition.getClosing( ).getRun( ) );
+        int nElse = ( elseInstruction == null ) ? nEnd : listRuns.indexOf( elseInstruction.getRun( ) );
+
+        clearRuns( listRuns, nIf, nIf );
+        clearRuns( listRuns, nEnd, nEnd );
+        if ( bValue )
+        {
+            clearRuns( listRuns, nElse, nEnd );
+        }
+        else
+        {
+            clearRuns( listRuns, nIf, nElse );
+        }
+    }
+
+    /**
+     * Remove the content of runs, keeping their properties
+     *
+     * @param listRuns
+     *            the runs of a paragraph
+     * @param nFirst
+     *            the index of the first run
+     * @param nLast
+     *            the index of the last run
+     */
+    private static void clearRuns( List<XWPFRun> listRuns, int nFirst, int nLast )
+    {
+        for ( int i = nFirst; i <= nLast; i++ )
+        {
+            XmlCursor cursor = listRuns.get( i ).getCTR( ).newCursor( );
+            boolean bHasChild = cursor.toFirstChild( );
+            while ( bHasChild )
+            {
+                if ( cursor.getObject( ) instanceof CTRPr )
+                {
+                    bHasChild = cursor.toNextSibling( );
+                }
+                else
+                {
+                    cursor.removeXml( );
+                    bHasChild = cursor.isStart( );
+                }
+            }
+            cursor.dispose( );
+        }
+    }
+
+    /**
+     *
+     * @param instruction
+     * @return the paragraph of the run of an instruction
+     */
+    private static XWPFParagraph getParagraph( IWordInstructionElement instruction )
+    {
+        if ( !( instruction.getRun( ).getParent( ) instanceof XWPFParagraph ) )
+        {
+            throw new WordTemplateException( "The instruction " + instruction.getExpression( ) + " must be in a paragraph" );
+        }
+        return (XWPFParagraph) instruction.getRun( ).getParent( );
+    }
+
+    /**
+     * Ranges of elements to remove, by body
+     */
+    private static final class Removal
+    {
+        private final Map<IBody, List<int [ ]>> _mapRanges = new IdentityHashMap<>( );
+        private final Set<XWPFParagraph> _setRemovedParagraphs = Collections.newSetFromMap( new IdentityHashMap<>( ) );
+
+        /**
+         * Add a range of elements to remove
+         *
+         * @param body
+         * @param nFirst
+         * @param nLast
+         */
+        void add( IBody body, int nFirst, int nLast )
+        {
+            _mapRanges.computeIfAbsent( body, k -> new ArrayList<>( ) ).add( new int [ ] {
+                    nFirst, nLast
+            } );
+        }
+
+        /**
+         * Add a paragraph to remove, once
+         *
+         * @param body
+         * @param paragraph
+         */
+        void addParagraph( IBody body, XWPFParagraph paragraph )
+        {
+            if ( _setRemovedParagraphs.add( paragraph ) )
+            {
+                int nIndex = getIndex( body, paragraph );
+                add( body, nIndex, nIndex );
+            }
+        }
+
+        /**
+         * Get the index of an element in its body. The indexes are read from the index of the document, which is not changed before all the ranges are
+         * collected.
+         *
+         * @param body
+         * @param bodyElement
+         * @return the index of the element
+         */
+        int getIndex( IBody body, IBodyElement bodyElement )
+        {
+            int nIndex = DocumentIndex.of( body.getXWPFDocument( ) ).getPosition( bodyElement );
+            if ( nIndex < 0 )
+            {
+                // The cells of the rows repeated by a list are not the cells of the index
+                nIndex = body.getBodyElements( ).indexOf( bodyElement );
+            }
+            if ( nIndex < 0 )
+            {
+                throw new WordTemplateException( "The paragraphs of the conditions must be direct elements of their part or cell" );
+            }
+            return nIndex;
+        }
+    }
+}
@@ -0,0 +1,536 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.instruction;
+
+import fr.paris.lutece.plugins.wordtemplate.business.IWordTemplateElement;
+import fr.paris.lutece.plugins.wordtemplate.business.ImageInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.expression.SimpleExpression;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import org.apache.poi.POIXMLDocumentPart;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.util.Units;
+import org.apache.poi.xwpf.usermodel.Document;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFHeaderFooter;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlToken;
+import org.openxmlformats.schemas.drawingml.x2006.main.CTNonVisualDrawingProps;
+import org.openxmlformats.schemas.drawingml.x2006.main.CTPositiveSize2D;
+import org.openxmlformats.schemas.drawingml.x2006.wordprocessingDrawing.CTInline;
+
+/**
+ * Manager of the <code>&lt;#image source&gt;</code> instructions. The source is a property path of the model designating an {@link InputStream}, a
+ * {@link Path}, a {@link File} or a byte array. A stream is read to its end but not closed : it belongs to the model.
+ * <p>
+ * Each source is read once per document, while its SHA-256 is computed. The identical images of a document share a single media part, and a single
+ * relationship per part of the document. The format and the size of an image are read from its header once, and kept in a bounded cache by content hash.
+ * </p>
+ */
+public class ImageInstructionManager implements IInstructionManager
+{
+    private static final String PREFIX_IMAGE = "<#image";
+    private static final Pattern PATTERN_IMAGE = Pattern
+            .compile( "<#image\\s+([A-Za-z_$][\\w$]*(?:\\.[A-Za-z_$][\\w$]*)*)((?:\\s+(?:width|height)\\s*=\\s*\\d+)*)\\s*/?>" );
+    private static final Pattern PATTERN_SIZE = Pattern.compile( "(width|height)\\s*=\\s*(\\d+)" );
+    private static final String ATTRIBUTE_WIDTH = "width";
+    private static final String ALGORITHM_SHA_256 = "SHA-256";
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_CACHED_IMAGES = 256;
+    private static final String NAMESPACE_DRAWING = "http://schemas.openxmlformats.org/drawingml/2006/main";
+    private static final String NAMESPACE_PICTURE = "http://schemas.openxmlformats.org/drawingml/2006/picture";
+    private static final String NAMESPACE_RELATIONSHIPS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    private static final Map<ByteBuffer, ImageInfo> _mapImageInfos = new LinkedHashMap<ByteBuffer, ImageInfo>( 16, 0.75f, true )
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<ByteBuffer, ImageInfo> eldest )
+        {
+            return size( ) > MAX_CACHED_IMAGES;
+        }
+    };
+
+    /**
+     *
+     * @param strExpression
+     * @return
+     */
+    @Override
+    public boolean isOfType( String strExpression )
+    {
+        return strExpression.startsWith( PREFIX_IMAGE + ' ' );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String [ ] getPrefixes( )
+    {
+        return new String [ ] {
+            PREFIX_IMAGE
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String [ ] getTypes( )
+    {
+        return new String [ ] {
+            ImageInstructionElement.IMAGE_TYPE
+        };
+    }
+
+    /**
+     *
+     * @param strExpression
+     * @param run
+     * @return
+     */
+    @Override
+    public IWordTemplateElement createInstruction( String strExpression, XWPFRun run )
+    {
+        Matcher matcher = PATTERN_IMAGE.matcher( strExpression );
+        if ( !matcher.matches( ) )
+        {
+            throw new WordTemplateException( "Invalid image instruction : " + strExpression );
+        }
+
+        int nWidth = 0;
+        int nHeight = 0;
+        Matcher sizeMatcher = PATTERN_SIZE.matcher( matcher.group( 2 ) );
+        while ( sizeMatcher.find( ) )
+        {
+            int nSize = Integer.parseInt( sizeMatcher.group( 2 ) );
+            if ( ATTRIBUTE_WIDTH.equals( sizeMatcher.group( 1 ) ) )
+            {
+                nWidth = nSize;
+            }
+            else
+            {
+                nHeight = nSize;
+            }
+        }
+
+        return new ImageInstructionElement( strExpression, run, matcher.group( 1 ), nWidth, nHeight );
+    }
+
+    /**
+     *
+     * @param instruction
+     * @param model
+     */
+    @Override
+    public void processInstruction( IWordTemplateElement instruction, Map<String, Object> model )
+    {
+        processInstructions( Collections.singletonList( instruction ), model );
+    }
+
+    /**
+     * Process the images of a document : each source is read once, and each distinct image is added once per part
+     *
+     * @param listInstructions
+     * @param model
+     */
+    @Override
+    public void processInstructions( List<IWordTemplateElement> listInstructions, Map<String, Object> model )
+    {
+        Map<Object, ImageContent> mapContents = new IdentityHashMap<>( );
+        Map<POIXMLDocumentPart, Map<ByteBuffer, String>> mapRelationIds = new IdentityHashMap<>( );
+
+        for ( IWordTemplateElement element : listInstructions )
+        {
+            if ( !( element instanceof ImageInstructionElement ) )
+            {
+                continue;
+            }
+            ImageInstructionElement instruction = (ImageInstructionElement) element;
+            XWPFRun run = instruction.getRun( );
+            run.setText( "", 0 );
+
+            SimpleExpression expression = SimpleExpression.compile( "${" + instruction.getSource( ) + "}" );
+            Object source = expression != null ? expression.resolveValue( model ) : null;
+            if ( source == null )
+            {
+                // A missing image leaves the run empty
+                continue;
+            }
+
+            ImageContent content = mapContents.get( source );
+            if ( content == null )
+            {
+                content = readContent( source );
+                mapContents.put( source, content );
+            }
+
+            POIXMLDocumentPart part = run.getParent( ).getPart( );
+            Map<ByteBuffer, String> mapPartRelationIds = mapRelationIds.computeIfAbsent( part, k -> new HashMap<>( ) );
+            String strRelationId = mapPartRelationIds.get( content._hash );
+            if ( strRelationId == null )
+            {
+                strRelationId = addPictureData( part, content );
+                mapPartRelationIds.put( content._hash, strRelationId );
+            }
+
+            addDrawing( run, instruction, content._info, strRelationId );
+        }
+    }
+
+    /**
+     * Read the content of an image source, computing its hash on the fly
+     *
+     * @param source
+     *            the source
+     * @return the content
+     */
+    private static ImageContent readContent( Object source )
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( ALGORITHM_SHA_256 );
+            byte [ ] data;
+
+            if ( source instanceof InputStream )
+            {
+                data = readStream( (InputStream) source, digest );
+            }
+            else
+            {
+                data = readBytes( source );
+                digest.update( data );
+            }
+
+            ImageContent content = new ImageContent( );
+            content._data = data;
+            content._hash = ByteBuffer.wrap( digest.digest( ) );
+            content._info = getImageInfo( content._hash, data );
+            return content;
+        }
+        catch( IOException | NoSuchAlgorithmException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+
+    /**
+     * Read a stream to its end, updating a digest, straight into the array of the content. The array is sized after the available bytes of the stream :
+     * it is handed over as is when the stream fills it exactly, and only grows or is trimmed when the size of the stream is not known in advance.
+     *
+     * @param inputStream
+     *            the stream, which is not closed
+     * @param digest
+     *            the digest
+     * @return the bytes of the stream
+     * @throws IOException
+     */
+    private static byte [ ] readStream( InputStream inputStream, MessageDigest digest ) throws IOException
+    {
+        int nAvailable = inputStream.available( );
+        byte [ ] data = new byte [ nAvailable > 0 ? nAvailable : BUFFER_SIZE];
+        int nLength = 0;
+
+        while ( true )
+        {
+            if ( nLength == data.length )
+            {
+                int nNext = inputStream.read( );
+                if ( nNext < 0 )
+                {
+                    return data;
+                }
+                data = Arrays.copyOf( data, Math.max( BUFFER_SIZE, data.length * 2 ) );
+                data [nLength++] = (byte) nNext;
+                digest.update( (byte) nNext );
+            }
+
+            int nRead = inputStream.read( data, nLength, data.length - nLength );
+            if ( nRead < 0 )
+            {
+                return Arrays.copyOf( data, nLength );
+            }
+            digest.update( data, nLength, nRead );
+            nLength += nRead;
+        }
+    }
+
+    /**
+     * Read an image source which is not a stream
+     *
+     * @param source
+     *            the source
+     * @return the bytes of the image
+     * @throws IOException
+     */
+    private static byte [ ] readBytes( Object source ) throws IOException
+    {
+        if ( source instanceof byte [ ] )
+        {
+            return (byte [ ]) source;
+        }
+        if ( source instanceof Path )
+        {
+            return Files.readAllBytes( (Path) source );
+        }
+        if ( source instanceof File )
+        {
+            return Files.readAllBytes( ( (File) source ).toPath( ) );
+        }
+        throw new WordTemplateException( "Unsupported image source : " + source.getClass( ).getName( ) );
+    }
+
+    /**
+     * Get the format and the size of an image, from the cache or from its header
+     *
+     * @param hash
+     *            the hash of the image
+     * @param data
+     *            the image
+     * @return the format and the size
+     * @throws IOException
+     */
+    private static ImageInfo getImageInfo( ByteBuffer hash, byte [ ] data ) throws IOException
+    {
+        synchronized( _mapImageInfos )
+        {
+            ImageInfo info = _mapImageInfos.get( hash );
+            if ( info != null )
+            {
+                return info;
+            }
+        }
+
+        ImageInfo info = readImageInfo( data );
+        synchronized( _mapImageInfos )
+        {
+            _mapImageInfos.put( hash, info );
+        }
+        return info;
+    }
+
+    /**
+     * Read the format and the size of an image from its header, without decoding its pixels
+     *
+     * @param data
+     *            the image
+     * @return the format and the size
+     * @throws IOException
+     */
+    private static ImageInfo readImageInfo( byte [ ] data ) throws IOException
+    {
+        try ( ImageInputStream imageStream = ImageIO.createImageInputStream( new ByteArrayInputStream( data ) ) )
+        {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders( imageStream );
+            if ( !readers.hasNext( ) )
+            {
+                throw new WordTemplateException( "Unsupported image format" );
+            }
+
+            ImageReader reader = readers.next( );
+            try
+            {
+                reader.setInput( imageStream, true, true );
+                ImageInfo info = new ImageInfo( );
+                info._nFormat = getPictureType( reader.getFormatName( ) );
+                info._nWidth = reader.getWidth( 0 );
+                info._nHeight = reader.getHeight( 0 );
+                return info;
+            }
+            finally
+            {
+                reader.dispose( );
+            }
+        }
+    }
+
+    /**
+     * Get the picture type of POI for an image format
+     *
+     * @param strFormatName
+     *            the format name of the image reader
+     * @return the picture type
+     */
+    private static int getPictureType( String strFormatName )
+    {
+        switch( strFormatName.toLowerCase( ) )
+        {
+            case "png":
+                return Document.PICTURE_TYPE_PNG;
+            case "jpeg":
+            case "jpg":
+                return Document.PICTURE_TYPE_JPEG;
+            case "gif":
+                return Document.PICTURE_TYPE_GIF;
+            case "bmp":
+                return Document.PICTURE_TYPE_BMP;
+            case "tif":
+            case "tiff":
+                return Document.PICTURE_TYPE_TIFF;
+            default:
+                throw new WordTemplateException( "Unsupported image format : " + strFormatName );
+        }
+    }
+
+    /**
+     * Add an image to a part. The package keeps a single media part for identical images.
+     *
+     * @param part
+     *            the part of the document holding the image
+     * @param content
+     *            the image
+     * @return the id of the relationship from the part to the image
+     */
+    private static String addPictureData( POIXMLDocumentPart part, ImageContent content )
+    {
+        try
+        {
+            if ( part instanceof XWPFDocument )
+            {
+                return ( (XWPFDocument) part ).addPictureData( content._data, content._info._nFormat );
+            }
+            if ( part instanceof XWPFHeaderFooter )
+            {
+                return ( (XWPFHeaderFooter) part ).addPictureData( content._data, content._info._nFormat );
+            }
+        }
+        catch( InvalidFormatException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+        throw new WordTemplateException( "Images are not supported in the part : " + part.getPackagePart( ).getPartName( ) );
+    }
+
+    /**
+     * Add the drawing of an image to a run
+     *
+     * @param run
+     *            the run
+     * @param instruction
+     *            the instruction
+     * @param info
+     *            the format and the size of the image
+     * @param strRelationId
+     *            the id of the relationship to the image
+     */
+    private static void addDrawing( XWPFRun run, ImageInstructionElement instruction, ImageInfo info, String strRelationId )
+    {
+        long lWidth = instruction.getWidth( ) > 0 ? Units.toEMU( instruction.getWidth( ) ) : Units.pixelToEMU( info._nWidth );
+        long lHeight = instruction.getHeight( ) > 0 ? Units.toEMU( instruction.getHeight( ) ) : Units.pixelToEMU( info._nHeight );
+
+        // A single size keeps the ratio of the image
+        if ( instruction.getWidth( ) > 0 && instruction.getHeight( ) == 0 )
+        {
+            lHeight = lWidth * info._nHeight / Math.max( 1, info._nWidth );
+        }
+        if ( instruction.getHeight( ) > 0 && instruction.getWidth( ) == 0 )
+        {
+            lWidth = lHeight * info._nWidth / Math.max( 1, info._nHeight );
+        }
+
+        long lId = run.getParent( ).getDocument( ).getDrawingIdManager( ).reserveNew( );
+        String strGraphic = "<a:graphic xmlns:a=\"" + NAMESPACE_DRAWING + "\"><a:graphicData uri=\"" + NAMESPACE_PICTURE + "\"><pic:pic xmlns:pic=\""
+                + NAMESPACE_PICTURE + "\"><pic:nvPicPr><pic:cNvPr id=\"0\" name=\"Picture " + lId + "\"/><pic:cNvPicPr><a:picLocks noChangeAspect=\"1\"/>"
+                + "</pic:cNvPicPr></pic:nvPicPr><pic:blipFill><a:blip r:embed=\"" + strRelationId + "\" xmlns:r=\"" + NAMESPACE_RELATIONSHIPS + "\"/>"
+                + "<a:stretch><a:fillRect/></a:stretch></pic:blipFill><pic:spPr><a:xfrm><a:off x=\"0\" y=\"0\"/><a:ext cx=\"" + lWidth + "\" cy=\"" + lHeight
+                + "\"/></a:xfrm><a:prstGeom prst=\"rect\"><a:avLst/></a:prstGeom></pic:spPr></pic:pic></a:graphicData></a:graphic>";
+
+        CTInline inline = run.getCTR( ).addNewDrawing( ).addNewInline( );
+        try
+        {
+            inline.set( XmlToken.Factory.parse( strGraphic ) );
+        }
+        catch( XmlException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+        inline.setDistT( 0 );
+        inline.setDistB( 0 );
+        inline.setDistL( 0 );
+        inline.setDistR( 0 );
+
+        CTPositiveSize2D extent = inline.addNewExtent( );
+        extent.setCx( lWidth );
+        extent.setCy( lHeight );
+
+        CTNonVisualDrawingProps docPr = inline.addNewDocPr( );
+        docPr.setId( lId );
+        docPr.setName( "Picture " + lId );
+        docPr.setDescr( instruction.getSource( ) );
+    }
+
+    /**
+     * Content of an image source
+     */
+    private static final class ImageContent
+    {
+        private byte [ ] _data;
+        private ByteBuffer _hash;
+        private ImageInfo _info;
+    }
+
+    /**
+     * Format and size in pixels of an image
+     */
+    private static final class ImageInfo
+    {
+        private int _nFormat;
+        private int _nWidth;
+        private int _nHeight;
+    }
+}
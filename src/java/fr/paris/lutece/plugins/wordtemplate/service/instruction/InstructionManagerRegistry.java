@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.instruction;
+
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Registry of the instruction managers. The managers are discovered through the {@link ServiceLoader} and the Spring context of Lutece, and published as an
+ * immutable snapshot indexed by expression prefix and by element type, so that the dispatch of an instruction does not depend on the number of managers.
+ * The snapshot is built at the first use and is not refreshed by itself : if this first use happens before the Spring context of Lutece is loaded, the
+ * managers declared as Spring beans are missing until {@link #reload( )} is called once the context is available.
+ */
+public final class InstructionManagerRegistry
+{
+    private static final String PREFIX_INTERPOLATION = "${";
+    private static final String PREFIX_DIRECTIVE = "<#";
+    private static final String PREFIX_CLOSING_DIRECTIVE = "</#";
+
+    private static volatile Snapshot _snapshot;
+
+    /**
+     * Private constructor
+     */
+    private InstructionManagerRegistry( )
+    {
+    }
+
+    /**
+     * Get the current snapshot of the registry, discovering the managers at the first call. The managers declared as Spring beans are only discovered if the
+     * Spring context is loaded at that time : otherwise {@link #reload( )} must be called once it is.
+     *
+     * @return the current snapshot of the registry
+     */
+    public static Snapshot getSnapshot( )
+    {
+        Snapshot snapshot = _snapshot;
+        if ( snapshot == null )
+        {
+            synchronized( InstructionManagerRegistry.class )
+            {
+                snapshot = _snapshot;
+                if ( snapshot == null )
+                {
+                    snapshot = new Snapshot( discoverManagers( ) );
+                    _snapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Register a manager programmatically. A manager of the same class is replaced.
+     *
+     * @param manager
+     *            the manager
+     */
+    public static synchronized void register( IInstructionManager manager )
+    {
+        List<IInstructionManager> listManagers = new ArrayList<>( );
+        for ( IInstructionManager registered : getSnapshot( ).getManagers( ) )
+        {
+            if ( !registered.getClass( ).equals( manager.getClass( ) ) )
+            {
+                listManagers.add( registered );
+            }
+        }
+        listManagers.add( manager );
+        _snapshot = new Snapshot( listManagers );
+    }
+
+    /**
+     * Discover the managers again. To be called once the Spring context of Lutece is loaded when the registry has been used before, so that the managers
+     * declared as Spring beans are taken into account. The managers registered programmatically are dropped.
+     */
+    public static synchronized void reload( )
+    {
+        _snapshot = new Snapshot( discoverManagers( ) );
+    }
+
+    /**
+     * Get the key of an expression in the prefix index : <code>${</code> for an interpolation, the directive with its opening characters for a FreeMarker
+     * directive (<code>&lt;#list</code>, <code>&lt;/#list</code>, ...)
+     *
+     * @param strExpression
+     *            the expression
+     * @return the key, or null if the expression has no known prefix
+     */
+    public static String getPrefixKey( String strExpression )
+    {
+        if ( strExpression.startsWith( PREFIX_INTERPOLATION ) )
+        {
+            return PREFIX_INTERPOLATION;
+        }
+
+        String strOpening = null;
+        if ( strExpression.startsWith( PREFIX_DIRECTIVE ) )
+        {
+            strOpening = PREFIX_DIRECTIVE;
+        }
+        if ( strExpression.startsWith( PREFIX_CLOSING_DIRECTIVE ) )
+        {
+            strOpening = PREFIX_CLOSING_DIRECTIVE;
+        }
+        if ( strOpening == null )
+        {
+            return null;
+        }
+
+        int nNameEnd = strOpening.length( );
+        while ( nNameEnd < strExpression.length( ) && Character.isLetterOrDigit( strExpression.charAt( nNameEnd ) ) )
+        {
+            nNameEnd++;
+        }
+        return strExpression.substring( 0, nNameEnd );
+    }
+
+    /**
+     * Discover the managers : the built-in ones, then those declared for the {@link ServiceLoader}, then the beans of the Spring context
+     *
+     * @return the managers
+     */
+    private static List<IInstructionManager> discoverManagers( )
+    {
+        Map<Class<?>, IInstructionManager> mapManagers = new LinkedHashMap<>( );
+        mapManagers.put( InterpolationInstructionManager.class, new InterpolationInstructionManager( ) );
+        mapManagers.put( ListInstructionManager.class, new ListInstructionManager( ) );
+        mapManagers.put( IfInstructionManager.class, new IfInstructionManager( ) );
+        mapManagers.put( ImageInstructionManager.class, new ImageInstructionManager( ) );
+
+        try
+        {
+            for ( IInstructionManager manager : ServiceLoader.load( IInstructionManager.class ) )
+            {
+                mapManagers.put( manager.getClass( ), manager );
+            }
+        }
+        catch( ServiceConfigurationError e )
+        {
+            // Invalid declarations are ignored : the other managers are still available
+        }
+
+        try
+        {
+            for ( IInstructionManager manager : SpringContextService.getBeansOfType( IInstructionManager.class ) )
+            {
+                mapManagers.put( manager.getClass( ), manager );
+            }
+        }
+        catch( RuntimeException | LinkageError e )
+        {
+            // The library is used outside of a Lutece webapp or before its context is loaded
+        }
+
+        return new ArrayList<>( mapManagers.values( ) );
+    }
+
+    /**
+     * Immutable snapshot of the registry
+     */
+    public static final class Snapshot
+    {
+        private final List<IInstructionManager> _listManagers;
+        private final Map<String, IInstructionManager> _mapManagersByPrefix = new HashMap<>( );
+        private final Map<String, List<IInstructionManager>> _mapManagersByType = new HashMap<>( );
+        private final List<IInstructionManager> _listProbedManagers = new ArrayList<>( );
+        private final List<IInstructionManager> _listUntypedManagers = new ArrayList<>( );
+
+        /**
+         * Constructor
+         *
+         * @param listManagers
+         *            the managers, by priority
+         */
+        Snapshot( List<IInstructionManager> listManagers )
+        {
+            _listManagers = Collections.unmodifiableList( new ArrayList<>( listManagers ) );
+
+            for ( IInstructionManager manager : _listManagers )
+            {
+                String [ ] prefixes = manager.getPrefixes( );
+                if ( prefixes.length == 0 )
+                {
+                    _listProbedManagers.add( manager );
+                }
+                for ( String strPrefix : prefixes )
+                {
+                    _mapManagersByPrefix.putIfAbsent( strPrefix, manager );
+                }
+
+                String [ ] types = manager.getTypes( );
+                if ( types.length == 0 )
+                {
+                    _listUntypedManagers.add( manager );
+                }
+                for ( String strType : types )
+                {
+                    _mapManagersByType.computeIfAbsent( strType, k -> new ArrayList<>( ) ).add( manager );
+                }
+            }
+        }
+
+        /**
+         *
+         * @return the managers, by priority
+         */
+        public List<IInstructionManager> getManagers( )
+        {
+            return _listManagers;
+        }
+
+        /**
+         * Find the manager of an expression
+         *
+         * @param strExpression
+         *            the expression
+         * @return the manager, or null if no manager handles the expression
+         */
+        public IInstructionManager findManager( String strExpression )
+        {
+            String strKey = getPrefixKey( strExpression );
+            if ( strKey != null )
+            {
+                IInstructionManager manager = _mapManagersByPrefix.get( strKey );
+                if ( manager != null )
+                {
+                    return manager;
+                }
+            }
+
+            // Managers which do not declare their prefixes are asked one by one
+            for ( IInstructionManager manager : _listProbedManagers )
+            {
+                if ( manager.isOfType( strExpression ) )
+                {
+                    return manager;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Get the managers processing the elements of a type
+         *
+         * @param strType
+         *            the type of element
+         * @return the managers declaring the type
+         */
+        public List<IInstructionManager> getManagersByType( String strType )
+        {
+            List<IInstructionManager> listManagers = _mapManagersByType.get( strType );
+            return listManagers != null ? listManagers : Collections.<IInstructionManager> emptyList( );
+        }
+
+        /**
+         *
+         * @return the managers which do not declare their types, and are given every element
+         */
+        public List<IInstructionManager> getUntypedManagers( )
+        {
+            return _listUntypedManagers;
+        }
+    }
+}
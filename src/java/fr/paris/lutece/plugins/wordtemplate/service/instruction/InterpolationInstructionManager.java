@@ -36,17 +36,23 @@ package fr.paris.lutece.plugins.wordtemplate.service.instruction;
 import fr.paris.lutece.plugins.wordtemplate.business.IWordTemplateElement;
 import fr.paris.lutece.plugins.wordtemplate.business.InterpolationInstructionElement;
 import fr.paris.lutece.plugins.wordtemplate.service.TemplateEngineService;
+import fr.paris.lutece.plugins.wordtemplate.service.expression.SimpleExpression;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.poi.xwpf.usermodel.XWPFRun;
 
 /**
- * Service that manage interpolation instructions
+ * Service that manage interpolation instructions. The expressions are classified when the instructions are created : plain property paths are resolved
+ * without FreeMarker at each render.
  */
 public class InterpolationInstructionManager implements IInstructionManager
 {
-    private static final String INTERPOLATION_PATTERN = "\\$\\{.*?\\}";
+    private static final Pattern INTERPOLATION_PATTERN = Pattern.compile( "\\$\\{.*?\\}" );
+    private static final String INTERPOLATION_PREFIX = "${";
 
     /**
      *
@@ -64,11 +70,32 @@ public class InterpolationInstructionManager implements IInstructionManager
      */
     public boolean isOfType( String strExpression )
     {
-        Pattern pattern = Pattern.compile( INTERPOLATION_PATTERN );
-        Matcher matcher = pattern.matcher( strExpression );
+        Matcher matcher = INTERPOLATION_PATTERN.matcher( strExpression );
         return matcher.find( );
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String [ ] getPrefixes( )
+    {
+        return new String [ ] {
+            INTERPOLATION_PREFIX
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String [ ] getTypes( )
+    {
+        return new String [ ] {
+            InterpolationInstructionElement.INTERPOLATION_TYPE
+        };
+    }
+
     /**
      *
      * @param strExpression
@@ -78,6 +105,7 @@ public class InterpolationInstructionManager implements IInstructionManager
     @Override
     public IWordTemplateElement createInstruction( String strExpression, XWPFRun run )
     {
+        SimpleExpression.compile( strExpression );
         return new InterpolationInstructionElement( strExpression, run );
     }
 
@@ -97,6 +125,44 @@ public class InterpolationInstructionManager implements IInstructionManager
         }
     }
 
+    /**
+     * Process the interpolations of a document : each distinct expression is evaluated once, and all of them in a single pass
+     *
+     * @param listInstructions
+     * @param model
+     */
+    @Override
+    public void processInstructions( List<IWordTemplateElement> listInstructions, Map<String, Object> model )
+    {
+        List<InterpolationInstructionElement> listInterpolations = new ArrayList<>( );
+        Map<String, Integer> mapExpressionIndexes = new LinkedHashMap<>( );
+
+        for ( IWordTemplateElement element : listInstructions )
+        {
+            if ( element instanceof InterpolationInstructionElement )
+            {
+                InterpolationInstructionElement instruction = (InterpolationInstructionElement) element;
+                listInterpolations.add( instruction );
+                if ( !mapExpressionIndexes.containsKey( instruction.getExpression( ) ) )
+                {
+                    mapExpressionIndexes.put( instruction.getExpression( ), mapExpressionIndexes.size( ) );
+                }
+            }
+        }
+
+        if ( listInterpolations.isEmpty( ) )
+        {
+            return;
+        }
+
+        List<String> listValues = TemplateEngineService.processInterpolations( new ArrayList<>( mapExpressionIndexes.keySet( ) ), model );
+
+        for ( InterpolationInstructionElement instruction : listInterpolations )
+        {
+            instruction.getRun( ).setText( listValues.get( mapExpressionIndexes.get( instruction.getExpression( ) ) ), 0 );
+        }
+    }
+
     /**
      *
      * @param strExpression
@@ -105,6 +171,6 @@ public class InterpolationInstructionManager implements IInstructionManager
      */
     private String evaluateExpression( String strExpression, Map<String, Object> model )
     {
-        return TemplateEngineService.processTemplate( strExpression, model );
+        return TemplateEngineService.processInterpolation( strExpression, model );
     }
 }
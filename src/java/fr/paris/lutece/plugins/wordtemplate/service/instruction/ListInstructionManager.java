@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.instruction;
+
+import fr.paris.lutece.plugins.wordtemplate.business.ClosingInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.business.IWordTemplateElement;
+import fr.paris.lutece.plugins.wordtemplate.business.InterpolationInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.business.ListInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.TemplateEngineService;
+import fr.paris.lutece.plugins.wordtemplate.service.visitor.DocumentIndex;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.poi.xwpf.usermodel.BodyElementType;
+import org.apache.poi.xwpf.usermodel.IBody;
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.IRunBody;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.apache.xmlbeans.XmlCursor;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTR;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTRow;
+
+/**
+ * Manager of the <code>&lt;#list items as item&gt;</code> instruction. The table rows from the row of the opening instruction to the row of the closing
+ * instruction are the template rows. They are copied once per item in a single pass over the XML of the table, then the row objects of POI are rebuilt once,
+ * so that the cost is linear in the number of produced rows.
+ * <p>
+ * The interpolations of the template rows are evaluated for all the items in a single FreeMarker pass : the list directive itself is run by FreeMarker, with
+ * the interpolations of the rows as its body.
+ * </p>
+ */
+public class ListInstructionManager implements IInstructionManager
+{
+    private static final String PREFIX_LIST = "<#list";
+    private static final String PREFIX_LIST_CLOSING = "</#list";
+
+    // Terminators of the values and of the items. They can not appear in the text of a word document, which is XML.
+    private static final char VALUE_SEPARATOR = '\u0000';
+    private static final char ITEM_SEPARATOR = '\u0001';
+
+    /**
+     *
+     * @param strExpression
+     * @return
+     */
+    @Override
+    public boolean isOfType( String strExpression )
+    {
+        return strExpression.startsWith( PREFIX_LIST ) || strExpression.startsWith( PREFIX_LIST_CLOSING );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String [ ] getPrefixes( )
+    {
+        return new String [ ] {
+                PREFIX_LIST, PREFIX_LIST_CLOSING
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String [ ] getTypes( )
+    {
+        return new String [ ] {
+            ListInstructionElement.LIST_TYPE
+        };
+    }
+
+    /**
+     *
+     * @param strExpression
+     * @param run
+     * @return
+     */
+    @Override
+    public IWordTemplateElement createInstruction( String strExpression, XWPFRun run )
+    {
+        if ( strExpression.startsWith( PREFIX_LIST_CLOSING ) )
+        {
+            return new ClosingInstructionElement( strExpression, run, ListInstructionElement.DIRECTIVE_NAME );
+        }
+        return new ListInstructionElement( strExpression, run );
+    }
+
+    /**
+     *
+     * @param element
+     * @param model
+     */
+    @Override
+    public void processInstruction( IWordTemplateElement element, Map<String, Object> model )
+    {
+        if ( element instanceof ListInstructionElement )
+        {
+            processList( (ListInstructionElement) element, model );
+        }
+    }
+
+    /**
+     * Repeat the template rows of a list for each item
+     *
+     * @param list
+     *            the list instruction
+     * @param model
+     *            the model
+     */
+    private void processList( ListInstructionElement list, Map<String, Object> model )
+    {
+        XWPFTableRow openingRow = getTableRow( list.getRun( ) );
+        XWPFTableRow closingRow = getTableRow( list.getClosing( ).getRun( ) );
+        if ( openingRow == null || closingRow == null || openingRow.getTable( ) != closingRow.getTable( ) )
+        {
+            throw new WordTemplateException( "The list " + list.getExpression( ) + " must open and close in the rows of a same table" );
+        }
+
+        XWPFTable table = openingRow.getTable( );
+        int nFirstRow = getRowIndex( table, openingRow.getCtRow( ) );
+        int nLastRow = getRowIndex( table, closingRow.getCtRow( ) );
+        if ( nFirstRow < 0 || nLastRow < nFirstRow )
+        {
+            throw new WordTemplateException( "The list " + list.getExpression( ) + " is closed before it is opened" );
+        }
+        int nTemplateRowCount = nLastRow - nFirstRow + 1;
+
+        // Path of the run of each interpolation, relative to the template rows
+        Map<CTR, int [ ]> mapRunPaths = new IdentityHashMap<>( );
+        for ( int nRow = nFirstRow; nRow <= nLastRow; nRow++ )
+        {
+            List<XWPFTableCell> listCells = table.getRow( nRow ).getTableCells( );
+            for ( int nCell = 0; nCell < listCells.size( ); nCell++ )
+            {
+                List<Integer> listPath = new ArrayList<>( );
+                listPath.add( nRow - nFirstRow );
+                listPath.add( nCell );
+                collectRunPaths( listCells.get( nCell ), listPath, mapRunPaths );
+            }
+        }
+
+        List<int [ ]> listChildPaths = new ArrayList<>( list.getChildren( ).size( ) );
+        StringBuilder sbTemplate = new StringBuilder( list.getExpression( ) );
+        for ( IWordTemplateElement child : list.getChildren( ) )
+        {
+            if ( !( child instanceof InterpolationInstructionElement ) )
+            {
+                throw new WordTemplateException( "Only interpolations are supported in the list " + list.getExpression( ) );
+            }
+            InterpolationInstructionElement interpolation = (InterpolationInstructionElement) child;
+            int [ ] path = mapRunPaths.get( interpolation.getRun( ).getCTR( ) );
+            if ( path == null )
+            {
+                throw new WordTemplateException( "The interpolation " + interpolation.getExpression( ) + " is outside of the rows of the list "
+                        + list.getExpression( ) );
+            }
+            listChildPaths.add( path );
+            sbTemplate.append( interpolation.getExpression( ) ).append( VALUE_SEPARATOR );
+        }
+        sbTemplate.append( ITEM_SEPARATOR ).append( list.getClosing( ).getExpression( ) );
+
+        List<String [ ]> listItemValues = splitValues( TemplateEngineService.processTemplate( sbTemplate.toString( ), model ), listChildPaths.size( ) );
+
+        // The directives must not be copied with the rows
+        list.getRun( ).setText( "", 0 );
+        list.getClosing( ).getRun( ).setText( "", 0 );
+
+        stampRows( table, nFirstRow, nLastRow, listItemValues.size( ) );
+
+        List<XWPFTableRow> listRows = table.getRows( );
+        for ( int nItem = 0; nItem < listItemValues.size( ); nItem++ )
+        {
+            String [ ] values = listItemValues.get( nItem );
+            int nItemFirstRow = nFirstRow + nItem * nTemplateRowCount;
+            for ( int nChild = 0; nChild < values.length; nChild++ )
+            {
+                int [ ] path = listChildPaths.get( nChild );
+                resolveRun( listRows.get( nItemFirstRow + path [0] ), path ).setText( values [nChild], 0 );
+            }
+        }
+    }
+
+    /**
+     * Replace the template rows of a table by a copy of them for each item, then rebuild the row objects of the table
+     *
+     * @param table
+     *            the table
+     * @param nFirstRow
+     *            the index of the first template row
+     * @param nLastRow
+     *            the index of the last template row
+     * @param nItemCount
+     *            the number of items
+     */
+    private static void stampRows( XWPFTable table, int nFirstRow, int nLastRow, int nItemCount )
+    {
+        List<XWPFTableRow> listRows = table.getRows( );
+        List<CTRow> listTemplateRows = new ArrayList<>( nLastRow - nFirstRow + 1 );
+        for ( int nRow = nFirstRow; nRow <= nLastRow; nRow++ )
+        {
+            listTemplateRows.add( listRows.get( nRow ).getCtRow( ) );
+        }
+
+        // The copies are inserted before the token following the last template row, so that they keep their order
+        XmlCursor destination = listTemplateRows.get( listTemplateRows.size( ) - 1 ).newCursor( );
+        destination.toEndToken( );
+        destination.toNextToken( );
+
+        for ( int nItem = 0; nItem < nItemCount; nItem++ )
+        {
+            for ( CTRow templateRow : listTemplateRows )
+            {
+                XmlCursor source = templateRow.newCursor( );
+                source.copyXml( destination );
+                source.dispose( );
+            }
+        }
+        destination.dispose( );
+
+        for ( CTRow templateRow : listTemplateRows )
+        {
+            XmlCursor cursor = templateRow.newCursor( );
+            cursor.removeXml( );
+            cursor.dispose( );
+        }
+
+        listRows.clear( );
+        for ( CTRow row : table.getCTTbl( ).getTrArray( ) )
+        {
+            listRows.add( new XWPFTableRow( row, table ) );
+        }
+        DocumentIndex.invalidate( table.getBody( ).getXWPFDocument( ) );
+    }
+
+    /**
+     * Split the result of the list template into the values of each item. Each value ends with the value terminator and each item with the item
+     * terminator, so that a value holding one of them is detected.
+     *
+     * @param strResult
+     *            the result of the list template
+     * @param nValueCount
+     *            the number of values of an item
+     * @return the values of each item
+     */
+    private static List<String [ ]> splitValues( String strResult, int nValueCount )
+    {
+        List<String [ ]> listItemValues = new ArrayList<>( );
+        int nItemStart = 0;
+
+        for ( int nItemEnd = strResult.indexOf( ITEM_SEPARATOR ); nItemEnd >= 0; nItemEnd = strResult.indexOf( ITEM_SEPARATOR, nItemStart ) )
+        {
+            String [ ] values = new String [ nValueCount];
+            int nValueStart = nItemStart;
+            for ( int nValue = 0; nValue < nValueCount; nValue++ )
+            {
+                int nValueEnd = strResult.indexOf( VALUE_SEPARATOR, nValueStart );
+                if ( nValueEnd < 0 || nValueEnd >= nItemEnd )
+                {
+                    throw new WordTemplateException( "A value of the list contains a reserved character" );
+                }
+                values [nValue] = strResult.substring( nValueStart, nValueEnd );
+                nValueStart = nValueEnd + 1;
+            }
+            if ( nValueStart != nItemEnd )
+            {
+                throw new WordTemplateException( "A value of the list contains a reserved character" );
+            }
+            listItemValues.add( values );
+            nItemStart = nItemEnd + 1;
+        }
+
+        if ( nItemStart != strResult.length( ) )
+        {
+            throw new WordTemplateException( "A value of the list contains a reserved character" );
+        }
+        return listItemValues;
+    }
+
+    /**
+     * Collect the paths of the runs of a body
+     *
+     * @param body
+     *            the body
+     * @param listPath
+     *            the path of the body
+     * @param mapRunPaths
+     *            the paths, by run
+     */
+    private static void collectRunPaths( IBody body, List<Integer> listPath, Map<CTR, int [ ]> mapRunPaths )
+    {
+        List<IBodyElement> listBodyElements = body.getBodyElements( );
+
+        for ( int nElement = 0; nElement < listBodyElements.size( ); nElement++ )
+        {
+            IBodyElement bodyElement = listBodyElements.get( nElement );
+            listPath.add( nElement );
+
+            if ( bodyElement.getElementType( ).equals( BodyElementType.PARAGRAPH ) )
+            {
+                List<XWPFRun> listRuns = ( (XWPFParagraph) bodyElement ).getRuns( );
+                for ( int nRun = 0; nRun < listRuns.size( ); nRun++ )
+                {
+                    listPath.add( nRun );
+                    mapRunPaths.put( listRuns.get( nRun ).getCTR( ), toArray( listPath ) );
+                    listPath.remove( listPath.size( ) - 1 );
+                }
+            }
+            if ( bodyElement.getElementType( ).equals( BodyElementType.TABLE ) )
+            {
+                List<XWPFTableRow> listRows = ( (XWPFTable) bodyElement ).getRows( );
+                for ( int nRow = 0; nRow < listRows.size( ); nRow++ )
+                {
+                    List<XWPFTableCell> listCells = listRows.get( nRow ).getTableCells( );
+                    for ( int nCell = 0; nCell < listCells.size( ); nCell++ )
+                    {
+                        listPath.add( nRow );
+                        listPath.add( nCell );
+                        collectRunPaths( listCells.get( nCell ), listPath, mapRunPaths );
+                        listPath.remove( listPath.size( ) - 1 );
+                        listPath.remove( listPath.size( ) - 1 );
+                    }
+                }
+            }
+
+            listPath.remove( listPath.size( ) - 1 );
+        }
+    }
+
+    /**
+     * Find the run at a path in a copy of the template rows
+     *
+     * @param row
+     *            the row of the path
+     * @param path
+     *            the path : row offset, cell, then body element indexes (with row and cell for the nested tables), and run
+     * @return the run
+     */
+    private static XWPFRun resolveRun( XWPFTableRow row, int [ ] path )
+    {
+        IBody body = row.getCell( path [1] );
+        int nDepth = 2;
+
+        while ( true )
+        {
+            IBodyElement bodyElement = body.getBodyElements( ).get( path [nDepth++] );
+            if ( bodyElement.getElementType( ).equals( BodyElementType.PARAGRAPH ) )
+            {
+                return ( (XWPFParagraph) bodyElement ).getRuns( ).get( path [nDepth] );
+            }
+            XWPFTableRow nestedRow = ( (XWPFTable) bodyElement ).getRow( path [nDepth++] );
+            body = nestedRow.getCell( path [nDepth++] );
+        }
+    }
+
+    /**
+     *
+     * @param run
+     * @return the table row holding the run, or null if the run is not in a table
+     */
+    private static XWPFTableRow getTableRow( XWPFRun run )
+    {
+        IRunBody parent = run.getParent( );
+        if ( parent instanceof XWPFParagraph && ( (XWPFParagraph) parent ).getBody( ) instanceof XWPFTableCell )
+        {
+            return ( (XWPFTableCell) ( (XWPFParagraph) parent ).getBody( ) ).getTableRow( );
+        }
+        return null;
+    }
+
+    /**
+     * Find a row of a table. The row objects of a table are rebuilt by each list, so rows are compared by their XML.
+     *
+     * @param table
+     * @param ctRow
+     * @return the index of the row, or -1
+     */
+    private static int getRowIndex( XWPFTable table, CTRow ctRow )
+    {
+        List<XWPFTableRow> listRows = table.getRows( );
+        for ( int i = 0; i < listRows.size( ); i++ )
+        {
+            if ( listRows.get( i ).getCtRow( ) == ctRow )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     *
+     * @param listPath
+     * @return the path as an array
+     */
+    private static int [ ] toArray( List<Integer> listPath )
+    {
+        int [ ] arrayPath = new int [ listPath.size( )];
+        for ( int i = 0; i < arrayPath.length; i++ )
+        {
+            arrayPath [i] = listPath.get( i );
+        }
+        return arrayPath;
+    }
+}
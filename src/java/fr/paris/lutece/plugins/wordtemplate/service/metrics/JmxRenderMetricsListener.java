@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Listener keeping the render metrics of each template and exposing them as MBeans of the platform MBean server, named
+ * <code>fr.paris.lutece.plugins.wordtemplate:type=RenderMetrics,template=&lt;template id&gt;</code>
+ * <p>
+ * One MBean is registered per template id : the ids must come from a bounded set, such as the names of the templates, and never from the rendered data.
+ * Beyond {@link #DEFAULT_MAX_TEMPLATES} ids, the renders of the new ids are counted together under {@link #OVERFLOW_TEMPLATE_ID}. The metrics of a
+ * template which is no longer rendered are removed by {@link #unregister(String)}.
+ * </p>
+ */
+public class JmxRenderMetricsListener implements IRenderMetricsListener
+{
+    public static final String DOMAIN = "fr.paris.lutece.plugins.wordtemplate";
+    public static final String OVERFLOW_TEMPLATE_ID = "other";
+    public static final int DEFAULT_MAX_TEMPLATES = 1000;
+
+    private static final String OBJECT_NAME_PATTERN = DOMAIN + ":type=RenderMetrics,template=";
+
+    private final Map<String, TemplateRenderMetrics> _mapMetrics = new ConcurrentHashMap<>( );
+    private final int _nMaxTemplates;
+
+    /**
+     * Constructor of a listener keeping at most {@link #DEFAULT_MAX_TEMPLATES} templates
+     */
+    public JmxRenderMetricsListener( )
+    {
+        this( DEFAULT_MAX_TEMPLATES );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param nMaxTemplates
+     *            the maximum number of templates having their own metrics
+     */
+    public JmxRenderMetricsListener( int nMaxTemplates )
+    {
+        _nMaxTemplates = nMaxTemplates;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onRender( RenderSample sample )
+    {
+        TemplateRenderMetrics metrics = _mapMetrics.get( sample.getTemplateId( ) );
+        if ( metrics == null )
+        {
+            // The cap is approximate under concurrent first renders : it bounds the MBeans, not an exact count
+            String strTemplateId = _mapMetrics.size( ) < _nMaxTemplates ? sample.getTemplateId( ) : OVERFLOW_TEMPLATE_ID;
+            metrics = _mapMetrics.computeIfAbsent( strTemplateId, this::createMetrics );
+        }
+        metrics.record( sample );
+    }
+
+    /**
+     *
+     * @param strTemplateId
+     * @return the metrics of a template, or null if the template has not been rendered
+     */
+    public TemplateRenderMetrics getMetrics( String strTemplateId )
+    {
+        return _mapMetrics.get( strTemplateId );
+    }
+
+    /**
+     * Remove the metrics of a template and unregister their MBean
+     *
+     * @param strTemplateId
+     *            the id of the template
+     */
+    public void unregister( String strTemplateId )
+    {
+        if ( _mapMetrics.remove( strTemplateId ) == null )
+        {
+            return;
+        }
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer( );
+            ObjectName name = getObjectName( strTemplateId );
+            if ( server.isRegistered( name ) )
+            {
+                server.unregisterMBean( name );
+            }
+        }
+        catch( JMException | SecurityException e )
+        {
+            // The MBean was not registered
+        }
+    }
+
+    /**
+     * Remove the metrics of all the templates and unregister their MBeans
+     */
+    public void unregisterAll( )
+    {
+        for ( String strTemplateId : new ArrayList<>( _mapMetrics.keySet( ) ) )
+        {
+            unregister( strTemplateId );
+        }
+    }
+
+    /**
+     * Create the metrics of a template and register their MBean
+     *
+     * @param strTemplateId
+     *            the id of the template
+     * @return the metrics
+     */
+    private TemplateRenderMetrics createMetrics( String strTemplateId )
+    {
+        TemplateRenderMetrics metrics = new TemplateRenderMetrics( strTemplateId );
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer( );
+            ObjectName name = getObjectName( strTemplateId );
+            if ( server.isRegistered( name ) )
+            {
+                server.unregisterMBean( name );
+            }
+            server.registerMBean( metrics, name );
+        }
+        catch( JMException | SecurityException e )
+        {
+            // The metrics are still kept without JMX
+        }
+        return metrics;
+    }
+
+    /**
+     *
+     * @param strTemplateId
+     * @return the name of the MBean of a template
+     * @throws MalformedObjectNameException
+     */
+    private static ObjectName getObjectName( String strTemplateId ) throws MalformedObjectNameException
+    {
+        return new ObjectName( OBJECT_NAME_PATTERN + ObjectName.quote( strTemplateId ) );
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of latencies in nanoseconds. The buckets are log-linear : each power of two is split in {@value #SUB_BUCKET_COUNT} buckets, so that a
+ * percentile is known within about 6 % whatever the latency, in a fixed amount of memory. Recording a value is a few atomic increments.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = ( Long.SIZE - SUB_BUCKET_BITS + 1 ) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray _counts = new AtomicLongArray( BUCKET_COUNT );
+    private final LongAdder _count = new LongAdder( );
+    private final LongAdder _sum = new LongAdder( );
+    private final LongAccumulator _max = new LongAccumulator( Math::max, 0L );
+
+    /**
+     * Record a latency
+     *
+     * @param lNanos
+     *            the latency in nanoseconds. A negative value is recorded as 0.
+     */
+    public void record( long lNanos )
+    {
+        long lValue = Math.max( 0L, lNanos );
+        _counts.incrementAndGet( getBucket( lValue ) );
+        _count.increment( );
+        _sum.add( lValue );
+        _max.accumulate( lValue );
+    }
+
+    /**
+     *
+     * @return the number of recorded latencies
+     */
+    public long getCount( )
+    {
+        return _count.sum( );
+    }
+
+    /**
+     *
+     * @return the mean latency in nanoseconds, or 0 if no latency is recorded
+     */
+    public double getMean( )
+    {
+        long lCount = _count.sum( );
+        return lCount == 0 ? 0d : (double) _sum.sum( ) / lCount;
+    }
+
+    /**
+     *
+     * @return the maximum latency in nanoseconds
+     */
+    public long getMax( )
+    {
+        return _max.get( );
+    }
+
+    /**
+     * Get a percentile of the recorded latencies
+     *
+     * @param dPercentile
+     *            the percentile, between 0 and 100
+     * @return the highest latency of the bucket holding the percentile, in nanoseconds, or 0 if no latency is recorded
+     */
+    public long getPercentile( double dPercentile )
+    {
+        long [ ] counts = new long [ BUCKET_COUNT];
+        long lTotal = 0;
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            counts [i] = _counts.get( i );
+            lTotal += counts [i];
+        }
+        if ( lTotal == 0 )
+        {
+            return 0L;
+        }
+
+        long lRank = Math.max( 1L, (long) Math.ceil( lTotal * Math.min( 100d, Math.max( 0d, dPercentile ) ) / 100d ) );
+        long lCumulated = 0;
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            lCumulated += counts [i];
+            if ( lCumulated >= lRank )
+            {
+                return Math.min( getBucketMax( i ), getMax( ) );
+            }
+        }
+        return getMax( );
+    }
+
+    /**
+     * Clear the recorded latencies. Latencies recorded during the reset may be partially kept.
+     */
+    public void reset( )
+    {
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            _counts.set( i, 0L );
+        }
+        _count.reset( );
+        _sum.reset( );
+        _max.reset( );
+    }
+
+    /**
+     * Get the bucket of a value
+     *
+     * @param lValue
+     *            the value, positive
+     * @return the index of the bucket
+     */
+    private static int getBucket( long lValue )
+    {
+        if ( lValue < SUB_BUCKET_COUNT )
+        {
+            return (int) lValue;
+        }
+        int nExponent = Long.SIZE - 1 - Long.numberOfLeadingZeros( lValue );
+        int nSubBucket = (int) ( lValue >>> ( nExponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKET_COUNT - 1 );
+        return ( nExponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKET_COUNT + nSubBucket;
+    }
+
+    /**
+     * Get the highest value of a bucket
+     *
+     * @param nBucket
+     *            the index of the bucket
+     * @return the highest value
+     */
+    private static long getBucketMax( int nBucket )
+    {
+        if ( nBucket < SUB_BUCKET_COUNT )
+        {
+            return nBucket;
+        }
+        int nShift = nBucket / SUB_BUCKET_COUNT - 1;
+        long lLowest = (long) ( SUB_BUCKET_COUNT + nBucket % SUB_BUCKET_COUNT ) << nShift;
+        return lLowest + ( 1L << nShift ) - 1;
+    }
+}
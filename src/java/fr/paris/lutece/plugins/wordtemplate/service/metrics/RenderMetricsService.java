@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.metrics;
+
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Service publishing the measures of the renders to the metrics listeners. The {@link JmxRenderMetricsListener} is always registered ; the other listeners
+ * are discovered through the {@link ServiceLoader} and the Spring context of Lutece, like the instruction managers.
+ */
+public final class RenderMetricsService
+{
+    private static final JmxRenderMetricsListener JMX_LISTENER = new JmxRenderMetricsListener( );
+
+    private static volatile boolean _bEnabled = true;
+    private static volatile List<IRenderMetricsListener> _listListeners;
+
+    /**
+     * Private constructor
+     */
+    private RenderMetricsService( )
+    {
+    }
+
+    /**
+     *
+     * @return true if the renders are measured
+     */
+    public static boolean isEnabled( )
+    {
+        return _bEnabled;
+    }
+
+    /**
+     *
+     * @param bEnabled
+     *            true to measure the renders
+     */
+    public static void setEnabled( boolean bEnabled )
+    {
+        _bEnabled = bEnabled;
+    }
+
+    /**
+     *
+     * @return the listener exposing the metrics over JMX
+     */
+    public static JmxRenderMetricsListener getJmxListener( )
+    {
+        return JMX_LISTENER;
+    }
+
+    /**
+     * Register a listener programmatically. A listener of the same class is replaced.
+     *
+     * @param listener
+     *            the listener
+     */
+    public static synchronized void register( IRenderMetricsListener listener )
+    {
+        List<IRenderMetricsListener> listListeners = new ArrayList<>( );
+        for ( IRenderMetricsListener registered : getListeners( ) )
+        {
+            if ( !registered.getClass( ).equals( listener.getClass( ) ) )
+            {
+                listListeners.add( registered );
+            }
+        }
+        listListeners.add( listener );
+        _listListeners = Collections.unmodifiableList( listListeners );
+    }
+
+    /**
+     * Discover the listeners again, for example once the Spring context of Lutece is available
+     */
+    public static synchronized void reload( )
+    {
+        _listListeners = discoverListeners( );
+    }
+
+    /**
+     * Publish the measures of a render. A failing listener does not fail the render.
+     *
+     * @param sample
+     *            the measures
+     */
+    public static void publish( RenderSample sample )
+    {
+        if ( !_bEnabled )
+        {
+            return;
+        }
+        for ( IRenderMetricsListener listener : getListeners( ) )
+        {
+            try
+            {
+                listener.onRender( sample );
+            }
+            catch( RuntimeException e )
+            {
+                // The other listeners are still notified
+            }
+        }
+    }
+
+    /**
+     *
+     * @return the listeners
+     */
+    private static List<IRenderMetricsListener> getListeners( )
+    {
+        List<IRenderMetricsListener> listListeners = _listListeners;
+        if ( listListeners == null )
+        {
+            synchronized( RenderMetricsService.class )
+            {
+                listListeners = _listListeners;
+                if ( listListeners == null )
+                {
+                    listListeners = discoverListeners( );
+                    _listListeners = listListeners;
+                }
+            }
+        }
+        return listListeners;
+    }
+
+    /**
+     * Discover the listeners : the JMX one, then those declared for the {@link ServiceLoader}, then the beans of the Spring context
+     *
+     * @return the listeners
+     */
+    private static List<IRenderMetricsListener> discoverListeners( )
+    {
+        Map<Class<?>, IRenderMetricsListener> mapListeners = new LinkedHashMap<>( );
+        mapListeners.put( JmxRenderMetricsListener.class, JMX_LISTENER );
+
+        try
+        {
+            for ( IRenderMetricsListener listener : ServiceLoader.load( IRenderMetricsListener.class ) )
+            {
+                mapListeners.put( listener.getClass( ), listener );
+            }
+        }
+        catch( ServiceConfigurationError e )
+        {
+            // Invalid declarations are ignored : the other listeners are still available
+        }
+
+        try
+        {
+            for ( IRenderMetricsListener listener : SpringContextService.getBeansOfType( IRenderMetricsListener.class ) )
+            {
+                mapListeners.put( listener.getClass( ), listener );
+            }
+        }
+        catch( RuntimeException | LinkageError e )
+        {
+            // The library is used outside of a Lutece webapp or before its context is loaded
+        }
+
+        return Collections.unmodifiableList( new ArrayList<>( mapListeners.values( ) ) );
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.metrics;
+
+/**
+ * Recorder of the measures of a render. The recorder of the render running on a thread is reachable by {@link #current()}, so that the template engine can
+ * report the time spent evaluating expressions without the time being passed through the instruction managers.
+ */
+public final class RenderRecorder
+{
+    private static final ThreadLocal<RenderRecorder> CURRENT = new ThreadLocal<>( );
+
+    private final String _strTemplateId;
+    private final RenderRecorder _previous;
+    private final long _lStart;
+    private final long [ ] _phaseNanos = new long [ RenderPhase.values( ).length];
+    private long _lEvaluationNanos;
+    private int _nInstructionCount;
+    private long _lOutputBytes;
+    private Throwable _failure;
+
+    /**
+     * Constructor
+     *
+     * @param strTemplateId
+     * @param previous
+     */
+    private RenderRecorder( String strTemplateId, RenderRecorder previous )
+    {
+        _strTemplateId = strTemplateId;
+        _previous = previous;
+        _lStart = System.nanoTime( );
+    }
+
+    /**
+     * Start the recording of a render on the current thread
+     *
+     * @param strTemplateId
+     *            the id of the template
+     * @return the recorder
+     */
+    public static RenderRecorder start( String strTemplateId )
+    {
+        RenderRecorder recorder = new RenderRecorder( strTemplateId, CURRENT.get( ) );
+        CURRENT.set( recorder );
+        return recorder;
+    }
+
+    /**
+     *
+     * @return the recorder of the render running on the current thread, or null
+     */
+    public static RenderRecorder current( )
+    {
+        return CURRENT.get( );
+    }
+
+    /**
+     * Record the end of a phase
+     *
+     * @param phase
+     *            the phase
+     * @param lPhaseStart
+     *            the {@link System#nanoTime()} of the start of the phase
+     * @return the {@link System#nanoTime()} of the end of the phase, which is the start of the next one
+     */
+    public long endPhase( RenderPhase phase, long lPhaseStart )
+    {
+        long lNow = System.nanoTime( );
+        _phaseNanos [phase.ordinal( )] += lNow - lPhaseStart;
+        return lNow;
+    }
+
+    /**
+     * Record the end of the processing of the instructions. The time spent by the template engine is the evaluation, the rest is the application of the
+     * values.
+     *
+     * @param lPhaseStart
+     *            the {@link System#nanoTime()} of the start of the processing
+     * @return the {@link System#nanoTime()} of the end of the processing
+     */
+    public long endProcessing( long lPhaseStart )
+    {
+        long lNow = System.nanoTime( );
+        long lProcessingNanos = lNow - lPhaseStart;
+        long lEvaluationNanos = Math.min( _lEvaluationNanos, lProcessingNanos );
+        _phaseNanos [RenderPhase.EVALUATE.ordinal( )] += lEvaluationNanos;
+        _phaseNanos [RenderPhase.APPLY.ordinal( )] += lProcessingNanos - lEvaluationNanos;
+        _lEvaluationNanos = 0;
+        return lNow;
+    }
+
+    /**
+     * Record an evaluation of the template engine
+     *
+     * @param lNanos
+     *            the time of the evaluation
+     */
+    public void addEvaluation( long lNanos )
+    {
+        _lEvaluationNanos += lNanos;
+    }
+
+    /**
+     *
+     * @param nInstructionCount
+     *            the number of instructions of the template
+     */
+    public void setInstructionCount( int nInstructionCount )
+    {
+        _nInstructionCount = nInstructionCount;
+    }
+
+    /**
+     *
+     * @param lOutputBytes
+     *            the size of the produced document
+     */
+    public void setOutputBytes( long lOutputBytes )
+    {
+        _lOutputBytes = lOutputBytes;
+    }
+
+    /**
+     *
+     * @param failure
+     *            the failure of the render
+     */
+    public void setFailure( Throwable failure )
+    {
+        _failure = failure;
+    }
+
+    /**
+     * End the recording and publish the measures to the {@link RenderMetricsService}. The recorder of an enclosing render, if any, becomes current again.
+     */
+    public void finish( )
+    {
+        long lTotalNanos = System.nanoTime( ) - _lStart;
+        if ( _previous == null )
+        {
+            CURRENT.remove( );
+        }
+        else
+        {
+            CURRENT.set( _previous );
+        }
+        RenderMetricsService.publish( new RenderSample( _strTemplateId, _phaseNanos, lTotalNanos, _nInstructionCount, _lOutputBytes, _failure ) );
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.metrics;
+
+/**
+ * Measures of the render of a document
+ */
+public class RenderSample
+{
+    private final String _strTemplateId;
+    private final long [ ] _phaseNanos;
+    private final long _lTotalNanos;
+    private final int _nInstructionCount;
+    private final long _lOutputBytes;
+    private final Throwable _failure;
+
+    /**
+     * Constructor
+     *
+     * @param strTemplateId
+     *            the id of the template
+     * @param phaseNanos
+     *            the time spent in each phase, in nanoseconds, indexed by the ordinal of the phase
+     * @param lTotalNanos
+     *            the time of the whole render, in nanoseconds
+     * @param nInstructionCount
+     *            the number of instructions of the template
+     * @param lOutputBytes
+     *            the size of the produced document
+     * @param failure
+     *            the failure of the render, or null if it succeeded
+     */
+    public RenderSample( String strTemplateId, long [ ] phaseNanos, long lTotalNanos, int nInstructionCount, long lOutputBytes, Throwable failure )
+    {
+        _strTemplateId = strTemplateId;
+        _phaseNanos = phaseNanos.clone( );
+        _lTotalNanos = lTotalNanos;
+        _nInstructionCount = nInstructionCount;
+        _lOutputBytes = lOutputBytes;
+        _failure = failure;
+    }
+
+    /**
+     *
+     * @return the id of the template
+     */
+    public String getTemplateId( )
+    {
+        return _strTemplateId;
+    }
+
+    /**
+     *
+     * @param phase
+     * @return the time spent in the phase, in nanoseconds
+     */
+    public long getPhaseNanos( RenderPhase phase )
+    {
+        return _phaseNanos [phase.ordinal( )];
+    }
+
+    /**
+     *
+     * @return the time of the whole render, in nanoseconds
+     */
+    public long getTotalNanos( )
+    {
+        return _lTotalNanos;
+    }
+
+    /**
+     *
+     * @return the number of instructions of the template
+     */
+    public int getInstructionCount( )
+    {
+        return _nInstructionCount;
+    }
+
+    /**
+     *
+     * @return the size of the produced document, in bytes
+     */
+    public long getOutputBytes( )
+    {
+        return _lOutputBytes;
+    }
+
+    /**
+     *
+     * @return the failure of the render, or null if it succeeded
+     */
+    public Throwable getFailure( )
+    {
+        return _failure;
+    }
+
+    /**
+     *
+     * @return true if the render failed
+     */
+    public boolean isFailed( )
+    {
+        return _failure != null;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Render metrics of a template : a latency histogram per phase and for the whole render, and counters
+ */
+public class TemplateRenderMetrics implements TemplateRenderMetricsMXBean
+{
+    public static final String KEY_TOTAL = "TOTAL";
+
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    private final String _strTemplateId;
+    private final LatencyHistogram [ ] _phaseHistograms = new LatencyHistogram [ RenderPhase.values( ).length];
+    private final LatencyHistogram _totalHistogram = new LatencyHistogram( );
+    private final LongAdder _renderCount = new LongAdder( );
+    private final LongAdder _failureCount = new LongAdder( );
+    private final LongAdder _instructionCount = new LongAdder( );
+    private final LongAdder _outputBytes = new LongAdder( );
+
+    /**
+     * Constructor
+     *
+     * @param strTemplateId
+     *            the id of the template
+     */
+    public TemplateRenderMetrics( String strTemplateId )
+    {
+        _strTemplateId = strTemplateId;
+        for ( int i = 0; i < _phaseHistograms.length; i++ )
+        {
+            _phaseHistograms [i] = new LatencyHistogram( );
+        }
+    }
+
+    /**
+     * Record the measures of a render
+     *
+     * @param sample
+     *            the measures
+     */
+    public void record( RenderSample sample )
+    {
+        _renderCount.increment( );
+        if ( sample.isFailed( ) )
+        {
+            _failureCount.increment( );
+        }
+        _instructionCount.add( sample.getInstructionCount( ) );
+        _outputBytes.add( sample.getOutputBytes( ) );
+        for ( RenderPhase phase : RenderPhase.values( ) )
+        {
+            _phaseHistograms [phase.ordinal( )].record( sample.getPhaseNanos( phase ) );
+        }
+        _totalHistogram.record( sample.getTotalNanos( ) );
+    }
+
+    /**
+     *
+     * @param phase
+     * @return the latency histogram of a phase
+     */
+    public LatencyHistogram getHistogram( RenderPhase phase )
+    {
+        return _phaseHistograms [phase.ordinal( )];
+    }
+
+    /**
+     *
+     * @return the latency histogram of the whole render
+     */
+    public LatencyHistogram getTotalHistogram( )
+    {
+        return _totalHistogram;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getTemplateId( )
+    {
+        return _strTemplateId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRenderCount( )
+    {
+        return _renderCount.sum( );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getFailureCount( )
+    {
+        return _failureCount.sum( );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getInstructionCount( )
+    {
+        return _instructionCount.sum( );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getOutputBytes( )
+    {
+        return _outputBytes.sum( );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getMeanMillis( )
+    {
+        return getMillis( LatencyHistogram::getMean );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getP50Millis( )
+    {
+        return getMillis( histogram -> histogram.getPercentile( 50d ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getP99Millis( )
+    {
+        return getMillis( histogram -> histogram.getPercentile( 99d ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getMaxMillis( )
+    {
+        return getMillis( LatencyHistogram::getMax );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset( )
+    {
+        for ( LatencyHistogram histogram : _phaseHistograms )
+        {
+            histogram.reset( );
+        }
+        _totalHistogram.reset( );
+        _renderCount.reset( );
+        _failureCount.reset( );
+        _instructionCount.reset( );
+        _outputBytes.reset( );
+    }
+
+    /**
+     * Get a statistic of each histogram
+     *
+     * @param statistic
+     *            the statistic, in nanoseconds
+     * @return the statistic in milliseconds, by phase name and for the whole render
+     */
+    private Map<String, Double> getMillis( ToDoubleFunction<LatencyHistogram> statistic )
+    {
+        Map<String, Double> mapMillis = new LinkedHashMap<>( );
+        for ( RenderPhase phase : RenderPhase.values( ) )
+        {
+            mapMillis.put( phase.name( ), statistic.applyAsDouble( _phaseHistograms [phase.ordinal( )] ) / NANOS_PER_MILLI );
+        }
+        mapMillis.put( KEY_TOTAL, statistic.applyAsDouble( _totalHistogram ) / NANOS_PER_MILLI );
+        return mapMillis;
+    }
+}
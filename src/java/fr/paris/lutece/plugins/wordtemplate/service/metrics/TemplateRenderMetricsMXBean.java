@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of the render metrics of a template. The latencies are given in milliseconds, by phase name and for the whole render under the key
+ * {@value TemplateRenderMetrics#KEY_TOTAL}.
+ */
+public interface TemplateRenderMetricsMXBean
+{
+    /**
+     *
+     * @return the id of the template
+     */
+    String getTemplateId( );
+
+    /**
+     *
+     * @return the number of renders
+     */
+    long getRenderCount( );
+
+    /**
+     *
+     * @return the number of failed renders
+     */
+    long getFailureCount( );
+
+    /**
+     *
+     * @return the number of instructions of all the renders
+     */
+    long getInstructionCount( );
+
+    /**
+     *
+     * @return the size of all the produced documents, in bytes
+     */
+    long getOutputBytes( );
+
+    /**
+     *
+     * @return the mean latencies
+     */
+    Map<String, Double> getMeanMillis( );
+
+    /**
+     *
+     * @return the median latencies
+     */
+    Map<String, Double> getP50Millis( );
+
+    /**
+     *
+     * @return the 99th percentile latencies
+     */
+    Map<String, Double> getP99Millis( );
+
+    /**
+     *
+     * @return the maximum latencies
+     */
+    Map<String, Double> getMaxMillis( );
+
+    /**
+     * Clear the metrics
+     */
+    void reset( );
+}
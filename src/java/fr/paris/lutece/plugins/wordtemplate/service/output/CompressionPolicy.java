@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.output;
+
+import java.util.zip.Deflater;
+
+/**
+ * Compression of the entries of an output package, by part type : the XML parts, the media and the other entries each have a deflate level, or are
+ * {@link #STORED}. The entries larger than the parallel threshold are deflated in blocks on several threads. A policy is immutable.
+ */
+public final class CompressionPolicy
+{
+    /**
+     * Level of the entries stored without compression
+     */
+    public static final int STORED = -2;
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1024 * 1024;
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    /**
+     * Deflate level of the entries at the default level, and no parallel compression : the compression of POI
+     */
+    public static final CompressionPolicy DEFAULT = new CompressionPolicy( Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_COMPRESSION,
+            Deflater.DEFAULT_COMPRESSION, Integer.MAX_VALUE, DEFAULT_BLOCK_SIZE );
+
+    private static final String PREFIX_MEDIA = "word/media/";
+    private static final String [ ] EXTENSIONS_XML = {
+            ".xml", ".rels"
+    };
+    private static final String [ ] EXTENSIONS_MEDIA = {
+            ".png", ".jpg", ".jpeg", ".gif", ".bmp", ".tif", ".tiff", ".emf", ".wmf", ".svg"
+    };
+
+    private final int _nXmlLevel;
+    private final int _nMediaLevel;
+    private final int _nOtherLevel;
+    private final int _nParallelThreshold;
+    private final int _nBlockSize;
+
+    /**
+     * Constructor
+     *
+     * @param nXmlLevel
+     * @param nMediaLevel
+     * @param nOtherLevel
+     * @param nParallelThreshold
+     * @param nBlockSize
+     */
+    private CompressionPolicy( int nXmlLevel, int nMediaLevel, int nOtherLevel, int nParallelThreshold, int nBlockSize )
+    {
+        checkLevel( nXmlLevel );
+        checkLevel( nMediaLevel );
+        checkLevel( nOtherLevel );
+        if ( nParallelThreshold < 0 || nBlockSize < 1 )
+        {
+            throw new IllegalArgumentException( "Invalid parallel compression : threshold " + nParallelThreshold + ", block size " + nBlockSize );
+        }
+        _nXmlLevel = nXmlLevel;
+        _nMediaLevel = nMediaLevel;
+        _nOtherLevel = nOtherLevel;
+        _nParallelThreshold = nParallelThreshold;
+        _nBlockSize = nBlockSize;
+    }
+
+    /**
+     * Get a policy compressing every entry at the same level
+     *
+     * @param nLevel
+     *            the deflate level, or {@link #STORED}
+     * @return the policy
+     */
+    public static CompressionPolicy of( int nLevel )
+    {
+        return new CompressionPolicy( nLevel, nLevel, nLevel, Integer.MAX_VALUE, DEFAULT_BLOCK_SIZE );
+    }
+
+    /**
+     * Get a policy favoring speed, for bulk jobs : the XML parts at the fastest level, the media and the other entries, mostly compressed already, stored.
+     * Large parts are deflated in parallel.
+     *
+     * @return the policy
+     */
+    public static CompressionPolicy fastest( )
+    {
+        return new CompressionPolicy( Deflater.BEST_SPEED, STORED, STORED, DEFAULT_PARALLEL_THRESHOLD, DEFAULT_BLOCK_SIZE );
+    }
+
+    /**
+     * Get a policy favoring size, for archive jobs : every entry at the best level. Large parts are deflated in parallel.
+     *
+     * @return the policy
+     */
+    public static CompressionPolicy smallest( )
+    {
+        return new CompressionPolicy( Deflater.BEST_COMPRESSION, Deflater.BEST_COMPRESSION, Deflater.BEST_COMPRESSION, DEFAULT_PARALLEL_THRESHOLD,
+                DEFAULT_BLOCK_SIZE );
+    }
+
+    /**
+     *
+     * @param nXmlLevel
+     *            the deflate level of the XML parts, or {@link #STORED}
+     * @return a copy of this policy with this level
+     */
+    public CompressionPolicy withXmlLevel( int nXmlLevel )
+    {
+        return new CompressionPolicy( nXmlLevel, _nMediaLevel, _nOtherLevel, _nParallelThreshold, _nBlockSize );
+    }
+
+    /**
+     *
+     * @param nMediaLevel
+     *            the deflate level of the media, or {@link #STORED}
+     * @return a copy of this policy with this level
+     */
+    public CompressionPolicy withMediaLevel( int nMediaLevel )
+    {
+        return new CompressionPolicy( _nXmlLevel, nMediaLevel, _nOtherLevel, _nParallelThreshold, _nBlockSize );
+    }
+
+    /**
+     *
+     * @param nOtherLevel
+     *            the deflate level of the other entries, or {@link #STORED}
+     * @return a copy of this policy with this level
+     */
+    public CompressionPolicy withOtherLevel( int nOtherLevel )
+    {
+        return new CompressionPolicy( _nXmlLevel, _nMediaLevel, nOtherLevel, _nParallelThreshold, _nBlockSize );
+    }
+
+    /**
+     *
+     * @param nParallelThreshold
+     *            the size from which an entry is deflated in parallel blocks, or {@link Integer#MAX_VALUE} to deflate every entry on the writing thread
+     * @param nBlockSize
+     *            the size of the blocks
+     * @return a copy of this policy with this parallel compression
+     */
+    public CompressionPolicy withParallelCompression( int nParallelThreshold, int nBlockSize )
+    {
+        return new CompressionPolicy( _nXmlLevel, _nMediaLevel, _nOtherLevel, nParallelThreshold, nBlockSize );
+    }
+
+    /**
+     * Get the level of an entry
+     *
+     * @param strEntryName
+     *            the name of the entry
+     * @return the deflate level, or {@link #STORED}
+     */
+    public int getLevel( String strEntryName )
+    {
+        String strName = strEntryName.toLowerCase( );
+        if ( strName.startsWith( PREFIX_MEDIA ) || endsWith( strName, EXTENSIONS_MEDIA ) )
+        {
+            return _nMediaLevel;
+        }
+        if ( endsWith( strName, EXTENSIONS_XML ) )
+        {
+            return _nXmlLevel;
+        }
+        return _nOtherLevel;
+    }
+
+    /**
+     *
+     * @return the size from which an entry is deflated in parallel blocks
+     */
+    public int getParallelThreshold( )
+    {
+        return _nParallelThreshold;
+    }
+
+    /**
+     *
+     * @return the size of the blocks deflated in parallel
+     */
+    public int getBlockSize( )
+    {
+        return _nBlockSize;
+    }
+
+    /**
+     *
+     * @return true if the policy is the default compression
+     */
+    public boolean isDefault( )
+    {
+        return _nXmlLevel == Deflater.DEFAULT_COMPRESSION && _nMediaLevel == Deflater.DEFAULT_COMPRESSION && _nOtherLevel == Deflater.DEFAULT_COMPRESSION
+                && _nParallelThreshold == Integer.MAX_VALUE;
+    }
+
+    @Override
+    public String toString( )
+    {
+        return "xml " + _nXmlLevel + ", media " + _nMediaLevel + ", other " + _nOtherLevel + ", parallel threshold " + _nParallelThreshold + ", block size "
+                + _nBlockSize;
+    }
+
+    /**
+     *
+     * @param strName
+     * @param extensions
+     * @return true if the name has one of the extensions
+     */
+    private static boolean endsWith( String strName, String [ ] extensions )
+    {
+        for ( String strExtension : extensions )
+        {
+            if ( strName.endsWith( strExtension ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check a level
+     *
+     * @param nLevel
+     */
+    private static void checkLevel( int nLevel )
+    {
+        if ( nLevel != STORED && nLevel != Deflater.DEFAULT_COMPRESSION && ( nLevel < Deflater.NO_COMPRESSION || nLevel > Deflater.BEST_COMPRESSION ) )
+        {
+            throw new IllegalArgumentException( "Invalid compression level : " + nLevel );
+        }
+    }
+}
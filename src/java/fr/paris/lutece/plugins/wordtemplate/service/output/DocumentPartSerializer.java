@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.output;
+
+import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.xml.namespace.QName;
+import org.apache.poi.POIXMLTypeLoader;
+import org.apache.poi.xwpf.usermodel.IBody;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFHeader;
+import org.apache.poi.xwpf.usermodel.XWPFHeaderFooter;
+import org.apache.xmlbeans.XmlOptions;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTDocument1;
+
+/**
+ * Serializer of the XML of a single part of a word document, written as POI writes it when the whole package is saved
+ */
+public final class DocumentPartSerializer
+{
+    private static final String ELEMENT_DOCUMENT = "document";
+    private static final String ELEMENT_HEADER = "hdr";
+    private static final String ELEMENT_FOOTER = "ftr";
+
+    /**
+     * Private constructor
+     */
+    private DocumentPartSerializer( )
+    {
+    }
+
+    /**
+     * Serialize the part of a body
+     *
+     * @param body
+     *            the body of a document, header or footer part
+     * @return the XML of the part
+     * @throws IOException
+     */
+    public static byte [ ] serialize( IBody body ) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        String strNamespace = CTDocument1.type.getName( ).getNamespaceURI( );
+        XmlOptions xmlOptions = new XmlOptions( POIXMLTypeLoader.DEFAULT_XML_OPTIONS );
+
+        if ( body instanceof XWPFDocument )
+        {
+            xmlOptions.setSaveSyntheticDocumentElement( new QName( strNamespace, ELEMENT_DOCUMENT ) );
+            ( (XWPFDocument) body ).getDocument( ).save( bos, xmlOptions );
+            return bos.toByteArray( );
+        }
+        if ( body instanceof XWPFHeaderFooter )
+        {
+            xmlOptions.setSaveSyntheticDocumentElement( new QName( strNamespace, body instanceof XWPFHeader ? ELEMENT_HEADER : ELEMENT_FOOTER ) );
+            ( (XWPFHeaderFooter) body )._getHdrFtr( ).save( bos, xmlOptions );
+            return bos.toByteArray( );
+        }
+
+        throw new WordTemplateException( "Unsupported part type : " + body.getPartType( ) );
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.output;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Deflater of a content in independent blocks, compressed in parallel on a shared executor and concatenated in order. Each block but the last ends with a
+ * sync flush, so that the concatenation is a single valid raw deflate stream ; each block is primed with the 32 KB preceding it as dictionary, so that the
+ * compression ratio stays close to a sequential deflate.
+ */
+public final class ParallelDeflater
+{
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int BUFFER_SIZE = 8192;
+    private static final String THREAD_NAME_PREFIX = "wordtemplate-deflate-";
+    private static final AtomicInteger _nThreadCount = new AtomicInteger( );
+    private static final ExecutorService EXECUTOR = createExecutor( );
+
+    /**
+     * Private constructor
+     */
+    private ParallelDeflater( )
+    {
+    }
+
+    /**
+     * Deflate a content
+     *
+     * @param content
+     *            the content
+     * @param nLevel
+     *            the deflate level
+     * @param nBlockSize
+     *            the size of the blocks. A content no larger than a block is deflated on the calling thread.
+     * @return the raw deflated content
+     */
+    public static byte [ ] deflate( byte [ ] content, int nLevel, int nBlockSize )
+    {
+        if ( content.length <= nBlockSize )
+        {
+            return deflateBlock( content, 0, content.length, nLevel, true );
+        }
+
+        List<CompletableFuture<byte [ ]>> listBlocks = new ArrayList<>( );
+        for ( int nStart = 0; nStart < content.length; nStart += nBlockSize )
+        {
+            int nBlockStart = nStart;
+            int nBlockEnd = (int) Math.min( content.length, (long) nStart + nBlockSize );
+            listBlocks.add( CompletableFuture.supplyAsync( ( ) -> deflateBlock( content, nBlockStart, nBlockEnd, nLevel, nBlockEnd == content.length ),
+                    EXECUTOR ) );
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( content.length / 4 + 64 );
+        try
+        {
+            for ( CompletableFuture<byte [ ]> block : listBlocks )
+            {
+                byte [ ] deflated = block.join( );
+                bos.write( deflated, 0, deflated.length );
+            }
+        }
+        catch( CompletionException e )
+        {
+            throw e.getCause( ) instanceof RuntimeException ? (RuntimeException) e.getCause( ) : e;
+        }
+        return bos.toByteArray( );
+    }
+
+    /**
+     * Deflate a block of a content
+     *
+     * @param content
+     *            the content
+     * @param nStart
+     *            the start of the block
+     * @param nEnd
+     *            the end of the block
+     * @param nLevel
+     *            the deflate level
+     * @param bLast
+     *            true for the last block, which ends the deflate stream
+     * @return the raw deflated block
+     */
+    private static byte [ ] deflateBlock( byte [ ] content, int nStart, int nEnd, int nLevel, boolean bLast )
+    {
+        Deflater deflater = new Deflater( nLevel, true );
+        try
+        {
+            if ( nStart > 0 )
+            {
+                int nDictionaryStart = Math.max( 0, nStart - DICTIONARY_SIZE );
+                deflater.setDictionary( content, nDictionaryStart, nStart - nDictionaryStart );
+            }
+            deflater.setInput( content, nStart, nEnd - nStart );
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream( ( nEnd - nStart ) / 4 + 64 );
+            byte [ ] buffer = new byte [ BUFFER_SIZE];
+            if ( bLast )
+            {
+                deflater.finish( );
+                while ( !deflater.finished( ) )
+                {
+                    bos.write( buffer, 0, deflater.deflate( buffer ) );
+                }
+            }
+            else
+            {
+                // The output of a sync flush is complete once it does not fill the buffer
+                int nDeflated;
+                do
+                {
+                    nDeflated = deflater.deflate( buffer, 0, buffer.length, Deflater.SYNC_FLUSH );
+                    bos.write( buffer, 0, nDeflated );
+                }
+                while ( nDeflated == buffer.length );
+            }
+            return bos.toByteArray( );
+        }
+        finally
+        {
+            deflater.end( );
+        }
+    }
+
+    /**
+     * Create the shared executor : one daemon thread per processor, stopped when idle
+     *
+     * @return the executor
+     */
+    private static ExecutorService createExecutor( )
+    {
+        int nThreads = Runtime.getRuntime( ).availableProcessors( );
+        ThreadPoolExecutor executor = new ThreadPoolExecutor( nThreads, nThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>( ), runnable -> {
+            Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + _nThreadCount.incrementAndGet( ) );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        executor.allowCoreThreadTimeOut( true );
+        return executor;
+    }
+}
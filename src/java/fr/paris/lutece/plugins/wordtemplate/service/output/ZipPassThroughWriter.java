@@ -0,0 +1,552 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writer of a package derived from a source zip. The entries which are not modified are copied as raw compressed bytes, without inflating, deflating nor
+ * parsing them : only the modified entries are compressed again, as set by a {@link CompressionPolicy}.
+ */
+public class ZipPassThroughWriter
+{
+    private static final int SIGNATURE_LOCAL_HEADER = 0x04034b50;
+    private static final int SIGNATURE_CENTRAL_HEADER = 0x02014b50;
+    private static final int SIGNATURE_END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int SIGNATURE_DATA_DESCRIPTOR = 0x08074b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int OFFSET_CENTRAL_LOCAL_OFFSET = 42;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final int BUFFER_SIZE = 8192;
+    private static final Charset CHARSET_NAMES = StandardCharsets.ISO_8859_1;
+
+    private final ByteBuffer _source;
+    private final List<SourceEntry> _listEntries;
+
+    /**
+     * Constructor. The central directory of the source zip is read at once, so that an unsupported source is rejected before anything is written.
+     *
+     * @param source
+     *            the content of the source zip
+     * @throws ZipException
+     *             if the source is not a zip, or is a zip64
+     */
+    public ZipPassThroughWriter( ByteBuffer source ) throws ZipException
+    {
+        _source = source.slice( ).order( ByteOrder.LITTLE_ENDIAN );
+        _listEntries = readCentralDirectory( );
+    }
+
+    /**
+     * Write the package
+     *
+     * @param mapModifiedEntries
+     *            the new content of the modified entries, by entry name
+     * @param nLevel
+     *            the deflate level of the modified entries
+     * @param outputStream
+     *            the output stream. It is not closed.
+     * @throws IOException
+     */
+    public void write( Map<String, byte [ ]> mapModifiedEntries, int nLevel, OutputStream outputStream ) throws IOException
+    {
+        write( mapModifiedEntries, CompressionPolicy.of( nLevel ), outputStream );
+    }
+
+    /**
+     * Write the whole package again, compressing every entry as set by a policy
+     *
+     * @param policy
+     *            the compression of the entries
+     * @param outputStream
+     *            the output stream. It is not closed.
+     * @throws IOException
+     */
+    public void recompress( CompressionPolicy policy, OutputStream outputStream ) throws IOException
+    {
+        Map<String, byte [ ]> mapEntries = new HashMap<>( );
+        for ( SourceEntry entry : _listEntries )
+        {
+            mapEntries.put( entry._strName, readContent( entry ) );
+        }
+        write( mapEntries, policy, outputStream );
+    }
+
+    /**
+     * Write the package
+     *
+     * @param mapModifiedEntries
+     *            the new content of the modified entries, by entry name. Each name must be the name of an entry of the source zip.
+     * @param policy
+     *            the compression of the modified entries
+     * @param outputStream
+     *            the output stream. It is not closed.
+     * @throws ZipException
+     *             if a modified entry is not in the source zip, or if the package would need zip64
+     * @throws IOException
+     */
+    public void write( Map<String, byte [ ]> mapModifiedEntries, CompressionPolicy policy, OutputStream outputStream ) throws IOException
+    {
+        checkEntryNames( mapModifiedEntries.keySet( ) );
+
+        long lOffset = 0;
+        byte [ ] buffer = new byte [ BUFFER_SIZE];
+        List<ByteBuffer> listCentralHeaders = new ArrayList<>( _listEntries.size( ) );
+
+        for ( SourceEntry entry : _listEntries )
+        {
+            byte [ ] content = mapModifiedEntries.get( entry._strName );
+            ByteBuffer centralHeader;
+            checkZip32( lOffset );
+
+            if ( content == null )
+            {
+                copy( entry._nLocalOffset, entry._nLocalLength, buffer, outputStream );
+
+                centralHeader = ByteBuffer.allocate( entry._nCentralLength ).order( ByteOrder.LITTLE_ENDIAN );
+                centralHeader.put( region( entry._nCentralOffset, entry._nCentralLength ) );
+                centralHeader.putInt( OFFSET_CENTRAL_LOCAL_OFFSET, (int) lOffset );
+                lOffset += entry._nLocalLength;
+            }
+            else
+            {
+                CRC32 crc = new CRC32( );
+                crc.update( content );
+                int nLevel = policy.getLevel( entry._strName );
+                boolean bStored = nLevel == CompressionPolicy.STORED;
+                byte [ ] compressed = bStored ? content : deflate( content, nLevel, policy );
+                int nMethod = bStored ? METHOD_STORED : METHOD_DEFLATED;
+                int nVersion = bStored ? VERSION_STORED : VERSION_DEFLATED;
+                byte [ ] name = entry._strName.getBytes( entry.getCharset( ) );
+                int nFlags = entry._nFlags & FLAG_UTF8;
+
+                ByteBuffer localHeader = ByteBuffer.allocate( LOCAL_HEADER_SIZE + name.length ).order( ByteOrder.LITTLE_ENDIAN );
+                localHeader.putInt( SIGNATURE_LOCAL_HEADER ).putShort( (short) nVersion ).putShort( (short) nFlags ).putShort( (short) nMethod )
+                        .putInt( entry._nDosTime ).putInt( (int) crc.getValue( ) ).putInt( compressed.length ).putInt( content.length )
+                        .putShort( (short) name.length ).putShort( (short) 0 ).put( name );
+                outputStream.write( localHeader.array( ) );
+                outputStream.write( compressed );
+
+                centralHeader = ByteBuffer.allocate( CENTRAL_HEADER_SIZE + name.length ).order( ByteOrder.LITTLE_ENDIAN );
+                centralHeader.putInt( SIGNATURE_CENTRAL_HEADER ).putShort( (short) nVersion ).putShort( (short) nVersion ).putShort( (short) nFlags )
+                        .putShort( (short) nMethod ).putInt( entry._nDosTime ).putInt( (int) crc.getValue( ) )
+                        .putInt( compressed.length ).putInt( content.length ).putShort( (short) name.length ).putShort( (short) 0 )
+                        .putShort( (short) 0 ).putShort( (short) 0 ).putShort( (short) 0 ).putInt( 0 ).putInt( (int) lOffset ).put( name );
+                lOffset += localHeader.capacity( ) + compressed.length;
+            }
+
+            listCentralHeaders.add( centralHeader );
+        }
+
+        long lCentralDirectoryOffset = lOffset;
+        checkZip32( lCentralDirectoryOffset );
+        for ( ByteBuffer centralHeader : listCentralHeaders )
+        {
+            outputStream.write( centralHeader.array( ) );
+            lOffset += centralHeader.capacity( );
+        }
+        checkZip32( lOffset - lCentralDirectoryOffset );
+
+        ByteBuffer endOfCentralDirectory = ByteBuffer.allocate( END_OF_CENTRAL_DIRECTORY_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        endOfCentralDirectory.putInt( SIGNATURE_END_OF_CENTRAL_DIRECTORY ).putShort( (short) 0 ).putShort( (short) 0 )
+                .putShort( (short) listCentralHeaders.size( ) ).putShort( (short) listCentralHeaders.size( ) )
+                .putInt( (int) ( lOffset - lCentralDirectoryOffset ) ).putInt( (int) lCentralDirectoryOffset ).putShort( (short) 0 );
+        outputStream.write( endOfCentralDirectory.array( ) );
+        outputStream.flush( );
+    }
+
+    /**
+     *
+     * @return the names of the entries of the source zip, in order
+     */
+    public List<String> getEntryNames( )
+    {
+        List<String> listNames = new ArrayList<>( _listEntries.size( ) );
+        for ( SourceEntry entry : _listEntries )
+        {
+            listNames.add( entry._strName );
+        }
+        return listNames;
+    }
+
+    /**
+     * Check that the modified entries are entries of the source zip, and that the package fits without zip64
+     *
+     * @param setNames
+     *            the names of the modified entries
+     * @throws ZipException
+     */
+    private void checkEntryNames( Set<String> setNames ) throws ZipException
+    {
+        if ( _listEntries.size( ) >= MAX_ENTRIES )
+        {
+            throw new ZipException( "Zip64 packages are not supported : " + _listEntries.size( ) + " entries" );
+        }
+
+        Set<String> setUnknownNames = new HashSet<>( setNames );
+        setUnknownNames.removeAll( getEntryNames( ) );
+        if ( !setUnknownNames.isEmpty( ) )
+        {
+            throw new ZipException( "Unknown entries : " + setUnknownNames );
+        }
+    }
+
+    /**
+     * Check that an offset or a size of the output fits in a zip without zip64
+     *
+     * @param lValue
+     *            the offset or the size
+     * @throws ZipException
+     */
+    private static void checkZip32( long lValue ) throws ZipException
+    {
+        if ( lValue >= ZIP64_MARKER )
+        {
+            throw new ZipException( "Zip64 packages are not supported : the package exceeds 4 GB" );
+        }
+    }
+
+    /**
+     * Read the central directory of the source zip
+     *
+     * @return the entries
+     * @throws ZipException
+     */
+    private List<SourceEntry> readCentralDirectory( ) throws ZipException
+    {
+        int nEnd = findEndOfCentralDirectory( );
+        int nEntries = unsignedShort( nEnd + 10 );
+        long lCentralDirectoryOffset = unsignedInt( nEnd + 16 );
+
+        if ( lCentralDirectoryOffset == ZIP64_MARKER || nEntries == MAX_ENTRIES )
+        {
+            throw new ZipException( "Zip64 packages are not supported" );
+        }
+
+        List<SourceEntry> listEntries = new ArrayList<>( nEntries );
+        int nPosition = (int) lCentralDirectoryOffset;
+
+        for ( int i = 0; i < nEntries; i++ )
+        {
+            if ( nPosition + CENTRAL_HEADER_SIZE > nEnd || _source.getInt( nPosition ) != SIGNATURE_CENTRAL_HEADER )
+            {
+                throw new ZipException( "Invalid central directory" );
+            }
+
+            SourceEntry entry = new SourceEntry( );
+            entry._nFlags = unsignedShort( nPosition + 8 );
+            entry._nMethod = unsignedShort( nPosition + 10 );
+            entry._nDosTime = _source.getInt( nPosition + 12 );
+            long lCompressedSize = unsignedInt( nPosition + 20 );
+            long lSize = unsignedInt( nPosition + 24 );
+            int nNameLength = unsignedShort( nPosition + 28 );
+            int nExtraLength = unsignedShort( nPosition + 30 );
+            int nCommentLength = unsignedShort( nPosition + 32 );
+            long lLocalOffset = unsignedInt( nPosition + OFFSET_CENTRAL_LOCAL_OFFSET );
+
+            if ( lCompressedSize == ZIP64_MARKER || lSize == ZIP64_MARKER || lLocalOffset == ZIP64_MARKER )
+            {
+                throw new ZipException( "Zip64 packages are not supported" );
+            }
+
+            entry._strName = new String( region( nPosition + CENTRAL_HEADER_SIZE, nNameLength ), entry.getCharset( ) );
+            entry._nCentralOffset = nPosition;
+            entry._nCentralLength = CENTRAL_HEADER_SIZE + nNameLength + nExtraLength + nCommentLength;
+            entry._nLocalOffset = (int) lLocalOffset;
+            entry._nCompressedSize = (int) lCompressedSize;
+            entry._nSize = (int) lSize;
+            entry._nLocalLength = readLocalLength( entry, lCompressedSize );
+
+            listEntries.add( entry );
+            nPosition += entry._nCentralLength;
+        }
+
+        return listEntries;
+    }
+
+    /**
+     * Compute the length of the local header, data and data descriptor of an entry
+     *
+     * @param entry
+     * @param lCompressedSize
+     * @return the length
+     * @throws ZipException
+     */
+    private int readLocalLength( SourceEntry entry, long lCompressedSize ) throws ZipException
+    {
+        int nLocal = entry._nLocalOffset;
+        if ( nLocal + LOCAL_HEADER_SIZE > _source.limit( ) || _source.getInt( nLocal ) != SIGNATURE_LOCAL_HEADER )
+        {
+            throw new ZipException( "Invalid local header for " + entry._strName );
+        }
+
+        long lEnd = nLocal + LOCAL_HEADER_SIZE + unsignedShort( nLocal + 26 ) + unsignedShort( nLocal + 28 ) + lCompressedSize;
+
+        if ( ( unsignedShort( nLocal + 6 ) & FLAG_DATA_DESCRIPTOR ) != 0 )
+        {
+            // The data descriptor may or may not start with its signature
+            lEnd += ( lEnd + 4 <= _source.limit( ) && _source.getInt( (int) lEnd ) == SIGNATURE_DATA_DESCRIPTOR ) ? 16 : 12;
+        }
+
+        if ( lEnd > _source.limit( ) )
+        {
+            throw new ZipException( "Truncated entry " + entry._strName );
+        }
+
+        return (int) ( lEnd - nLocal );
+    }
+
+    /**
+     *
+     * @return the position of the end of central directory record
+     * @throws ZipException
+     */
+    private int findEndOfCentralDirectory( ) throws ZipException
+    {
+        int nMin = Math.max( 0, _source.limit( ) - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT_SIZE );
+
+        for ( int nPosition = _source.limit( ) - END_OF_CENTRAL_DIRECTORY_SIZE; nPosition >= nMin; nPosition-- )
+        {
+            if ( _source.getInt( nPosition ) == SIGNATURE_END_OF_CENTRAL_DIRECTORY )
+            {
+                return nPosition;
+            }
+        }
+
+        throw new ZipException( "End of central directory not found" );
+    }
+
+    /**
+     * Copy a region of the source to the output
+     *
+     * @param nPosition
+     * @param nLength
+     * @param buffer
+     * @param outputStream
+     * @throws IOException
+     */
+    private void copy( int nPosition, int nLength, byte [ ] buffer, OutputStream outputStream ) throws IOException
+    {
+        ByteBuffer region = _source.duplicate( );
+        region.limit( nPosition + nLength ).position( nPosition );
+
+        if ( region.hasArray( ) )
+        {
+            outputStream.write( region.array( ), region.arrayOffset( ) + nPosition, nLength );
+            return;
+        }
+
+        while ( region.hasRemaining( ) )
+        {
+            int nChunk = Math.min( buffer.length, region.remaining( ) );
+            region.get( buffer, 0, nChunk );
+            outputStream.write( buffer, 0, nChunk );
+        }
+    }
+
+    /**
+     *
+     * @param nPosition
+     * @param nLength
+     * @return a copy of a region of the source
+     */
+    private byte [ ] region( int nPosition, int nLength )
+    {
+        byte [ ] bytes = new byte [ nLength];
+        ByteBuffer region = _source.duplicate( );
+        region.position( nPosition );
+        region.get( bytes );
+        return bytes;
+    }
+
+    /**
+     * Read the uncompressed content of an entry of the source
+     *
+     * @param entry
+     * @return the content
+     * @throws ZipException
+     */
+    private byte [ ] readContent( SourceEntry entry ) throws ZipException
+    {
+        int nData = entry._nLocalOffset + LOCAL_HEADER_SIZE + unsignedShort( entry._nLocalOffset + 26 ) + unsignedShort( entry._nLocalOffset + 28 );
+        byte [ ] data = region( nData, entry._nCompressedSize );
+
+        if ( entry._nMethod == METHOD_STORED )
+        {
+            return data;
+        }
+        if ( entry._nMethod != METHOD_DEFLATED )
+        {
+            throw new ZipException( "Unsupported compression method for " + entry._strName );
+        }
+
+        Inflater inflater = new Inflater( true );
+        try
+        {
+            inflater.setInput( data );
+            byte [ ] content = new byte [ entry._nSize];
+            int nInflated = 0;
+            while ( nInflated < content.length && !inflater.finished( ) )
+            {
+                int nCount = inflater.inflate( content, nInflated, content.length - nInflated );
+                if ( nCount == 0 && ( inflater.needsInput( ) || inflater.needsDictionary( ) ) )
+                {
+                    break;
+                }
+                nInflated += nCount;
+            }
+            if ( nInflated != content.length )
+            {
+                throw new ZipException( "Truncated entry " + entry._strName );
+            }
+            return content;
+        }
+        catch( DataFormatException e )
+        {
+            throw new ZipException( "Invalid entry " + entry._strName + " : " + e.getMessage( ) );
+        }
+        finally
+        {
+            inflater.end( );
+        }
+    }
+
+    /**
+     * Deflate a content, in parallel blocks if it is larger than the threshold of the policy
+     *
+     * @param content
+     * @param nLevel
+     * @param policy
+     * @return the raw deflated content
+     */
+    private static byte [ ] deflate( byte [ ] content, int nLevel, CompressionPolicy policy )
+    {
+        if ( content.length >= policy.getParallelThreshold( ) )
+        {
+            return ParallelDeflater.deflate( content, nLevel, policy.getBlockSize( ) );
+        }
+
+        Deflater deflater = new Deflater( nLevel, true );
+        try
+        {
+            deflater.setInput( content );
+            deflater.finish( );
+            ByteArrayOutputStream bos = new ByteArrayOutputStream( content.length / 4 + 64 );
+            byte [ ] buffer = new byte [ BUFFER_SIZE];
+            while ( !deflater.finished( ) )
+            {
+                int nDeflated = deflater.deflate( buffer );
+                bos.write( buffer, 0, nDeflated );
+            }
+            return bos.toByteArray( );
+        }
+        finally
+        {
+            deflater.end( );
+        }
+    }
+
+    /**
+     *
+     * @param nPosition
+     * @return the unsigned little endian short at the given position of the source
+     */
+    private int unsignedShort( int nPosition )
+    {
+        return _source.getShort( nPosition ) & 0xFFFF;
+    }
+
+    /**
+     *
+     * @param nPosition
+     * @return the unsigned little endian int at the given position of the source
+     */
+    private long unsignedInt( int nPosition )
+    {
+        return _source.getInt( nPosition ) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * An entry of the source zip
+     */
+    private static final class SourceEntry
+    {
+        private String _strName;
+        private int _nFlags;
+        private int _nMethod;
+        private int _nCompressedSize;
+        private int _nSize;
+        private int _nDosTime;
+        private int _nCentralOffset;
+        private int _nCentralLength;
+        private int _nLocalOffset;
+        private int _nLocalLength;
+
+        /**
+         *
+         * @return the charset of the name of the entry
+         */
+        private Charset getCharset( )
+        {
+            return ( _nFlags & FLAG_UTF8 ) != 0 ? StandardCharsets.UTF_8 : CHARSET_NAMES;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.pool;
+
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledWordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.business.WordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateCompiler;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+/**
+ * Pool of ready-to-render instances of a compiled template. Each instance is loaded from the in-memory package of the compiled template and bound to its
+ * instructions by background workers, so that a render taking an instance only evaluates the instructions and writes the document. Each instance is
+ * rendered once : the pool is refilled asynchronously after each take. When the pool is not used for the idle time, its instances are released until the
+ * next take.
+ */
+public class DocumentPool
+{
+    private static final String THREAD_NAME_PREFIX = "wordtemplate-pool-";
+    private static final AtomicInteger _nThreadCount = new AtomicInteger( );
+    private static final Executor DEFAULT_REFILL_EXECUTOR = createRefillExecutor( );
+    private static final ScheduledExecutorService EVICTION_EXECUTOR = createEvictionExecutor( );
+
+    private final CompiledWordTemplate _compiledTemplate;
+    private final int _nSize;
+    private final long _lIdleMillis;
+    private final Executor _refillExecutor;
+    private final ConcurrentLinkedDeque<PooledDocument> _dequeInstances = new ConcurrentLinkedDeque<>( );
+    private final AtomicInteger _nPlanned = new AtomicInteger( );
+    private final LongAdder _hits = new LongAdder( );
+    private final LongAdder _misses = new LongAdder( );
+    private final LongAdder _failures = new LongAdder( );
+    private final ScheduledFuture<?> _evictionTask;
+    private volatile long _lLastTake;
+    private volatile boolean _bClosed;
+
+    /**
+     * Constructor of a pool refilled by the shared workers
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param nSize
+     *            the number of instances kept ready
+     * @param lIdleMillis
+     *            the time after which the instances of an unused pool are released, or 0 to keep them
+     */
+    public DocumentPool( CompiledWordTemplate compiledTemplate, int nSize, long lIdleMillis )
+    {
+        this( compiledTemplate, nSize, lIdleMillis, DEFAULT_REFILL_EXECUTOR );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param nSize
+     *            the number of instances kept ready
+     * @param lIdleMillis
+     *            the time after which the instances of an unused pool are released, or 0 to keep them
+     * @param refillExecutor
+     *            the executor of the workers creating the instances
+     */
+    public DocumentPool( CompiledWordTemplate compiledTemplate, int nSize, long lIdleMillis, Executor refillExecutor )
+    {
+        if ( nSize < 1 || lIdleMillis < 0 )
+        {
+            throw new IllegalArgumentException( "Invalid pool : size " + nSize + ", idle time " + lIdleMillis );
+        }
+
+        _compiledTemplate = compiledTemplate;
+        _nSize = nSize;
+        _lIdleMillis = lIdleMillis;
+        _refillExecutor = refillExecutor;
+        _lLastTake = System.currentTimeMillis( );
+        _evictionTask = lIdleMillis > 0 ? EVICTION_EXECUTOR.scheduleWithFixedDelay( this::evict, lIdleMillis, lIdleMillis, TimeUnit.MILLISECONDS ) : null;
+
+        refill( );
+    }
+
+    /**
+     * Take an instance. An instance ready in the pool is returned at once ; otherwise one is created on the calling thread. The caller renders the instance
+     * and closes it.
+     *
+     * @return the instance
+     */
+    public PooledDocument take( ) throws WordTemplateException
+    {
+        if ( _bClosed )
+        {
+            throw new IllegalStateException( "The pool is closed" );
+        }
+
+        _lLastTake = System.currentTimeMillis( );
+        PooledDocument instance = _dequeInstances.pollFirst( );
+        if ( instance != null )
+        {
+            _nPlanned.decrementAndGet( );
+            _hits.increment( );
+            refill( );
+            return instance;
+        }
+
+        _misses.increment( );
+        refill( );
+        return create( );
+    }
+
+    /**
+     *
+     * @return the compiled template
+     */
+    public CompiledWordTemplate getCompiledTemplate( )
+    {
+        return _compiledTemplate;
+    }
+
+    /**
+     *
+     * @return the number of instances kept ready
+     */
+    public int getSize( )
+    {
+        return _nSize;
+    }
+
+    /**
+     *
+     * @return the number of instances ready in the pool
+     */
+    public int getAvailable( )
+    {
+        return _dequeInstances.size( );
+    }
+
+    /**
+     *
+     * @return the number of takes served by a ready instance
+     */
+    public long getHits( )
+    {
+        return _hits.sum( );
+    }
+
+    /**
+     *
+     * @return the number of takes which created their instance
+     */
+    public long getMisses( )
+    {
+        return _misses.sum( );
+    }
+
+    /**
+     *
+     * @return the number of instances the workers failed to create
+     */
+    public long getFailures( )
+    {
+        return _failures.sum( );
+    }
+
+    /**
+     * Close the pool and release its instances. A pool with an idle time is referenced by the eviction thread until it is closed.
+     */
+    public void close( )
+    {
+        _bClosed = true;
+        if ( _evictionTask != null )
+        {
+            _evictionTask.cancel( false );
+        }
+        release( );
+    }
+
+    /**
+     * Plan the creation of the missing instances
+     */
+    private void refill( )
+    {
+        for ( int nPlanned = _nPlanned.get( ); nPlanned < _nSize && !_bClosed; nPlanned = _nPlanned.get( ) )
+        {
+            if ( !_nPlanned.compareAndSet( nPlanned, nPlanned + 1 ) )
+            {
+                continue;
+            }
+            try
+            {
+                _refillExecutor.execute( this::createInBackground );
+            }
+            catch( RejectedExecutionException e )
+            {
+                // The workers are saturated : the next take refills the pool
+                _nPlanned.decrementAndGet( );
+                return;
+            }
+        }
+    }
+
+    /**
+     * Create an instance and add it to the pool
+     */
+    private void createInBackground( )
+    {
+        PooledDocument instance;
+        try
+        {
+            instance = create( );
+        }
+        catch( RuntimeException e )
+        {
+            // The instance is missing until the next take, which creates its own and reports the error
+            _failures.increment( );
+            _nPlanned.decrementAndGet( );
+            return;
+        }
+
+        _dequeInstances.addLast( instance );
+        if ( _bClosed )
+        {
+            release( );
+        }
+    }
+
+    /**
+     * Create an instance
+     *
+     * @return the instance
+     */
+    private PooledDocument create( ) throws WordTemplateException
+    {
+        try
+        {
+            WordTemplateCompiler compiler = new WordTemplateCompiler( );
+            XWPFDocument document = compiler.load( _compiledTemplate );
+            WordTemplate wordTemplate = compiler.bind( _compiledTemplate, document );
+            return new PooledDocument( document, wordTemplate, compiler );
+        }
+        catch( IOException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+
+    /**
+     * Release the instances of the pool if it has not been used for the idle time. They are created again at the next take.
+     */
+    private void evict( )
+    {
+        if ( System.currentTimeMillis( ) - _lLastTake >= _lIdleMillis )
+        {
+            release( );
+        }
+    }
+
+    /**
+     * Release the instances ready in the pool
+     */
+    private void release( )
+    {
+        for ( PooledDocument instance = _dequeInstances.pollFirst( ); instance != null; instance = _dequeInstances.pollFirst( ) )
+        {
+            _nPlanned.decrementAndGet( );
+            instance.close( );
+        }
+    }
+
+    /**
+     * Create the shared workers : one per two processors, daemon threads, stopped when idle
+     *
+     * @return the executor
+     */
+    private static Executor createRefillExecutor( )
+    {
+        int nThreads = Math.max( 1, Runtime.getRuntime( ).availableProcessors( ) / 2 );
+        ThreadPoolExecutor executor = new ThreadPoolExecutor( nThreads, nThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>( ), runnable -> {
+            Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + _nThreadCount.incrementAndGet( ) );
+            thread.setDaemon( true );
+            thread.setPriority( Thread.NORM_PRIORITY - 1 );
+            return thread;
+        } );
+        executor.allowCoreThreadTimeOut( true );
+        return executor;
+    }
+
+    /**
+     * Create the shared eviction thread
+     *
+     * @return the executor
+     */
+    private static ScheduledExecutorService createEvictionExecutor( )
+    {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor( 1, runnable -> {
+            Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + "eviction" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        executor.setRemoveOnCancelPolicy( true );
+        return executor;
+    }
+}
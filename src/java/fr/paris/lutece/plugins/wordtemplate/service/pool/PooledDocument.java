@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.pool;
+
+import fr.paris.lutece.plugins.wordtemplate.business.WordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateCompiler;
+import java.io.IOException;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+/**
+ * Ready-to-render instance of a compiled template : its package loaded and its instructions bound. An instance is rendered once.
+ */
+public class PooledDocument
+{
+    private final XWPFDocument _document;
+    private final WordTemplate _wordTemplate;
+    private final WordTemplateCompiler _compiler;
+    private final long _lCreationTime;
+
+    /**
+     * Constructor
+     *
+     * @param document
+     *            the loaded document
+     * @param wordTemplate
+     *            the instructions bound to the document
+     * @param compiler
+     *            the compiler which loaded the document
+     */
+    public PooledDocument( XWPFDocument document, WordTemplate wordTemplate, WordTemplateCompiler compiler )
+    {
+        _document = document;
+        _wordTemplate = wordTemplate;
+        _compiler = compiler;
+        _lCreationTime = System.currentTimeMillis( );
+    }
+
+    /**
+     *
+     * @return the loaded document
+     */
+    public XWPFDocument getDocument( )
+    {
+        return _document;
+    }
+
+    /**
+     *
+     * @return the instructions bound to the document
+     */
+    public WordTemplate getWordTemplate( )
+    {
+        return _wordTemplate;
+    }
+
+    /**
+     *
+     * @return the compiler which loaded the document
+     */
+    public WordTemplateCompiler getCompiler( )
+    {
+        return _compiler;
+    }
+
+    /**
+     *
+     * @return the time the instance was created, in milliseconds
+     */
+    public long getCreationTime( )
+    {
+        return _lCreationTime;
+    }
+
+    /**
+     * Close the document
+     */
+    public void close( )
+    {
+        try
+        {
+            _document.close( );
+        }
+        catch( IOException e )
+        {
+            // The package is in memory : nothing is left open
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.reactive;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of byte buffers of the same capacity. A buffer released to a full pool is left to the garbage collector.
+ */
+public class ByteBufferPool
+{
+    private final int _nBufferSize;
+    private final BlockingQueue<ByteBuffer> _queueBuffers;
+
+    /**
+     * Constructor
+     *
+     * @param nBufferSize
+     *            the capacity of the buffers
+     * @param nMaxPooled
+     *            the maximum number of buffers kept in the pool
+     */
+    public ByteBufferPool( int nBufferSize, int nMaxPooled )
+    {
+        _nBufferSize = nBufferSize;
+        _queueBuffers = new ArrayBlockingQueue<>( nMaxPooled );
+    }
+
+    /**
+     *
+     * @return an empty buffer
+     */
+    public ByteBuffer acquire( )
+    {
+        ByteBuffer buffer = _queueBuffers.poll( );
+        return buffer != null ? buffer : ByteBuffer.allocate( _nBufferSize );
+    }
+
+    /**
+     * Give a buffer back to the pool. The buffer must no longer be used by the caller.
+     *
+     * @param buffer
+     *            the buffer
+     */
+    public void release( ByteBuffer buffer )
+    {
+        if ( buffer.capacity( ) == _nBufferSize && !buffer.isReadOnly( ) )
+        {
+            buffer.clear( );
+            _queueBuffers.offer( buffer );
+        }
+    }
+
+    /**
+     *
+     * @return the capacity of the buffers
+     */
+    public int getBufferSize( )
+    {
+        return _nBufferSize;
+    }
+}
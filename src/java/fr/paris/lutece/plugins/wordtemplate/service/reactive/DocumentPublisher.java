@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.reactive;
+
+import fr.paris.lutece.plugins.wordtemplate.service.AsyncRenderExecutor;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Publisher of a rendered document as chunks of bytes. The render starts when the subscriber subscribes, on the render executor, and writes into chunks
+ * which are published as the subscriber requests them : when the subscriber has no pending demand, the render waits, so that a slow client never makes the
+ * whole document buffered.
+ * <p>
+ * The {@link Subscriber} and {@link Subscription} interfaces have the shape and the rules of those of <code>java.util.concurrent.Flow</code> and of Reactive
+ * Streams, so that adapting them is a matter of delegation. A publisher renders its document once and accepts a single subscriber. Each published chunk
+ * may be given back with {@link #release(ByteBuffer)} once it has been written out, to be reused.
+ * </p>
+ * <p>
+ * A waiting render holds a thread of the render executor : a subscriber which neither requests nor cancels within the demand timeout has its subscription
+ * cancelled and receives a {@link java.util.concurrent.TimeoutException}, so that idle subscribers cannot exhaust the executor.
+ * </p>
+ * <p>
+ * The demand only paces what the render writes. The renders of {@link fr.paris.lutece.plugins.wordtemplate.service.WordTemplateService} build the whole
+ * document in memory before writing it : a waiting subscriber pauses the serialization of the package, not the render, which holds its document until the
+ * last chunk is published. A render writing while it reads its template, like the one of
+ * {@link fr.paris.lutece.plugins.wordtemplate.service.StreamingWordTemplateService} for the templates holding only interpolations, is paced from end to end.
+ * </p>
+ */
+public class DocumentPublisher
+{
+    /**
+     * Default maximum time to wait for the subscriber to request a chunk
+     */
+    public static final long DEFAULT_DEMAND_TIMEOUT_MILLIS = 60000L;
+
+    private static final int DEFAULT_CHUNK_SIZE = 16384;
+    private static final ByteBufferPool DEFAULT_BUFFER_POOL = new ByteBufferPool( DEFAULT_CHUNK_SIZE, 256 );
+
+    private final Consumer<OutputStream> _render;
+    private final AsyncRenderExecutor _executor;
+    private final ByteBufferPool _bufferPool;
+    private final long _lDemandTimeoutMillis;
+    private final AtomicBoolean _bSubscribed = new AtomicBoolean( );
+
+    /**
+     * Receiver of the chunks of a document
+     */
+    public interface Subscriber
+    {
+        /**
+         * Called once, before any other signal
+         *
+         * @param subscription
+         *            the subscription, to request chunks or cancel
+         */
+        void onSubscribe( Subscription subscription );
+
+        /**
+         * Called for each requested chunk, from the position to the limit of the buffer
+         *
+         * @param chunk
+         *            the chunk
+         */
+        void onNext( ByteBuffer chunk );
+
+        /**
+         * Called once if the render fails. No other signal follows.
+         *
+         * @param throwable
+         *            the failure
+         */
+        void onError( Throwable throwable );
+
+        /**
+         * Called once when all the chunks are published. No other signal follows.
+         */
+        void onComplete( );
+    }
+
+    /**
+     * Link between the publisher and its subscriber
+     */
+    public interface Subscription
+    {
+        /**
+         * Request more chunks
+         *
+         * @param lCount
+         *            the number of chunks, strictly positive
+         */
+        void request( long lCount );
+
+        /**
+         * Stop the render. No more chunks are published.
+         */
+        void cancel( );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param render
+     *            the render, writing the document into the given stream
+     * @param executor
+     *            the executor of the render
+     */
+    public DocumentPublisher( Consumer<OutputStream> render, AsyncRenderExecutor executor )
+    {
+        this( render, executor, DEFAULT_BUFFER_POOL );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param render
+     *            the render, writing the document into the given stream
+     * @param executor
+     *            the executor of the render
+     * @param bufferPool
+     *            the pool of the chunks
+     */
+    public DocumentPublisher( Consumer<OutputStream> render, AsyncRenderExecutor executor, ByteBufferPool bufferPool )
+    {
+        this( render, executor, bufferPool, DEFAULT_DEMAND_TIMEOUT_MILLIS );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param render
+     *            the render, writing the document into the given stream
+     * @param executor
+     *            the executor of the render
+     * @param bufferPool
+     *            the pool of the chunks
+     * @param lDemandTimeoutMillis
+     *            the maximum time to wait for the subscriber to request a chunk
+     */
+    public DocumentPublisher( Consumer<OutputStream> render, AsyncRenderExecutor executor, ByteBufferPool bufferPool, long lDemandTimeoutMillis )
+    {
+        _render = render;
+        _executor = executor;
+        _bufferPool = bufferPool;
+        _lDemandTimeoutMillis = lDemandTimeoutMillis;
+    }
+
+    /**
+     * Subscribe to the document and start the render
+     *
+     * @param subscriber
+     *            the subscriber
+     */
+    public void subscribe( Subscriber subscriber )
+    {
+        if ( subscriber == null )
+        {
+            throw new NullPointerException( "subscriber" );
+        }
+
+        PublishingOutputStream outputStream = new PublishingOutputStream( subscriber, _bufferPool, _lDemandTimeoutMillis );
+        if ( !_bSubscribed.compareAndSet( false, true ) )
+        {
+            outputStream.cancel( );
+            subscriber.onSubscribe( outputStream );
+            subscriber.onError( new IllegalStateException( "A document publisher accepts a single subscriber" ) );
+            return;
+        }
+
+        subscriber.onSubscribe( outputStream );
+
+        CompletableFuture<Void> future = _executor.submit( ( ) -> {
+            render( outputStream );
+            return null;
+        } );
+        future.whenComplete( ( result, throwable ) -> {
+            if ( throwable != null )
+            {
+                // The render could not start, for example because the executor is saturated
+                outputStream.fail( throwable );
+            }
+        } );
+    }
+
+    /**
+     * Give a published chunk back to the pool
+     *
+     * @param chunk
+     *            the chunk, which must no longer be used
+     */
+    public void release( ByteBuffer chunk )
+    {
+        _bufferPool.release( chunk );
+    }
+
+    /**
+     * Run the render and publish its end. The failure of a cancelled render is not published.
+     *
+     * @param outputStream
+     *            the stream of the chunks
+     */
+    private void render( PublishingOutputStream outputStream )
+    {
+        try
+        {
+            _render.accept( outputStream );
+            outputStream.complete( );
+        }
+        catch( RuntimeException e )
+        {
+            outputStream.fail( e );
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.reactive;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Output stream publishing its bytes as chunks to a subscriber. The writing thread waits while the subscriber has no pending demand, up to a timeout which
+ * cancels the render. Only the writing thread signals the subscriber, so that the signals are serialized.
+ */
+class PublishingOutputStream extends OutputStream implements DocumentPublisher.Subscription
+{
+    private final DocumentPublisher.Subscriber _subscriber;
+    private final ByteBufferPool _bufferPool;
+    private final long _lDemandTimeoutMillis;
+    private final Object _lock = new Object( );
+    private ByteBuffer _chunk;
+    private long _lDemand;
+    private boolean _bCancelled;
+    private boolean _bTerminated;
+    private Throwable _subscriptionError;
+
+    /**
+     * Constructor
+     *
+     * @param subscriber
+     *            the subscriber
+     * @param bufferPool
+     *            the pool of the chunks
+     * @param lDemandTimeoutMillis
+     *            the maximum time to wait for a demand
+     */
+    PublishingOutputStream( DocumentPublisher.Subscriber subscriber, ByteBufferPool bufferPool, long lDemandTimeoutMillis )
+    {
+        _subscriber = subscriber;
+        _bufferPool = bufferPool;
+        _lDemandTimeoutMillis = lDemandTimeoutMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void request( long lCount )
+    {
+        synchronized( _lock )
+        {
+            if ( lCount <= 0 )
+            {
+                // The error is signaled by the writing thread, which stops the render
+                _subscriptionError = new IllegalArgumentException( "The number of requested chunks must be positive : " + lCount );
+                _bCancelled = true;
+            }
+            else
+            {
+                _lDemand = _lDemand + lCount < 0 ? Long.MAX_VALUE : _lDemand + lCount;
+            }
+            _lock.notifyAll( );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cancel( )
+    {
+        synchronized( _lock )
+        {
+            _bCancelled = true;
+            _lock.notifyAll( );
+        }
+    }
+
+    @Override
+    public void write( int b ) throws IOException
+    {
+        if ( _chunk == null || !_chunk.hasRemaining( ) )
+        {
+            publishChunk( );
+        }
+        _chunk.put( (byte) b );
+    }
+
+    @Override
+    public void write( byte [ ] buffer, int nOffset, int nLength ) throws IOException
+    {
+        int nPosition = nOffset;
+        int nEnd = nOffset + nLength;
+        while ( nPosition < nEnd )
+        {
+            if ( _chunk == null || !_chunk.hasRemaining( ) )
+            {
+                publishChunk( );
+            }
+            int nCount = Math.min( _chunk.remaining( ), nEnd - nPosition );
+            _chunk.put( buffer, nPosition, nCount );
+            nPosition += nCount;
+        }
+    }
+
+    /**
+     * Publish the last chunk and the completion
+     */
+    void complete( )
+    {
+        try
+        {
+            publishChunk( );
+        }
+        catch( IOException e )
+        {
+            fail( e );
+            return;
+        }
+        _bufferPool.release( _chunk );
+        _chunk = null;
+        if ( terminate( ) )
+        {
+            _subscriber.onComplete( );
+        }
+    }
+
+    /**
+     * Publish a failure, unless the subscription is cancelled
+     *
+     * @param throwable
+     *            the failure
+     */
+    void fail( Throwable throwable )
+    {
+        Throwable subscriptionError;
+        synchronized( _lock )
+        {
+            subscriptionError = _subscriptionError;
+            if ( _bCancelled && subscriptionError == null )
+            {
+                _bTerminated = true;
+                return;
+            }
+        }
+        if ( terminate( ) )
+        {
+            _subscriber.onError( subscriptionError != null ? subscriptionError : throwable );
+        }
+    }
+
+    /**
+     * Publish the current chunk, if it holds bytes, once the subscriber requests it, and start a new chunk
+     *
+     * @throws IOException
+     *             if the subscription is cancelled
+     */
+    private void publishChunk( ) throws IOException
+    {
+        if ( _chunk != null && _chunk.position( ) > 0 )
+        {
+            awaitDemand( );
+            _chunk.flip( );
+            _subscriber.onNext( _chunk );
+            _chunk = null;
+        }
+        if ( _chunk == null )
+        {
+            _chunk = _bufferPool.acquire( );
+        }
+    }
+
+    /**
+     * Wait for a pending demand and consume it. A subscriber which requests nothing before the timeout has its subscription cancelled : the render frees its
+     * thread of the render executor, and the subscriber receives a {@link TimeoutException}.
+     *
+     * @throws IOException
+     *             if the subscription is cancelled, the demand times out or the thread is interrupted
+     */
+    private void awaitDemand( ) throws IOException
+    {
+        synchronized( _lock )
+        {
+            long lDeadline = System.nanoTime( ) + TimeUnit.MILLISECONDS.toNanos( _lDemandTimeoutMillis );
+            while ( _lDemand == 0 && !_bCancelled )
+            {
+                long lRemainingNanos = lDeadline - System.nanoTime( );
+                if ( lRemainingNanos <= 0 )
+                {
+                    _subscriptionError = new TimeoutException( "No chunk has been requested for " + _lDemandTimeoutMillis + " ms" );
+                    _bCancelled = true;
+                    break;
+                }
+                try
+                {
+                    TimeUnit.NANOSECONDS.timedWait( _lock, lRemainingNanos );
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread( ).interrupt( );
+                    throw new InterruptedIOException( "The render has been interrupted" );
+                }
+            }
+            if ( _bCancelled )
+            {
+                throw new IOException( "The subscription has been cancelled" );
+            }
+            if ( _lDemand != Long.MAX_VALUE )
+            {
+                _lDemand--;
+            }
+        }
+    }
+
+    /**
+     * Mark the subscription as terminated
+     *
+     * @return true if it was not terminated yet
+     */
+    private boolean terminate( )
+    {
+        synchronized( _lock )
+        {
+            if ( _bTerminated )
+            {
+                return false;
+            }
+            _bTerminated = true;
+            return true;
+        }
+    }
+}
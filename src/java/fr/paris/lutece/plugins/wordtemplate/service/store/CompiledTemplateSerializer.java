@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.store;
+
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledInstruction;
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledWordTemplate;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary format of compiled templates. All the numbers are big-endian.
+ *
+ * <pre>
+ * header             magic (4), format version (4), SHA-256 of the source template and of the compiler settings (32),
+ *                    offset of the instruction table (8), offset of the package (8), length of the package (8), CRC32 of the package (4),
+ *                    CRC32 of the instruction table (4)
+ * instruction table  count (4), then for each instruction : part name, type, expression (length (4) and UTF-8 bytes each),
+ *                    paragraph index (4), run index (4)
+ * package            the bytes of the normalized package
+ * </pre>
+ *
+ * The package is stored last and as is, so that a compiled template read from a memory-mapped file uses the mapped bytes without copying them.
+ */
+public final class CompiledTemplateSerializer
+{
+    /**
+     * Version of the format, to increment on each change of the format, of the normalization of the packages or of the built-in instructions
+     */
+    public static final int FORMAT_VERSION = 4;
+
+    private static final int MAGIC = 0x57544350; // "WTCP"
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = 4 + 4 + HASH_LENGTH + 8 + 8 + 8 + 4 + 4;
+
+    /**
+     * Private constructor
+     */
+    private CompiledTemplateSerializer( )
+    {
+    }
+
+    /**
+     * Write a compiled template
+     *
+     * @param compiledTemplate
+     *            the compiled template
+     * @param sourceHash
+     *            the SHA-256 of the source template and of the compiler settings
+     * @param outputStream
+     *            the output stream
+     * @throws IOException
+     */
+    public static void write( CompiledWordTemplate compiledTemplate, byte [ ] sourceHash, OutputStream outputStream ) throws IOException
+    {
+        if ( sourceHash.length != HASH_LENGTH )
+        {
+            throw new IllegalArgumentException( "Invalid hash length : " + sourceHash.length );
+        }
+
+        ByteArrayOutputStream bosTable = new ByteArrayOutputStream( );
+        DataOutputStream dosTable = new DataOutputStream( bosTable );
+        dosTable.writeInt( compiledTemplate.getInstructions( ).size( ) );
+        for ( CompiledInstruction instruction : compiledTemplate.getInstructions( ) )
+        {
+            writeString( dosTable, instruction.getPartName( ) );
+            writeString( dosTable, instruction.getType( ) );
+            writeString( dosTable, instruction.getExpression( ) );
+            dosTable.writeInt( instruction.getParagraphIndex( ) );
+            dosTable.writeInt( instruction.getRunIndex( ) );
+        }
+        dosTable.flush( );
+        CRC32 crcTable = new CRC32( );
+        crcTable.update( bosTable.toByteArray( ) );
+
+        ByteBuffer packageBuffer = compiledTemplate.getPackageBuffer( );
+        CRC32 crc = new CRC32( );
+        crc.update( packageBuffer.duplicate( ) );
+
+        DataOutputStream dos = new DataOutputStream( outputStream );
+        dos.writeInt( MAGIC );
+        dos.writeInt( FORMAT_VERSION );
+        dos.write( sourceHash );
+        dos.writeLong( HEADER_LENGTH );
+        dos.writeLong( (long) HEADER_LENGTH + bosTable.size( ) );
+        dos.writeLong( packageBuffer.remaining( ) );
+        dos.writeInt( (int) crc.getValue( ) );
+        dos.writeInt( (int) crcTable.getValue( ) );
+        bosTable.writeTo( dos );
+
+        byte [ ] buffer = new byte [ 8192];
+        while ( packageBuffer.hasRemaining( ) )
+        {
+            int nLength = Math.min( buffer.length, packageBuffer.remaining( ) );
+            packageBuffer.get( buffer, 0, nLength );
+            dos.write( buffer, 0, nLength );
+        }
+        dos.flush( );
+    }
+
+    /**
+     * Read a compiled template
+     *
+     * @param buffer
+     *            the serialized compiled template, from its position to its limit
+     * @param expectedSourceHash
+     *            the SHA-256 of the source template and of the compiler settings
+     * @return the compiled template, or null if the content is not a valid compiled template of this version and of this source
+     */
+    public static CompiledWordTemplate read( ByteBuffer buffer, byte [ ] expectedSourceHash )
+    {
+        ByteBuffer content = buffer.slice( );
+
+        try
+        {
+            if ( content.getInt( ) != MAGIC || content.getInt( ) != FORMAT_VERSION )
+            {
+                return null;
+            }
+            byte [ ] sourceHash = new byte [ HASH_LENGTH];
+            content.get( sourceHash );
+            if ( !Arrays.equals( sourceHash, expectedSourceHash ) )
+            {
+                return null;
+            }
+
+            long lTableOffset = content.getLong( );
+            long lPackageOffset = content.getLong( );
+            long lPackageLength = content.getLong( );
+            int nPackageCrc = content.getInt( );
+            int nTableCrc = content.getInt( );
+            if ( lPackageOffset + lPackageLength != content.limit( ) || lTableOffset < HEADER_LENGTH || lTableOffset > lPackageOffset )
+            {
+                return null;
+            }
+
+            // The table is checked before it is decoded, so that its lengths can be trusted
+            ByteBuffer table = content.duplicate( );
+            table.limit( (int) lPackageOffset ).position( (int) lTableOffset );
+            CRC32 crcTable = new CRC32( );
+            crcTable.update( table );
+            if ( (int) crcTable.getValue( ) != nTableCrc )
+            {
+                return null;
+            }
+
+            content.limit( (int) lPackageOffset ).position( (int) lTableOffset );
+            int nInstructionCount = content.getInt( );
+            List<CompiledInstruction> listInstructions = new ArrayList<>( nInstructionCount > 0 ? Math.min( nInstructionCount, content.remaining( ) ) : 0 );
+            for ( int i = 0; i < nInstructionCount; i++ )
+            {
+                String strPartName = readString( content );
+                String strType = readString( content );
+                String strExpression = readString( content );
+                int nParagraphIndex = content.getInt( );
+                int nRunIndex = content.getInt( );
+                listInstructions.add( new CompiledInstruction( strPartName, nParagraphIndex, nRunIndex, strType, strExpression ) );
+            }
+
+            content.limit( (int) ( lPackageOffset + lPackageLength ) ).position( (int) lPackageOffset );
+            ByteBuffer packageBuffer = content.slice( );
+            CRC32 crc = new CRC32( );
+            crc.update( packageBuffer.duplicate( ) );
+            if ( (int) crc.getValue( ) != nPackageCrc )
+            {
+                return null;
+            }
+
+            return new CompiledWordTemplate( packageBuffer, listInstructions );
+        }
+        catch( BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e )
+        {
+            // Truncated or corrupted content
+            return null;
+        }
+    }
+
+    /**
+     * Write a string
+     *
+     * @param dos
+     * @param strValue
+     * @throws IOException
+     */
+    private static void writeString( DataOutputStream dos, String strValue ) throws IOException
+    {
+        byte [ ] value = strValue.getBytes( StandardCharsets.UTF_8 );
+        dos.writeInt( value.length );
+        dos.write( value );
+    }
+
+    /**
+     * Read a string
+     *
+     * @param buffer
+     * @return the string
+     * @throws BufferUnderflowException
+     *             if the length of the string is invalid
+     */
+    private static String readString( ByteBuffer buffer )
+    {
+        int nLength = buffer.getInt( );
+        if ( nLength < 0 || nLength > buffer.remaining( ) )
+        {
+            throw new BufferUnderflowException( );
+        }
+        byte [ ] value = new byte [ nLength];
+        buffer.get( value );
+        return new String( value, StandardCharsets.UTF_8 );
+    }
+}
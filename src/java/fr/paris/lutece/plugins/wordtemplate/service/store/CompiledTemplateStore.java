@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.store;
+
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledInstruction;
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledWordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.business.InterpolationInstructionElement;
+import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.TemplateEngineService;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateCompiler;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Local directory of compiled templates. Each compiled template is stored in a file named after the SHA-256 of its source template and of the settings of
+ * the compiler, and loaded through a memory-mapped channel : a node restarting with a warm directory renders its first documents without parsing the
+ * templates with POI again.
+ * <p>
+ * A file written by another version of the format, for another source or truncated is ignored and replaced. A directory shared by compilers with other
+ * options or other instruction managers holds one file per settings.
+ * </p>
+ */
+public class CompiledTemplateStore
+{
+    private static final String FILE_EXTENSION = ".wtc";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String ALGORITHM_SHA_256 = "SHA-256";
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Path _directory;
+    private final WordTemplateCompiler _compiler;
+
+    /**
+     * Constructor
+     *
+     * @param directory
+     *            the directory of the compiled templates. It is created if needed.
+     */
+    public CompiledTemplateStore( Path directory )
+    {
+        this( directory, new WordTemplateCompiler( ) );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param directory
+     *            the directory of the compiled templates. It is created if needed.
+     * @param compiler
+     *            the compiler of the templates missing from the directory
+     */
+    public CompiledTemplateStore( Path directory, WordTemplateCompiler compiler )
+    {
+        _directory = directory;
+        _compiler = compiler;
+    }
+
+    /**
+     * Get the compiled template of a source template, from the directory if it holds a valid one, otherwise by compiling the template and storing it
+     *
+     * @param templateStream
+     *            the stream of the template document
+     * @return the compiled template
+     */
+    public CompiledWordTemplate getCompiledTemplate( InputStream templateStream ) throws WordTemplateException
+    {
+        try
+        {
+            byte [ ] source = readAll( templateStream );
+            byte [ ] key = getKey( source );
+
+            CompiledWordTemplate compiledTemplate = load( key );
+            if ( compiledTemplate == null )
+            {
+                compiledTemplate = _compiler.compile( new ByteArrayInputStream( source ) );
+                try
+                {
+                    save( key, compiledTemplate );
+                }
+                catch( IOException e )
+                {
+                    // The template is compiled : it is only not available to the next restart
+                    AppLogService.error( "Unable to store the compiled template in " + _directory, e );
+                }
+            }
+            return compiledTemplate;
+        }
+        catch( IOException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+
+    /**
+     * Load a compiled template from the directory. The expressions of its interpolations are parsed in the cache of the template engine : FreeMarker
+     * templates cannot be serialized, so they are parsed once at load time instead of at the first render.
+     *
+     * @param key
+     *            the key of the source template, see {@link #getKey(byte[])}
+     * @return the compiled template, or null if the directory holds no valid compiled template for this source
+     * @throws IOException
+     */
+    public CompiledWordTemplate load( byte [ ] key ) throws IOException
+    {
+        MappedByteBuffer buffer;
+
+        try ( FileChannel channel = FileChannel.open( getPath( key ), StandardOpenOption.READ ) )
+        {
+            // The mapping stays valid once the channel is closed
+            buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size( ) );
+        }
+        catch( NoSuchFileException e )
+        {
+            return null;
+        }
+
+        CompiledWordTemplate compiledTemplate = CompiledTemplateSerializer.read( buffer, key );
+        if ( compiledTemplate != null )
+        {
+            for ( CompiledInstruction instruction : compiledTemplate.getInstructions( ) )
+            {
+                if ( InterpolationInstructionElement.INTERPOLATION_TYPE.equals( instruction.getType( ) ) )
+                {
+                    TemplateEngineService.createTemplate( instruction.getExpression( ) );
+                }
+            }
+        }
+        return compiledTemplate;
+    }
+
+    /**
+     * Store a compiled template in the directory. The file is written aside and moved in place, so that a concurrent reader never sees a partial file.
+     *
+     * @param key
+     *            the key of the source template, see {@link #getKey(byte[])}
+     * @param compiledTemplate
+     *            the compiled template
+     * @throws IOException
+     */
+    public void save( byte [ ] key, CompiledWordTemplate compiledTemplate ) throws IOException
+    {
+        Files.createDirectories( _directory );
+        Path path = getPath( key );
+        Path tempPath = Files.createTempFile( _directory, path.getFileName( ).toString( ), TEMP_FILE_SUFFIX );
+
+        try
+        {
+            try ( OutputStream outputStream = Files.newOutputStream( tempPath ) )
+            {
+                CompiledTemplateSerializer.write( compiledTemplate, key, outputStream );
+            }
+
+            try
+            {
+                Files.move( tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+            }
+            catch( AtomicMoveNotSupportedException e )
+            {
+                Files.move( tempPath, path, StandardCopyOption.REPLACE_EXISTING );
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists( tempPath );
+        }
+    }
+
+    /**
+     * Get the key of a source template in the directory : the SHA-256 of the template and of the settings of the compiler
+     *
+     * @param source
+     *            the content of the source template
+     * @return the key
+     */
+    public byte [ ] getKey( byte [ ] source )
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( ALGORITHM_SHA_256 );
+            digest.update( source );
+            digest.update( _compiler.getSettings( ).getBytes( StandardCharsets.UTF_8 ) );
+            return digest.digest( );
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+
+    /**
+     * Get the path of the file of a compiled template
+     *
+     * @param key
+     *            the key of the source template, see {@link #getKey(byte[])}
+     * @return the path
+     */
+    private Path getPath( byte [ ] key )
+    {
+        StringBuilder sbName = new StringBuilder( key.length * 2 + FILE_EXTENSION.length( ) );
+        for ( byte b : key )
+        {
+            sbName.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+        }
+        sbName.append( FILE_EXTENSION );
+        return _directory.resolve( sbName.toString( ) );
+    }
+
+    /**
+     * Read a stream fully
+     *
+     * @param inputStream
+     * @return the content of the stream
+     * @throws IOException
+     */
+    private static byte [ ] readAll( InputStream inputStream ) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        byte [ ] buffer = new byte [ BUFFER_SIZE];
+        for ( int nRead = inputStream.read( buffer ); nRead >= 0; nRead = inputStream.read( buffer ) )
+        {
+            bos.write( buffer, 0, nRead );
+        }
+        return bos.toByteArray( );
+    }
+}
@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.stream;
+
+import fr.paris.lutece.plugins.wordtemplate.service.TemplateEngineService;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming processor of an XML part of a word package. The part is read as a StAX event stream and written straight to the output, interpolations being
+ * replaced on the fly. An interpolation split across several runs is replaced in the run where it starts, and its characters are removed from the following
+ * runs : only the XML written since the start of an open interpolation is buffered, so the memory is bounded by the largest paragraph. Directives such as
+ * <code>&lt;#list&gt;</code> or <code>&lt;#if&gt;</code> are not processed : they are written out verbatim, as any other text.
+ */
+public class StreamingPartProcessor
+{
+    private static final String NAMESPACE_WORD = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final String NAMESPACE_XML = "http://www.w3.org/XML/1998/namespace";
+    private static final String ELEMENT_PARAGRAPH = "p";
+    private static final String ELEMENT_TEXT = "t";
+    private static final String ATTRIBUTE_SPACE = "space";
+    private static final String SPACE_PRESERVE = "preserve";
+    private static final char EXPRESSION_START = '$';
+    private static final char EXPRESSION_OPEN = '{';
+    private static final char EXPRESSION_END = '}';
+
+    private static final XMLInputFactory _xmlInputFactory = createInputFactory( );
+
+    private final Map<String, Object> _model;
+    private final XmlEscapingWriter _mainWriter;
+    private final CharArrayWriter _pendingBuffer = new CharArrayWriter( );
+    private final XmlEscapingWriter _pendingWriter = new XmlEscapingWriter( _pendingBuffer );
+    private final CharArrayWriter _textStartTagBuffer = new CharArrayWriter( );
+    private final XmlEscapingWriter _textStartTagWriter = new XmlEscapingWriter( _textStartTagBuffer );
+    private final StringBuilder _sbText = new StringBuilder( );
+    private final StringBuilder _sbExpression = new StringBuilder( );
+    private XmlEscapingWriter _currentWriter;
+    private boolean _bStartTagOpen;
+    private boolean _bInText;
+    private boolean _bTextSpaceSet;
+    private boolean _bPending;
+
+    /**
+     * Constructor
+     *
+     * @param writer
+     *            the writer of the processed part. It is flushed but not closed.
+     * @param model
+     *            the model
+     */
+    public StreamingPartProcessor( Writer writer, Map<String, Object> model )
+    {
+        _mainWriter = new XmlEscapingWriter( writer );
+        _currentWriter = _mainWriter;
+        _model = model;
+    }
+
+    /**
+     * Process a part
+     *
+     * @param inputStream
+     *            the stream of the part. It is not closed.
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    public void process( InputStream inputStream ) throws IOException, XMLStreamException
+    {
+        XMLStreamReader reader = _xmlInputFactory.createXMLStreamReader( inputStream );
+
+        try
+        {
+            writeDeclaration( reader.standaloneSet( ) && reader.isStandalone( ) );
+
+            while ( reader.hasNext( ) )
+            {
+                int nEvent = reader.next( );
+                switch( nEvent )
+                {
+                    case XMLStreamConstants.START_ELEMENT:
+                        startElement( reader );
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        endElement( reader );
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                    case XMLStreamConstants.CDATA:
+                        characters( reader );
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        closeStartTag( );
+                        _currentWriter.writeMarkup( "<!--" );
+                        _currentWriter.writeMarkup( reader.getText( ) );
+                        _currentWriter.writeMarkup( "-->" );
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        closeStartTag( );
+                        _currentWriter.writeMarkup( "<?" );
+                        _currentWriter.writeMarkup( reader.getPITarget( ) );
+                        _currentWriter.writeMarkup( ' ' );
+                        _currentWriter.writeMarkup( reader.getPIData( ) );
+                        _currentWriter.writeMarkup( "?>" );
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        finally
+        {
+            reader.close( );
+        }
+
+        abortExpression( );
+        _mainWriter.flush( );
+    }
+
+    /**
+     * Write the XML declaration of the part
+     *
+     * @param bStandalone
+     * @throws IOException
+     */
+    private void writeDeclaration( boolean bStandalone ) throws IOException
+    {
+        _mainWriter.writeMarkup( "<?xml version=\"1.0\" encoding=\"UTF-8\"" );
+        if ( bStandalone )
+        {
+            _mainWriter.writeMarkup( " standalone=\"yes\"" );
+        }
+        _mainWriter.writeMarkup( "?>\r\n" );
+    }
+
+    /**
+     * Handle the start of an element
+     *
+     * @param reader
+     * @throws IOException
+     */
+    private void startElement( XMLStreamReader reader ) throws IOException
+    {
+        closeStartTag( );
+
+        if ( isWordElement( reader, ELEMENT_PARAGRAPH ) )
+        {
+            // An interpolation never spans several paragraphs
+            abortExpression( );
+        }
+
+        if ( isWordElement( reader, ELEMENT_TEXT ) )
+        {
+            // The start tag of a text is written with its content, once it is known
+            _bInText = true;
+            _sbText.setLength( 0 );
+            _textStartTagBuffer.reset( );
+            _bTextSpaceSet = writeStartTag( reader, _textStartTagWriter );
+            return;
+        }
+
+        writeStartTag( reader, _currentWriter );
+        _bStartTagOpen = true;
+    }
+
+    /**
+     * Handle the end of an element
+     *
+     * @param reader
+     * @throws IOException
+     */
+    private void endElement( XMLStreamReader reader ) throws IOException
+    {
+        if ( _bInText && isWordElement( reader, ELEMENT_TEXT ) )
+        {
+            _bInText = false;
+            text( reader );
+            return;
+        }
+
+        if ( isWordElement( reader, ELEMENT_PARAGRAPH ) )
+        {
+            abortExpression( );
+        }
+
+        if ( _bStartTagOpen )
+        {
+            _currentWriter.writeMarkup( "/>" );
+            _bStartTagOpen = false;
+            return;
+        }
+
+        _currentWriter.writeMarkup( "</" );
+        writeName( _currentWriter, reader.getPrefix( ), reader.getLocalName( ) );
+        _currentWriter.writeMarkup( '>' );
+    }
+
+    /**
+     * Handle characters
+     *
+     * @param reader
+     * @throws IOException
+     */
+    private void characters( XMLStreamReader reader ) throws IOException
+    {
+        if ( _bInText )
+        {
+            _sbText.append( reader.getTextCharacters( ), reader.getTextStart( ), reader.getTextLength( ) );
+            return;
+        }
+
+        closeStartTag( );
+        _currentWriter.writeText( reader.getTextCharacters( ), reader.getTextStart( ), reader.getTextLength( ) );
+    }
+
+    /**
+     * Handle a complete text element, whose end tag is the current event
+     *
+     * @param reader
+     * @throws IOException
+     */
+    private void text( XMLStreamReader reader ) throws IOException
+    {
+        boolean bExpressionOpen = _sbExpression.length( ) > 0;
+
+        _currentWriter.writeMarkup( _textStartTagBuffer );
+        if ( !_bTextSpaceSet && ( bExpressionOpen || _sbText.indexOf( String.valueOf( EXPRESSION_START ) ) >= 0 ) )
+        {
+            // The value may start or end with spaces
+            _currentWriter.writeMarkup( " xml:space=\"" + SPACE_PRESERVE + "\"" );
+        }
+        _currentWriter.writeMarkup( '>' );
+
+        for ( int i = 0; i < _sbText.length( ); i++ )
+        {
+            char c = _sbText.charAt( i );
+
+            if ( _sbExpression.length( ) == 1 && c != EXPRESSION_OPEN )
+            {
+                // A lone '$' is not the start of an interpolation
+                abortExpression( );
+            }
+
+            if ( _sbExpression.length( ) > 0 )
+            {
+                _sbExpression.append( c );
+                if ( c == EXPRESSION_END )
+                {
+                    completeExpression( );
+                }
+                continue;
+            }
+
+            if ( c == EXPRESSION_START )
+            {
+                _sbExpression.append( c );
+            }
+            else
+            {
+                _currentWriter.writeText( c );
+            }
+        }
+
+        if ( _sbExpression.length( ) > 0 && !_bPending )
+        {
+            // The interpolation goes on in the next runs : its value will be written here, so what follows is buffered
+            _bPending = true;
+            _currentWriter = _pendingWriter;
+        }
+
+        _currentWriter.writeMarkup( "</" );
+        writeName( _currentWriter, reader.getPrefix( ), reader.getLocalName( ) );
+        _currentWriter.writeMarkup( '>' );
+    }
+
+    /**
+     * Write the value of the complete interpolation where it started, then the buffered XML
+     *
+     * @throws IOException
+     */
+    private void completeExpression( ) throws IOException
+    {
+        String strValue = TemplateEngineService.processInterpolation( _sbExpression.toString( ), _model );
+        _mainWriter.writeText( strValue );
+        _sbExpression.setLength( 0 );
+        flushPending( );
+    }
+
+    /**
+     * Write an incomplete interpolation as text where it started, then the buffered XML
+     *
+     * @throws IOException
+     */
+    private void abortExpression( ) throws IOException
+    {
+        if ( _sbExpression.length( ) == 0 )
+        {
+            return;
+        }
+        _mainWriter.writeText( _sbExpression );
+        _sbExpression.setLength( 0 );
+        flushPending( );
+    }
+
+    /**
+     * Write the buffered XML to the output
+     *
+     * @throws IOException
+     */
+    private void flushPending( ) throws IOException
+    {
+        if ( _bPending )
+        {
+            _mainWriter.writeMarkup( _pendingBuffer );
+            _pendingBuffer.reset( );
+            _bPending = false;
+            _currentWriter = _mainWriter;
+        }
+    }
+
+    /**
+     * Write the start tag of the current element, without its closing bracket
+     *
+     * @param reader
+     * @param writer
+     * @return true if the element has a xml:space attribute
+     * @throws IOException
+     */
+    private static boolean writeStartTag( XMLStreamReader reader, XmlEscapingWriter writer ) throws IOException
+    {
+        boolean bSpaceSet = false;
+
+        writer.writeMarkup( '<' );
+        writeName( writer, reader.getPrefix( ), reader.getLocalName( ) );
+
+        for ( int i = 0; i < reader.getNamespaceCount( ); i++ )
+        {
+            String strPrefix = reader.getNamespacePrefix( i );
+            writer.writeMarkup( " xmlns" );
+            if ( strPrefix != null && !strPrefix.isEmpty( ) )
+            {
+                writer.writeMarkup( ':' );
+                writer.writeMarkup( strPrefix );
+            }
+            writer.writeMarkup( "=\"" );
+            writer.writeAttributeValue( reader.getNamespaceURI( i ) );
+            writer.writeMarkup( '"' );
+        }
+
+        for ( int i = 0; i < reader.getAttributeCount( ); i++ )
+        {
+            if ( NAMESPACE_XML.equals( reader.getAttributeNamespace( i ) ) && ATTRIBUTE_SPACE.equals( reader.getAttributeLocalName( i ) ) )
+            {
+                bSpaceSet = true;
+            }
+            writer.writeMarkup( ' ' );
+            writeName( writer, reader.getAttributePrefix( i ), reader.getAttributeLocalName( i ) );
+            writer.writeMarkup( "=\"" );
+            writer.writeAttributeValue( reader.getAttributeValue( i ) );
+            writer.writeMarkup( '"' );
+        }
+
+        return bSpaceSet;
+    }
+
+    /**
+     * Close the start tag of the current element if it is still open
+     *
+     * @throws IOException
+     */
+    private void closeStartTag( ) throws IOException
+    {
+        if ( _bStartTagOpen )
+        {
+            _currentWriter.writeMarkup( '>' );
+            _bStartTagOpen = false;
+        }
+    }
+
+    /**
+     * Write a qualified name
+     *
+     * @param writer
+     * @param strPrefix
+     * @param strLocalName
+     * @throws IOException
+     */
+    private static void writeName( XmlEscapingWriter writer, String strPrefix, String strLocalName ) throws IOException
+    {
+        if ( strPrefix != null && !strPrefix.isEmpty( ) )
+        {
+            writer.writeMarkup( strPrefix );
+            writer.writeMarkup( ':' );
+        }
+        writer.writeMarkup( strLocalName );
+    }
+
+    /**
+     *
+     * @param reader
+     * @param strLocalName
+     * @return true if the current element is the word element of the given name
+     */
+    private static boolean isWordElement( XMLStreamReader reader, String strLocalName )
+    {
+        return strLocalName.equals( reader.getLocalName( ) ) && NAMESPACE_WORD.equals( reader.getNamespaceURI( ) );
+    }
+
+    /**
+     *
+     * @return the StAX factory, without DTD nor external entities
+     */
+    private static XMLInputFactory createInputFactory( )
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance( );
+        factory.setProperty( XMLInputFactory.SUPPORT_DTD, Boolean.FALSE );
+        factory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE );
+        factory.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE );
+        return factory;
+    }
+}
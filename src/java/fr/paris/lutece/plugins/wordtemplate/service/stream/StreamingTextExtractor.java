@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.stream;
+
+import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Extractor of the plain text of a word document. The package is read as a zip stream and each part holding text is read as a StAX event stream : the text
+ * is written to the writer as it is read, without loading the document nor building XML objects, so the memory does not depend on the size of the document.
+ * <p>
+ * The text of the main document, the headers, the footers, the footnotes and the endnotes is extracted, in the order of the parts in the package. Each
+ * paragraph ends with a line break, tabs and breaks of the runs are written as tab and line break characters. The deleted text of revisions, the field codes
+ * and the fallback content of the text boxes are skipped.
+ * </p>
+ */
+public final class StreamingTextExtractor
+{
+    private static final Pattern PATTERN_TEXT_PARTS = Pattern.compile( "word/(document|header\\d*|footer\\d*|footnotes|endnotes)\\.xml" );
+    private static final String NAMESPACE_WORD = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final String NAMESPACE_MARKUP_COMPATIBILITY = "http://schemas.openxmlformats.org/markup-compatibility/2006";
+    private static final String ELEMENT_PARAGRAPH = "p";
+    private static final String ELEMENT_RUN = "r";
+    private static final String ELEMENT_TEXT = "t";
+    private static final String ELEMENT_TAB = "tab";
+    private static final String ELEMENT_BREAK = "br";
+    private static final String ELEMENT_CARRIAGE_RETURN = "cr";
+    private static final String ELEMENT_FALLBACK = "Fallback";
+
+    private static final XMLInputFactory _xmlInputFactory = createInputFactory( );
+
+    /**
+     * Private constructor
+     */
+    private StreamingTextExtractor( )
+    {
+    }
+
+    /**
+     * Extract the text of a document
+     *
+     * @param documentStream
+     *            the stream of the document. It is not closed.
+     * @return the text
+     */
+    public static String extractText( InputStream documentStream ) throws WordTemplateException
+    {
+        StringWriter writer = new StringWriter( );
+        extractText( documentStream, writer );
+        return writer.toString( );
+    }
+
+    /**
+     * Extract the text of a document into a writer
+     *
+     * @param documentStream
+     *            the stream of the document. It is not closed.
+     * @param writer
+     *            the writer of the text. It is neither flushed nor closed : a buffered writer is advised, the text being written in small chunks.
+     */
+    public static void extractText( InputStream documentStream, Writer writer ) throws WordTemplateException
+    {
+        try
+        {
+            ZipInputStream zis = new ZipInputStream( new NonClosingInputStream( documentStream ) );
+            for ( ZipEntry entry = zis.getNextEntry( ); entry != null; entry = zis.getNextEntry( ) )
+            {
+                if ( PATTERN_TEXT_PARTS.matcher( entry.getName( ) ).matches( ) )
+                {
+                    extractPartText( new NonClosingInputStream( zis ), writer );
+                }
+            }
+        }
+        catch( IOException | XMLStreamException e )
+        {
+            throw new WordTemplateException( e.getMessage( ), e );
+        }
+    }
+
+    /**
+     * Extract the text of an XML part
+     *
+     * @param partStream
+     *            the stream of the part
+     * @param writer
+     *            the writer of the text
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    public static void extractPartText( InputStream partStream, Writer writer ) throws IOException, XMLStreamException
+    {
+        XMLStreamReader reader = _xmlInputFactory.createXMLStreamReader( partStream );
+        int nRunDepth = 0;
+        int nSkippedDepth = 0;
+        boolean bInText = false;
+
+        try
+        {
+            while ( reader.hasNext( ) )
+            {
+                switch( reader.next( ) )
+                {
+                    case XMLStreamConstants.START_ELEMENT:
+                        if ( nSkippedDepth > 0 || isElement( reader, NAMESPACE_MARKUP_COMPATIBILITY, ELEMENT_FALLBACK ) )
+                        {
+                            // The fallback of a text box repeats its text
+                            nSkippedDepth++;
+                            break;
+                        }
+                        if ( !NAMESPACE_WORD.equals( reader.getNamespaceURI( ) ) )
+                        {
+                            break;
+                        }
+                        String strStartName = reader.getLocalName( );
+                        if ( ELEMENT_RUN.equals( strStartName ) )
+                        {
+                            nRunDepth++;
+                            break;
+                        }
+                        // The tabs of the paragraph properties are tab stops, not text
+                        if ( nRunDepth > 0 )
+                        {
+                            bInText = ELEMENT_TEXT.equals( strStartName );
+                            if ( ELEMENT_TAB.equals( strStartName ) )
+                            {
+                                writer.write( '\t' );
+                            }
+                            if ( ELEMENT_BREAK.equals( strStartName ) || ELEMENT_CARRIAGE_RETURN.equals( strStartName ) )
+                            {
+                                writer.write( '\n' );
+                            }
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if ( nSkippedDepth > 0 )
+                        {
+                            nSkippedDepth--;
+                            break;
+                        }
+                        if ( !NAMESPACE_WORD.equals( reader.getNamespaceURI( ) ) )
+                        {
+                            break;
+                        }
+                        String strEndName = reader.getLocalName( );
+                        bInText = false;
+                        if ( ELEMENT_RUN.equals( strEndName ) )
+                        {
+                            nRunDepth--;
+                        }
+                        if ( ELEMENT_PARAGRAPH.equals( strEndName ) )
+                        {
+                            writer.write( '\n' );
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                    case XMLStreamConstants.CDATA:
+                        if ( bInText && nSkippedDepth == 0 )
+                        {
+                            writer.write( reader.getTextCharacters( ), reader.getTextStart( ), reader.getTextLength( ) );
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        finally
+        {
+            reader.close( );
+        }
+    }
+
+    /**
+     *
+     * @param reader
+     * @param strNamespace
+     * @param strLocalName
+     * @return true if the current element has the given name
+     */
+    private static boolean isElement( XMLStreamReader reader, String strNamespace, String strLocalName )
+    {
+        return strLocalName.equals( reader.getLocalName( ) ) && strNamespace.equals( reader.getNamespaceURI( ) );
+    }
+
+    /**
+     *
+     * @return the factory of the readers of the parts
+     */
+    private static XMLInputFactory createInputFactory( )
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance( );
+        factory.setProperty( XMLInputFactory.SUPPORT_DTD, Boolean.FALSE );
+        factory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE );
+        factory.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE );
+        factory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.FALSE );
+        return factory;
+    }
+}
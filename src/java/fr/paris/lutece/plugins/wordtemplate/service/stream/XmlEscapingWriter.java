@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.stream;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer of XML markup and escaped content. Characters are escaped one by one directly into the underlying writer, without building intermediate strings.
+ */
+public class XmlEscapingWriter
+{
+    private final Writer _writer;
+
+    /**
+     * Constructor
+     *
+     * @param writer
+     *            the underlying writer
+     */
+    public XmlEscapingWriter( Writer writer )
+    {
+        _writer = writer;
+    }
+
+    /**
+     * Write markup as is
+     *
+     * @param strMarkup
+     * @throws IOException
+     */
+    public void writeMarkup( String strMarkup ) throws IOException
+    {
+        _writer.write( strMarkup );
+    }
+
+    /**
+     * Write a markup character as is
+     *
+     * @param c
+     * @throws IOException
+     */
+    public void writeMarkup( char c ) throws IOException
+    {
+        _writer.write( c );
+    }
+
+    /**
+     * Write buffered markup as is
+     *
+     * @param buffer
+     * @throws IOException
+     */
+    public void writeMarkup( CharArrayWriter buffer ) throws IOException
+    {
+        buffer.writeTo( _writer );
+    }
+
+    /**
+     * Write escaped text content
+     *
+     * @param text
+     * @throws IOException
+     */
+    public void writeText( CharSequence text ) throws IOException
+    {
+        for ( int i = 0; i < text.length( ); i++ )
+        {
+            writeText( text.charAt( i ) );
+        }
+    }
+
+    /**
+     * Write escaped text content
+     *
+     * @param buffer
+     * @param nStart
+     * @param nLength
+     * @throws IOException
+     */
+    public void writeText( char [ ] buffer, int nStart, int nLength ) throws IOException
+    {
+        int nEnd = nStart + nLength;
+        int nChunkStart = nStart;
+
+        for ( int i = nStart; i < nEnd; i++ )
+        {
+            char c = buffer [i];
+            if ( c == '&' || c == '<' || c == '>' )
+            {
+                _writer.write( buffer, nChunkStart, i - nChunkStart );
+                writeText( c );
+                nChunkStart = i + 1;
+            }
+        }
+        _writer.write( buffer, nChunkStart, nEnd - nChunkStart );
+    }
+
+    /**
+     * Write an escaped text character
+     *
+     * @param c
+     * @throws IOException
+     */
+    public void writeText( char c ) throws IOException
+    {
+        switch( c )
+        {
+            case '&':
+                _writer.write( "&amp;" );
+                break;
+            case '<':
+                _writer.write( "&lt;" );
+                break;
+            case '>':
+                _writer.write( "&gt;" );
+                break;
+            default:
+                _writer.write( c );
+        }
+    }
+
+    /**
+     * Write an escaped attribute value, without the quotes
+     *
+     * @param strValue
+     * @throws IOException
+     */
+    public void writeAttributeValue( String strValue ) throws IOException
+    {
+        for ( int i = 0; i < strValue.length( ); i++ )
+        {
+            char c = strValue.charAt( i );
+            switch( c )
+            {
+                case '"':
+                    _writer.write( "&quot;" );
+                    break;
+                case '\t':
+                    _writer.write( "&#9;" );
+                    break;
+                case '\n':
+                    _writer.write( "&#10;" );
+                    break;
+                case '\r':
+                    _writer.write( "&#13;" );
+                    break;
+                default:
+                    writeText( c );
+            }
+        }
+    }
+
+    /**
+     * Flush the underlying writer
+     *
+     * @throws IOException
+     */
+    public void flush( ) throws IOException
+    {
+        _writer.flush( );
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.visitor;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.apache.poi.xwpf.usermodel.IBody;
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+
+/**
+ * Index of the paragraphs, runs and cells of a document with their positions, built by a single walk of the document. The index of a document is shared by
+ * the parser and the instruction managers, so that the document is not walked again to find the position of an element.
+ * <p>
+ * The index is kept while it is referenced, by the word template of the document for instance. The services changing the structure of a document invalidate
+ * its index, which is then built again when it is next used. An index is not thread-safe, as the document it indexes.
+ * </p>
+ */
+public final class DocumentIndex
+{
+    private static final Map<XWPFDocument, WeakReference<DocumentIndex>> _mapIndexes = Collections.synchronizedMap( new WeakHashMap<>( ) );
+
+    private final XWPFDocument _document;
+    private boolean _bValid;
+    private final Map<String, List<XWPFParagraph>> _mapParagraphsByPart = new LinkedHashMap<>( );
+    private final Map<XWPFParagraph, Integer> _mapParagraphIndexes = new IdentityHashMap<>( );
+    private final Map<IBodyElement, Integer> _mapElementPositions = new IdentityHashMap<>( );
+    private final Map<XWPFRun, Integer> _mapRunPositions = new IdentityHashMap<>( );
+    private final Map<XWPFTableCell, int [ ]> _mapCellPositions = new IdentityHashMap<>( );
+
+    /**
+     * Constructor
+     *
+     * @param document
+     */
+    private DocumentIndex( XWPFDocument document )
+    {
+        _document = document;
+    }
+
+    /**
+     * Build the index of a document, replacing its current index
+     *
+     * @param document
+     *            the document
+     * @param visitors
+     *            visitors called during the walk building the index, before the index itself for each element
+     * @return the index
+     */
+    public static DocumentIndex build( XWPFDocument document, IDocumentVisitor... visitors )
+    {
+        DocumentIndex index = new DocumentIndex( document );
+        index.fill( visitors );
+        _mapIndexes.put( document, new WeakReference<>( index ) );
+        return index;
+    }
+
+    /**
+     * Get the index of a document, built if needed
+     *
+     * @param document
+     *            the document
+     * @return the index
+     */
+    public static DocumentIndex of( XWPFDocument document )
+    {
+        WeakReference<DocumentIndex> reference = _mapIndexes.get( document );
+        DocumentIndex index = ( reference == null ) ? null : reference.get( );
+        return ( index == null ) ? build( document ) : index;
+    }
+
+    /**
+     * Invalidate the index of a document, after a change of its structure
+     *
+     * @param document
+     *            the document
+     */
+    public static void invalidate( XWPFDocument document )
+    {
+        WeakReference<DocumentIndex> reference = _mapIndexes.get( document );
+        DocumentIndex index = ( reference == null ) ? null : reference.get( );
+        if ( index != null )
+        {
+            index._bValid = false;
+        }
+    }
+
+    /**
+     *
+     * @return the names of the indexed package parts, in the order of the walk
+     */
+    public List<String> getPartNames( )
+    {
+        validate( );
+        return new ArrayList<>( _mapParagraphsByPart.keySet( ) );
+    }
+
+    /**
+     *
+     * @param strPartName
+     *            the name of a package part
+     * @return the paragraphs of the part, in document order, including those of the tables, text boxes and content controls
+     */
+    public List<XWPFParagraph> getParagraphs( String strPartName )
+    {
+        validate( );
+        List<XWPFParagraph> listParagraphs = _mapParagraphsByPart.get( strPartName );
+        return ( listParagraphs == null ) ? Collections.<XWPFParagraph> emptyList( ) : Collections.unmodifiableList( listParagraphs );
+    }
+
+    /**
+     *
+     * @param paragraph
+     * @return the index of the paragraph in the paragraphs of its part, or -1 if it is not indexed
+     */
+    public int getParagraphIndex( XWPFParagraph paragraph )
+    {
+        validate( );
+        return getOrDefault( _mapParagraphIndexes.get( paragraph ) );
+    }
+
+    /**
+     *
+     * @param bodyElement
+     *            a paragraph or a table
+     * @return the index of the element in the elements of its body, or -1 if it is not an indexed element of a body
+     */
+    public int getPosition( IBodyElement bodyElement )
+    {
+        validate( );
+        return getOrDefault( _mapElementPositions.get( bodyElement ) );
+    }
+
+    /**
+     *
+     * @param run
+     * @return the index of the run in its paragraph, or -1 if it is not indexed
+     */
+    public int getRunPosition( XWPFRun run )
+    {
+        validate( );
+        return getOrDefault( _mapRunPositions.get( run ) );
+    }
+
+    /**
+     *
+     * @param cell
+     * @return the index of the row in its table and the index of the cell in its row, or null if it is not indexed
+     */
+    public int [ ] getCellPosition( XWPFTableCell cell )
+    {
+        validate( );
+        int [ ] position = _mapCellPositions.get( cell );
+        return ( position == null ) ? null : position.clone( );
+    }
+
+    /**
+     * Walk the document again if the index has been invalidated
+     */
+    private void validate( )
+    {
+        if ( !_bValid )
+        {
+            _mapParagraphsByPart.clear( );
+            _mapParagraphIndexes.clear( );
+            _mapElementPositions.clear( );
+            _mapRunPositions.clear( );
+            _mapCellPositions.clear( );
+            fill( );
+        }
+    }
+
+    /**
+     * Walk the document to fill the index
+     *
+     * @param visitors
+     *            visitors called before the index for each element
+     */
+    private void fill( IDocumentVisitor... visitors )
+    {
+        IDocumentVisitor [ ] arrayVisitors = Arrays.copyOf( visitors, visitors.length + 1 );
+        arrayVisitors [visitors.length] = new Indexer( );
+        DocumentWalker.walk( _document, arrayVisitors );
+        _bValid = true;
+    }
+
+    /**
+     *
+     * @param nValue
+     * @return the value, or -1 if it is null
+     */
+    private static int getOrDefault( Integer nValue )
+    {
+        return ( nValue == null ) ? -1 : nValue;
+    }
+
+    /**
+     * Visitor filling the index
+     */
+    private final class Indexer implements IDocumentVisitor
+    {
+        private List<XWPFParagraph> _listPartParagraphs;
+
+        @Override
+        public void startPart( IBody part, String strPartName )
+        {
+            _listPartParagraphs = _mapParagraphsByPart.computeIfAbsent( strPartName, k -> new ArrayList<>( ) );
+        }
+
+        @Override
+        public void visitTable( XWPFTable table, int nPosition )
+        {
+            _mapElementPositions.put( table, nPosition );
+        }
+
+        @Override
+        public void visitCell( XWPFTableCell cell, int nRow, int nCell )
+        {
+            _mapCellPositions.put( cell, new int [ ] {
+                    nRow, nCell
+            } );
+        }
+
+        @Override
+        public void visitParagraph( XWPFParagraph paragraph, int nPosition )
+        {
+            if ( nPosition >= 0 )
+            {
+                _mapElementPositions.put( paragraph, nPosition );
+            }
+            _mapParagraphIndexes.put( paragraph, _listPartParagraphs.size( ) );
+            _listPartParagraphs.add( paragraph );
+        }
+
+        @Override
+        public void visitRun( XWPFRun run, int nPosition )
+        {
+            _mapRunPositions.put( run, nPosition );
+        }
+    }
+}
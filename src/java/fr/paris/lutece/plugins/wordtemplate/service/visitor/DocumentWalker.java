@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.visitor;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import org.apache.poi.xwpf.usermodel.IBody;
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFFooter;
+import org.apache.poi.xwpf.usermodel.XWPFFootnote;
+import org.apache.poi.xwpf.usermodel.XWPFHeader;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTP;
+
+/**
+ * Walker of all the parts of a document : the headers, the footers, the main document and the footnotes, in this order. The walk is iterative, with an
+ * explicit stack of the bodies being visited, so that deeply nested tables do not grow the call stack.
+ * <p>
+ * The paragraphs of text boxes and content controls are not wrapped by POI : they are found once per part, after the elements of the part, and visited with
+ * wrappers created for the walk. The runs of an inline content control, within a paragraph, are skipped : the instructions they hold are left as they
+ * are.
+ * </p>
+ */
+public final class DocumentWalker
+{
+    private static final String NAMESPACE_DECLARATION = "declare namespace w='" + CTP.type.getName( ).getNamespaceURI( ) + "' ";
+    private static final String PATH_TEXT_BOXES = NAMESPACE_DECLARATION + ".//w:txbxContent";
+    private static final String PATH_CONTENT_CONTROLS = NAMESPACE_DECLARATION + ".//w:sdtContent";
+
+    /**
+     * Private constructor
+     */
+    private DocumentWalker( )
+    {
+    }
+
+    /**
+     * Walk a document
+     *
+     * @param document
+     *            the document
+     * @param visitors
+     *            the visitors, called in this order for each element
+     */
+    public static void walk( XWPFDocument document, IDocumentVisitor... visitors )
+    {
+        for ( XWPFHeader header : document.getHeaderList( ) )
+        {
+            walkPart( header, header._getHdrFtr( ), visitors );
+        }
+        for ( XWPFFooter footer : document.getFooterList( ) )
+        {
+            walkPart( footer, footer._getHdrFtr( ), visitors );
+        }
+        walkPart( document, document.getDocument( ), visitors );
+        for ( XWPFFootnote footnote : document.getFootnotes( ) )
+        {
+            walkPart( footnote, footnote.getCTFtnEdn( ), visitors );
+        }
+    }
+
+    /**
+     *
+     * @param part
+     *            the body of a part
+     * @return the name of the package part of the body
+     */
+    public static String getPartName( IBody part )
+    {
+        return part.getPart( ).getPackagePart( ).getPartName( ).getName( );
+    }
+
+    /**
+     * Walk a part
+     *
+     * @param part
+     *            the body of the part
+     * @param partXml
+     *            the XML of the part
+     * @param visitors
+     *            the visitors
+     */
+    private static void walkPart( IBody part, XmlObject partXml, IDocumentVisitor [ ] visitors )
+    {
+        String strPartName = getPartName( part );
+        for ( IDocumentVisitor visitor : visitors )
+        {
+            visitor.startPart( part, strPartName );
+        }
+
+        Set<CTP> setVisitedParagraphs = Collections.newSetFromMap( new IdentityHashMap<>( ) );
+        Deque<Frame> stackFrames = new ArrayDeque<>( );
+        stackFrames.push( new Frame( part.getBodyElements( ) ) );
+
+        while ( !stackFrames.isEmpty( ) )
+        {
+            Frame frame = stackFrames.peek( );
+
+            if ( frame._table != null )
+            {
+                XWPFTableCell cell = frame.nextCell( );
+                if ( cell == null )
+                {
+                    stackFrames.pop( );
+                    continue;
+                }
+                for ( IDocumentVisitor visitor : visitors )
+                {
+                    visitor.visitCell( cell, frame._nRow, frame._nCell );
+                }
+                stackFrames.push( new Frame( cell.getBodyElements( ) ) );
+                continue;
+            }
+
+            if ( frame._nNext >= frame._listElements.size( ) )
+            {
+                stackFrames.pop( );
+                continue;
+            }
+
+            int nPosition = frame._nNext++;
+            IBodyElement bodyElement = frame._listElements.get( nPosition );
+            switch( bodyElement.getElementType( ) )
+            {
+                case PARAGRAPH:
+                    XWPFParagraph paragraph = (XWPFParagraph) bodyElement;
+                    setVisitedParagraphs.add( paragraph.getCTP( ) );
+                    visitParagraph( paragraph, nPosition, visitors );
+                    break;
+                case TABLE:
+                    XWPFTable table = (XWPFTable) bodyElement;
+                    for ( IDocumentVisitor visitor : visitors )
+                    {
+                        visitor.visitTable( table, nPosition );
+                    }
+                    stackFrames.push( new Frame( table ) );
+                    break;
+                default:
+                    // The content of content controls is found with the text boxes
+                    break;
+            }
+        }
+
+        walkUnwrappedParagraphs( part, partXml.selectPath( PATH_TEXT_BOXES ), setVisitedParagraphs, visitors );
+        walkUnwrappedParagraphs( part, partXml.selectPath( PATH_CONTENT_CONTROLS ), setVisitedParagraphs, visitors );
+
+        for ( IDocumentVisitor visitor : visitors )
+        {
+            visitor.endPart( part, strPartName );
+        }
+    }
+
+    /**
+     * Walk the paragraphs of containers which are not wrapped by POI
+     *
+     * @param part
+     *            the body of the part of the containers
+     * @param containers
+     *            the containers, in document order
+     * @param setVisitedParagraphs
+     *            the paragraphs already visited
+     * @param visitors
+     *            the visitors
+     */
+    private static void walkUnwrappedParagraphs( IBody part, XmlObject [ ] containers, Set<CTP> setVisitedParagraphs, IDocumentVisitor [ ] visitors )
+    {
+        for ( XmlObject container : containers )
+        {
+            XmlCursor cursor = container.newCursor( );
+            XmlCursor end = container.newCursor( );
+            end.toEndToken( );
+
+            while ( cursor.toNextToken( ) != XmlCursor.TokenType.NONE && cursor.isLeftOf( end ) )
+            {
+                if ( !cursor.isStart( ) || !( cursor.getObject( ) instanceof CTP ) )
+                {
+                    continue;
+                }
+                CTP ctp = (CTP) cursor.getObject( );
+                if ( setVisitedParagraphs.add( ctp ) )
+                {
+                    visitParagraph( new XWPFParagraph( ctp, part ), -1, visitors );
+                }
+                // The text boxes of a paragraph are containers on their own
+                cursor.toEndToken( );
+            }
+
+            end.dispose( );
+            cursor.dispose( );
+        }
+    }
+
+    /**
+     * Visit a paragraph and its runs
+     *
+     * @param paragraph
+     * @param nPosition
+     * @param visitors
+     */
+    private static void visitParagraph( XWPFParagraph paragraph, int nPosition, IDocumentVisitor [ ] visitors )
+    {
+        for ( IDocumentVisitor visitor : visitors )
+        {
+            visitor.visitParagraph( paragraph, nPosition );
+        }
+
+        List<XWPFRun> listRuns = paragraph.getRuns( );
+        for ( int nRun = 0; nRun < listRuns.size( ); nRun++ )
+        {
+            for ( IDocumentVisitor visitor : visitors )
+            {
+                visitor.visitRun( listRuns.get( nRun ), nRun );
+            }
+        }
+    }
+
+    /**
+     * Element of the stack of the walk : the elements of a body, or the cells of a table
+     */
+    private static final class Frame
+    {
+        private final List<IBodyElement> _listElements;
+        private final XWPFTable _table;
+        private int _nNext;
+        private int _nRow;
+        private int _nCell = -1;
+
+        /**
+         * Constructor of the frame of a body
+         *
+         * @param listElements
+         */
+        Frame( List<IBodyElement> listElements )
+        {
+            _listElements = listElements;
+            _table = null;
+        }
+
+        /**
+         * Constructor of the frame of a table
+         *
+         * @param table
+         */
+        Frame( XWPFTable table )
+        {
+            _listElements = null;
+            _table = table;
+        }
+
+        /**
+         *
+         * @return the next cell of the table, or null
+         */
+        XWPFTableCell nextCell( )
+        {
+            List<XWPFTableRow> listRows = _table.getRows( );
+            while ( _nRow < listRows.size( ) )
+            {
+                List<XWPFTableCell> listCells = listRows.get( _nRow ).getTableCells( );
+                if ( _nCell + 1 < listCells.size( ) )
+                {
+                    _nCell++;
+                    return listCells.get( _nCell );
+                }
+                _nRow++;
+                _nCell = -1;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.visitor;
+
+import org.apache.poi.xwpf.usermodel.IBody;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+
+/**
+ * Visitor of the elements of a document, called by the {@link DocumentWalker} in document order
+ */
+public interface IDocumentVisitor
+{
+    /**
+     * Start of a part : a header, a footer, the main document or a footnote
+     *
+     * @param part
+     *            the body of the part
+     * @param strPartName
+     *            the name of the package part. The footnotes of a document share the same package part.
+     */
+    default void startPart( IBody part, String strPartName )
+    {
+    }
+
+    /**
+     * Visit a table. Its cells are visited next.
+     *
+     * @param table
+     *            the table
+     * @param nPosition
+     *            the index of the table in the elements of its body
+     */
+    default void visitTable( XWPFTable table, int nPosition )
+    {
+    }
+
+    /**
+     * Visit a table cell. Its elements are visited next.
+     *
+     * @param cell
+     *            the cell
+     * @param nRow
+     *            the index of the row in the table
+     * @param nCell
+     *            the index of the cell in the row
+     */
+    default void visitCell( XWPFTableCell cell, int nRow, int nCell )
+    {
+    }
+
+    /**
+     * Visit a paragraph. Its runs are visited next : a visitor may change the runs of the paragraph, the runs visited are those found once all the visitors
+     * have visited the paragraph.
+     *
+     * @param paragraph
+     *            the paragraph
+     * @param nPosition
+     *            the index of the paragraph in the elements of its body, or -1 for the paragraphs of text boxes and content controls
+     */
+    default void visitParagraph( XWPFParagraph paragraph, int nPosition )
+    {
+    }
+
+    /**
+     * Visit a run
+     *
+     * @param run
+     *            the run
+     * @param nPosition
+     *            the index of the run in its paragraph
+     */
+    default void visitRun( XWPFRun run, int nPosition )
+    {
+    }
+
+    /**
+     * End of a part
+     *
+     * @param part
+     *            the body of the part
+     * @param strPartName
+     *            the name of the package part
+     */
+    default void endPart( IBody part, String strPartName )
+    {
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service;
+
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledWordTemplate;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for RenderSession
+ */
+public class RenderSessionTest
+{
+    private static final String [ ] TEMPLATE = {
+            "Dear ${name}", "Total: ${total}", "Nick: ${nick!\"anonymous\"}", "<#if vip>", "Gold member", "</#if>", "End"
+    };
+
+    /**
+     * Test of changes of keys used by interpolations only : only the dependent interpolations are evaluated again
+     */
+    @Test
+    public void testDependentInterpolations( ) throws Exception
+    {
+        try ( RenderSession session = new RenderSession( compile( ), getModel( ) ) )
+        {
+            assertEquals( Arrays.asList( "Dear Ann", "Total: 42", "Nick: Zed", "Gold member", "End" ), getTexts( session ) );
+
+            assertEquals( 1, session.update( Collections.<String, Object> singletonMap( "total", "43" ) ) );
+            assertEquals( Arrays.asList( "Dear Ann", "Total: 43", "Nick: Zed", "Gold member", "End" ), getTexts( session ) );
+
+            Map<String, Object> mapChanges = new HashMap<>( );
+            mapChanges.put( "name", "Bob" );
+            mapChanges.put( "total", "44" );
+            assertEquals( 2, session.update( mapChanges ) );
+            assertEquals( Arrays.asList( "Dear Bob", "Total: 44", "Nick: Zed", "Gold member", "End" ), getTexts( session ) );
+
+            // A key used by no instruction
+            assertEquals( 0, session.update( Collections.<String, Object> singletonMap( "unused", "value" ) ) );
+            assertEquals( 1, session.getFullRenderCount( ) );
+        }
+    }
+
+    /**
+     * Test of a change of a key used by a block : the whole document is rendered again
+     */
+    @Test
+    public void testBlockKey( ) throws Exception
+    {
+        try ( RenderSession session = new RenderSession( compile( ), getModel( ) ) )
+        {
+            Map<String, Object> mapChanges = new HashMap<>( );
+            mapChanges.put( "vip", false );
+            mapChanges.put( "total", "45" );
+            assertEquals( -1, session.update( mapChanges ) );
+            assertEquals( 2, session.getFullRenderCount( ) );
+            assertEquals( Arrays.asList( "Dear Ann", "Total: 45", "Nick: Zed", "End" ), getTexts( session ) );
+
+            // The dependencies are mapped again on the new document
+            assertEquals( 1, session.update( Collections.<String, Object> singletonMap( "name", "Bob" ) ) );
+            assertEquals( Arrays.asList( "Dear Bob", "Total: 45", "Nick: Zed", "End" ), getTexts( session ) );
+        }
+    }
+
+    /**
+     * Test of a key removed by a null value
+     */
+    @Test
+    public void testRemovedKey( ) throws Exception
+    {
+        try ( RenderSession session = new RenderSession( compile( ), getModel( ) ) )
+        {
+            assertEquals( 1, session.update( Collections.<String, Object> singletonMap( "nick", null ) ) );
+            assertEquals( Arrays.asList( "Dear Ann", "Total: 42", "Nick: anonymous", "Gold member", "End" ), getTexts( session ) );
+            assertEquals( 1, session.getFullRenderCount( ) );
+        }
+    }
+
+    /**
+     *
+     * @return the compiled template
+     * @throws IOException
+     */
+    private static CompiledWordTemplate compile( ) throws IOException
+    {
+        XWPFDocument document = new XWPFDocument( );
+        for ( String strLine : TEMPLATE )
+        {
+            document.createParagraph( ).createRun( ).setText( strLine );
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        document.write( bos );
+        document.close( );
+        return WordTemplateService.compileTemplate( new ByteArrayInputStream( bos.toByteArray( ) ) );
+    }
+
+    /**
+     *
+     * @return the initial model
+     */
+    private static Map<String, Object> getModel( )
+    {
+        Map<String, Object> model = new HashMap<>( );
+        model.put( "name", "Ann" );
+        model.put( "total", "42" );
+        model.put( "nick", "Zed" );
+        model.put( "vip", true );
+        return model;
+    }
+
+    /**
+     * Write the document of a session and read it again
+     *
+     * @param session
+     * @return the text of the non-empty paragraphs of the document
+     * @throws IOException
+     */
+    private static List<String> getTexts( RenderSession session ) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        session.write( bos );
+        List<String> listTexts = new ArrayList<>( );
+        try ( XWPFDocument document = new XWPFDocument( new ByteArrayInputStream( bos.toByteArray( ) ) ) )
+        {
+            for ( XWPFParagraph paragraph : document.getParagraphs( ) )
+            {
+                if ( !paragraph.getText( ).isEmpty( ) )
+                {
+                    listTexts.add( paragraph.getText( ) );
+                }
+            }
+        }
+        return listTexts;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.util.Units;
+import org.apache.poi.xwpf.model.XWPFHeaderFooterPolicy;
+import org.apache.poi.xwpf.usermodel.BreakType;
+import org.apache.poi.xwpf.usermodel.Document;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTbl;
+
+/**
+ * Generator of synthetic templates for stress and regression tests, and for the benchmarks. The text of each paragraph is made of words and placeholders,
+ * and split into runs at arbitrary positions, so that the placeholders are split across runs as Word does when a template is edited. A generator always
+ * produces the same document for the same settings.
+ */
+public class SyntheticDocumentGenerator
+{
+    private static final int WORDS_PER_PARAGRAPH = 12;
+    private static final int MODEL_SIZE = 50;
+    private static final int IMAGE_SIZE = 16;
+    private static final String WORD = "lorem ";
+    private static final String KEY_PREFIX = "value";
+
+    private int _nPages = 1;
+    private int _nParagraphsPerPage = 30;
+    private int _nTablesPerPage;
+    private int _nTableRows = 5;
+    private int _nTableColumns = 3;
+    private int _nNestingDepth;
+    private boolean _bHeadersFooters;
+    private int _nImagesPerPage;
+    private int _nRunsPerParagraph = 4;
+    private double _dPlaceholderDensity = 0.2;
+    private long _lSeed = 42L;
+
+    /**
+     *
+     * @param nPages
+     *            the number of pages
+     */
+    public void setPages( int nPages )
+    {
+        _nPages = nPages;
+    }
+
+    /**
+     *
+     * @param nParagraphsPerPage
+     *            the number of paragraphs of each page, 30 by default
+     */
+    public void setParagraphsPerPage( int nParagraphsPerPage )
+    {
+        _nParagraphsPerPage = nParagraphsPerPage;
+    }
+
+    /**
+     *
+     * @param nTableRows
+     *            the number of rows of each table, 5 by default
+     * @param nTableColumns
+     *            the number of columns of each table, 3 by default
+     */
+    public void setTableSize( int nTableRows, int nTableColumns )
+    {
+        _nTableRows = nTableRows;
+        _nTableColumns = nTableColumns;
+    }
+
+    /**
+     *
+     * @param nTablesPerPage
+     *            the number of tables of each page
+     */
+    public void setTablesPerPage( int nTablesPerPage )
+    {
+        _nTablesPerPage = nTablesPerPage;
+    }
+
+    /**
+     *
+     * @param nNestingDepth
+     *            the number of tables nested in the first cell of each table
+     */
+    public void setNestingDepth( int nNestingDepth )
+    {
+        _nNestingDepth = nNestingDepth;
+    }
+
+    /**
+     *
+     * @param bHeadersFooters
+     *            true to add a default header and footer holding placeholders
+     */
+    public void setHeadersFooters( boolean bHeadersFooters )
+    {
+        _bHeadersFooters = bHeadersFooters;
+    }
+
+    /**
+     *
+     * @param nImagesPerPage
+     *            the number of images of each page
+     */
+    public void setImagesPerPage( int nImagesPerPage )
+    {
+        _nImagesPerPage = nImagesPerPage;
+    }
+
+    /**
+     *
+     * @param nRunsPerParagraph
+     *            the number of runs the text of each paragraph is split into
+     */
+    public void setRunsPerParagraph( int nRunsPerParagraph )
+    {
+        _nRunsPerParagraph = nRunsPerParagraph;
+    }
+
+    /**
+     *
+     * @param dPlaceholderDensity
+     *            the probability for each word to be a placeholder
+     */
+    public void setPlaceholderDensity( double dPlaceholderDensity )
+    {
+        _dPlaceholderDensity = dPlaceholderDensity;
+    }
+
+    /**
+     *
+     * @param lSeed
+     *            the seed of the random choices
+     */
+    public void setSeed( long lSeed )
+    {
+        _lSeed = lSeed;
+    }
+
+    /**
+     * Generate a template
+     *
+     * @return the content of the template
+     * @throws IOException
+     */
+    public byte [ ] generate( ) throws IOException
+    {
+        Random random = new Random( _lSeed );
+        byte [ ] image = createImage( );
+
+        try ( XWPFDocument document = new XWPFDocument( ) )
+        {
+            if ( _bHeadersFooters )
+            {
+                XWPFHeaderFooterPolicy policy = new XWPFHeaderFooterPolicy( document );
+                fillParagraph( policy.createHeader( XWPFHeaderFooterPolicy.DEFAULT ).createParagraph( ), random );
+                fillParagraph( policy.createFooter( XWPFHeaderFooterPolicy.DEFAULT ).createParagraph( ), random );
+            }
+
+            for ( int nPage = 0; nPage < _nPages; nPage++ )
+            {
+                for ( int i = 0; i < _nParagraphsPerPage; i++ )
+                {
+                    fillParagraph( document.createParagraph( ), random );
+                }
+                for ( int i = 0; i < _nTablesPerPage; i++ )
+                {
+                    XWPFTable table = document.createTable( _nTableRows, _nTableColumns );
+                    fillTable( table, _nNestingDepth, random );
+                }
+                for ( int i = 0; i < _nImagesPerPage; i++ )
+                {
+                    addImage( document.createParagraph( ), image, i );
+                }
+                if ( nPage < _nPages - 1 )
+                {
+                    document.createParagraph( ).createRun( ).addBreak( BreakType.PAGE );
+                }
+            }
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+            document.write( bos );
+            return bos.toByteArray( );
+        }
+    }
+
+    /**
+     *
+     * @return a model holding the values of all the placeholders of the generated templates
+     */
+    public static Map<String, Object> createModel( )
+    {
+        Map<String, Object> model = new HashMap<>( );
+        for ( int i = 0; i < MODEL_SIZE; i++ )
+        {
+            model.put( KEY_PREFIX + i, "Value " + i );
+        }
+        return model;
+    }
+
+    /**
+     *
+     * @param nIndex
+     * @return the placeholder of a key of the model
+     */
+    public static String getPlaceholder( int nIndex )
+    {
+        return "${" + KEY_PREFIX + ( nIndex % MODEL_SIZE ) + "}";
+    }
+
+    /**
+     * Fill a paragraph with the settings of the generator
+     *
+     * @param paragraph
+     * @param random
+     */
+    private void fillParagraph( XWPFParagraph paragraph, Random random )
+    {
+        fillParagraph( paragraph, _nRunsPerParagraph, _dPlaceholderDensity, random );
+    }
+
+    /**
+     * Fill a paragraph with words and placeholders, split into runs
+     *
+     * @param paragraph
+     * @param nRuns
+     *            the number of runs the text is split into
+     * @param dPlaceholderDensity
+     *            the probability for each word to be a placeholder
+     * @param random
+     */
+    public static void fillParagraph( XWPFParagraph paragraph, int nRuns, double dPlaceholderDensity, Random random )
+    {
+        StringBuilder sbText = new StringBuilder( );
+        for ( int i = 0; i < WORDS_PER_PARAGRAPH; i++ )
+        {
+            if ( random.nextDouble( ) < dPlaceholderDensity )
+            {
+                sbText.append( getPlaceholder( random.nextInt( MODEL_SIZE ) ) ).append( ' ' );
+            }
+            else
+            {
+                sbText.append( WORD );
+            }
+        }
+
+        int nRunLength = Math.max( 1, ( sbText.length( ) + nRuns - 1 ) / nRuns );
+        for ( int nStart = 0; nStart < sbText.length( ); nStart += nRunLength )
+        {
+            paragraph.createRun( ).setText( sbText.substring( nStart, Math.min( sbText.length( ), nStart + nRunLength ) ) );
+        }
+    }
+
+    /**
+     * Fill the cells of a table, nesting tables in its first cell
+     *
+     * @param table
+     * @param nNestingDepth
+     *            the number of tables to nest
+     * @param random
+     */
+    private void fillTable( XWPFTable table, int nNestingDepth, Random random )
+    {
+        for ( XWPFTableRow row : table.getRows( ) )
+        {
+            for ( XWPFTableCell cell : row.getTableCells( ) )
+            {
+                fillParagraph( cell.getParagraphs( ).get( 0 ), random );
+            }
+        }
+
+        if ( nNestingDepth > 0 )
+        {
+            XWPFTableCell cell = table.getRow( 0 ).getCell( 0 );
+            CTTbl ctTable = cell.getCTTc( ).addNewTbl( );
+            XWPFTable nestedTable = new XWPFTable( ctTable, cell, _nTableRows, _nTableColumns );
+            cell.insertTable( cell.getTables( ).size( ), nestedTable );
+            // A cell must end with a paragraph
+            cell.addParagraph( );
+            fillTable( nestedTable, nNestingDepth - 1, random );
+        }
+    }
+
+    /**
+     * Add an image to a paragraph
+     *
+     * @param paragraph
+     * @param image
+     * @param nIndex
+     * @throws IOException
+     */
+    private static void addImage( XWPFParagraph paragraph, byte [ ] image, int nIndex ) throws IOException
+    {
+        try
+        {
+            paragraph.createRun( ).addPicture( new ByteArrayInputStream( image ), Document.PICTURE_TYPE_PNG, "image" + nIndex + ".png",
+                    Units.toEMU( IMAGE_SIZE ), Units.toEMU( IMAGE_SIZE ) );
+        }
+        catch( InvalidFormatException e )
+        {
+            throw new IOException( e.getMessage( ), e );
+        }
+    }
+
+    /**
+     *
+     * @return the content of a small PNG image
+     * @throws IOException
+     */
+    private static byte [ ] createImage( ) throws IOException
+    {
+        BufferedImage image = new BufferedImage( IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB );
+        for ( int x = 0; x < IMAGE_SIZE; x++ )
+        {
+            image.setRGB( x, x, 0xFFFFFF );
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        ImageIO.write( image, "png", bos );
+        return bos.toByteArray( );
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service;
+
+import fr.paris.lutece.plugins.wordtemplate.business.WordTemplate;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Allocation and time budgets of the parser and the processor. Each one is measured on a document and on a document {@value #SCALE} times larger : the
+ * allocation must grow linearly, so that a quadratic regression fails the build whatever the speed of the machine.
+ * <p>
+ * The growth of the time is too noisy on shared machines for such small documents : it is only checked when the system property
+ * {@value #PROPERTY_CHECK_TIME} is true.
+ * </p>
+ */
+public class WordTemplateBudgetTest
+{
+    private static final int PAGES = 5;
+    private static final int SCALE = 4;
+    private static final int RUNS = 3;
+    private static final String PROPERTY_CHECK_TIME = "wordtemplate.budget.checkTime";
+
+    // A linear cost grows by SCALE : the margins absorb the fixed costs and the noise, not a quadratic growth
+    private static final double MAX_ALLOCATION_GROWTH = SCALE * 1.5;
+    private static final double MAX_TIME_GROWTH = SCALE * 3.0;
+
+    // Absolute budgets of the large document, far above the expected costs
+    private static final long MAX_ALLOCATED_BYTES = 512L * 1024 * 1024;
+    private static final long MAX_NANOS = 30_000_000_000L;
+
+    private com.sun.management.ThreadMXBean _threadBean;
+    private byte [ ] _smallTemplate;
+    private byte [ ] _largeTemplate;
+    private Map<String, Object> _model;
+
+    /**
+     * Generate the templates
+     *
+     * @throws IOException
+     */
+    @Before
+    public void setUp( ) throws IOException
+    {
+        Assume.assumeTrue( ManagementFactory.getThreadMXBean( ) instanceof com.sun.management.ThreadMXBean );
+        _threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean( );
+        Assume.assumeTrue( _threadBean.isThreadAllocatedMemorySupported( ) );
+        _threadBean.setThreadAllocatedMemoryEnabled( true );
+
+        _smallTemplate = generate( PAGES );
+        _largeTemplate = generate( PAGES * SCALE );
+        _model = SyntheticDocumentGenerator.createModel( );
+    }
+
+    /**
+     * Test of the budgets of WordTemplateParser
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testParserBudget( ) throws Exception
+    {
+        Cost small = measure( _smallTemplate, false );
+        Cost large = measure( _largeTemplate, false );
+
+        assertBudget( "parser", small, large );
+    }
+
+    /**
+     * Test of the budgets of WordTemplateProcessor
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testProcessorBudget( ) throws Exception
+    {
+        Cost small = measure( _smallTemplate, true );
+        Cost large = measure( _largeTemplate, true );
+
+        assertBudget( "processor", small, large );
+    }
+
+    /**
+     * Generate a template with every kind of content
+     *
+     * @param nPages
+     * @return the template
+     * @throws IOException
+     */
+    private static byte [ ] generate( int nPages ) throws IOException
+    {
+        SyntheticDocumentGenerator generator = new SyntheticDocumentGenerator( );
+        generator.setPages( nPages );
+        generator.setTablesPerPage( 1 );
+        generator.setNestingDepth( 2 );
+        generator.setHeadersFooters( true );
+        generator.setImagesPerPage( 1 );
+        generator.setRunsPerParagraph( 6 );
+        return generator.generate( );
+    }
+
+    /**
+     * Measure the parsing or the processing of a template. The measure is repeated : the allocation and the time of the cheapest run are kept, once the
+     * classes are loaded and the code is warmed.
+     *
+     * @param template
+     * @param bProcess
+     *            true to measure the processing of the parsed template, false to measure the parsing
+     * @return the cost
+     * @throws Exception
+     */
+    private Cost measure( byte [ ] template, boolean bProcess ) throws Exception
+    {
+        long lThreadId = Thread.currentThread( ).getId( );
+        Cost cost = new Cost( );
+
+        for ( int i = 0; i < RUNS; i++ )
+        {
+            try ( XWPFDocument document = new XWPFDocument( new ByteArrayInputStream( template ) ) )
+            {
+                WordTemplate wordTemplate = null;
+                if ( bProcess )
+                {
+                    wordTemplate = new WordTemplateParser( ).parse( document, _model );
+                }
+
+                long lAllocated = _threadBean.getThreadAllocatedBytes( lThreadId );
+                long lStart = System.nanoTime( );
+                if ( bProcess )
+                {
+                    new WordTemplateProcessor( ).process( wordTemplate, _model );
+                }
+                else
+                {
+                    new WordTemplateParser( ).parse( document, _model );
+                }
+                cost.keep( _threadBean.getThreadAllocatedBytes( lThreadId ) - lAllocated, System.nanoTime( ) - lStart );
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Assert the budgets
+     *
+     * @param strName
+     * @param small
+     *            the cost on the small document
+     * @param large
+     *            the cost on the large document
+     */
+    private static void assertBudget( String strName, Cost small, Cost large )
+    {
+        double dAllocationGrowth = (double) large._lAllocatedBytes / Math.max( 1L, small._lAllocatedBytes );
+        double dTimeGrowth = (double) large._lNanos / Math.max( 1L, small._lNanos );
+
+        assertTrue( strName + " allocation grows by " + dAllocationGrowth + " for a " + SCALE + " times larger document",
+                dAllocationGrowth <= MAX_ALLOCATION_GROWTH );
+        assertTrue( strName + " allocates " + large._lAllocatedBytes + " bytes", large._lAllocatedBytes <= MAX_ALLOCATED_BYTES );
+        assertTrue( strName + " takes " + large._lNanos + " ns", large._lNanos <= MAX_NANOS );
+        if ( Boolean.getBoolean( PROPERTY_CHECK_TIME ) )
+        {
+            assertTrue( strName + " time grows by " + dTimeGrowth + " for a " + SCALE + " times larger document", dTimeGrowth <= MAX_TIME_GROWTH );
+        }
+    }
+
+    /**
+     * Cheapest cost of several runs
+     */
+    private static final class Cost
+    {
+        private long _lAllocatedBytes = Long.MAX_VALUE;
+        private long _lNanos = Long.MAX_VALUE;
+
+        /**
+         * Keep the cost of a run if it is cheaper
+         *
+         * @param lAllocatedBytes
+         * @param lNanos
+         */
+        private void keep( long lAllocatedBytes, long lNanos )
+        {
+            _lAllocatedBytes = Math.min( _lAllocatedBytes, lAllocatedBytes );
+            _lNanos = Math.min( _lNanos, lNanos );
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for WordTemplateLexer
+ */
+public class WordTemplateLexerTest
+{
+    private static final Pattern INSTRUCTION_PATTERN = Pattern.compile( "\\$\\{.*?\\}|</?#.*?>" );
+
+    private static final String [ ] [ ] TEMPLATES = {
+            {
+                    "no instruction"
+            }, {
+                    "Hello ${name}", "!"
+            }, {
+                    "Dear ${", "user.", "name}, welcome"
+            }, {
+                    "${a}${b}"
+            }, {
+                    "x ${a", "} y ${b", "} z"
+            }, {
+                    "${", "", "a}"
+            }, {
+                    "a$", "{b}", " c"
+            }, {
+                    "${x", "}"
+            }, {
+                    "${a} and ${a}"
+            }, {
+                    "<#list items as item>", "${item}</#list>"
+            }, {
+                    "<#if ", "visible>shown</#", "if> and ${", "value", "}"
+            }
+    };
+
+    /**
+     * Test that the lexer edits the runs as the former parser did, on templates where the instructions span several runs
+     */
+    @Test
+    public void testSameRunsAsLegacyParser( )
+    {
+        for ( String [ ] template : TEMPLATES )
+        {
+            XWPFParagraph legacyParagraph = createParagraph( template );
+            XWPFParagraph paragraph = createParagraph( template );
+
+            legacyIsolateInstructions( legacyParagraph );
+            WordTemplateLexer.isolateInstructions( paragraph );
+
+            assertEquals( String.join( "|", template ), getRunTexts( legacyParagraph ), getRunTexts( paragraph ) );
+            assertEquals( String.join( "|", template ), legacyParagraph.getCTP( ).xmlText( ), paragraph.getCTP( ).xmlText( ) );
+        }
+    }
+
+    /**
+     * Test that each instruction is returned with its own run, in document order
+     */
+    @Test
+    public void testInstructionRuns( )
+    {
+        XWPFParagraph paragraph = createParagraph( new String [ ] {
+                "${a} and ${", "a} then <#if x>"
+        } );
+
+        List<XWPFRun> listRuns = WordTemplateLexer.isolateInstructions( paragraph );
+
+        assertEquals( 3, listRuns.size( ) );
+        assertEquals( "${a}", listRuns.get( 0 ).toString( ) );
+        assertEquals( "${a}", listRuns.get( 1 ).toString( ) );
+        assertEquals( "<#if x>", listRuns.get( 2 ).toString( ) );
+        assertNotSame( listRuns.get( 0 ), listRuns.get( 1 ) );
+        assertEquals( "${a} and ${a} then <#if x>", paragraph.getParagraphText( ) );
+    }
+
+    /**
+     * Create a paragraph with a run for each text
+     *
+     * @param texts
+     * @return the paragraph
+     */
+    private static XWPFParagraph createParagraph( String [ ] texts )
+    {
+        XWPFDocument document = new XWPFDocument( );
+        XWPFParagraph paragraph = document.createParagraph( );
+        for ( String strText : texts )
+        {
+            XWPFRun run = paragraph.createRun( );
+            run.setItalic( true );
+            run.setText( strText );
+        }
+        return paragraph;
+    }
+
+    /**
+     * Get the texts of the runs of a paragraph
+     *
+     * @param paragraph
+     * @return the texts of the runs
+     */
+    private static List<String> getRunTexts( XWPFParagraph paragraph )
+    {
+        List<String> listTexts = new ArrayList<>( );
+        for ( XWPFRun run : paragraph.getRuns( ) )
+        {
+            listTexts.add( run.toString( ) );
+        }
+        return listTexts;
+    }
+
+    /**
+     * The algorithm of the former parser, kept as a reference
+     *
+     * @param paragraph
+     */
+    private static void legacyIsolateInstructions( XWPFParagraph paragraph )
+    {
+        Matcher matcher = INSTRUCTION_PATTERN.matcher( paragraph.getParagraphText( ) );
+
+        while ( matcher.find( ) )
+        {
+            legacyFormatInstr( paragraph, matcher.start( ), matcher.end( ) - 1 );
+        }
+    }
+
+    /**
+     * The algorithm of the former parser, kept as a reference
+     *
+     * @param paragraph
+     * @param start
+     * @param end
+     */
+    private static void legacyFormatInstr( XWPFParagraph paragraph, int start, int end )
+    {
+        boolean startFound = false;
+        boolean endFound = false;
+
+        while ( !endFound )
+        {
+            int pos = 0, numRun = -1, nextPos;
+
+            for ( XWPFRun run : paragraph.getRuns( ) )
+            {
+                numRun++;
+                nextPos = pos + run.toString( ).length( );
+
+                if ( start < pos && end >= nextPos )
+                {
+                    XWPFRun prevRun = paragraph.getRuns( ).get( numRun - 1 );
+                    prevRun.setText( prevRun.toString( ) + run.toString( ), 0 );
+                    paragraph.removeRun( numRun );
+                    break;
+                }
+                if ( start >= pos && start < nextPos && !startFound )
+                {
+                    int startPosInRun = start - pos;
+                    startFound = true;
+                    if ( start > pos )
+                    {
+                        WordService.splitRun( run, startPosInRun );
+                        break;
+                    }
+                }
+                if ( end >= pos && end < nextPos )
+                {
+                    int endPosInRun = end - pos;
+                    endFound = true;
+
+                    WordService.splitRun( run, endPosInRun + 1 );
+
+                    if ( start < pos )
+                    {
+                        XWPFRun prevRun = paragraph.getRuns( ).get( numRun - 1 );
+                        run = paragraph.getRuns( ).get( numRun );
+                        prevRun.setText( prevRun.toString( ) + run.toString( ), 0 );
+                        paragraph.removeRun( numRun );
+                    }
+                    break;
+                }
+
+                pos = nextPos;
+            }
+        }
+    }
+}
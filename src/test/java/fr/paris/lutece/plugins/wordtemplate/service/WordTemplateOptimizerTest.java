@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service;
+
+import fr.paris.lutece.plugins.wordtemplate.business.OptimizationReport;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.xmlbeans.XmlCursor;
+import org.junit.Test;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTHyperlink;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTSimpleField;
+import static org.junit.Assert.*;
+
+/**
+ * Test for WordTemplateOptimizer
+ */
+public class WordTemplateOptimizerTest
+{
+    private static final String NAMESPACE_WORD = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final byte [ ] RSID = {
+            0x00, 0x12, 0x34, 0x56
+    };
+
+    /**
+     * Test of adjacent runs : only the runs having the same properties are merged
+     */
+    @Test
+    public void testDifferentFormatNotMerged( ) throws Exception
+    {
+        XWPFDocument document = new XWPFDocument( );
+        XWPFParagraph paragraph = document.createParagraph( );
+        addRun( paragraph, "Total: ", true );
+        addRun( paragraph, "${to", false );
+        addRun( paragraph, "tal}", false );
+        addRun( paragraph, " EUR", true );
+        addRun( paragraph, " only", true );
+
+        OptimizationReport report = new WordTemplateOptimizer( ).optimize( document );
+
+        assertEquals( Arrays.asList( "Total: ", "${total}", " EUR only" ), getRunTexts( paragraph ) );
+        assertTrue( paragraph.getRuns( ).get( 0 ).isBold( ) );
+        assertFalse( paragraph.getRuns( ).get( 1 ).isBold( ) );
+        assertTrue( paragraph.getRuns( ).get( 2 ).isBold( ) );
+        assertEquals( 5, report.getRunCountBefore( ) );
+        assertEquals( 3, report.getRunCountAfter( ) );
+    }
+
+    /**
+     * Test of paragraphs holding a hyperlink or a field : their runs are left as they are
+     */
+    @Test
+    public void testHyperlinkAndFieldUntouched( ) throws Exception
+    {
+        XWPFDocument template = new XWPFDocument( );
+
+        XWPFParagraph paragraph = template.createParagraph( );
+        addRun( paragraph, "See ", false );
+        CTHyperlink hyperlink = paragraph.getCTP( ).addNewHyperlink( );
+        hyperlink.setAnchor( "target" );
+        hyperlink.addNewR( ).addNewT( ).setStringValue( "${li" );
+        hyperlink.addNewR( ).addNewT( ).setStringValue( "nk}" );
+        addRun( paragraph, " and ", false );
+        addRun( paragraph, "more", false );
+
+        paragraph = template.createParagraph( );
+        addRun( paragraph, "Page ", false );
+        CTSimpleField field = paragraph.getCTP( ).addNewFldSimple( );
+        field.setInstr( "PAGE" );
+        field.addNewR( ).addNewT( ).setStringValue( "1" );
+        addRun( paragraph, " of ", false );
+        addRun( paragraph, "${pages}", false );
+
+        // Read again, so that the runs of the hyperlink and of the field are wrapped by POI
+        XWPFDocument document = reload( template );
+        List<String> listXmlBefore = new ArrayList<>( );
+        for ( XWPFParagraph documentParagraph : document.getParagraphs( ) )
+        {
+            listXmlBefore.add( documentParagraph.getCTP( ).xmlText( ) );
+        }
+
+        new WordTemplateOptimizer( ).optimize( document );
+
+        for ( int i = 0; i < listXmlBefore.size( ); i++ )
+        {
+            assertEquals( listXmlBefore.get( i ), document.getParagraphs( ).get( i ).getCTP( ).xmlText( ) );
+        }
+        assertEquals( 5, document.getParagraphs( ).get( 0 ).getRuns( ).size( ) );
+        assertEquals( 4, document.getParagraphs( ).get( 1 ).getRuns( ).size( ) );
+    }
+
+    /**
+     * Test of a template rendered with and without optimization : the rendered text is the same
+     */
+    @Test
+    public void testSameRenderedText( ) throws Exception
+    {
+        XWPFDocument template = new XWPFDocument( );
+        XWPFParagraph paragraph = template.createParagraph( );
+        paragraph.getCTP( ).setRsidR( RSID );
+        addRun( paragraph, "Dear ", false );
+        addRun( paragraph, "${na", false ).getCTR( ).setRsidR( RSID );
+        addRun( paragraph, "me}", false );
+        addRun( paragraph, ", your total", false ).getCTR( ).addNewLastRenderedPageBreak( );
+        addRun( paragraph, " is ${total}", false );
+        // A proofing mark between two runs of an interpolation
+        XmlCursor cursor = paragraph.getRuns( ).get( 2 ).getCTR( ).newCursor( );
+        cursor.beginElement( new QName( NAMESPACE_WORD, "proofErr", "w" ) );
+        cursor.insertAttributeWithValue( new QName( NAMESPACE_WORD, "type", "w" ), "spellStart" );
+        cursor.dispose( );
+
+        paragraph = template.createParagraph( );
+        addRun( paragraph, "Bold ${name}", true );
+        addRun( paragraph, " plain ${total}", false );
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        template.write( bos );
+        byte [ ] templateBytes = bos.toByteArray( );
+
+        Map<String, Object> model = new HashMap<>( );
+        model.put( "name", "Ann" );
+        model.put( "total", "42" );
+
+        List<String> listTexts = render( templateBytes, model, false );
+        assertEquals( listTexts, render( templateBytes, model, true ) );
+        assertEquals( Arrays.asList( "Dear Ann, your total is 42", "Bold Ann plain 42" ), listTexts );
+
+        OptimizationReport report = WordTemplateService.optimizeTemplate( new ByteArrayInputStream( templateBytes ), new ByteArrayOutputStream( ) );
+        assertEquals( 7, report.getRunCountBefore( ) );
+        assertEquals( 3, report.getRunCountAfter( ) );
+        assertEquals( 2, report.getRemovedElementCount( ) );
+        assertEquals( 2, report.getRemovedAttributeCount( ) );
+    }
+
+    /**
+     * Compile a template and render it
+     *
+     * @param template
+     * @param model
+     * @param bOptimize
+     * @return the text of the paragraphs of the rendered document
+     * @throws IOException
+     */
+    private static List<String> render( byte [ ] template, Map<String, Object> model, boolean bOptimize ) throws IOException
+    {
+        byte [ ] output = WordTemplateService.produceDocument( WordTemplateService.compileTemplate( new ByteArrayInputStream( template ), bOptimize ), model )
+                .toByteArray( );
+        List<String> listTexts = new ArrayList<>( );
+        try ( XWPFDocument document = new XWPFDocument( new ByteArrayInputStream( output ) ) )
+        {
+            for ( XWPFParagraph paragraph : document.getParagraphs( ) )
+            {
+                listTexts.add( paragraph.getText( ) );
+            }
+        }
+        return listTexts;
+    }
+
+    /**
+     * Add a run to a paragraph
+     *
+     * @param paragraph
+     * @param strText
+     * @param bBold
+     * @return the run
+     */
+    private static XWPFRun addRun( XWPFParagraph paragraph, String strText, boolean bBold )
+    {
+        XWPFRun run = paragraph.createRun( );
+        if ( bBold )
+        {
+            run.setBold( true );
+        }
+        run.setText( strText );
+        return run;
+    }
+
+    /**
+     *
+     * @param paragraph
+     * @return the text of the runs of the paragraph
+     */
+    private static List<String> getRunTexts( XWPFParagraph paragraph )
+    {
+        List<String> listTexts = new ArrayList<>( );
+        for ( XWPFRun run : paragraph.getRuns( ) )
+        {
+            listTexts.add( run.getText( 0 ) );
+        }
+        return listTexts;
+    }
+
+    /**
+     * Write a document and read it again
+     *
+     * @param document
+     * @return the document read again
+     * @throws IOException
+     */
+    private static XWPFDocument reload( XWPFDocument document ) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        document.write( bos );
+        return new XWPFDocument( new ByteArrayInputStream( bos.toByteArray( ) ) );
+    }
+}
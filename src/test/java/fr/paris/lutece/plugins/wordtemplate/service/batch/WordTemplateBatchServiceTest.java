@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.batch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for WordTemplateBatchService
+ */
+public class WordTemplateBatchServiceTest
+{
+    private static final int ITEM_COUNT = 6;
+    private static final long FAILING_INDEX = 2;
+
+    /**
+     * Test of a batch with a failing item : the item is reported and discarded, and the other items are complete
+     */
+    @Test
+    public void testFailingItem( ) throws Exception
+    {
+        List<Map<String, Object>> listModels = new ArrayList<>( );
+        for ( int i = 0; i < ITEM_COUNT; i++ )
+        {
+            Map<String, Object> model = new HashMap<>( );
+            if ( i != FAILING_INDEX )
+            {
+                model.put( "name", "Name " + i );
+            }
+            listModels.add( model );
+        }
+
+        MemorySink sink = new MemorySink( );
+        BatchResult result = WordTemplateBatchService.produceDocuments( new ByteArrayInputStream( getTemplate( ) ), listModels, sink, 3 );
+
+        assertEquals( ITEM_COUNT - 1, result.getSuccessCount( ) );
+        assertEquals( 1, result.getFailureCount( ) );
+        assertEquals( FAILING_INDEX, result.getFailures( ).get( 0 ).getIndex( ) );
+        assertEquals( Collections.singleton( FAILING_INDEX ), sink._setDiscarded );
+
+        // Every stream is closed, and the complete documents are readable
+        assertEquals( ITEM_COUNT, sink._mapClosed.size( ) );
+        for ( long lIndex = 0; lIndex < ITEM_COUNT; lIndex++ )
+        {
+            if ( lIndex == FAILING_INDEX )
+            {
+                continue;
+            }
+            try ( XWPFDocument document = new XWPFDocument( new ByteArrayInputStream( sink._mapDocuments.get( lIndex ).toByteArray( ) ) ) )
+            {
+                assertEquals( "Dear Name " + lIndex, document.getParagraphs( ).get( 0 ).getText( ) );
+            }
+        }
+    }
+
+    /**
+     *
+     * @return a template with an interpolation
+     * @throws IOException
+     */
+    private static byte [ ] getTemplate( ) throws IOException
+    {
+        XWPFDocument document = new XWPFDocument( );
+        document.createParagraph( ).createRun( ).setText( "Dear ${name}" );
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        document.write( bos );
+        document.close( );
+        return bos.toByteArray( );
+    }
+
+    /**
+     * Sink keeping the documents in memory
+     */
+    private static final class MemorySink implements IDocumentSink
+    {
+        private final Map<Long, ByteArrayOutputStream> _mapDocuments = new ConcurrentHashMap<>( );
+        private final Map<Long, Boolean> _mapClosed = new ConcurrentHashMap<>( );
+        private final Set<Long> _setDiscarded = ConcurrentHashMap.newKeySet( );
+
+        @Override
+        public OutputStream open( long lIndex, Map<String, Object> model )
+        {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream( )
+            {
+                @Override
+                public void close( )
+                {
+                    _mapClosed.put( lIndex, Boolean.TRUE );
+                }
+            };
+            _mapDocuments.put( lIndex, bos );
+            return bos;
+        }
+
+        @Override
+        public void discard( long lIndex, Map<String, Object> model, Exception exception )
+        {
+            _setDiscarded.add( lIndex );
+        }
+    }
+}
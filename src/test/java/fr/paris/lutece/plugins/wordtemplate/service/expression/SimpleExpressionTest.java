@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.expression;
+
+import fr.paris.lutece.plugins.wordtemplate.service.TemplateEngineService;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for SimpleExpression : the fast path must give the value FreeMarker gives, or leave the expression to FreeMarker
+ */
+public class SimpleExpressionTest
+{
+    /**
+     * Test of the classification of the expressions
+     */
+    @Test
+    public void testCompile( )
+    {
+        assertNotNull( SimpleExpression.compile( "${name}" ) );
+        assertNotNull( SimpleExpression.compile( "${user.address.city}" ) );
+        assertNotNull( SimpleExpression.compile( "${user.name?html}" ) );
+        assertNotNull( SimpleExpression.compile( "${user.name!}" ) );
+        assertNotNull( SimpleExpression.compile( "${user.name!\"unknown\"}" ) );
+        assertNotNull( SimpleExpression.compile( "${(user.name)!'unknown'}" ) );
+
+        assertNull( SimpleExpression.compile( "${name?upper_case}" ) );
+        assertNull( SimpleExpression.compile( "${a + b}" ) );
+        assertNull( SimpleExpression.compile( "${items[0]}" ) );
+        assertNull( SimpleExpression.compile( "${true}" ) );
+        assertNull( SimpleExpression.compile( "${name!\"${other}\"}" ) );
+        assertNull( SimpleExpression.compile( "<#if name??>" ) );
+    }
+
+    /**
+     * Test of the evaluation of the expressions, compared to FreeMarker
+     */
+    @Test
+    public void testEvaluate( )
+    {
+        Map<String, Object> address = new HashMap<>( );
+        address.put( "city", "Paris" );
+        Map<String, Object> model = new HashMap<>( );
+        model.put( "name", "Jean" );
+        model.put( "markup", "<b>" );
+        model.put( "count", 1234 );
+        model.put( "address", address );
+        model.put( "user", new User( "Marie", null ) );
+
+        String [ ] expressions = {
+                "${name}", "${address.city}", "${user.name}", "${user.name?html}", "${user.email!}", "${user.email!\"none\"}", "${(missing.email)!'none'}",
+                "${markup?html}", "${count}", "${missing!'none'}"
+        };
+
+        for ( String strExpression : expressions )
+        {
+            SimpleExpression expression = SimpleExpression.compile( strExpression );
+            assertNotNull( strExpression, expression );
+
+            String strValue = expression.evaluate( model );
+            if ( strValue != null )
+            {
+                assertEquals( strExpression, TemplateEngineService.processTemplate( strExpression, model ), strValue );
+            }
+            assertEquals( strExpression, TemplateEngineService.processTemplate( strExpression, model ),
+                    TemplateEngineService.processInterpolation( strExpression, model ) );
+        }
+
+        // Values FreeMarker formats or escapes are left to it
+        assertNull( SimpleExpression.compile( "${count}" ).evaluate( model ) );
+        assertNull( SimpleExpression.compile( "${markup?html}" ).evaluate( model ) );
+        // A missing value without default is reported by FreeMarker
+        assertNull( SimpleExpression.compile( "${user.email}" ).evaluate( model ) );
+    }
+
+    /**
+     * Bean of the model
+     */
+    public static class User
+    {
+        private final String _strName;
+        private final String _strEmail;
+
+        /**
+         * Constructor
+         *
+         * @param strName
+         * @param strEmail
+         */
+        public User( String strName, String strEmail )
+        {
+            _strName = strName;
+            _strEmail = strEmail;
+        }
+
+        /**
+         *
+         * @return the name
+         */
+        public String getName( )
+        {
+            return _strName;
+        }
+
+        /**
+         *
+         * @return the email
+         */
+        public String getEmail( )
+        {
+            return _strEmail;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.instruction;
+
+import fr.paris.lutece.plugins.wordtemplate.business.WordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateParser;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateProcessor;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.poi.xwpf.model.XWPFHeaderFooterPolicy;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFHeader;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for IfInstructionManager : the text written next to the instructions of a condition in block form is kept
+ */
+public class IfInstructionManagerTest
+{
+    /**
+     * Test of a condition opening before the first interpolation, with text after its closing instruction
+     */
+    @Test
+    public void testTextAfterClosing( ) throws Exception
+    {
+        String [ ] template = {
+                "<#if vip>", "Gold", "</#if> Total: ${total}"
+        };
+
+        assertEquals( Arrays.asList( "Gold", " Total: 42" ), render( template, true ) );
+        assertEquals( Arrays.asList( " Total: 42" ), render( template, false ) );
+    }
+
+    /**
+     * Test of a condition opening after an interpolation of its paragraph
+     */
+    @Test
+    public void testTextBeforeOpening( ) throws Exception
+    {
+        String [ ] template = {
+                "Dear ${name}<#if vip>", "Gold", "<#else>", "Standard", "</#if>"
+        };
+
+        assertEquals( Arrays.asList( "Dear Ann", "Gold" ), render( template, true ) );
+        assertEquals( Arrays.asList( "Dear Ann", "Standard" ), render( template, false ) );
+    }
+
+    /**
+     * Test of a condition removing a table of the document
+     */
+    @Test
+    public void testTableRemoved( ) throws Exception
+    {
+        for ( boolean bVip : new boolean [ ] {
+                true, false
+        } )
+        {
+            XWPFDocument document = new XWPFDocument( );
+            document.createParagraph( ).createRun( ).setText( "<#if vip>" );
+            document.createTable( ).getRow( 0 ).getCell( 0 ).setText( "Gold" );
+            document.createParagraph( ).createRun( ).setText( "</#if>" );
+            document.createParagraph( ).createRun( ).setText( "End ${name}" );
+
+            XWPFDocument result = process( document, getModel( bVip ) );
+
+            assertEquals( bVip ? 2 : 1, result.getBodyElements( ).size( ) );
+            assertEquals( bVip ? 1 : 0, result.getTables( ).size( ) );
+            assertEquals( Arrays.asList( "End Ann" ), getTexts( result.getParagraphs( ) ) );
+            if ( bVip )
+            {
+                assertEquals( "Gold", result.getTables( ).get( 0 ).getRow( 0 ).getCell( 0 ).getText( ) );
+            }
+        }
+    }
+
+    /**
+     * Test of a condition nested in a condition, in a table cell and in a header
+     */
+    @Test
+    public void testNestedConditionInCellAndHeader( ) throws Exception
+    {
+        String [ ] template = {
+                "<#if vip>", "Gold", "<#if rich>", "Rich", "</#if>", "</#if>", "End"
+        };
+
+        XWPFDocument document = new XWPFDocument( );
+        XWPFTableCell cell = document.createTable( ).getRow( 0 ).getCell( 0 );
+        XWPFHeader header = document.createHeaderFooterPolicy( ).createHeader( XWPFHeaderFooterPolicy.DEFAULT );
+        for ( int i = 0; i < template.length; i++ )
+        {
+            ( ( i == 0 ) ? cell.getParagraphs( ).get( 0 ) : cell.addParagraph( ) ).createRun( ).setText( template [i] );
+            ( ( i == 0 && !header.getParagraphs( ).isEmpty( ) ) ? header.getParagraphs( ).get( 0 ) : header.createParagraph( ) ).createRun( )
+                    .setText( template [i] );
+        }
+
+        Map<String, Object> model = getModel( true );
+        model.put( "rich", false );
+        XWPFDocument result = process( document, model );
+
+        assertEquals( Arrays.asList( "Gold", "End" ), getTexts( result.getTables( ).get( 0 ).getRow( 0 ).getCell( 0 ).getParagraphs( ) ) );
+        assertEquals( Arrays.asList( "Gold", "End" ), getTexts( result.getHeaderList( ).get( 0 ).getParagraphs( ) ) );
+    }
+
+    /**
+     * Render a document made of one paragraph per line
+     *
+     * @param lines
+     *            the text of the paragraphs
+     * @param bVip
+     *            the value of the condition
+     * @return the text of the paragraphs of the rendered document
+     * @throws Exception
+     */
+    private static List<String> render( String [ ] lines, boolean bVip ) throws Exception
+    {
+        XWPFDocument document = new XWPFDocument( );
+        for ( String strLine : lines )
+        {
+            document.createParagraph( ).createRun( ).setText( strLine );
+        }
+
+        XWPFDocument result = process( document, getModel( bVip ) );
+
+        // The paragraph objects of the processed document match its XML
+        assertEquals( getTexts( document.getParagraphs( ) ), getTexts( result.getParagraphs( ) ) );
+        return getTexts( result.getParagraphs( ) );
+    }
+
+    /**
+     *
+     * @param bVip
+     *            the value of the condition
+     * @return the model
+     */
+    private static Map<String, Object> getModel( boolean bVip )
+    {
+        Map<String, Object> model = new HashMap<>( );
+        model.put( "vip", bVip );
+        model.put( "name", "Ann" );
+        model.put( "total", "42" );
+        return model;
+    }
+
+    /**
+     * Process a document, then write and read it again, so that the elements of the result are read from the XML
+     *
+     * @param document
+     *            the document
+     * @param model
+     *            the model
+     * @return the document read again
+     * @throws Exception
+     */
+    private static XWPFDocument process( XWPFDocument document, Map<String, Object> model ) throws Exception
+    {
+        WordTemplate wordTemplate = new WordTemplateParser( ).parse( document, model );
+        new WordTemplateProcessor( ).process( wordTemplate, model );
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        document.write( bos );
+        return new XWPFDocument( new ByteArrayInputStream( bos.toByteArray( ) ) );
+    }
+
+    /**
+     *
+     * @param listParagraphs
+     *            the paragraphs
+     * @return the text of the paragraphs
+     */
+    private static List<String> getTexts( List<XWPFParagraph> listParagraphs )
+    {
+        List<String> listTexts = new ArrayList<>( );
+        for ( XWPFParagraph paragraph : listParagraphs )
+        {
+            listTexts.add( paragraph.getText( ) );
+        }
+        return listTexts;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.instruction;
+
+import fr.paris.lutece.plugins.wordtemplate.business.WordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateParser;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateProcessor;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+import org.apache.poi.util.Units;
+import org.apache.poi.xwpf.model.XWPFHeaderFooterPolicy;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFHeader;
+import org.apache.poi.xwpf.usermodel.XWPFRelation;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlOptions;
+import org.junit.Test;
+import org.openxmlformats.schemas.drawingml.x2006.wordprocessingDrawing.CTInline;
+import static org.junit.Assert.*;
+
+/**
+ * Test for ImageInstructionManager
+ */
+public class ImageInstructionManagerTest
+{
+    private static final int IMAGE_WIDTH = 40;
+    private static final int IMAGE_HEIGHT = 20;
+    private static final Pattern PATTERN_MEDIA = Pattern.compile( "/word/media/.*" );
+
+    /**
+     * Test of identical images in the document and its header : a single media part, and a single relationship per part
+     */
+    @Test
+    public void testSharedMediaPart( ) throws Exception
+    {
+        byte [ ] image = getPng( 0x336699 );
+        XWPFDocument document = new XWPFDocument( );
+        document.createParagraph( ).createRun( ).setText( "<#image logo>" );
+        document.createParagraph( ).createRun( ).setText( "<#image copy>" );
+        XWPFHeader header = document.createHeaderFooterPolicy( ).createHeader( XWPFHeaderFooterPolicy.DEFAULT );
+        header.createParagraph( ).createRun( ).setText( "<#image logo>" );
+
+        Map<String, Object> model = new HashMap<>( );
+        model.put( "logo", image );
+        // The same image, from another source
+        model.put( "copy", image.clone( ) );
+
+        XWPFDocument result = process( document, model );
+
+        assertEquals( 1, result.getPackage( ).getPartsByName( PATTERN_MEDIA ).size( ) );
+        assertEquals( 1, result.getPackagePart( ).getRelationshipsByType( XWPFRelation.IMAGES.getRelation( ) ).size( ) );
+        XWPFHeader resultHeader = result.getHeaderList( ).get( 0 );
+        assertEquals( 1, resultHeader.getPackagePart( ).getRelationshipsByType( XWPFRelation.IMAGES.getRelation( ) ).size( ) );
+
+        // Both images of the document share the relationship id
+        String strFirstId = getRelationId( result.getParagraphs( ).get( 0 ).getRuns( ).get( 0 ) );
+        String strSecondId = getRelationId( result.getParagraphs( ).get( 1 ).getRuns( ).get( 0 ) );
+        assertNotNull( strFirstId );
+        assertEquals( strFirstId, strSecondId );
+        assertNotNull( getRelationId( resultHeader.getParagraphs( ).get( 0 ).getRuns( ).get( 0 ) ) );
+    }
+
+    /**
+     * Test of an image given its width only : the height keeps the aspect ratio
+     */
+    @Test
+    public void testWidthKeepsRatio( ) throws Exception
+    {
+        XWPFDocument result = render( "<#image logo width=120>", getPng( 0x993366 ) );
+
+        CTInline inline = getInline( result.getParagraphs( ).get( 0 ).getRuns( ).get( 0 ) );
+        assertEquals( Units.toEMU( 120 ), inline.getExtent( ).getCx( ) );
+        assertEquals( Units.toEMU( 120 * IMAGE_HEIGHT / IMAGE_WIDTH ), inline.getExtent( ).getCy( ) );
+    }
+
+    /**
+     * Test of an image read from a stream of the model : the stream is read to its end, and left open
+     */
+    @Test
+    public void testStreamLeftOpen( ) throws Exception
+    {
+        final boolean [ ] closed = {
+            false
+        };
+        ByteArrayInputStream stream = new ByteArrayInputStream( getPng( 0x669933 ) )
+        {
+            @Override
+            public void close( ) throws IOException
+            {
+                closed [0] = true;
+                super.close( );
+            }
+        };
+
+        XWPFDocument result = render( "<#image logo>", stream );
+
+        assertFalse( closed [0] );
+        assertEquals( 0, stream.available( ) );
+        assertNotNull( getRelationId( result.getParagraphs( ).get( 0 ).getRuns( ).get( 0 ) ) );
+    }
+
+    /**
+     * Test of a missing image : the run is left empty
+     */
+    @Test
+    public void testNullSource( ) throws Exception
+    {
+        XWPFDocument result = render( "<#image logo>", null );
+
+        XWPFRun run = result.getParagraphs( ).get( 0 ).getRuns( ).get( 0 );
+        assertEquals( "", result.getParagraphs( ).get( 0 ).getText( ) );
+        assertEquals( 0, run.getCTR( ).sizeOfDrawingArray( ) );
+        assertTrue( result.getPackage( ).getPartsByName( PATTERN_MEDIA ).isEmpty( ) );
+    }
+
+    /**
+     * Test of a source which is not an image
+     */
+    @Test( expected = WordTemplateException.class )
+    public void testUnsupportedFormat( ) throws Exception
+    {
+        render( "<#image logo>", "Not an image".getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Test of the drawing read from the written document : its elements are in the order of the schema
+     */
+    @Test
+    public void testDrawingSchemaOrder( ) throws Exception
+    {
+        XWPFDocument result = render( "<#image logo height=30>", getPng( 0x996633 ) );
+
+        CTInline inline = getInline( result.getParagraphs( ).get( 0 ).getRuns( ).get( 0 ) );
+        List<String> listChildren = new ArrayList<>( );
+        XmlCursor cursor = inline.newCursor( );
+        for ( boolean bChild = cursor.toFirstChild( ); bChild; bChild = cursor.toNextSibling( ) )
+        {
+            listChildren.add( cursor.getName( ).getLocalPart( ) );
+        }
+        cursor.dispose( );
+        assertEquals( Arrays.asList( "extent", "docPr", "graphic" ), listChildren );
+
+        List<Object> listErrors = new ArrayList<>( );
+        boolean bValid = result.getDocument( ).validate( new XmlOptions( ).setErrorListener( listErrors ) );
+        assertTrue( listErrors.toString( ), bValid );
+    }
+
+    /**
+     * Render a document of a single paragraph
+     *
+     * @param strText
+     *            the text of the paragraph
+     * @param image
+     *            the value of the image source <code>logo</code>
+     * @return the rendered document read again
+     * @throws Exception
+     */
+    private static XWPFDocument render( String strText, Object image ) throws Exception
+    {
+        XWPFDocument document = new XWPFDocument( );
+        document.createParagraph( ).createRun( ).setText( strText );
+
+        Map<String, Object> model = new HashMap<>( );
+        model.put( "logo", image );
+        return process( document, model );
+    }
+
+    /**
+     * Process a document, then write and read it again, so that the elements of the result are read from the XML
+     *
+     * @param document
+     *            the document
+     * @param model
+     *            the model
+     * @return the document read again
+     * @throws Exception
+     */
+    private static XWPFDocument process( XWPFDocument document, Map<String, Object> model ) throws Exception
+    {
+        WordTemplate wordTemplate = new WordTemplateParser( ).parse( document, model );
+        new WordTemplateProcessor( ).process( wordTemplate, model );
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        document.write( bos );
+        return new XWPFDocument( new ByteArrayInputStream( bos.toByteArray( ) ) );
+    }
+
+    /**
+     *
+     * @param run
+     * @return the inline drawing of the run
+     */
+    private static CTInline getInline( XWPFRun run )
+    {
+        return run.getCTR( ).getDrawingArray( 0 ).getInlineArray( 0 );
+    }
+
+    /**
+     *
+     * @param run
+     * @return the id of the relationship of the picture of the run, or null if it has no picture
+     */
+    private static String getRelationId( XWPFRun run )
+    {
+        if ( run.getEmbeddedPictures( ).isEmpty( ) )
+        {
+            return null;
+        }
+        return run.getEmbeddedPictures( ).get( 0 ).getCTPicture( ).getBlipFill( ).getBlip( ).getEmbed( );
+    }
+
+    /**
+     *
+     * @param nColor
+     *            the color of the image
+     * @return a PNG image of a single color
+     * @throws IOException
+     */
+    private static byte [ ] getPng( int nColor ) throws IOException
+    {
+        BufferedImage image = new BufferedImage( IMAGE_WIDTH, IMAGE_HEIGHT, BufferedImage.TYPE_INT_RGB );
+        for ( int x = 0; x < IMAGE_WIDTH; x++ )
+        {
+            for ( int y = 0; y < IMAGE_HEIGHT; y++ )
+            {
+                image.setRGB( x, y, nColor );
+            }
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        ImageIO.write( image, "png", bos );
+        return bos.toByteArray( );
+    }
+}
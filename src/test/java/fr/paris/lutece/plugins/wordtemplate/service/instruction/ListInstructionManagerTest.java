@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.instruction;
+
+import fr.paris.lutece.plugins.wordtemplate.business.WordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.exception.WordTemplateException;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateParser;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateProcessor;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for ListInstructionManager
+ */
+public class ListInstructionManagerTest
+{
+    private static final String HEADER_ROW = "Name|Price";
+    private static final String FOOTER_ROW = "Total|42";
+
+    /**
+     * Test of an empty list : the template row is removed
+     */
+    @Test
+    public void testEmptyList( ) throws Exception
+    {
+        assertEquals( Arrays.asList( HEADER_ROW, FOOTER_ROW ), render( Collections.<Map<String, Object>> emptyList( ) ) );
+    }
+
+    /**
+     * Test of a list of one item
+     */
+    @Test
+    public void testOneItem( ) throws Exception
+    {
+        assertEquals( Arrays.asList( HEADER_ROW, "Pen|2", FOOTER_ROW ), render( Arrays.asList( getItem( "Pen", 2 ) ) ) );
+    }
+
+    /**
+     * Test of a list of several items, with two interpolations per row
+     */
+    @Test
+    public void testSeveralItems( ) throws Exception
+    {
+        List<Map<String, Object>> listItems = Arrays.asList( getItem( "Pen", 2 ), getItem( "Book", 15 ), getItem( "Bag", 25 ) );
+
+        assertEquals( Arrays.asList( HEADER_ROW, "Pen|2", "Book|15", "Bag|25", FOOTER_ROW ), render( listItems ) );
+    }
+
+    /**
+     * Test of values holding the characters which separate the values and the items
+     */
+    @Test
+    public void testValueWithSeparator( ) throws Exception
+    {
+        for ( String strName : new String [ ] {
+                "Pen\u0000", "Pen\u0001", "P\u0001en", "\u0000\u0001"
+        } )
+        {
+            try
+            {
+                render( Arrays.asList( getItem( strName, 2 ), getItem( "Book", 15 ) ) );
+                fail( "A value holding a separator must be rejected" );
+            }
+            catch( WordTemplateException e )
+            {
+                // Expected
+            }
+        }
+    }
+
+    /**
+     * Render a table with a header row, a template row and a footer row
+     *
+     * @param listItems
+     *            the items of the list
+     * @return the text of the rows of the table read again from the written document, with the cells separated by a pipe
+     * @throws Exception
+     */
+    private static List<String> render( List<Map<String, Object>> listItems ) throws Exception
+    {
+        XWPFDocument document = new XWPFDocument( );
+        XWPFTable table = document.createTable( 3, 2 );
+        setRow( table.getRow( 0 ), "Name", "Price" );
+        setRow( table.getRow( 1 ), "<#list items as item>${item.name}", "${item.price}</#list>" );
+        setRow( table.getRow( 2 ), "Total", "${total}" );
+
+        Map<String, Object> model = new HashMap<>( );
+        model.put( "items", listItems );
+        model.put( "total", 42 );
+
+        WordTemplate wordTemplate = new WordTemplateParser( ).parse( document, model );
+        new WordTemplateProcessor( ).process( wordTemplate, model );
+
+        // The row objects of the table match its XML
+        List<String> listRows = getRows( document.getTables( ).get( 0 ) );
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        document.write( bos );
+        XWPFDocument result = new XWPFDocument( new ByteArrayInputStream( bos.toByteArray( ) ) );
+        assertEquals( listRows, getRows( result.getTables( ).get( 0 ) ) );
+
+        return listRows;
+    }
+
+    /**
+     * Set the text of the cells of a row
+     *
+     * @param row
+     * @param strFirstCell
+     * @param strSecondCell
+     */
+    private static void setRow( XWPFTableRow row, String strFirstCell, String strSecondCell )
+    {
+        row.getCell( 0 ).getParagraphs( ).get( 0 ).createRun( ).setText( strFirstCell );
+        row.getCell( 1 ).getParagraphs( ).get( 0 ).createRun( ).setText( strSecondCell );
+    }
+
+    /**
+     *
+     * @param table
+     * @return the text of the rows, with the cells separated by a pipe
+     */
+    private static List<String> getRows( XWPFTable table )
+    {
+        List<String> listRows = new ArrayList<>( );
+        for ( XWPFTableRow row : table.getRows( ) )
+        {
+            StringBuilder sbRow = new StringBuilder( );
+            for ( XWPFTableCell cell : row.getTableCells( ) )
+            {
+                if ( sbRow.length( ) > 0 )
+                {
+                    sbRow.append( '|' );
+                }
+                sbRow.append( cell.getText( ) );
+            }
+            listRows.add( sbRow.toString( ) );
+        }
+        return listRows;
+    }
+
+    /**
+     *
+     * @param strName
+     * @param nPrice
+     * @return an item of the list
+     */
+    private static Map<String, Object> getItem( String strName, int nPrice )
+    {
+        Map<String, Object> item = new HashMap<>( );
+        item.put( "name", strName );
+        item.put( "price", nPrice );
+        return item;
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.apache.poi.util.IOUtils;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for ParallelDeflater and CompressionPolicy
+ */
+public class ParallelDeflaterTest
+{
+    private static final int BLOCK_SIZE = 1024;
+    private static final int BUFFER_SIZE = 8192;
+    private static final String ENTRY_XML = "word/document.xml";
+    private static final String ENTRY_MEDIA = "word/media/image1.png";
+    private static final String ENTRY_OTHER = "word/vbaProject.bin";
+
+    /**
+     * Test of contents smaller than, as large as and larger than a block, at several levels
+     */
+    @Test
+    public void testRoundTrip( ) throws Exception
+    {
+        int [ ] sizes = {
+                0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, 3 * BLOCK_SIZE, 3 * BLOCK_SIZE + 7, 100 * BLOCK_SIZE
+        };
+        int [ ] levels = {
+                Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION
+        };
+
+        for ( int nSize : sizes )
+        {
+            for ( byte [ ] content : new byte [ ] [ ] {
+                    getText( nSize ), getRandom( nSize )
+            } )
+            {
+                for ( int nLevel : levels )
+                {
+                    assertArrayEquals( "size " + nSize + ", level " + nLevel, content, inflate( ParallelDeflater.deflate( content, nLevel, BLOCK_SIZE ) ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of blocks whose sync flush output exactly fills the buffer of the deflater
+     */
+    @Test
+    public void testFlushFillingBuffer( ) throws Exception
+    {
+        // Stored blocks grow with their input : the block size whose flush output is the size of the buffer is searched
+        int nBlockSize = -1;
+        for ( int nCandidate = BUFFER_SIZE - 64; nCandidate <= BUFFER_SIZE && nBlockSize < 0; nCandidate++ )
+        {
+            if ( getFlushLength( getRandom( nCandidate ), Deflater.NO_COMPRESSION ) == BUFFER_SIZE )
+            {
+                nBlockSize = nCandidate;
+            }
+        }
+        assertTrue( "No block size fills the buffer", nBlockSize > 0 );
+
+        for ( int nSize : new int [ ] {
+                2 * nBlockSize, 3 * nBlockSize + 11
+        } )
+        {
+            byte [ ] content = getRandom( nSize );
+            assertArrayEquals( content, inflate( ParallelDeflater.deflate( content, Deflater.NO_COMPRESSION, nBlockSize ) ) );
+        }
+    }
+
+    /**
+     * Test of the compression method of each entry, as set by part type by the policy
+     */
+    @Test
+    public void testPolicyByPartType( ) throws Exception
+    {
+        Map<String, byte [ ]> mapEntries = new LinkedHashMap<>( );
+        mapEntries.put( ENTRY_XML, getText( 20 * BLOCK_SIZE ) );
+        mapEntries.put( ENTRY_MEDIA, getRandom( 5 * BLOCK_SIZE ) );
+        mapEntries.put( ENTRY_OTHER, getText( 3 * BLOCK_SIZE ) );
+        byte [ ] source = zip( mapEntries );
+
+        CompressionPolicy policy = CompressionPolicy.of( Deflater.BEST_COMPRESSION ).withMediaLevel( CompressionPolicy.STORED )
+                .withParallelCompression( 4 * BLOCK_SIZE, BLOCK_SIZE );
+        assertMethods( source, policy, mapEntries, ZipEntry.DEFLATED, ZipEntry.STORED, ZipEntry.DEFLATED );
+
+        policy = CompressionPolicy.fastest( );
+        assertMethods( source, policy, mapEntries, ZipEntry.DEFLATED, ZipEntry.STORED, ZipEntry.STORED );
+
+        policy = CompressionPolicy.of( CompressionPolicy.STORED ).withOtherLevel( Deflater.BEST_SPEED );
+        assertMethods( source, policy, mapEntries, ZipEntry.STORED, ZipEntry.STORED, ZipEntry.DEFLATED );
+    }
+
+    /**
+     * Recompress a package and check the compression method and the content of its entries
+     *
+     * @param source
+     *            the package
+     * @param policy
+     *            the policy
+     * @param mapEntries
+     *            the content of the entries
+     * @param nXmlMethod
+     *            the expected method of the XML entry
+     * @param nMediaMethod
+     *            the expected method of the media entry
+     * @param nOtherMethod
+     *            the expected method of the other entry
+     * @throws IOException
+     */
+    private static void assertMethods( byte [ ] source, CompressionPolicy policy, Map<String, byte [ ]> mapEntries, int nXmlMethod, int nMediaMethod,
+            int nOtherMethod ) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        new ZipPassThroughWriter( ByteBuffer.wrap( source ) ).recompress( policy, bos );
+
+        File file = File.createTempFile( "wordtemplate", ".zip" );
+        try
+        {
+            Files.write( file.toPath( ), bos.toByteArray( ) );
+            try ( ZipFile zipFile = new ZipFile( file ) )
+            {
+                assertEquals( policy.toString( ), nXmlMethod, zipFile.getEntry( ENTRY_XML ).getMethod( ) );
+                assertEquals( policy.toString( ), nMediaMethod, zipFile.getEntry( ENTRY_MEDIA ).getMethod( ) );
+                assertEquals( policy.toString( ), nOtherMethod, zipFile.getEntry( ENTRY_OTHER ).getMethod( ) );
+                for ( Map.Entry<String, byte [ ]> entry : mapEntries.entrySet( ) )
+                {
+                    try ( InputStream is = zipFile.getInputStream( zipFile.getEntry( entry.getKey( ) ) ) )
+                    {
+                        assertArrayEquals( entry.getKey( ), entry.getValue( ), IOUtils.toByteArray( is ) );
+                    }
+                }
+            }
+        }
+        finally
+        {
+            Files.delete( file.toPath( ) );
+        }
+    }
+
+    /**
+     * Get the length of the sync flush output of a first block
+     *
+     * @param content
+     *            the block
+     * @param nLevel
+     *            the deflate level
+     * @return the length of the output
+     */
+    private static int getFlushLength( byte [ ] content, int nLevel )
+    {
+        Deflater deflater = new Deflater( nLevel, true );
+        try
+        {
+            deflater.setInput( content );
+            byte [ ] buffer = new byte [ content.length * 2 + 64];
+            return deflater.deflate( buffer, 0, buffer.length, Deflater.SYNC_FLUSH );
+        }
+        finally
+        {
+            deflater.end( );
+        }
+    }
+
+    /**
+     * Inflate a raw deflate stream, which must be complete
+     *
+     * @param deflated
+     * @return the content
+     * @throws DataFormatException
+     */
+    private static byte [ ] inflate( byte [ ] deflated ) throws DataFormatException
+    {
+        Inflater inflater = new Inflater( true );
+        try
+        {
+            inflater.setInput( deflated );
+            ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+            byte [ ] buffer = new byte [ BUFFER_SIZE];
+            while ( !inflater.finished( ) )
+            {
+                int nInflated = inflater.inflate( buffer );
+                if ( nInflated == 0 && ( inflater.needsInput( ) || inflater.needsDictionary( ) ) )
+                {
+                    fail( "Truncated deflate stream" );
+                }
+                bos.write( buffer, 0, nInflated );
+            }
+            assertEquals( "Data after the end of the deflate stream", 0, inflater.getRemaining( ) );
+            return bos.toByteArray( );
+        }
+        finally
+        {
+            inflater.end( );
+        }
+    }
+
+    /**
+     * Write a zip
+     *
+     * @param mapEntries
+     *            the content of the entries, by name
+     * @return the zip
+     * @throws IOException
+     */
+    private static byte [ ] zip( Map<String, byte [ ]> mapEntries ) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        try ( ZipOutputStream zos = new ZipOutputStream( bos ) )
+        {
+            for ( Map.Entry<String, byte [ ]> entry : mapEntries.entrySet( ) )
+            {
+                zos.putNextEntry( new ZipEntry( entry.getKey( ) ) );
+                zos.write( entry.getValue( ) );
+                zos.closeEntry( );
+            }
+        }
+        return bos.toByteArray( );
+    }
+
+    /**
+     *
+     * @param nSize
+     * @return a compressible content
+     */
+    private static byte [ ] getText( int nSize )
+    {
+        byte [ ] pattern = "<w:p><w:r><w:t>Lorem ipsum ${value} dolor sit amet</w:t></w:r></w:p>".getBytes( StandardCharsets.UTF_8 );
+        byte [ ] content = new byte [ nSize];
+        for ( int i = 0; i < nSize; i++ )
+        {
+            content [i] = pattern [i % pattern.length];
+        }
+        return content;
+    }
+
+    /**
+     *
+     * @param nSize
+     * @return an incompressible content
+     */
+    private static byte [ ] getRandom( int nSize )
+    {
+        byte [ ] content = new byte [ nSize];
+        new Random( nSize ).nextBytes( content );
+        return content;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.output;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xwpf.model.XWPFHeaderFooterPolicy;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for ZipPassThroughWriter
+ */
+public class ZipPassThroughWriterTest
+{
+    private static final String ENTRY_DOCUMENT = "word/document.xml";
+
+    /**
+     * Test of a package written without modified entries : every entry is copied
+     */
+    @Test
+    public void testWriteUnmodified( ) throws Exception
+    {
+        for ( byte [ ] source : getSources( ) )
+        {
+            byte [ ] output = write( source, Collections.<String, byte [ ]> emptyMap( ) );
+
+            assertEquals( readEntries( source ), readEntries( output ) );
+            assertEquals( getText( source ), getText( output ) );
+        }
+    }
+
+    /**
+     * Test of a package written with a modified entry, deflated then stored
+     */
+    @Test
+    public void testWriteModified( ) throws Exception
+    {
+        for ( byte [ ] source : getSources( ) )
+        {
+            Map<String, String> mapSourceEntries = readEntries( source );
+            String strDocument = mapSourceEntries.get( ENTRY_DOCUMENT ).replace( "Hello", "Goodbye" );
+            Map<String, byte [ ]> mapModifiedEntries = Collections.singletonMap( ENTRY_DOCUMENT, strDocument.getBytes( StandardCharsets.UTF_8 ) );
+
+            for ( CompressionPolicy policy : new CompressionPolicy [ ] {
+                    CompressionPolicy.DEFAULT, CompressionPolicy.of( CompressionPolicy.STORED )
+            } )
+            {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+                new ZipPassThroughWriter( ByteBuffer.wrap( source ) ).write( mapModifiedEntries, policy, bos );
+                byte [ ] output = bos.toByteArray( );
+
+                Map<String, String> mapExpectedEntries = new HashMap<>( mapSourceEntries );
+                mapExpectedEntries.put( ENTRY_DOCUMENT, strDocument );
+                assertEquals( mapExpectedEntries, readEntries( output ) );
+                assertEquals( "Goodbye world", getText( output ) );
+            }
+        }
+    }
+
+    /**
+     * Test of a modified entry which is not in the source
+     */
+    @Test( expected = ZipException.class )
+    public void testWriteUnknownEntry( ) throws Exception
+    {
+        write( getDocx( ), Collections.singletonMap( "word/unknown.xml", new byte [ 0] ) );
+    }
+
+    /**
+     * Get the source packages : a package written by POI, and the same package rewritten with stored entries and with deflated entries followed by data
+     * descriptors
+     *
+     * @return the packages
+     * @throws IOException
+     */
+    private static byte [ ] [ ] getSources( ) throws IOException
+    {
+        byte [ ] docx = getDocx( );
+        return new byte [ ] [ ] {
+                docx, rezip( docx, true ), rezip( docx, false )
+        };
+    }
+
+    /**
+     *
+     * @return a .docx package
+     * @throws IOException
+     */
+    private static byte [ ] getDocx( ) throws IOException
+    {
+        XWPFDocument document = new XWPFDocument( );
+        document.createParagraph( ).createRun( ).setText( "Hello world" );
+        document.createHeaderFooterPolicy( ).createHeader( XWPFHeaderFooterPolicy.DEFAULT ).createParagraph( ).createRun( ).setText( "Header" );
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        document.write( bos );
+        document.close( );
+        return bos.toByteArray( );
+    }
+
+    /**
+     * Rewrite a package
+     *
+     * @param source
+     *            the package
+     * @param bStored
+     *            true to store every entry, false to deflate them with data descriptors
+     * @return the package
+     * @throws IOException
+     */
+    private static byte [ ] rezip( byte [ ] source, boolean bStored ) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        try ( ZipInputStream zis = new ZipInputStream( new ByteArrayInputStream( source ) ); ZipOutputStream zos = new ZipOutputStream( bos ) )
+        {
+            for ( ZipEntry sourceEntry = zis.getNextEntry( ); sourceEntry != null; sourceEntry = zis.getNextEntry( ) )
+            {
+                byte [ ] content = IOUtils.toByteArray( zis );
+                ZipEntry entry = new ZipEntry( sourceEntry.getName( ) );
+                if ( bStored )
+                {
+                    CRC32 crc = new CRC32( );
+                    crc.update( content );
+                    entry.setMethod( ZipEntry.STORED );
+                    entry.setSize( content.length );
+                    entry.setCompressedSize( content.length );
+                    entry.setCrc( crc.getValue( ) );
+                }
+                else
+                {
+                    // Without its sizes, a deflated entry is followed by a data descriptor
+                    entry.setMethod( ZipEntry.DEFLATED );
+                }
+                zos.putNextEntry( entry );
+                zos.write( content );
+                zos.closeEntry( );
+            }
+        }
+        return bos.toByteArray( );
+    }
+
+    /**
+     * Write a package with the default compression
+     *
+     * @param source
+     * @param mapModifiedEntries
+     * @return the package
+     * @throws IOException
+     */
+    private static byte [ ] write( byte [ ] source, Map<String, byte [ ]> mapModifiedEntries ) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        new ZipPassThroughWriter( ByteBuffer.wrap( source ) ).write( mapModifiedEntries, CompressionPolicy.DEFAULT, bos );
+        return bos.toByteArray( );
+    }
+
+    /**
+     * Read the entries of a package with ZipFile, which reads the central directory
+     *
+     * @param zip
+     * @return the content of the entries, by name
+     * @throws IOException
+     */
+    static Map<String, String> readEntries( byte [ ] zip ) throws IOException
+    {
+        File file = File.createTempFile( "wordtemplate", ".zip" );
+        try
+        {
+            Files.write( file.toPath( ), zip );
+            Map<String, String> mapEntries = new LinkedHashMap<>( );
+            try ( ZipFile zipFile = new ZipFile( file ) )
+            {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries( );
+                while ( entries.hasMoreElements( ) )
+                {
+                    ZipEntry entry = entries.nextElement( );
+                    try ( InputStream is = zipFile.getInputStream( entry ) )
+                    {
+                        mapEntries.put( entry.getName( ), new String( IOUtils.toByteArray( is ), StandardCharsets.UTF_8 ) );
+                    }
+                }
+            }
+            return mapEntries;
+        }
+        finally
+        {
+            Files.delete( file.toPath( ) );
+        }
+    }
+
+    /**
+     * Open a package with POI
+     *
+     * @param docx
+     * @return the text of the first paragraph of the document
+     * @throws IOException
+     */
+    private static String getText( byte [ ] docx ) throws IOException
+    {
+        try ( XWPFDocument document = new XWPFDocument( new ByteArrayInputStream( docx ) ) )
+        {
+            return document.getParagraphs( ).get( 0 ).getText( );
+        }
+    }
+}
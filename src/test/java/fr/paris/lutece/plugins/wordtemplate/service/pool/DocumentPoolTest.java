@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.pool;
+
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledWordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateService;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for DocumentPool
+ */
+public class DocumentPoolTest
+{
+    private static final int POOL_SIZE = 2;
+    private static final long IDLE_MILLIS = 50L;
+    private static final long TIMEOUT_MILLIS = 5000L;
+
+    private static CompiledWordTemplate _compiledTemplate;
+
+    /**
+     * Compile the template shared by the tests
+     */
+    @BeforeClass
+    public static void setUpClass( ) throws IOException
+    {
+        XWPFDocument document = new XWPFDocument( );
+        document.createParagraph( ).createRun( ).setText( "Dear ${name}" );
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        document.write( bos );
+        document.close( );
+        _compiledTemplate = WordTemplateService.compileTemplate( new ByteArrayInputStream( bos.toByteArray( ) ) );
+    }
+
+    /**
+     * Test of the hits and the misses, and of the refill after each take
+     */
+    @Test
+    public void testHitsAndRefill( )
+    {
+        CountingExecutor executor = new CountingExecutor( );
+        DocumentPool pool = new DocumentPool( _compiledTemplate, POOL_SIZE, 0L, executor );
+        try
+        {
+            assertEquals( POOL_SIZE, pool.getAvailable( ) );
+            assertEquals( POOL_SIZE, executor._nCount.get( ) );
+
+            for ( int i = 1; i <= 3; i++ )
+            {
+                PooledDocument instance = pool.take( );
+                assertNotNull( instance.getWordTemplate( ) );
+                instance.close( );
+
+                assertEquals( i, pool.getHits( ) );
+                assertEquals( 0, pool.getMisses( ) );
+                // The taken instance is replaced at once by the direct executor
+                assertEquals( POOL_SIZE, pool.getAvailable( ) );
+                assertEquals( POOL_SIZE + i, executor._nCount.get( ) );
+            }
+        }
+        finally
+        {
+            pool.close( );
+        }
+    }
+
+    /**
+     * Test of takes while the workers have not created the instances yet
+     */
+    @Test
+    public void testMisses( )
+    {
+        QueueingExecutor executor = new QueueingExecutor( );
+        DocumentPool pool = new DocumentPool( _compiledTemplate, POOL_SIZE, 0L, executor );
+        try
+        {
+            pool.take( ).close( );
+            assertEquals( 0, pool.getHits( ) );
+            assertEquals( 1, pool.getMisses( ) );
+            // The planned creations are not planned again
+            assertEquals( POOL_SIZE, executor._dequeTasks.size( ) );
+
+            executor.runAll( );
+            assertEquals( POOL_SIZE, pool.getAvailable( ) );
+            pool.take( ).close( );
+            assertEquals( 1, pool.getHits( ) );
+            assertEquals( 1, pool.getMisses( ) );
+        }
+        finally
+        {
+            pool.close( );
+        }
+    }
+
+    /**
+     * Test of the eviction of the instances of an idle pool, and of the refill at the next take
+     */
+    @Test
+    public void testIdleEviction( ) throws InterruptedException
+    {
+        CountingExecutor executor = new CountingExecutor( );
+        DocumentPool pool = new DocumentPool( _compiledTemplate, POOL_SIZE, IDLE_MILLIS, executor );
+        try
+        {
+            assertEquals( POOL_SIZE, pool.getAvailable( ) );
+
+            long lDeadline = System.currentTimeMillis( ) + TIMEOUT_MILLIS;
+            while ( pool.getAvailable( ) > 0 && System.currentTimeMillis( ) < lDeadline )
+            {
+                Thread.sleep( IDLE_MILLIS / 5 );
+            }
+            assertEquals( 0, pool.getAvailable( ) );
+
+            // The released instances are no longer counted as planned : the take creates its own and refills the whole pool
+            pool.take( ).close( );
+            assertEquals( 1, pool.getMisses( ) );
+            assertEquals( POOL_SIZE, pool.getAvailable( ) );
+            assertEquals( 2 * POOL_SIZE, executor._nCount.get( ) );
+        }
+        finally
+        {
+            pool.close( );
+        }
+    }
+
+    /**
+     * Test of a pool closed while its refill is in flight : the instances created afterwards are released
+     */
+    @Test
+    public void testCloseDuringRefill( )
+    {
+        QueueingExecutor executor = new QueueingExecutor( );
+        DocumentPool pool = new DocumentPool( _compiledTemplate, POOL_SIZE, IDLE_MILLIS, executor );
+        assertEquals( POOL_SIZE, executor._dequeTasks.size( ) );
+
+        pool.close( );
+        executor.runAll( );
+
+        assertEquals( 0, pool.getAvailable( ) );
+        assertEquals( 0, pool.getFailures( ) );
+        try
+        {
+            pool.take( );
+            fail( "A closed pool must not be used" );
+        }
+        catch( IllegalStateException e )
+        {
+            // Expected
+        }
+    }
+
+    /**
+     * Executor running the tasks on the calling thread, and counting them
+     */
+    private static final class CountingExecutor implements Executor
+    {
+        private final AtomicInteger _nCount = new AtomicInteger( );
+
+        @Override
+        public void execute( Runnable command )
+        {
+            _nCount.incrementAndGet( );
+            command.run( );
+        }
+    }
+
+    /**
+     * Executor keeping the tasks until they are run by the test
+     */
+    private static final class QueueingExecutor implements Executor
+    {
+        private final Deque<Runnable> _dequeTasks = new ArrayDeque<>( );
+
+        @Override
+        public void execute( Runnable command )
+        {
+            _dequeTasks.addLast( command );
+        }
+
+        /**
+         * Run the kept tasks
+         */
+        void runAll( )
+        {
+            for ( Runnable task = _dequeTasks.pollFirst( ); task != null; task = _dequeTasks.pollFirst( ) )
+            {
+                task.run( );
+            }
+        }
+    }
+}
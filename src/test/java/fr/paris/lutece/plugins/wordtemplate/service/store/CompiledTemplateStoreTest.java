@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.store;
+
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledInstruction;
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledWordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateCompiler;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.poi.xwpf.model.XWPFHeaderFooterPolicy;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for CompiledTemplateStore and CompiledTemplateSerializer
+ */
+public class CompiledTemplateStoreTest
+{
+    // Offset of the offset of the instruction table in the header : magic, format version and hash
+    private static final int OFFSET_TABLE_OFFSET = 4 + 4 + 32;
+    private static final int OFFSET_FORMAT_VERSION = 4;
+
+    private Path _directory;
+    private byte [ ] _source;
+    private AtomicInteger _nCompileCount;
+    private CompiledTemplateStore _store;
+
+    /**
+     * Create an empty directory and a store counting its compilations
+     */
+    @Before
+    public void setUp( ) throws IOException
+    {
+        _directory = Files.createTempDirectory( "wordtemplate-store" );
+        _source = getTemplate( );
+        _nCompileCount = new AtomicInteger( );
+        _store = new CompiledTemplateStore( _directory, new WordTemplateCompiler( )
+        {
+            @Override
+            public CompiledWordTemplate compile( InputStream templateStream )
+            {
+                _nCompileCount.incrementAndGet( );
+                return super.compile( templateStream );
+            }
+        } );
+    }
+
+    /**
+     * Delete the directory
+     */
+    @After
+    public void tearDown( ) throws IOException
+    {
+        for ( Path path : listFiles( ) )
+        {
+            Files.delete( path );
+        }
+        Files.delete( _directory );
+    }
+
+    /**
+     * Test of a compiled template written, then read from the memory-mapped file
+     */
+    @Test
+    public void testRoundTrip( ) throws Exception
+    {
+        CompiledWordTemplate compiledTemplate = _store.getCompiledTemplate( new ByteArrayInputStream( _source ) );
+        assertEquals( 1, _nCompileCount.get( ) );
+
+        // A single file, without temporary file left
+        assertEquals( 1, listFiles( ).size( ) );
+        assertTrue( listFiles( ).get( 0 ).toString( ).endsWith( ".wtc" ) );
+
+        CompiledWordTemplate loadedTemplate = _store.getCompiledTemplate( new ByteArrayInputStream( _source ) );
+        assertEquals( 1, _nCompileCount.get( ) );
+        assertSameTemplate( compiledTemplate, loadedTemplate );
+        assertFalse( loadedTemplate.getInstructions( ).isEmpty( ) );
+
+        // The key depends on the settings of the compiler
+        CompiledTemplateStore otherStore = new CompiledTemplateStore( _directory, new WordTemplateCompiler( false ) );
+        assertFalse( Arrays.equals( _store.getKey( _source ), otherStore.getKey( _source ) ) );
+    }
+
+    /**
+     * Test of a truncated file
+     */
+    @Test
+    public void testTruncated( ) throws Exception
+    {
+        byte [ ] file = storeTemplate( );
+        assertRecompiled( Arrays.copyOf( file, file.length / 2 ) );
+        // Without the package, then within the header
+        assertRecompiled( Arrays.copyOf( file, (int) ByteBuffer.wrap( file ).getLong( OFFSET_TABLE_OFFSET + 8 ) ) );
+        assertRecompiled( Arrays.copyOf( file, 20 ) );
+        assertRecompiled( new byte [ 0] );
+    }
+
+    /**
+     * Test of a file with a flipped byte in the instruction table and in the package
+     */
+    @Test
+    public void testFlippedCrcByte( ) throws Exception
+    {
+        byte [ ] file = storeTemplate( );
+        int nTableOffset = (int) ByteBuffer.wrap( file ).getLong( OFFSET_TABLE_OFFSET );
+
+        for ( int nPosition : new int [ ] {
+                nTableOffset + 5, nTableOffset + 1, file.length - 1
+        } )
+        {
+            byte [ ] corrupted = file.clone( );
+            corrupted [nPosition] ^= 0x01;
+            assertRecompiled( corrupted );
+        }
+    }
+
+    /**
+     * Test of a file written by an older version of the format
+     */
+    @Test
+    public void testOldFormatVersion( ) throws Exception
+    {
+        byte [ ] file = storeTemplate( );
+        ByteBuffer.wrap( file ).putInt( OFFSET_FORMAT_VERSION, CompiledTemplateSerializer.FORMAT_VERSION - 1 );
+        assertRecompiled( file );
+    }
+
+    /**
+     * Compile and store the template
+     *
+     * @return the content of the file of the compiled template
+     * @throws IOException
+     */
+    private byte [ ] storeTemplate( ) throws IOException
+    {
+        _store.getCompiledTemplate( new ByteArrayInputStream( _source ) );
+        return Files.readAllBytes( listFiles( ).get( 0 ) );
+    }
+
+    /**
+     * Replace the file of the compiled template, and check that the template is compiled and stored again
+     *
+     * @param file
+     *            the new content of the file
+     * @throws IOException
+     */
+    private void assertRecompiled( byte [ ] file ) throws IOException
+    {
+        Path path = listFiles( ).get( 0 );
+        Files.write( path, file );
+
+        assertNull( _store.load( _store.getKey( _source ) ) );
+
+        int nCompileCount = _nCompileCount.get( );
+        CompiledWordTemplate compiledTemplate = _store.getCompiledTemplate( new ByteArrayInputStream( _source ) );
+        assertEquals( nCompileCount + 1, _nCompileCount.get( ) );
+        assertSameTemplate( compiledTemplate, _store.load( _store.getKey( _source ) ) );
+    }
+
+    /**
+     * Check that two compiled templates have the same instructions and the same package
+     *
+     * @param expected
+     * @param actual
+     */
+    private static void assertSameTemplate( CompiledWordTemplate expected, CompiledWordTemplate actual )
+    {
+        assertNotNull( actual );
+        assertEquals( describe( expected ), describe( actual ) );
+        assertEquals( expected.getPackageBuffer( ), actual.getPackageBuffer( ) );
+    }
+
+    /**
+     *
+     * @param compiledTemplate
+     * @return the description of the instructions of a compiled template
+     */
+    private static List<String> describe( CompiledWordTemplate compiledTemplate )
+    {
+        List<String> listInstructions = new ArrayList<>( );
+        for ( CompiledInstruction instruction : compiledTemplate.getInstructions( ) )
+        {
+            listInstructions.add( instruction.getPartName( ) + ' ' + instruction.getParagraphIndex( ) + ' ' + instruction.getRunIndex( ) + ' '
+                    + instruction.getType( ) + ' ' + instruction.getExpression( ) );
+        }
+        return listInstructions;
+    }
+
+    /**
+     *
+     * @return the files of the directory
+     * @throws IOException
+     */
+    private List<Path> listFiles( ) throws IOException
+    {
+        List<Path> listFiles = new ArrayList<>( );
+        try ( DirectoryStream<Path> stream = Files.newDirectoryStream( _directory ) )
+        {
+            for ( Path path : stream )
+            {
+                listFiles.add( path );
+            }
+        }
+        return listFiles;
+    }
+
+    /**
+     *
+     * @return a template with interpolations in its body and its header
+     * @throws IOException
+     */
+    private static byte [ ] getTemplate( ) throws IOException
+    {
+        XWPFDocument document = new XWPFDocument( );
+        document.createParagraph( ).createRun( ).setText( "Dear ${name}, your total is ${total}" );
+        document.createHeaderFooterPolicy( ).createHeader( XWPFHeaderFooterPolicy.DEFAULT ).createParagraph( ).createRun( ).setText( "${title}" );
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        document.write( bos );
+        document.close( );
+        return bos.toByteArray( );
+    }
+}
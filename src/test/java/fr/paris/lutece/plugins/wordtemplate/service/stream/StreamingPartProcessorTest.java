@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.stream;
+
+import fr.paris.lutece.plugins.wordtemplate.service.StreamingWordTemplateService;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateService;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import org.apache.poi.xwpf.model.XWPFHeaderFooterPolicy;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFHeaderFooter;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.xmlbeans.XmlCursor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test for StreamingPartProcessor : the streaming engine renders the interpolations as the DOM engine does
+ */
+public class StreamingPartProcessorTest
+{
+    private static final String NAMESPACE_WORD = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final String ESCAPED_VALUE = "<Tom & \"Jerry\"> 'O'";
+
+    /**
+     * Test of the body, the header and the footer of a document rendered by both engines
+     */
+    @Test
+    public void testSameAsDomEngine( ) throws Exception
+    {
+        byte [ ] template = getTemplate( );
+        Map<String, Object> model = new HashMap<>( );
+        model.put( "name", "Ann" );
+        model.put( "total", 42 );
+        model.put( "escaped", ESCAPED_VALUE );
+
+        ByteArrayOutputStream bosDom = new ByteArrayOutputStream( );
+        WordTemplateService.produceDocument( new ByteArrayInputStream( template ), model, bosDom );
+        byte [ ] streamed = StreamingWordTemplateService.produceDocument( new ByteArrayInputStream( template ), model ).toByteArray( );
+
+        List<String> listDomTexts = getTexts( bosDom.toByteArray( ) );
+        List<String> listStreamedTexts = getTexts( streamed );
+        assertEquals( listDomTexts, listStreamedTexts );
+
+        // Placeholders split across runs and across a proofing mark
+        assertTrue( listStreamedTexts.contains( "Hello Ann, total: 42 EUR" ) );
+        assertTrue( listStreamedTexts.contains( "Dear Ann!" ) );
+        // Values escaped in the XML, and read back as they were
+        assertTrue( listStreamedTexts.contains( "Name: " + ESCAPED_VALUE ) );
+        // Unterminated placeholders and lone dollars written as they are
+        assertTrue( listStreamedTexts.contains( "Price ${total is due" ) );
+        assertTrue( listStreamedTexts.contains( "Cost $5 for Ann" ) );
+        // Header and footer
+        assertTrue( listStreamedTexts.contains( "header:Header Ann" ) );
+        assertTrue( listStreamedTexts.contains( "footer:Page of Ann" ) );
+    }
+
+    /**
+     *
+     * @return a template whose placeholders are split across runs
+     * @throws IOException
+     */
+    private static byte [ ] getTemplate( ) throws IOException
+    {
+        XWPFDocument document = new XWPFDocument( );
+        addParagraph( document.createParagraph( ), "Hello ${na", "me}, total: ${to", "tal} EUR" );
+
+        XWPFParagraph paragraph = document.createParagraph( );
+        addParagraph( paragraph, "Dear ${", "name}!" );
+        // A proofing mark between the runs of the placeholder
+        XmlCursor cursor = paragraph.getRuns( ).get( 1 ).getCTR( ).newCursor( );
+        cursor.beginElement( new QName( NAMESPACE_WORD, "proofErr", "w" ) );
+        cursor.insertAttributeWithValue( new QName( NAMESPACE_WORD, "type", "w" ), "spellStart" );
+        cursor.dispose( );
+
+        addParagraph( document.createParagraph( ), "Name: ", "${escaped}" );
+        addParagraph( document.createParagraph( ), "Price ${total", " is due" );
+        addParagraph( document.createParagraph( ), "Cost $", "5 for ${name}" );
+
+        XWPFHeaderFooterPolicy policy = document.createHeaderFooterPolicy( );
+        addParagraph( policy.createHeader( XWPFHeaderFooterPolicy.DEFAULT ).createParagraph( ), "Header ${name}" );
+        addParagraph( policy.createFooter( XWPFHeaderFooterPolicy.DEFAULT ).createParagraph( ), "Page of ${na", "me}" );
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        document.write( bos );
+        document.close( );
+        return bos.toByteArray( );
+    }
+
+    /**
+     * Add runs to a paragraph
+     *
+     * @param paragraph
+     * @param runs
+     *            the text of the runs
+     */
+    private static void addParagraph( XWPFParagraph paragraph, String... runs )
+    {
+        for ( String strRun : runs )
+        {
+            paragraph.createRun( ).setText( strRun );
+        }
+    }
+
+    /**
+     * Read the text of the non-empty paragraphs of a document, of its headers and of its footers
+     *
+     * @param docx
+     * @return the texts, prefixed by the part for the headers and the footers
+     * @throws IOException
+     */
+    private static List<String> getTexts( byte [ ] docx ) throws IOException
+    {
+        List<String> listTexts = new ArrayList<>( );
+        try ( XWPFDocument document = new XWPFDocument( new ByteArrayInputStream( docx ) ) )
+        {
+            addTexts( "", document.getParagraphs( ), listTexts );
+            for ( XWPFHeaderFooter header : document.getHeaderList( ) )
+            {
+                addTexts( "header:", header.getParagraphs( ), listTexts );
+            }
+            for ( XWPFHeaderFooter footer : document.getFooterList( ) )
+            {
+                addTexts( "footer:", footer.getParagraphs( ), listTexts );
+            }
+        }
+        return listTexts;
+    }
+
+    /**
+     * Add the text of the non-empty paragraphs
+     *
+     * @param strPrefix
+     * @param listParagraphs
+     * @param listTexts
+     */
+    private static void addTexts( String strPrefix, List<XWPFParagraph> listParagraphs, List<String> listTexts )
+    {
+        for ( XWPFParagraph paragraph : listParagraphs )
+        {
+            if ( !paragraph.getText( ).isEmpty( ) )
+            {
+                listTexts.add( strPrefix + paragraph.getText( ) );
+            }
+        }
+    }
+}
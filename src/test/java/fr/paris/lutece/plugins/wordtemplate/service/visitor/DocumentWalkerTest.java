@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2002-2020, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.wordtemplate.service.visitor;
+
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledInstruction;
+import fr.paris.lutece.plugins.wordtemplate.business.CompiledWordTemplate;
+import fr.paris.lutece.plugins.wordtemplate.service.WordTemplateService;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFFootnote;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlToken;
+import org.junit.Test;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTFtnEdn;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTP;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTSdtBlock;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTSdtRun;
+import static org.junit.Assert.*;
+
+/**
+ * Test for DocumentWalker : the paragraphs which are not wrapped by POI are rendered the same way by the parser and by the replay of a compiled template
+ */
+public class DocumentWalkerTest
+{
+    private static final String NAMESPACE_WORD = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final String NAMESPACE_VML = "urn:schemas-microsoft-com:vml";
+    private static final String PATH_TEXTS = "declare namespace w='" + NAMESPACE_WORD + "' .//w:t";
+    private static final String PART_FOOTNOTES = "/word/footnotes.xml";
+
+    /**
+     * Test of a text box, a footnote and a block content control, rendered directly and from a compiled template
+     */
+    @Test
+    public void testCompileThenBind( ) throws Exception
+    {
+        byte [ ] template = getTemplate( );
+        Map<String, Object> model = new HashMap<>( );
+        model.put( "name", "Ann" );
+        model.put( "box", "boxed" );
+        model.put( "note", "noted" );
+        model.put( "control", "controlled" );
+        model.put( "inline", "skipped" );
+
+        CompiledWordTemplate compiledTemplate = WordTemplateService.compileTemplate( new ByteArrayInputStream( template ) );
+        Set<String> setPartNames = new HashSet<>( );
+        for ( CompiledInstruction instruction : compiledTemplate.getInstructions( ) )
+        {
+            setPartNames.add( instruction.getPartName( ) );
+        }
+        assertTrue( setPartNames.contains( PART_FOOTNOTES ) );
+
+        ByteArrayOutputStream bosParsed = new ByteArrayOutputStream( );
+        WordTemplateService.produceDocument( new ByteArrayInputStream( template ), model, bosParsed );
+        byte [ ] replayed = WordTemplateService.produceDocument( compiledTemplate, model ).toByteArray( );
+
+        List<String> listParsedTexts = getTexts( bosParsed.toByteArray( ) );
+        assertEquals( listParsedTexts, getTexts( replayed ) );
+
+        assertTrue( listParsedTexts.contains( "Dear Ann" ) );
+        assertTrue( listParsedTexts.contains( "Box boxed" ) );
+        assertTrue( listParsedTexts.contains( "Note noted" ) );
+        assertTrue( listParsedTexts.contains( "Control controlled" ) );
+        // The runs of an inline content control are not walked
+        assertTrue( listParsedTexts.contains( "${inline}" ) );
+    }
+
+    /**
+     *
+     * @return a template with instructions in a text box, a footnote, a block content control and an inline content control
+     * @throws Exception
+     */
+    private static byte [ ] getTemplate( ) throws Exception
+    {
+        XWPFDocument document = new XWPFDocument( );
+        document.createParagraph( ).createRun( ).setText( "Dear ${name}" );
+
+        // A VML text box
+        XWPFParagraph paragraph = document.createParagraph( );
+        paragraph.getCTP( ).addNewR( ).set( XmlToken.Factory.parse( "<w:pict xmlns:w=\"" + NAMESPACE_WORD + "\" xmlns:v=\"" + NAMESPACE_VML
+                + "\"><v:shape style=\"width:100pt;height:50pt\"><v:textbox><w:txbxContent><w:p><w:r><w:t>Box ${box}</w:t></w:r></w:p>"
+                + "</w:txbxContent></v:textbox></v:shape></w:pict>" ) );
+
+        // A footnote, and its reference
+        paragraph = document.createParagraph( );
+        paragraph.getCTP( ).addNewR( ).addNewFootnoteReference( ).setId( BigInteger.ONE );
+        CTFtnEdn footnote = CTFtnEdn.Factory.newInstance( );
+        footnote.setId( BigInteger.ONE );
+        footnote.addNewP( ).addNewR( ).addNewT( ).setStringValue( "Note ${note}" );
+        document.createFootnotes( ).addFootnote( footnote );
+
+        // A block content control
+        CTSdtBlock sdtBlock = document.getDocument( ).getBody( ).addNewSdt( );
+        sdtBlock.addNewSdtPr( );
+        sdtBlock.addNewSdtContent( ).addNewP( ).addNewR( ).addNewT( ).setStringValue( "Control ${control}" );
+
+        // An inline content control
+        CTSdtRun sdtRun = document.createParagraph( ).getCTP( ).addNewSdt( );
+        sdtRun.addNewSdtPr( );
+        sdtRun.addNewSdtContent( ).addNewR( ).addNewT( ).setStringValue( "${inline}" );
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        document.write( bos );
+        document.close( );
+        return bos.toByteArray( );
+    }
+
+    /**
+     * Read the texts of the main document and of the footnotes, whatever their container
+     *
+     * @param docx
+     * @return the text of each paragraph holding a text
+     * @throws IOException
+     */
+    private static List<String> getTexts( byte [ ] docx ) throws IOException
+    {
+        List<String> listTexts = new ArrayList<>( );
+        try ( XWPFDocument document = new XWPFDocument( new ByteArrayInputStream( docx ) ) )
+        {
+            addTexts( document.getDocument( ), listTexts );
+            for ( XWPFFootnote footnote : document.getFootnotes( ) )
+            {
+                addTexts( footnote.getCTFtnEdn( ), listTexts );
+            }
+        }
+        return listTexts;
+    }
+
+    /**
+     * Add the text of the paragraphs of a part
+     *
+     * @param partXml
+     * @param listTexts
+     */
+    private static void addTexts( XmlObject partXml, List<String> listTexts )
+    {
+        StringBuilder sbText = new StringBuilder( );
+        XmlObject previousParagraph = null;
+        for ( XmlObject text : partXml.selectPath( PATH_TEXTS ) )
+        {
+            XmlObject paragraph = getParagraph( text );
+            if ( paragraph != previousParagraph && sbText.length( ) > 0 )
+            {
+                listTexts.add( sbText.toString( ) );
+                sbText.setLength( 0 );
+            }
+            previousParagraph = paragraph;
+            XmlCursor cursor = text.newCursor( );
+            sbText.append( cursor.getTextValue( ) );
+            cursor.dispose( );
+        }
+        if ( sbText.length( ) > 0 )
+        {
+            listTexts.add( sbText.toString( ) );
+        }
+    }
+
+    /**
+     *
+     * @param text
+     * @return the paragraph of a text
+     */
+    private static XmlObject getParagraph( XmlObject text )
+    {
+        XmlCursor cursor = text.newCursor( );
+        try
+        {
+            while ( cursor.toParent( ) )
+            {
+                if ( cursor.getObject( ) instanceof CTP )
+                {
+                    return cursor.getObject( );
+                }
+            }
+            return null;
+        }
+        finally
+        {
+            cursor.dispose( );
+        }
+    }
+}